@@ -0,0 +1,72 @@
+package sss.quartz;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures splitting the <code>group.name</code> job and trigger keys of
+ * {@link ScheduleItemBean}, over a mix of grouped, ungrouped and odd keys:
+ * parsing them with {@link ScheduleKeys}, and reading them from items that
+ * have already parsed them.
+ *
+ * @author jsteele
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ScheduleItemKeyBenchmark {
+	private static final String[] KEYS = new String[] { "demoJob.hello", "printMemory",
+			"reporting.daily.summary", ".leadingDot", "trailingDot.", "a.b",
+			"averyveryverylonggroupname.averyveryverylongjobname" };
+
+	private ScheduleItemBean[] items;
+
+	@Setup
+	public void setup() {
+		items = new ScheduleItemBean[KEYS.length];
+		for (int i = 0; i < KEYS.length; i++) {
+			items[i] = new ScheduleItemBean();
+			items[i].setJob(KEYS[i]);
+			items[i].setTrigger(KEYS[(i + 1) % KEYS.length]);
+		}
+	}
+
+	/**
+	 * Reads the job and trigger keys of every item, as building a trigger does.
+	 * Scores are per item set.
+	 */
+	@Benchmark
+	public void parseKeys(Blackhole bh) {
+		for (final ScheduleItemBean item : items) {
+			bh.consume(item.getJobGroup());
+			bh.consume(item.getJobName());
+			bh.consume(item.getTriggerGroup());
+			bh.consume(item.getTriggerName());
+		}
+	}
+
+	/**
+	 * Parses every key as a job and trigger key. Scores are per key set.
+	 */
+	@Benchmark
+	public void parse(Blackhole bh) {
+		for (final String key : KEYS) {
+			bh.consume(ScheduleKeys.jobKey(key));
+			bh.consume(ScheduleKeys.triggerKey(key));
+		}
+	}
+}
@@ -0,0 +1,151 @@
+package sss.quartz;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.quartz.Trigger;
+
+/**
+ * Measures loading a schedule file with
+ * {@link ScheduleItemListBuilder#loadSchedule(String)} and building its
+ * triggers, against streaming them with
+ * {@link ScheduleItemListBuilder#streamSchedule(String)}, for generated
+ * schedules of increasing size, in JSON and the {@link BinarySchedule} format.
+ * Building the loaded triggers is measured in sequence and in parallel. Run
+ * with <code>-prof gc</code> to compare allocation.
+ *
+ * @author jsteele
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ScheduleLoadBenchmark {
+	private static final String JSON_SCHEDULE = "bench.schedule.json";
+
+	private static final String BINARY_SCHEDULE = "bench.schedule.bin";
+
+	private static final String[] CRONS = new String[] { "0 0/5 * * * ?", "0 15 10 ? * MON-FRI",
+			"0 0 12 1/5 * ?", "0/30 * * * * ?", "0 0 0 L * ?" };
+
+	private static final String[] MISFIRES = new String[] { "DO_NOTHING", "FIRE_AND_PROCEED",
+			"IGNORE_MISFIRES" };
+
+	@Param({ "100", "10000", "100000" })
+	public int items;
+
+	@Param({ "json", "binary" })
+	public String format;
+
+	private String schedule;
+
+	private ScheduleItemListBuilder loaded;
+
+	private File dir;
+
+	private ClassLoader originalClassLoader;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		dir = File.createTempFile("schedule-bench", "");
+		dir.delete();
+		dir.mkdirs();
+		writeSchedule(new File(dir, JSON_SCHEDULE), items);
+		schedule = JSON_SCHEDULE;
+		if ("binary".equals(format)) {
+			final URL json = new File(dir, JSON_SCHEDULE).toURI().toURL();
+			try (ScheduleItemSource source = new JsonScheduleItemSource(JSON_SCHEDULE,
+					ScheduleItemListBuilder.createMapper(), json.openStream());
+					OutputStream out = new BufferedOutputStream(new FileOutputStream(new File(dir,
+							BINARY_SCHEDULE)))) {
+				BinarySchedule.write(source, out);
+			}
+			schedule = BINARY_SCHEDULE;
+		}
+
+		// loadSchedule reads from the context class loader
+		originalClassLoader = Thread.currentThread().getContextClassLoader();
+		Thread.currentThread().setContextClassLoader(
+				new URLClassLoader(new URL[] { dir.toURI().toURL() }, originalClassLoader));
+		loaded = ScheduleItemListBuilder.loadSchedule(schedule);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		Thread.currentThread().setContextClassLoader(originalClassLoader);
+		new File(dir, JSON_SCHEDULE).delete();
+		new File(dir, BINARY_SCHEDULE).delete();
+		dir.delete();
+	}
+
+	@Benchmark
+	public ScheduleItemListBuilder load() throws IOException {
+		return ScheduleItemListBuilder.loadSchedule(schedule);
+	}
+
+	@Benchmark
+	public List<Trigger> loadAndBuild() throws IOException {
+		return ScheduleItemListBuilder.loadSchedule(schedule).build();
+	}
+
+	@Benchmark
+	public List<Trigger> buildSequential() {
+		return loaded.build(false);
+	}
+
+	@Benchmark
+	public List<Trigger> buildParallel() {
+		return loaded.build(true);
+	}
+
+	@Benchmark
+	public void stream(Blackhole bh) throws IOException {
+		try (ScheduleStream stream = ScheduleItemListBuilder.streamSchedule(schedule)) {
+			while (stream.hasNext()) {
+				bh.consume(stream.next());
+			}
+		}
+	}
+
+	/**
+	 * Writes a schedule of named triggers spread over a hundred jobs.
+	 */
+	static void writeSchedule(File file, int items) throws IOException {
+		try (Writer out = new FileWriter(file)) {
+			out.write("[\n");
+			for (int i = 0; i < items; i++) {
+				out.write(String.format("  { \"trigger\": \"group%d.trigger%d\", \"job\": \"demoJob.job%d\","
+						+ " \"cron\": \"%s\", \"onMisfire\": \"%s\", \"priority\": %d,"
+						+ " \"jobData\": { \"index\": \"%d\" } }%s%n", i % 10, i, i % 100,
+						CRONS[i % CRONS.length], MISFIRES[i % MISFIRES.length], i % 10, i,
+						i < items - 1 ? "," : ""));
+			}
+			out.write("]\n");
+		}
+	}
+}
@@ -0,0 +1,125 @@
+package sss.quartz;
+
+import static org.quartz.CronScheduleBuilder.cronSchedule;
+import static org.quartz.TriggerBuilder.newTrigger;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.Reader;
+import java.sql.Connection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.openmbean.TabularData;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.h2.tools.DeleteDbFiles;
+import org.h2.tools.RunScript;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.quartz.Scheduler;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.core.env.MapPropertySource;
+
+import sss.jmx.JmxConfig;
+import sss.quartz.jobs.DemoJobsConfig;
+
+/**
+ * Measures {@link SchedulerMBean#getSystemSchedule()} against the in-memory
+ * and H2 job stores. <code>cached</code> reads are served from the
+ * {@link ScheduleCatalog}; uncached reads invalidate it first, so every call
+ * reads the whole schedule from the job store.
+ *
+ * @author jsteele
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SchedulerMBeanBenchmark {
+	@Param({ "ram", "h2" })
+	public String store;
+
+	@Param({ "100", "10000" })
+	public int triggers;
+
+	private File dbDir;
+
+	private AnnotationConfigApplicationContext ctx;
+
+	private SchedulerMBean schedulerMBean;
+
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		System.setProperty("org.terracotta.quartz.skipUpdateCheck", "true");
+
+		ctx = new AnnotationConfigApplicationContext();
+		final Map<String, Object> props = new HashMap<String, Object>();
+		props.put("sss.jmx.catalog.ttl", "3600");
+		ctx.getEnvironment().getPropertySources().addFirst(new MapPropertySource("bench", props));
+		if ("h2".equals(store)) {
+			ctx.getBeanFactory().registerSingleton("quartzDataSource", createDataSource());
+		}
+		ctx.register(SchedulerConfig.class, DemoJobsConfig.class, JmxConfig.class);
+		ctx.refresh();
+
+		final Scheduler scheduler = ctx.getBean("scheduler", Scheduler.class);
+		for (int i = 0; i < triggers; i++) {
+			// @formatter:off
+			scheduler.scheduleJob(newTrigger()
+					.withIdentity("trigger" + i, "group" + (i % 10))
+					.forJob("hello", "demoJob")
+					.withSchedule(cronSchedule("0 0 0 1 1 ? 2099"))
+					.build());
+			// @formatter:on
+		}
+		schedulerMBean = ctx.getBean(SchedulerMBean.class);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		ctx.close();
+		if (null != dbDir) {
+			DeleteDbFiles.execute(dbDir.getAbsolutePath(), "bench", true);
+			dbDir.delete();
+		}
+	}
+
+	@Benchmark
+	public TabularData cached() throws Exception {
+		return schedulerMBean.getSystemSchedule();
+	}
+
+	@Benchmark
+	public TabularData uncached() throws Exception {
+		schedulerMBean.refreshCatalog();
+		return schedulerMBean.getSystemSchedule();
+	}
+
+	private JdbcDataSource createDataSource() throws Exception {
+		dbDir = File.createTempFile("mbean-bench", "");
+		dbDir.delete();
+		dbDir.mkdirs();
+		final JdbcDataSource dataSource = new JdbcDataSource();
+		dataSource.setURL("jdbc:h2:" + new File(dbDir, "bench").getAbsolutePath() + ";MVCC=TRUE");
+		try (Connection conn = dataSource.getConnection();
+				Reader schema = new FileReader("src/test/db/tables_h2.sql")) {
+			RunScript.execute(conn, schema);
+		}
+		return dataSource;
+	}
+}
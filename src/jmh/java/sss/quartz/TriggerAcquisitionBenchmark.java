@@ -0,0 +1,217 @@
+package sss.quartz;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.h2.tools.DeleteDbFiles;
+import org.h2.tools.RunScript;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.quartz.TriggerKey;
+import org.quartz.impl.jdbcjobstore.Constants;
+import org.quartz.impl.jdbcjobstore.StdJDBCDelegate;
+import org.quartz.simpl.CascadingClassLoadHelper;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Measures the job store queries behind trigger acquisition and misfire
+ * scanning, with and without the secondary indexes in
+ * <code>src/test/db/tables_h2.sql</code>, as the number of triggers grows.
+ * The queries are issued through {@link StdJDBCDelegate}, so they are exactly
+ * the ones the scheduler thread runs.
+ * <p>
+ * Triggers are spread over the next day, so only a handful are due in any
+ * acquisition window - the common case for a large schedule. A fixed number
+ * are misfired, as they would be between misfire handler passes.
+ *
+ * @author jsteele
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = { "-Xmx3g" })
+public class TriggerAcquisitionBenchmark {
+	private static final String SCHED_NAME = "benchScheduler";
+
+	private static final String SCHEMA = "src/test/db/tables_h2.sql";
+
+	private static final String INDEXES = "src/test/db/add_indexes_h2.sql";
+
+	/** Rows inserted per transaction while loading. */
+	private static final int LOAD_BATCH = 10000;
+
+	/** How far ahead the scheduler thread looks for triggers, in ms. */
+	private static final long ACQUIRE_WINDOW_MS = 30000;
+
+	/** Misfire threshold, in ms. */
+	private static final long MISFIRE_THRESHOLD_MS = 60000;
+
+	private static final int MAX_BATCH = 10;
+
+	/** Triggers left misfired, waiting for the misfire handler. */
+	private static final int MISFIRED = 10;
+
+	/** H2 page cache, in KB. Big enough that we measure queries, not disk. */
+	private static final int CACHE_SIZE_KB = 512 * 1024;
+
+	@Param({ "10000", "100000", "1000000" })
+	public int triggers;
+
+	@Param({ "false", "true" })
+	public boolean indexed;
+
+	private File dbDir;
+
+	private Connection conn;
+
+	private StdJDBCDelegate delegate;
+
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		dbDir = File.createTempFile("acquisition-bench", "");
+		dbDir.delete();
+		dbDir.mkdirs();
+		conn = DriverManager.getConnection("jdbc:h2:" + new File(dbDir, "bench").getAbsolutePath()
+				+ ";MVCC=TRUE;CACHE_SIZE=" + CACHE_SIZE_KB);
+
+		runScript(SCHEMA);
+		dropIndexes();
+		load();
+		if (indexed) {
+			// Building indexes after loading is much faster than maintaining them
+			runScript(INDEXES);
+		}
+		conn.setAutoCommit(false);
+
+		delegate = new StdJDBCDelegate();
+		delegate.initialize(LoggerFactory.getLogger(TriggerAcquisitionBenchmark.class),
+				SchedulerConfig.TABLE_PREFIX, SCHED_NAME, "bench", new CascadingClassLoadHelper(),
+				false, null);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws SQLException {
+		conn.close();
+		DeleteDbFiles.execute(dbDir.getAbsolutePath(), "bench", true);
+		dbDir.delete();
+	}
+
+	/**
+	 * Selects the next triggers to fire, as the scheduler thread does on every
+	 * pass.
+	 */
+	@Benchmark
+	public List<TriggerKey> acquireNextTriggers() throws SQLException {
+		final long now = System.currentTimeMillis();
+		final List<TriggerKey> keys = delegate.selectTriggerToAcquire(conn, now + ACQUIRE_WINDOW_MS,
+				now - MISFIRE_THRESHOLD_MS, MAX_BATCH);
+		conn.rollback();
+		return keys;
+	}
+
+	/**
+	 * Counts misfired triggers, as the misfire handler does on every scan.
+	 */
+	@Benchmark
+	public int countMisfiredTriggers() throws SQLException {
+		final int count = delegate.countMisfiredTriggersInState(conn, Constants.STATE_WAITING,
+				System.currentTimeMillis() - MISFIRE_THRESHOLD_MS);
+		conn.rollback();
+		return count;
+	}
+
+	private void runScript(String path) throws IOException, SQLException {
+		try (Reader script = new FileReader(path)) {
+			RunScript.execute(conn, script);
+		}
+	}
+
+	private void dropIndexes() throws SQLException {
+		final List<String> names = new ArrayList<String>();
+		try (Statement stmt = conn.createStatement();
+				ResultSet rs = stmt.executeQuery("SELECT DISTINCT INDEX_NAME"
+						+ " FROM INFORMATION_SCHEMA.INDEXES WHERE INDEX_NAME LIKE 'IDX_QRTZ_%'")) {
+			while (rs.next()) {
+				names.add(rs.getString(1));
+			}
+		}
+		try (Statement stmt = conn.createStatement()) {
+			for (final String name : names) {
+				stmt.execute("DROP INDEX " + name);
+			}
+		}
+	}
+
+	/**
+	 * Loads one job and the triggers for it. Most triggers are waiting, with
+	 * fire times spread over the next day; a few are paused or already
+	 * misfired.
+	 */
+	private void load() throws SQLException {
+		final String prefix = SchedulerConfig.TABLE_PREFIX;
+		conn.setAutoCommit(false);
+		try (PreparedStatement job = conn.prepareStatement("INSERT INTO " + prefix + "JOB_DETAILS"
+				+ " (SCHED_NAME, JOB_NAME, JOB_GROUP, JOB_CLASS_NAME, IS_DURABLE, IS_NONCONCURRENT,"
+				+ " IS_UPDATE_DATA, REQUESTS_RECOVERY) VALUES (?, 'job', 'bench', 'org.quartz.Job',"
+				+ " TRUE, FALSE, FALSE, FALSE)")) {
+			job.setString(1, SCHED_NAME);
+			job.executeUpdate();
+		}
+
+		final Random random = new Random(42);
+		final long now = System.currentTimeMillis();
+		try (PreparedStatement trigger = conn.prepareStatement("INSERT INTO " + prefix + "TRIGGERS"
+				+ " (SCHED_NAME, TRIGGER_NAME, TRIGGER_GROUP, JOB_NAME, JOB_GROUP, NEXT_FIRE_TIME,"
+				+ " PRIORITY, TRIGGER_STATE, TRIGGER_TYPE, START_TIME, MISFIRE_INSTR, JOB_DATA)"
+				+ " VALUES (?, ?, ?, 'job', 'bench', ?, 5, ?, 'SIMPLE', ?, 0, ?)")) {
+			final byte[] noData = "".getBytes(StandardCharsets.UTF_8);
+			for (int i = 0; i < triggers; i++) {
+				final int kind = random.nextInt(100);
+				final String state = kind < 2 ? Constants.STATE_PAUSED : Constants.STATE_WAITING;
+				final long nextFireTime = i < MISFIRED ? now - TimeUnit.HOURS.toMillis(1) : now
+						+ (long) (random.nextDouble() * TimeUnit.DAYS.toMillis(1));
+				trigger.setString(1, SCHED_NAME);
+				trigger.setString(2, "trigger-" + i);
+				trigger.setString(3, "group-" + (i % 100));
+				trigger.setLong(4, nextFireTime);
+				trigger.setString(5, state);
+				trigger.setLong(6, now);
+				trigger.setBytes(7, noData);
+				trigger.addBatch();
+				if ((i + 1) % LOAD_BATCH == 0) {
+					trigger.executeBatch();
+					conn.commit();
+				}
+			}
+			trigger.executeBatch();
+			conn.commit();
+		}
+		conn.setAutoCommit(true);
+	}
+}
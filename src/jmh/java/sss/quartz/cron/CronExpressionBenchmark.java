@@ -0,0 +1,81 @@
+package sss.quartz.cron;
+
+import java.text.ParseException;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.quartz.CronExpression;
+
+/**
+ * Measures parsing cron expressions, against getting them from
+ * {@link CronExpressionCache}, and walking fire times with Quartz's
+ * {@link CronExpression} against {@link CompiledCronExpression}, as misfire
+ * handling does after an outage.
+ *
+ * @author jsteele
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CronExpressionBenchmark {
+	/** Fire times walked per invocation. */
+	private static final int FIRE_TIMES = 1000;
+
+	@Param({ "0/10 * * * * ?", "0 15 10 ? * MON-FRI", "0 0 12 1/5 * ?" })
+	public String expression;
+
+	private CronExpression quartz;
+
+	private CompiledCronExpression compiled;
+
+	private Date start;
+
+	@Setup
+	public void setup() throws ParseException {
+		quartz = new CronExpression(expression);
+		compiled = new CompiledCronExpression(new CronExpression(expression));
+		start = new Date();
+	}
+
+	@Benchmark
+	public CronExpression parse() throws ParseException {
+		return new CronExpression(expression);
+	}
+
+	@Benchmark
+	public CronExpression cached() {
+		return CronExpressionCache.get(expression);
+	}
+
+	@Benchmark
+	public Date walkQuartz() {
+		Date time = start;
+		for (int i = 0; i < FIRE_TIMES; i++) {
+			time = quartz.getTimeAfter(time);
+		}
+		return time;
+	}
+
+	@Benchmark
+	public Date walkCompiled() {
+		Date time = start;
+		for (int i = 0; i < FIRE_TIMES; i++) {
+			time = compiled.getTimeAfter(time);
+		}
+		return time;
+	}
+}
@@ -0,0 +1,96 @@
+package sss.quartz.jdbc;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import sss.quartz.jobs.CircuitBreaker;
+import sss.quartz.jobs.ExceptionJob;
+import sss.quartz.jobs.RetryJobWrapper;
+
+/**
+ * Measures reading and writing the job data of a retry trigger, as the job
+ * store does each time one is acquired, fired or rescheduled: as properties
+ * text, the way StdJDBCDelegate stores it, and in the compact format of
+ * {@link CompactJDBCDelegate}, decoded and from its cache.
+ *
+ * @author jsteele
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JobDataBenchmark {
+	private Map<String, Object> data;
+
+	private byte[] properties;
+
+	private byte[] compact;
+
+	@Setup
+	public void setup() throws IOException {
+		data = new HashMap<String, Object>();
+		data.put(RetryJobWrapper.WRAPPED_JOB_KEY, ExceptionJob.class.getName());
+		data.put(RetryJobWrapper.MAX_RETRIES_KEY, "3");
+		data.put(RetryJobWrapper.RETRY_DELAY_KEY, "2");
+		data.put(RetryJobWrapper.CIRCUIT_BREAKER_KEY, "true");
+		data.put(CircuitBreaker.WINDOW_KEY, "10");
+		data.put(CircuitBreaker.OPEN_DELAY_KEY, "60");
+		data.put(RetryJobWrapper.RETRY_COUNT_KEY, "1");
+		data.put(RetryJobWrapper.ORIG_SCHED_TIME_KEY, Long.toString(System.currentTimeMillis()));
+		data.put(RetryJobWrapper.LAST_DELAY_KEY, "2000");
+
+		properties = writeProperties().toByteArray();
+		compact = writeCompact().toByteArray();
+	}
+
+	@Benchmark
+	public ByteArrayOutputStream writeProperties() throws IOException {
+		final Properties props = new Properties();
+		props.putAll(data);
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		props.store(out, "");
+		return out;
+	}
+
+	@Benchmark
+	public ByteArrayOutputStream writeCompact() throws IOException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		CompactJDBCDelegate.encode(data, out);
+		return out;
+	}
+
+	@Benchmark
+	public Map<?, ?> readProperties() throws IOException {
+		final Properties props = new Properties();
+		props.load(new ByteArrayInputStream(properties));
+		return new HashMap<Object, Object>(props);
+	}
+
+	@Benchmark
+	public Map<?, ?> readCompact() throws IOException {
+		return CompactJDBCDelegate.decode(compact);
+	}
+
+	@Benchmark
+	public Map<?, ?> readCompactCached() throws IOException {
+		return CompactJDBCDelegate.decodeCached(compact);
+	}
+}
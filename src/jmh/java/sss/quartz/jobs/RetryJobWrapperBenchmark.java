@@ -0,0 +1,104 @@
+package sss.quartz.jobs;
+
+import static org.quartz.JobBuilder.newJob;
+
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.quartz.Job;
+import org.quartz.JobDetail;
+import org.quartz.JobExecutionContext;
+import org.quartz.JobExecutionException;
+import org.quartz.JobKey;
+import org.quartz.Scheduler;
+import org.quartz.SchedulerException;
+import org.quartz.impl.StdSchedulerFactory;
+
+/**
+ * Measures the latency from triggering a job to it starting to execute, with
+ * and without {@link RetryJobWrapper} around it. The job does no work, so the
+ * difference is the wrapper's overhead on the dispatch path.
+ *
+ * @author jsteele
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RetryJobWrapperBenchmark {
+	/** Fire times of executed jobs, in ns. */
+	static final BlockingQueue<Long> executed = new ArrayBlockingQueue<Long>(1);
+
+	/** Signals that it has executed. */
+	public static class SignalJob implements Job {
+		@Override
+		public void execute(JobExecutionContext context) throws JobExecutionException {
+			executed.offer(System.nanoTime());
+		}
+	}
+
+	@Param({ "false", "true" })
+	public boolean wrapped;
+
+	private Scheduler scheduler;
+
+	private final JobKey jobKey = new JobKey("signal", "bench");
+
+	@Setup(Level.Trial)
+	public void setup() throws SchedulerException {
+		final Properties props = new Properties();
+		props.put("org.quartz.scheduler.instanceName", "retryBench");
+		props.put("org.quartz.scheduler.skipUpdateCheck", "true");
+		props.put("org.quartz.threadPool.threadCount", "4");
+		props.put("org.quartz.jobStore.class", "org.quartz.simpl.RAMJobStore");
+		scheduler = new StdSchedulerFactory(props).getScheduler();
+
+		final JobDetail job;
+		if (wrapped) {
+			// @formatter:off
+			job = newJob(RetryJobWrapper.class)
+					.withIdentity(jobKey)
+					.usingJobData(RetryJobWrapper.WRAPPED_JOB_KEY, SignalJob.class.getName())
+					.usingJobData(RetryJobWrapper.MAX_RETRIES_KEY, "3")
+					.usingJobData(RetryJobWrapper.RETRY_DELAY_KEY, "1")
+					.storeDurably()
+					.build();
+			// @formatter:on
+		} else {
+			job = newJob(SignalJob.class).withIdentity(jobKey).storeDurably().build();
+		}
+		scheduler.addJob(job, true);
+		scheduler.start();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws SchedulerException {
+		scheduler.shutdown(true);
+	}
+
+	/**
+	 * Triggers the job and waits for it to execute.
+	 */
+	@Benchmark
+	public Long fireToExecute() throws SchedulerException, InterruptedException {
+		scheduler.triggerJob(jobKey);
+		return executed.take();
+	}
+}
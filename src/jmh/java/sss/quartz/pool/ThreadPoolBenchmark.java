@@ -0,0 +1,94 @@
+package sss.quartz.pool;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.quartz.SchedulerConfigException;
+import org.quartz.simpl.SimpleThreadPool;
+import org.quartz.spi.ThreadPool;
+
+/**
+ * Compares the Quartz {@link SimpleThreadPool} with {@link VirtualThreadPool}
+ * running a batch of jobs that block for a short time, as jobs waiting on a
+ * database or remote service would. Run on a Java 21 runtime to measure
+ * virtual threads; older runtimes measure the platform thread fallback.
+ *
+ * @author jsteele
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ThreadPoolBenchmark {
+	/** Number of jobs in each batch. */
+	private static final int BATCH_SIZE = 2000;
+
+	/** Time each job blocks for, in ms. */
+	private static final long BLOCK_MS = 5;
+
+	@Param({ "simple", "virtual" })
+	public String pool;
+
+	@Param({ "10", "100", "1000" })
+	public int concurrency;
+
+	private ThreadPool threadPool;
+
+	@Setup(Level.Trial)
+	public void setup() throws SchedulerConfigException {
+		if ("simple".equals(pool)) {
+			final SimpleThreadPool simple = new SimpleThreadPool(concurrency, Thread.NORM_PRIORITY);
+			simple.setInstanceName("bench");
+			threadPool = simple;
+		} else {
+			final VirtualThreadPool virtual = new VirtualThreadPool();
+			virtual.setConcurrencyLimit(concurrency);
+			virtual.setInstanceName("bench");
+			threadPool = virtual;
+		}
+		threadPool.initialize();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		threadPool.shutdown(true);
+	}
+
+	@Benchmark
+	public void blockingBatch() throws InterruptedException {
+		final CountDownLatch done = new CountDownLatch(BATCH_SIZE);
+		final Runnable job = new Runnable() {
+			@Override
+			public void run() {
+				try {
+					Thread.sleep(BLOCK_MS);
+				} catch (InterruptedException ie) {
+					Thread.currentThread().interrupt();
+				} finally {
+					done.countDown();
+				}
+			}
+		};
+		for (int i = 0; i < BATCH_SIZE; i++) {
+			// Mirror the scheduler thread, which waits for capacity before handing off
+			threadPool.blockForAvailableThreads();
+			threadPool.runInThread(job);
+		}
+		done.await();
+	}
+}
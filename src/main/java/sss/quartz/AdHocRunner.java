@@ -0,0 +1,397 @@
+package sss.quartz;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.quartz.JobExecutionContext;
+import org.quartz.JobKey;
+import org.quartz.JobPersistenceException;
+import org.quartz.Scheduler;
+import org.quartz.SchedulerException;
+import org.quartz.SimpleTrigger;
+import org.quartz.Trigger;
+import org.quartz.TriggerKey;
+import org.quartz.listeners.TriggerListenerSupport;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import sss.quartz.jdbc.StoreTransactions;
+
+/**
+ * Schedules the ad hoc runs requested through {@link SchedulerMBean}.
+ * <p>
+ * When coalescing, which <code>sss.adhoc.coalesce</code> turns on, a request
+ * for a job is merged into an ad hoc trigger of the job's that is waiting to
+ * fire rather than storing another trigger, and the job finds the number of
+ * requests its firing stands for in {@link #REQUESTS_KEY}. A request is only
+ * merged into a trigger that fires no later than it asks to, and that fires on
+ * a misfire if it would; a request that can't be merged stores a trigger of its
+ * own. Once a trigger fires, the next request schedules a new one, so a request
+ * made while the job is running still gets a run of its own. Immediate runs
+ * wait <code>sss.adhoc.coalesceWindow</code> milliseconds, so that a burst of
+ * requests is merged into one run.
+ * <p>
+ * Merging is done in memory, so with a clustered job store it only applies to
+ * requests made of the same node. A pending trigger that has gone, having been
+ * fired by another node or unscheduled, is noticed on the next request. No lock
+ * is held while the job store is read or written, so firing a trigger never
+ * waits on a request being scheduled.
+ * <p>
+ * The triggers of a bulk request are stored together by
+ * {@link StoreTransactions}, in one transaction with the JDBC job store, so
+ * either all of them are stored or none are.
+ *
+ * @author jsteele
+ */
+@Component
+public class AdHocRunner implements InitializingBean {
+	/** Environment property that turns on coalescing. */
+	public static final String COALESCE_KEY = "sss.adhoc.coalesce";
+
+	/**
+	 * Environment property for the time, in milliseconds, an immediate run
+	 * waits for more requests when coalescing.
+	 */
+	public static final String WINDOW_KEY = "sss.adhoc.coalesceWindow";
+
+	/** Job data: number of requests a coalesced run stands for. */
+	public static final String REQUESTS_KEY = "sss.adhoc.requests";
+
+	public static final long DEFAULT_WINDOW = 2000;
+
+	/** An ad hoc trigger that hasn't fired yet. */
+	private static final class Pending {
+		final JobKey jobKey;
+
+		final TriggerKey triggerKey;
+
+		final long startTime;
+
+		final boolean firesOnMisfire;
+
+		/** Set once the trigger is in the job store. */
+		volatile boolean stored;
+
+		/** Guarded by this. */
+		int requests = 1;
+
+		/** Guarded by this; no request is merged once set. */
+		boolean fired;
+
+		Pending(Trigger trigger) {
+			this.jobKey = trigger.getJobKey();
+			this.triggerKey = trigger.getKey();
+			this.startTime = trigger.getStartTime().getTime();
+			this.firesOnMisfire = firesOnMisfire(trigger);
+		}
+
+		/**
+		 * @return whether a request for the trigger can be merged into this one,
+		 *         without running later or being dropped on a misfire
+		 */
+		boolean covers(Trigger trigger) {
+			return startTime <= trigger.getStartTime().getTime()
+					&& (firesOnMisfire || !firesOnMisfire(trigger));
+		}
+
+		/**
+		 * @return whether the request was merged; not once the trigger has fired
+		 */
+		synchronized boolean merge() {
+			if (fired) {
+				return false;
+			}
+			requests++;
+			return true;
+		}
+
+		/**
+		 * @return number of requests the firing stands for
+		 */
+		synchronized int fire() {
+			fired = true;
+			return requests;
+		}
+	}
+
+	@Autowired
+	private Scheduler scheduler;
+
+	@Autowired
+	private Environment env;
+
+	@Autowired
+	private StoreTransactions transactions;
+
+	private volatile boolean coalescing;
+
+	private volatile long window;
+
+	/** Pending triggers, by job; read without locking on every firing. */
+	private final ConcurrentMap<JobKey, List<Pending>> pending = new ConcurrentHashMap<JobKey, List<Pending>>();
+
+	private final AtomicLong requests = new AtomicLong();
+
+	private final AtomicLong merged = new AtomicLong();
+
+	private final AtomicLong scheduled = new AtomicLong();
+
+	/** Hands a coalesced trigger's request count to the job as it fires. */
+	private final TriggerListenerSupport triggerListener = new TriggerListenerSupport() {
+		@Override
+		public String getName() {
+			return AdHocRunner.class.getName();
+		}
+
+		@Override
+		public void triggerFired(Trigger trigger, JobExecutionContext context) {
+			final List<Pending> jobPending = pending.get(trigger.getJobKey());
+			if (null == jobPending) {
+				return;
+			}
+			for (final Pending fired : jobPending) {
+				if (fired.triggerKey.equals(trigger.getKey())) {
+					jobPending.remove(fired);
+					context.getMergedJobDataMap().put(REQUESTS_KEY, Integer.toString(fired.fire()));
+					return;
+				}
+			}
+		}
+	};
+
+	/**
+	 * Registers the trigger listener with the scheduler.
+	 *
+	 * @throws SchedulerException
+	 *           if the listener could not be registered
+	 */
+	@Override
+	public void afterPropertiesSet() throws SchedulerException {
+		coalescing = env.getProperty(COALESCE_KEY, Boolean.class, false);
+		window = env.getProperty(WINDOW_KEY, Long.class, DEFAULT_WINDOW);
+		scheduler.getListenerManager().addTriggerListener(triggerListener);
+	}
+
+	public boolean isCoalescing() {
+		return coalescing;
+	}
+
+	public void setCoalescing(boolean coalescing) {
+		this.coalescing = coalescing;
+	}
+
+	/**
+	 * @return time, in milliseconds, an immediate run waits for more requests
+	 *         when coalescing
+	 */
+	public long getWindow() {
+		return window;
+	}
+
+	public void setWindow(long window) {
+		this.window = Math.max(0, window);
+	}
+
+	/**
+	 * @return number of coalesced triggers waiting to fire
+	 */
+	public int getPending() {
+		int count = 0;
+		for (final List<Pending> jobPending : pending.values()) {
+			count += jobPending.size();
+		}
+		return count;
+	}
+
+	public long getRequests() {
+		return requests.get();
+	}
+
+	/**
+	 * @return requests merged into a pending trigger
+	 */
+	public long getMerged() {
+		return merged.get();
+	}
+
+	/**
+	 * @return triggers stored
+	 */
+	public long getScheduled() {
+		return scheduled.get();
+	}
+
+	/**
+	 * Schedules an ad hoc run, unless it is merged into a pending one.
+	 *
+	 * @param trigger
+	 *          trigger for the run
+	 * @return whether the trigger was stored
+	 * @throws SchedulerException
+	 *           if the trigger could not be stored
+	 */
+	public boolean run(Trigger trigger) throws SchedulerException {
+		return 1 == runAll(Collections.singletonList(trigger));
+	}
+
+	/**
+	 * Schedules ad hoc runs, storing those not merged into pending ones.
+	 *
+	 * @param triggers
+	 *          triggers for the runs
+	 * @return number of triggers stored; the rest were merged
+	 * @throws SchedulerException
+	 *           if a job doesn't exist or the triggers could not be stored
+	 */
+	public int runAll(List<? extends Trigger> triggers) throws SchedulerException {
+		requests.addAndGet(triggers.size());
+		final boolean coalesce = coalescing;
+		final List<Pending> added = new ArrayList<Pending>();
+		final Map<JobKey, Set<Trigger>> batch = new LinkedHashMap<JobKey, Set<Trigger>>();
+		for (final Trigger trigger : triggers) {
+			final JobKey jobKey = trigger.getJobKey();
+			if (coalesce) {
+				if (merge(trigger, added)) {
+					merged.incrementAndGet();
+					continue;
+				}
+				final Pending adding = new Pending(trigger);
+				added.add(adding);
+				// Registered first, as a trigger may fire as soon as it's stored
+				jobPending(jobKey).add(adding);
+			}
+			Set<Trigger> jobTriggers = batch.get(jobKey);
+			if (null == jobTriggers) {
+				jobTriggers = new LinkedHashSet<Trigger>();
+				batch.put(jobKey, jobTriggers);
+			}
+			jobTriggers.add(trigger);
+		}
+		if (batch.isEmpty()) {
+			return 0;
+		}
+
+		try {
+			final int count = store(batch);
+			scheduled.addAndGet(count);
+			for (final Pending adding : added) {
+				adding.stored = true;
+			}
+			return count;
+		} catch (SchedulerException | RuntimeException e) {
+			for (final Pending adding : added) {
+				jobPending(adding.jobKey).remove(adding);
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Merges a request into a pending trigger of its job's that covers it. A
+	 * stored trigger is first checked to still exist; one not yet stored is
+	 * only merged into by the requests that added it.
+	 *
+	 * @param trigger
+	 *          trigger for the run
+	 * @param added
+	 *          triggers being added with the request
+	 * @return whether the request was merged
+	 */
+	private boolean merge(Trigger trigger, List<Pending> added) throws SchedulerException {
+		final List<Pending> jobPending = pending.get(trigger.getJobKey());
+		if (null == jobPending) {
+			return false;
+		}
+		for (final Pending existing : jobPending) {
+			if (!existing.covers(trigger)) {
+				continue;
+			}
+			if (!existing.stored) {
+				if (added.contains(existing) && existing.merge()) {
+					return true;
+				}
+				continue;
+			}
+			if (!scheduler.checkExists(existing.triggerKey)) {
+				// Fired elsewhere or unscheduled
+				jobPending.remove(existing);
+				continue;
+			}
+			if (existing.merge()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private List<Pending> jobPending(JobKey jobKey) {
+		List<Pending> jobPending = pending.get(jobKey);
+		if (null == jobPending) {
+			final List<Pending> created = new CopyOnWriteArrayList<Pending>();
+			jobPending = pending.putIfAbsent(jobKey, created);
+			if (null == jobPending) {
+				jobPending = created;
+			}
+		}
+		return jobPending;
+	}
+
+	/**
+	 * @return whether the trigger still fires if it misfires; a one-off simple
+	 *         trigger told to wait for its next fire time never does
+	 */
+	private static boolean firesOnMisfire(Trigger trigger) {
+		if (trigger instanceof SimpleTrigger) {
+			final int instruction = trigger.getMisfireInstruction();
+			return SimpleTrigger.MISFIRE_INSTRUCTION_RESCHEDULE_NEXT_WITH_REMAINING_COUNT != instruction
+					&& SimpleTrigger.MISFIRE_INSTRUCTION_RESCHEDULE_NEXT_WITH_EXISTING_COUNT != instruction;
+		}
+		return Trigger.MISFIRE_INSTRUCTION_IGNORE_MISFIRE_POLICY == trigger.getMisfireInstruction();
+	}
+
+	/**
+	 * Stores triggers without rewriting their jobs, in one transaction with the
+	 * JDBC job store. The jobs are checked first, so that nothing is stored if
+	 * any is unknown, with any job store.
+	 *
+	 * @return number of triggers stored
+	 */
+	private int store(final Map<JobKey, Set<Trigger>> batch) throws SchedulerException {
+		if (1 == batch.size() && 1 == batch.values().iterator().next().size()) {
+			scheduler.scheduleJob(batch.values().iterator().next().iterator().next());
+			return 1;
+		}
+		for (final JobKey jobKey : batch.keySet()) {
+			if (!scheduler.checkExists(jobKey)) {
+				throw new JobPersistenceException("The job (" + jobKey
+						+ ") referenced by the trigger does not exist.");
+			}
+		}
+		int count = 0;
+		for (final Set<Trigger> triggers : batch.values()) {
+			count += triggers.size();
+		}
+		transactions.execute(new StoreTransactions.Writes() {
+			@Override
+			public void write() throws SchedulerException {
+				for (final Set<Trigger> triggers : batch.values()) {
+					for (final Trigger trigger : triggers) {
+						scheduler.scheduleJob(trigger);
+					}
+				}
+			}
+		});
+		return count;
+	}
+}
@@ -0,0 +1,357 @@
+package sss.quartz;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Compact binary schedule format, for large schedules that have to load
+ * quickly. A schedule file in this format can be used wherever a JSON one can;
+ * it is recognised by its header. Files on the filesystem are memory mapped.
+ * <p>
+ * Every string in the schedule - names, cron expressions, comments and job
+ * data - is stored once in a string table and referred to by index, so the
+ * items are small and strings are shared between them when loaded. Numbers
+ * are unsigned LEB128 varints. The layout is:
+ *
+ * <pre>
+ * magic      "SSSB"
+ * version    byte, 2
+ * strings    varint count, then for each: varint UTF-8 length, bytes
+ * items      varint count, then for each:
+ *   job        string ref
+ *   trigger    string ref
+ *   cron       string ref
+ *   comment    string ref
+ *   priority   varint: 0 if absent, else zigzag(priority) + 1
+ *   onMisfire  byte: 0 if absent, else ordinal + 1
+ *   catchUpRate varint: 0 if absent, else rate + 1 (from version 2)
+ *   jobData    varint: 0 if absent, else entries + 1; then key, value string
+ *              refs for each entry
+ * </pre>
+ *
+ * A string ref is a varint: 0 if absent, else the string's index + 1.
+ * Version 1 files, which have no catch-up rates, can still be read.
+ * <p>
+ * Convert a JSON schedule with
+ * <code>gradle convertSchedule -Pin=&lt;json&gt; -Pout=&lt;file&gt;</code>.
+ *
+ * @author jsteele
+ */
+public class BinarySchedule {
+	/** Version of the format written. */
+	public static final int VERSION = 2;
+
+	/** Oldest version of the format read. */
+	private static final int MIN_VERSION = 1;
+
+	private static final byte[] MAGIC = "SSSB".getBytes(StandardCharsets.US_ASCII);
+
+	private static final MisfireInstruction[] MISFIRE_INSTRUCTIONS = MisfireInstruction.values();
+
+	private BinarySchedule() {
+	}
+
+	/**
+	 * Checks whether a schedule file is in the binary format.
+	 *
+	 * @param url
+	 *          schedule file
+	 * @return whether it starts with the binary format header
+	 * @throws IOException
+	 *           if the schedule file could not be read
+	 */
+	public static boolean isBinary(URL url) throws IOException {
+		final byte[] header = new byte[MAGIC.length];
+		int read = 0;
+		try (InputStream is = url.openStream()) {
+			int n;
+			while (read < header.length && (n = is.read(header, read, header.length - read)) > 0) {
+				read += n;
+			}
+		}
+		return read == header.length && Arrays.equals(header, MAGIC);
+	}
+
+	/**
+	 * Opens a binary schedule file. Files on the filesystem are memory mapped;
+	 * others are read into memory.
+	 */
+	static Reader open(String path, URL url) throws IOException {
+		final ByteBuffer buffer;
+		if ("file".equals(url.getProtocol())) {
+			try (FileChannel channel = FileChannel.open(Paths.get(url.toURI()),
+					StandardOpenOption.READ)) {
+				if (channel.size() > Integer.MAX_VALUE) {
+					throw new IOException("schedule file '" + path + "' is too large to map");
+				}
+				// The mapping stays valid after the channel is closed
+				buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			} catch (URISyntaxException use) {
+				throw new IOException("bad schedule file URL " + url, use);
+			}
+		} else {
+			try (InputStream is = url.openStream()) {
+				final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+				final byte[] chunk = new byte[8192];
+				int n;
+				while ((n = is.read(chunk)) > 0) {
+					bytes.write(chunk, 0, n);
+				}
+				buffer = ByteBuffer.wrap(bytes.toByteArray());
+			}
+		}
+		return new Reader(path, buffer);
+	}
+
+	/**
+	 * Reads the schedule items from a binary schedule.
+	 */
+	static class Reader implements ScheduleItemSource {
+		private final String path;
+
+		private final ByteBuffer buffer;
+
+		private final String[] strings;
+
+		private final int version;
+
+		private final int items;
+
+		private int read;
+
+		Reader(String path, ByteBuffer buffer) throws IOException {
+			this.path = path;
+			this.buffer = buffer;
+			try {
+				final byte[] magic = new byte[MAGIC.length];
+				buffer.get(magic);
+				if (!Arrays.equals(magic, MAGIC)) {
+					throw new IOException("schedule file '" + path + "' is not a binary schedule");
+				}
+				version = buffer.get();
+				if (version < MIN_VERSION || version > VERSION) {
+					throw new IOException("schedule file '" + path + "' is binary schedule version "
+							+ version + "; versions " + MIN_VERSION + " to " + VERSION + " are supported");
+				}
+
+				strings = new String[readInt()];
+				byte[] bytes = new byte[64];
+				for (int i = 0; i < strings.length; i++) {
+					final int length = readInt();
+					if (length > bytes.length) {
+						bytes = new byte[Math.max(length, bytes.length * 2)];
+					}
+					buffer.get(bytes, 0, length);
+					strings[i] = new String(bytes, 0, length, StandardCharsets.UTF_8);
+				}
+				items = readInt();
+			} catch (BufferUnderflowException bue) {
+				throw truncated();
+			}
+		}
+
+		/**
+		 * @return number of schedule items in the file
+		 */
+		int size() {
+			return items;
+		}
+
+		@Override
+		public ScheduleItemBean next() throws IOException {
+			if (read == items) {
+				return null;
+			}
+			try {
+				final ScheduleItemBean item = new ScheduleItemBean();
+				item.setJob(readString());
+				item.setTrigger(readString());
+				item.setCron(readString());
+				item.setComment(readString());
+				final long priority = readVarint();
+				if (priority > 0) {
+					final int zigzag = (int) (priority - 1);
+					item.setPriority(zigzag >>> 1 ^ -(zigzag & 1));
+				}
+				final int onMisfire = buffer.get();
+				if (onMisfire > 0) {
+					item.setOnMisfire(MISFIRE_INSTRUCTIONS[onMisfire - 1]);
+				}
+				if (version >= 2) {
+					final int catchUpRate = readInt();
+					if (catchUpRate > 0) {
+						item.setCatchUpRate(catchUpRate - 1);
+					}
+				}
+				final int entries = readInt();
+				if (entries > 0) {
+					final int size = entries - 1;
+					final Map<String, String> jobData = new HashMap<String, String>(size * 4 / 3 + 1);
+					for (int i = 0; i < size; i++) {
+						jobData.put(readString(), readString());
+					}
+					item.setJobData(jobData);
+				}
+				read++;
+				return item;
+			} catch (BufferUnderflowException | ArrayIndexOutOfBoundsException e) {
+				throw truncated();
+			}
+		}
+
+		private String readString() {
+			final int ref = readInt();
+			return 0 == ref ? null : strings[ref - 1];
+		}
+
+		private long readVarint() {
+			long value = 0;
+			int shift = 0;
+			byte b;
+			do {
+				b = buffer.get();
+				value |= (long) (b & 0x7f) << shift;
+				shift += 7;
+			} while (b < 0);
+			return value;
+		}
+
+		private int readInt() {
+			return (int) readVarint();
+		}
+
+		private IOException truncated() {
+			return new IOException("schedule file '" + path + "' is truncated or corrupt at byte "
+					+ buffer.position());
+		}
+
+		@Override
+		public void close() {
+			// Mapped buffers are released when collected
+		}
+	}
+
+	/**
+	 * Writes schedule items in the binary format.
+	 *
+	 * @param source
+	 *          schedule items to write
+	 * @param out
+	 *          stream to write to; not closed
+	 * @return number of items written
+	 * @throws IOException
+	 *           if the items could not be read or written
+	 */
+	static int write(ScheduleItemSource source, OutputStream out) throws IOException {
+		// Items refer to strings by index, so the string table goes first
+		final Map<String, Integer> strings = new LinkedHashMap<String, Integer>();
+		final ByteArrayOutputStream itemBytes = new ByteArrayOutputStream();
+		final DataOutputStream items = new DataOutputStream(itemBytes);
+		int count = 0;
+		ScheduleItemBean item;
+		while (null != (item = source.next())) {
+			writeString(items, strings, item.getJob());
+			writeString(items, strings, item.getTrigger());
+			writeString(items, strings, item.getCron());
+			writeString(items, strings, item.getComment());
+			if (null == item.getPriority()) {
+				writeVarint(items, 0);
+			} else {
+				final int priority = item.getPriority();
+				final int zigzag = priority << 1 ^ priority >> 31;
+				writeVarint(items, (zigzag & 0xffffffffL) + 1);
+			}
+			items.writeByte(null == item.getOnMisfire() ? 0 : item.getOnMisfire().ordinal() + 1);
+			writeVarint(items, null == item.getCatchUpRate() ? 0 : item.getCatchUpRate() + 1L);
+			if (null == item.getJobData()) {
+				writeVarint(items, 0);
+			} else {
+				writeVarint(items, item.getJobData().size() + 1);
+				for (final Map.Entry<String, String> entry : item.getJobData().entrySet()) {
+					writeString(items, strings, entry.getKey());
+					writeString(items, strings, entry.getValue());
+				}
+			}
+			count++;
+		}
+		items.flush();
+
+		final DataOutputStream data = new DataOutputStream(out);
+		data.write(MAGIC);
+		data.writeByte(VERSION);
+		writeVarint(data, strings.size());
+		for (final String string : strings.keySet()) {
+			final byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+			writeVarint(data, bytes.length);
+			data.write(bytes);
+		}
+		writeVarint(data, count);
+		itemBytes.writeTo(data);
+		data.flush();
+		return count;
+	}
+
+	private static void writeString(DataOutputStream out, Map<String, Integer> strings, String string)
+			throws IOException {
+		if (null == string) {
+			writeVarint(out, 0);
+			return;
+		}
+		Integer index = strings.get(string);
+		if (null == index) {
+			index = strings.size();
+			strings.put(string, index);
+		}
+		writeVarint(out, index + 1);
+	}
+
+	private static void writeVarint(DataOutputStream out, long value) throws IOException {
+		while ((value & ~0x7fL) != 0) {
+			out.writeByte((int) (value & 0x7f | 0x80));
+			value >>>= 7;
+		}
+		out.writeByte((int) value);
+	}
+
+	/**
+	 * Converts a JSON schedule file to the binary format.
+	 *
+	 * @param args
+	 *          JSON schedule file (classpath resource, file path or URL) and the
+	 *          file to write
+	 * @throws IOException
+	 *           if the schedule could not be read or written
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length != 2) {
+			System.err.println("usage: BinarySchedule <json schedule> <binary schedule>");
+			System.exit(1);
+		}
+		final long start = System.currentTimeMillis();
+		final int count;
+		try (ScheduleItemSource source = ScheduleItemListBuilder.openSource(args[0]);
+				OutputStream out = new BufferedOutputStream(new FileOutputStream(new File(args[1])))) {
+			count = write(source, out);
+		}
+		System.out.println(String.format("converted %d schedule items from '%s' to '%s' in %dms",
+				count, args[0], args[1], System.currentTimeMillis() - start));
+	}
+}
@@ -0,0 +1,207 @@
+package sss.quartz;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.OperationsException;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.CompositeDataSupport;
+import javax.management.openmbean.CompositeType;
+import javax.management.openmbean.OpenDataException;
+import javax.management.openmbean.OpenType;
+import javax.management.openmbean.SimpleType;
+import javax.management.openmbean.TabularData;
+import javax.management.openmbean.TabularDataSupport;
+import javax.management.openmbean.TabularType;
+import javax.sql.DataSource;
+
+import org.quartz.JobExecutionContext;
+import org.quartz.Scheduler;
+import org.quartz.SchedulerException;
+import org.quartz.Trigger;
+import org.quartz.Trigger.CompletedExecutionInstruction;
+import org.quartz.listeners.TriggerListenerSupport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedOperation;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.stereotype.Component;
+
+/**
+ * JMX monitoring of this node's share of the work in a scheduler cluster.
+ * <p>
+ * Each node counts the triggers it fires. The cluster membership, and the
+ * triggers each node currently has acquired or executing, are read from the
+ * JDBC job store's scheduler state and fired trigger tables.
+ *
+ * @author jsteele
+ */
+@ManagedResource(objectName = "sss.quartz:name=ClusterMBean", description = "Scheduler cluster membership and load.")
+@Component
+public class ClusterMBean implements InitializingBean {
+	/** Class logger. */
+	private static final Logger log = LoggerFactory.getLogger(ClusterMBean.class);
+
+	// @formatter:off
+	private static final String SELECT_NODES = "SELECT S.INSTANCE_NAME, S.LAST_CHECKIN_TIME, S.CHECKIN_INTERVAL,"
+			+ " SUM(CASE WHEN F.STATE = 'ACQUIRED' THEN 1 ELSE 0 END) AS ACQUIRED,"
+			+ " SUM(CASE WHEN F.STATE = 'EXECUTING' THEN 1 ELSE 0 END) AS EXECUTING"
+			+ " FROM " + SchedulerConfig.TABLE_PREFIX + "SCHEDULER_STATE S"
+			+ " LEFT OUTER JOIN " + SchedulerConfig.TABLE_PREFIX + "FIRED_TRIGGERS F"
+			+ " ON F.SCHED_NAME = S.SCHED_NAME AND F.INSTANCE_NAME = S.INSTANCE_NAME"
+			+ " WHERE S.SCHED_NAME = ?"
+			+ " GROUP BY S.INSTANCE_NAME, S.LAST_CHECKIN_TIME, S.CHECKIN_INTERVAL"
+			+ " ORDER BY S.INSTANCE_NAME";
+
+	private static final String[] ITEM_NAMES = new String[] {
+			"instance", "lastCheckin", "checkinInterval", "acquired", "executing" };
+
+	private static final String[] ITEM_DESCRIPTIONS = new String[] {
+			"Scheduler instance ID", "Last check-in time", "Check-in interval (ms)",
+			"Triggers acquired and waiting to fire", "Triggers executing" };
+
+	private static final OpenType<?>[] ITEM_TYPES = new OpenType<?>[] {
+			SimpleType.STRING, SimpleType.STRING, SimpleType.LONG, SimpleType.LONG, SimpleType.LONG };
+	// @formatter:on
+
+	/** Maps a row of the node query to composite data. */
+	private static final class NodeRowMapper implements RowMapper<CompositeData> {
+		private final CompositeType rowType;
+
+		NodeRowMapper(CompositeType rowType) {
+			this.rowType = rowType;
+		}
+
+		@Override
+		public CompositeData mapRow(ResultSet rs, int rowNum) throws SQLException {
+			try {
+				// @formatter:off
+				return new CompositeDataSupport(rowType, ITEM_NAMES, new Object[] {
+						rs.getString("INSTANCE_NAME"),
+						new Date(rs.getLong("LAST_CHECKIN_TIME")).toString(),
+						rs.getLong("CHECKIN_INTERVAL"),
+						rs.getLong("ACQUIRED"),
+						rs.getLong("EXECUTING") });
+				// @formatter:on
+			} catch (OpenDataException ode) {
+				throw new SQLException("could not map node row: " + ode.getMessage(), ode);
+			}
+		}
+	}
+
+	@Autowired
+	private Scheduler scheduler;
+
+	@Autowired(required = false)
+	@Qualifier("quartzDataSource")
+	private DataSource dataSource;
+
+	private final AtomicLong fired = new AtomicLong();
+
+	private final AtomicLong completed = new AtomicLong();
+
+	private final AtomicLong misfired = new AtomicLong();
+
+	/** Counts the triggers fired by this node. */
+	private final TriggerListenerSupport triggerListener = new TriggerListenerSupport() {
+		@Override
+		public String getName() {
+			return ClusterMBean.class.getName();
+		}
+
+		@Override
+		public void triggerFired(Trigger trigger, JobExecutionContext context) {
+			fired.incrementAndGet();
+		}
+
+		@Override
+		public void triggerMisfired(Trigger trigger) {
+			misfired.incrementAndGet();
+		}
+
+		@Override
+		public void triggerComplete(Trigger trigger, JobExecutionContext context,
+				CompletedExecutionInstruction triggerInstructionCode) {
+			completed.incrementAndGet();
+		}
+	};
+
+	/**
+	 * Registers the fired trigger counter with the scheduler.
+	 *
+	 * @throws SchedulerException
+	 *           if the listener could not be registered
+	 */
+	@Override
+	public void afterPropertiesSet() throws SchedulerException {
+		scheduler.getListenerManager().addTriggerListener(triggerListener);
+	}
+
+	@ManagedAttribute(description = "Instance ID of this node")
+	public String getInstanceId() throws SchedulerException {
+		return scheduler.getSchedulerInstanceId();
+	}
+
+	@ManagedAttribute(description = "Whether the job store is clustered")
+	public boolean isClustered() throws SchedulerException {
+		return scheduler.getMetaData().isJobStoreClustered();
+	}
+
+	@ManagedAttribute(description = "Triggers fired by this node")
+	public long getFiredTriggers() {
+		return fired.get();
+	}
+
+	@ManagedAttribute(description = "Trigger executions completed by this node")
+	public long getCompletedTriggers() {
+		return completed.get();
+	}
+
+	@ManagedAttribute(description = "Misfires handled by this node")
+	public long getMisfiredTriggers() {
+		return misfired.get();
+	}
+
+	@ManagedAttribute(description = "Nodes checked in to the cluster and their acquired and executing triggers")
+	public TabularData getNodes() throws OpenDataException, SchedulerException,
+			OperationsException {
+		if (null == dataSource) {
+			throw new OperationsException("not using the JDBC job store");
+		}
+		final CompositeType rowType = new CompositeType("Node", "Cluster node", ITEM_NAMES,
+				ITEM_DESCRIPTIONS, ITEM_TYPES);
+		final TabularType tableType = new TabularType("Nodes", "Table of cluster nodes", rowType,
+				new String[] { "instance" });
+		final TabularData table = new TabularDataSupport(tableType);
+
+		final List<CompositeData> rows;
+		try {
+			rows = new JdbcTemplate(dataSource).query(SELECT_NODES,
+					new Object[] { scheduler.getSchedulerName() }, new NodeRowMapper(rowType));
+		} catch (DataAccessException dae) {
+			throw new SchedulerException("error reading cluster state: " + dae.getMessage(), dae);
+		}
+		for (final CompositeData row : rows) {
+			table.put(row);
+		}
+		return table;
+	}
+
+	@ManagedOperation(description = "Clears this node's trigger counts")
+	public void resetCounts() {
+		log.info("resetting cluster trigger counts");
+		fired.set(0);
+		completed.set(0);
+		misfired.set(0);
+	}
+}
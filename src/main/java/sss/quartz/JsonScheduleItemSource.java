@@ -0,0 +1,51 @@
+package sss.quartz;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Reads the schedule items of a JSON schedule file one at a time, walking the
+ * array token by token.
+ * 
+ * @author jsteele
+ */
+class JsonScheduleItemSource implements ScheduleItemSource {
+	/** Path, URL or name of resource schedule was loaded from. */
+	private final String path;
+
+	private final ObjectMapper mapper;
+
+	private final JsonParser parser;
+
+	JsonScheduleItemSource(String path, ObjectMapper mapper, InputStream is) throws IOException {
+		this.path = path;
+		this.mapper = mapper;
+		this.parser = mapper.getFactory().createParser(is);
+		if (parser.nextToken() != JsonToken.START_ARRAY) {
+			parser.close();
+			throw new IOException("schedule file '" + path + "' does not contain a JSON array");
+		}
+	}
+
+	@Override
+	public ScheduleItemBean next() throws IOException {
+		final JsonToken token = parser.nextToken();
+		if (token == JsonToken.START_OBJECT) {
+			return mapper.readValue(parser, ScheduleItemBean.class);
+		}
+		if (token != JsonToken.END_ARRAY) {
+			throw new IOException("unexpected " + token + " in schedule file '" + path + "' at "
+					+ parser.getCurrentLocation());
+		}
+		return null;
+	}
+
+	@Override
+	public void close() throws IOException {
+		parser.close();
+	}
+}
@@ -13,5 +13,16 @@ public enum MisfireInstruction {
 	/** */
 	FIRE_AND_PROCEED,
 	/** */
-	IGNORE_MISFIRES;
+	IGNORE_MISFIRES,
+	/**
+	 * Fires on time from now on, and replays the missed fire times at the
+	 * item's catch-up rate, behind on-time firings. See
+	 * {@link sss.quartz.catchup.CatchUpManager}.
+	 */
+	CATCH_UP,
+	/**
+	 * As {@link #CATCH_UP}, but the missed fire times are run once, with the
+	 * number missed.
+	 */
+	CATCH_UP_COALESCED;
 }
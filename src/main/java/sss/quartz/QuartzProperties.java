@@ -0,0 +1,173 @@
+package sss.quartz;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+import org.springframework.core.env.ConfigurableEnvironment;
+import org.springframework.core.env.EnumerablePropertySource;
+import org.springframework.core.env.Environment;
+import org.springframework.core.env.PropertySource;
+
+/**
+ * Resolves the Quartz properties for the scheduler. Each property comes from,
+ * in increasing order of precedence:
+ * <ol>
+ * <li>the defaults set in code</li>
+ * <li>the performance profile named by <code>sss.quartz.profile</code>, read
+ * from <code>sss/quartz/profiles/&lt;profile&gt;.properties</code> on the
+ * classpath</li>
+ * <li>any <code>org.quartz.*</code> property in the Spring environment</li>
+ * </ol>
+ * The source of each value is remembered for the startup report.
+ *
+ * @author jsteele
+ */
+public class QuartzProperties {
+	/** Environment property naming the performance profile. */
+	public static final String PROFILE_KEY = "sss.quartz.profile";
+
+	/** Prefix of the Quartz properties picked up from the environment. */
+	public static final String QUARTZ_PREFIX = "org.quartz.";
+
+	private static final String PROFILE_PATH = "sss/quartz/profiles/";
+
+	private static final String DEFAULT_SOURCE = "default";
+
+	private static final String ENVIRONMENT_SOURCE = "environment";
+
+	private final Environment env;
+
+	private final Properties properties = new Properties();
+
+	/** Source of each property, by name. */
+	private final Map<String, String> sources = new TreeMap<String, String>();
+
+	public QuartzProperties(Environment env) {
+		this.env = env;
+	}
+
+	/**
+	 * Sets the default value of a property.
+	 *
+	 * @param name
+	 *          property name
+	 * @param value
+	 *          default value
+	 * @return this
+	 */
+	public QuartzProperties setDefault(String name, String value) {
+		return set(name, value, DEFAULT_SOURCE);
+	}
+
+	/**
+	 * Sets a property.
+	 *
+	 * @param name
+	 *          property name
+	 * @param value
+	 *          value
+	 * @param source
+	 *          where the value came from, for the startup report
+	 * @return this
+	 */
+	public QuartzProperties set(String name, String value, String source) {
+		properties.setProperty(name, value);
+		sources.put(name, source);
+		return this;
+	}
+
+	/**
+	 * Overlays the performance profile and the environment on the defaults.
+	 *
+	 * @return this
+	 * @throws IOException
+	 *           if the profile could not be read
+	 * @throws IllegalArgumentException
+	 *           if the profile does not exist
+	 */
+	public QuartzProperties resolve() throws IOException {
+		final String profile = env.getProperty(PROFILE_KEY);
+		if (null != profile && !profile.isEmpty()) {
+			for (final Map.Entry<Object, Object> entry : loadProfile(profile).entrySet()) {
+				set((String) entry.getKey(), (String) entry.getValue(), "profile " + profile);
+			}
+		}
+
+		if (env instanceof ConfigurableEnvironment) {
+			for (final PropertySource<?> source : ((ConfigurableEnvironment) env).getPropertySources()) {
+				if (source instanceof EnumerablePropertySource) {
+					for (final String name : ((EnumerablePropertySource<?>) source).getPropertyNames()) {
+						if (name.startsWith(QUARTZ_PREFIX)) {
+							// Resolve through the environment so precedence is honoured
+							set(name, env.getProperty(name), ENVIRONMENT_SOURCE);
+						}
+					}
+				}
+			}
+		}
+		return this;
+	}
+
+	public boolean contains(String name) {
+		return properties.containsKey(name);
+	}
+
+	public String get(String name) {
+		return properties.getProperty(name);
+	}
+
+	public int getInt(String name, int defaultValue) {
+		final String value = properties.getProperty(name);
+		return null == value ? defaultValue : Integer.parseInt(value.trim());
+	}
+
+	/**
+	 * Removes a property, e.g. one that was consumed to derive another.
+	 *
+	 * @param name
+	 *          property name
+	 */
+	public void remove(String name) {
+		properties.remove(name);
+		sources.remove(name);
+	}
+
+	/**
+	 * @return copy of the resolved properties
+	 */
+	public Properties getProperties() {
+		final Properties copy = new Properties();
+		copy.putAll(properties);
+		return copy;
+	}
+
+	/**
+	 * @return effective values and their sources, one per line, ordered by name
+	 */
+	public String report() {
+		final StringBuilder report = new StringBuilder("effective Quartz properties:");
+		for (final Map.Entry<String, String> entry : sources.entrySet()) {
+			report.append(String.format("%n  %-65s = %-30s (%s)", entry.getKey(),
+					properties.getProperty(entry.getKey()), entry.getValue()));
+		}
+		return report.toString();
+	}
+
+	private static Properties loadProfile(String profile) throws IOException {
+		final InputStream in = QuartzProperties.class.getClassLoader().getResourceAsStream(
+				PROFILE_PATH + profile + ".properties");
+		if (null == in) {
+			throw new IllegalArgumentException("unknown Quartz performance profile: " + profile);
+		}
+		try {
+			final Properties props = new Properties();
+			props.load(in);
+			return props;
+		} finally {
+			in.close();
+		}
+	}
+}
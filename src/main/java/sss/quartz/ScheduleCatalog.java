@@ -0,0 +1,362 @@
+package sss.quartz;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.quartz.JobDetail;
+import org.quartz.JobExecutionContext;
+import org.quartz.JobKey;
+import org.quartz.Scheduler;
+import org.quartz.SchedulerException;
+import org.quartz.Trigger;
+import org.quartz.TriggerKey;
+import org.quartz.impl.matchers.GroupMatcher;
+import org.quartz.listeners.SchedulerListenerSupport;
+import org.quartz.listeners.TriggerListenerSupport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+/**
+ * In-memory catalog of the scheduler's triggers and jobs, used to serve JMX
+ * reads without going to the job store on every poll.
+ * <p>
+ * The catalog is kept current by scheduler and trigger listener events, and
+ * is fully resynchronized from the job store when it is older than the
+ * configured time-to-live (<code>sss.jmx.catalog.ttl</code>, in seconds). A
+ * TTL of zero disables caching. Events are only seen for the local scheduler
+ * instance, so in a cluster changes made by other nodes show up on the next
+ * resync.
+ * <p>
+ * The job store is read without holding up events. Events that arrive while a
+ * resync is reading it are applied to the current catalog as usual, and also
+ * recorded; they are replayed, in order, onto the new catalog before it
+ * replaces the current one, so none are lost at the swap.
+ *
+ * @author jsteele
+ */
+@Component
+public class ScheduleCatalog extends SchedulerListenerSupport implements InitializingBean {
+	/** Class logger. */
+	private static final Logger log = LoggerFactory.getLogger(ScheduleCatalog.class);
+
+	/** Default time-to-live for the catalog, in seconds. */
+	private static final long DEFAULT_TTL_S = 60;
+
+	@Autowired
+	private Environment env;
+
+	@Autowired
+	private Scheduler scheduler;
+
+	@Autowired
+	private ScheduleSnapshotDao snapshotDao;
+
+	/** Triggers, ordered by key. Replaced on each full resync. */
+	private volatile NavigableMap<TriggerKey, TriggerSummary> triggers = new ConcurrentSkipListMap<TriggerKey, TriggerSummary>();
+
+	/** Jobs, ordered by key. Replaced on each full resync. */
+	private volatile NavigableSet<JobKey> jobs = new ConcurrentSkipListSet<JobKey>();
+
+	/**
+	 * Events seen since the running resync started, or <code>null</code> if no
+	 * resync is running. Guarded by {@link #eventLock}.
+	 */
+	private List<Change> replay;
+
+	/** Orders events against the swap at the end of a resync. */
+	private final Object eventLock = new Object();
+
+	/** Time of the last full resync, in ms, or zero if it needs resyncing. */
+	private volatile long lastSyncTime;
+
+	/** Time-to-live of the catalog, in ms. */
+	private long ttlMs;
+
+	private final AtomicLong hits = new AtomicLong();
+
+	private final AtomicLong misses = new AtomicLong();
+
+	private final AtomicLong updates = new AtomicLong();
+
+	/** Keeps the last run time of triggers current. */
+	private final TriggerListenerSupport triggerListener = new TriggerListenerSupport() {
+		@Override
+		public String getName() {
+			return ScheduleCatalog.class.getName();
+		}
+
+		@Override
+		public void triggerFired(final Trigger trigger, JobExecutionContext context) {
+			update(new Change() {
+				@Override
+				boolean apply(Map<TriggerKey, TriggerSummary> triggers, NavigableSet<JobKey> jobs) {
+					final TriggerSummary summary = triggers.get(trigger.getKey());
+					if (null == summary) {
+						return false;
+					}
+					triggers.put(trigger.getKey(), summary.withLastRun(trigger.getPreviousFireTime()));
+					return true;
+				}
+			});
+		}
+	};
+
+	/**
+	 * A change to the catalog made by an event.
+	 */
+	private abstract static class Change {
+		/**
+		 * Applies the change to a catalog.
+		 *
+		 * @return <code>true</code> if the catalog changed
+		 */
+		abstract boolean apply(Map<TriggerKey, TriggerSummary> triggers, NavigableSet<JobKey> jobs);
+	}
+
+	/**
+	 * Registers the catalog with the scheduler.
+	 *
+	 * @throws SchedulerException
+	 *           if the listeners could not be registered
+	 */
+	@Override
+	public void afterPropertiesSet() throws SchedulerException {
+		ttlMs = TimeUnit.SECONDS.toMillis(env.getProperty("sss.jmx.catalog.ttl", Long.class,
+				DEFAULT_TTL_S));
+		scheduler.getListenerManager().addSchedulerListener(this);
+		scheduler.getListenerManager().addTriggerListener(triggerListener);
+	}
+
+	/**
+	 * Returns a page of the cataloged triggers, ordered by trigger key.
+	 *
+	 * @param group
+	 *          trigger group to list, or null/empty for all groups
+	 * @param offset
+	 *          number of triggers to skip
+	 * @param limit
+	 *          maximum number of triggers to return, or &lt;= 0 for no limit
+	 * @return trigger summaries
+	 * @throws SchedulerException
+	 *           if the catalog needed resyncing and could not be read
+	 */
+	public List<TriggerSummary> getTriggers(String group, int offset, int limit)
+			throws SchedulerException {
+		final boolean anyGroup = null == group || group.isEmpty();
+		final List<TriggerSummary> page = new ArrayList<TriggerSummary>();
+		int idx = 0;
+		for (final TriggerSummary trigger : current().values()) {
+			if (limit > 0 && page.size() >= limit) {
+				break;
+			}
+			if (!anyGroup && !group.equals(trigger.getTriggerKey().getGroup())) {
+				continue;
+			}
+			if (idx++ < offset) {
+				continue;
+			}
+			page.add(trigger);
+		}
+		return page;
+	}
+
+	/**
+	 * @return cataloged job keys, ordered by key
+	 * @throws SchedulerException
+	 *           if the catalog needed resyncing and could not be read
+	 */
+	public List<JobKey> getJobKeys() throws SchedulerException {
+		current();
+		return new ArrayList<JobKey>(jobs);
+	}
+
+	/**
+	 * Marks the catalog for a full resync on the next read.
+	 */
+	public void invalidate() {
+		lastSyncTime = 0;
+	}
+
+	/**
+	 * @return number of reads served from the catalog
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * @return number of reads that required a full resync
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * @return number of incremental updates applied from scheduler events
+	 */
+	public long getUpdates() {
+		return updates.get();
+	}
+
+	/**
+	 * @return age of the last full resync, in ms, or -1 if not yet synced
+	 */
+	public long getAgeMs() {
+		final long syncTime = lastSyncTime;
+		return syncTime == 0 ? -1 : System.currentTimeMillis() - syncTime;
+	}
+
+	@Override
+	public void jobAdded(final JobDetail jobDetail) {
+		update(new Change() {
+			@Override
+			boolean apply(Map<TriggerKey, TriggerSummary> triggers, NavigableSet<JobKey> jobs) {
+				jobs.add(jobDetail.getKey());
+				return true;
+			}
+		});
+	}
+
+	@Override
+	public void jobDeleted(final JobKey jobKey) {
+		update(new Change() {
+			@Override
+			boolean apply(Map<TriggerKey, TriggerSummary> triggers, NavigableSet<JobKey> jobs) {
+				jobs.remove(jobKey);
+				return true;
+			}
+		});
+	}
+
+	@Override
+	public void jobScheduled(final Trigger trigger) {
+		update(new Change() {
+			@Override
+			boolean apply(Map<TriggerKey, TriggerSummary> triggers, NavigableSet<JobKey> jobs) {
+				triggers.put(trigger.getKey(), TriggerSummary.of(trigger));
+				return true;
+			}
+		});
+	}
+
+	@Override
+	public void jobUnscheduled(final TriggerKey triggerKey) {
+		update(new Change() {
+			@Override
+			boolean apply(Map<TriggerKey, TriggerSummary> triggers, NavigableSet<JobKey> jobs) {
+				triggers.remove(triggerKey);
+				return true;
+			}
+		});
+	}
+
+	@Override
+	public void triggerFinalized(final Trigger trigger) {
+		jobUnscheduled(trigger.getKey());
+	}
+
+	@Override
+	public void schedulingDataCleared() {
+		// A resync already reading the job store may have read what was cleared
+		update(new Change() {
+			@Override
+			boolean apply(Map<TriggerKey, TriggerSummary> triggers, NavigableSet<JobKey> jobs) {
+				triggers.clear();
+				jobs.clear();
+				return false;
+			}
+		});
+		invalidate();
+	}
+
+	/**
+	 * Applies an event's change to the catalog, and records it for replay if a
+	 * resync is running.
+	 */
+	private void update(Change change) {
+		synchronized (eventLock) {
+			if (change.apply(triggers, jobs)) {
+				updates.incrementAndGet();
+			}
+			if (null != replay) {
+				replay.add(change);
+			}
+		}
+	}
+
+	/**
+	 * Returns the current triggers, resyncing from the job store first if the
+	 * catalog has expired.
+	 *
+	 * @return current triggers
+	 * @throws SchedulerException
+	 *           if the job store could not be read
+	 */
+	private NavigableMap<TriggerKey, TriggerSummary> current() throws SchedulerException {
+		if (isExpired()) {
+			synchronized (this) {
+				if (isExpired()) {
+					misses.incrementAndGet();
+					resync();
+					return triggers;
+				}
+			}
+		}
+		hits.incrementAndGet();
+		return triggers;
+	}
+
+	private boolean isExpired() {
+		return lastSyncTime == 0 || System.currentTimeMillis() - lastSyncTime >= ttlMs;
+	}
+
+	/**
+	 * Reloads the catalog from the job store.
+	 *
+	 * @throws SchedulerException
+	 *           if the job store could not be read
+	 */
+	private void resync() throws SchedulerException {
+		final long start = System.currentTimeMillis();
+		synchronized (eventLock) {
+			replay = new ArrayList<Change>();
+		}
+		final NavigableMap<TriggerKey, TriggerSummary> newTriggers = new ConcurrentSkipListMap<TriggerKey, TriggerSummary>();
+		NavigableSet<JobKey> newJobs = null;
+		int replayed = 0;
+		try {
+			for (final TriggerSummary trigger : snapshotDao.readTriggers(null, 0, 0)) {
+				newTriggers.put(trigger.getTriggerKey(), trigger);
+			}
+			newJobs = new ConcurrentSkipListSet<JobKey>(scheduler.getJobKeys(GroupMatcher.anyJobGroup()));
+		} finally {
+			synchronized (eventLock) {
+				if (null != newJobs) {
+					// Some events may already be in what was read; replaying them is harmless
+					for (final Change change : replay) {
+						change.apply(newTriggers, newJobs);
+						replayed++;
+					}
+					triggers = newTriggers;
+					jobs = newJobs;
+					lastSyncTime = start;
+				}
+				replay = null;
+			}
+		}
+		log.debug("schedule catalog resynced with " + newTriggers.size() + " triggers and "
+				+ newJobs.size() + " jobs, replaying " + replayed + " events, in "
+				+ (System.currentTimeMillis() - start) + "ms");
+	}
+}
@@ -2,6 +2,9 @@ package sss.quartz;
 
 import java.util.Map;
 
+import org.quartz.JobKey;
+import org.quartz.TriggerKey;
+
 /**
  * Bean for schedule item information in the scheduling JSON file.
  * 
@@ -29,6 +32,19 @@ public class ScheduleItemBean {
 	/** Instruction to scheduler on how to handler misfires. */
 	private MisfireInstruction onMisfire;
 
+	/** Most missed fire times replayed per minute, for catch-up misfires. */
+	private Integer catchUpRate;
+
+	/** Parsed job key. */
+	private JobKey jobKey;
+
+	/** Parsed trigger key. */
+	private TriggerKey triggerKey;
+
+	public Integer getCatchUpRate() {
+		return catchUpRate;
+	}
+
 	public String getComment() {
 		return comment;
 	}
@@ -45,28 +61,27 @@ public class ScheduleItemBean {
 		return jobData;
 	}
 
+	/**
+	 * @return group of the job, the default group if it has none
+	 */
 	public String getJobGroup() {
-		String group = null;
-		if (this.job != null) {
-			final int idx = this.job.indexOf('.');
-			if (idx > 0) {
-				group = this.job.substring(0, idx);
-			}
+		final JobKey key = getJobKey();
+		return null == key ? null : key.getGroup();
+	}
+
+	/**
+	 * @return job key, parsed once by {@link ScheduleKeys}
+	 */
+	public JobKey getJobKey() {
+		if (null == jobKey && null != job) {
+			jobKey = ScheduleKeys.jobKey(job);
 		}
-		return group;
+		return jobKey;
 	}
 
 	public String getJobName() {
-		String name = null;
-		if (this.job != null) {
-			final int idx = this.job.indexOf('.');
-			if (idx > 0) {
-				name = this.job.substring(idx + 1);
-			} else {
-				name = this.job;
-			}
-		}
-		return name;
+		final JobKey key = getJobKey();
+		return null == key ? null : key.getName();
 	}
 
 	public MisfireInstruction getOnMisfire() {
@@ -81,28 +96,32 @@ public class ScheduleItemBean {
 		return trigger;
 	}
 
+	/**
+	 * @return group of the trigger, the default group if it has none
+	 */
 	public String getTriggerGroup() {
-		String group = null;
-		if (this.trigger != null) {
-			final int idx = this.trigger.indexOf('.');
-			if (idx > 0) {
-				group = this.trigger.substring(0, idx);
-			}
+		final TriggerKey key = getTriggerKey();
+		return null == key ? null : key.getGroup();
+	}
+
+	/**
+	 * @return trigger key, parsed once by {@link ScheduleKeys}, or
+	 *         <code>null</code> if the trigger isn't named
+	 */
+	public TriggerKey getTriggerKey() {
+		if (null == triggerKey && null != trigger) {
+			triggerKey = ScheduleKeys.triggerKey(trigger);
 		}
-		return group;
+		return triggerKey;
 	}
 
 	public String getTriggerName() {
-		String name = null;
-		if (this.trigger != null) {
-			final int idx = this.trigger.indexOf('.');
-			if (idx > 0) {
-				name = this.trigger.substring(idx + 1);
-			} else {
-				name = this.trigger;
-			}
-		}
-		return name;
+		final TriggerKey key = getTriggerKey();
+		return null == key ? null : key.getName();
+	}
+
+	public void setCatchUpRate(Integer catchUpRate) {
+		this.catchUpRate = catchUpRate;
 	}
 
 	public void setComment(String comment) {
@@ -115,6 +134,7 @@ public class ScheduleItemBean {
 
 	public void setJob(String job) {
 		this.job = job;
+		this.jobKey = null;
 	}
 
 	public void setJobData(Map<String, String> jobData) {
@@ -131,5 +151,6 @@ public class ScheduleItemBean {
 
 	public void setTrigger(String trigger) {
 		this.trigger = trigger;
+		this.triggerKey = null;
 	}
 }
@@ -3,17 +3,29 @@ package sss.quartz;
 import static org.quartz.CronScheduleBuilder.cronSchedule;
 import static org.quartz.TriggerBuilder.newTrigger;
 
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.RecursiveTask;
 
 import org.quartz.CronScheduleBuilder;
 import org.quartz.CronTrigger;
 import org.quartz.JobDataMap;
+import org.quartz.JobKey;
 import org.quartz.Trigger;
 import org.quartz.TriggerBuilder;
+import org.quartz.TriggerKey;
+
+import sss.quartz.catchup.CatchUpManager;
+import sss.quartz.cron.CronExpressionCache;
 
 import com.fasterxml.jackson.core.JsonFactory;
 import com.fasterxml.jackson.core.JsonParseException;
@@ -24,10 +36,23 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 /**
  * This class supports the builder pattern for creating a list of schedule items
  * (triggers associated with a job) for Quartz.
+ * <p>
+ * Schedule files are looked up on the classpath first, then on the
+ * filesystem, then as a URL. They may be JSON or, for large schedules, in the
+ * {@link BinarySchedule} format.
  * 
  * @author jsteele
  */
 public class ScheduleItemListBuilder {
+	/** Schedules with at least this many items are built in parallel. */
+	static final int PARALLEL_THRESHOLD = 5000;
+
+	/** Items built by one fork/join task. */
+	static final int CHUNK_SIZE = 1000;
+
+	/** Longest trigger name the JDBC job store holds. */
+	static final int MAX_TRIGGER_NAME_LENGTH = 200;
+
 	/** List of schedule items being built. */
 	private final List<ScheduleItemBean> scheduleItems;
 
@@ -46,20 +71,80 @@ public class ScheduleItemListBuilder {
 	 */
 	private ScheduleItemListBuilder(String path, List<ScheduleItemBean> scheduleItems) {
 		this.path = path;
-		this.scheduleItems = new ArrayList<ScheduleItemBean>(scheduleItems);
+		this.scheduleItems = scheduleItems;
 	}
 
 	/**
 	 * Creates the builder.
 	 * 
 	 * @param path
-	 *          classpath-relative path to schedule file
+	 *          classpath resource, file path or URL of schedule file
 	 * @return builder for schedule items
 	 * @throws IOException
 	 *           if there was an error finding, loading, parsing or demarshalling
 	 *           the schedule file
 	 */
 	public static ScheduleItemListBuilder loadSchedule(final String path) throws IOException {
+		final URL url = locateSchedule(path);
+		if (BinarySchedule.isBinary(url)) {
+			try (BinarySchedule.Reader reader = BinarySchedule.open(path, url)) {
+				final List<ScheduleItemBean> scheduleItems = new ArrayList<ScheduleItemBean>(reader.size());
+				ScheduleItemBean scheduleItem;
+				while (null != (scheduleItem = reader.next())) {
+					scheduleItems.add(scheduleItem);
+				}
+				return new ScheduleItemListBuilder(path, scheduleItems);
+			}
+		}
+
+		final InputStream is = url.openStream();
+		try {
+			final List<ScheduleItemBean> scheduleItems = createMapper().readValue(is,
+					new TypeReference<List<ScheduleItemBean>>() {
+					});
+			return new ScheduleItemListBuilder(path, scheduleItems);
+		} finally {
+			is.close();
+		}
+	}
+
+	/**
+	 * Streams the triggers from a schedule file. Schedule items are parsed and
+	 * built into triggers one at a time as the stream is iterated, so memory use
+	 * doesn't grow with the size of the schedule. The stream must be closed.
+	 * 
+	 * @param path
+	 *          classpath resource, file path or URL of schedule file
+	 * @return stream of triggers
+	 * @throws IOException
+	 *           if there was an error finding or opening the schedule file, or
+	 *           it isn't a JSON array or binary schedule
+	 */
+	public static ScheduleStream streamSchedule(final String path) throws IOException {
+		return new ScheduleStream(path, openSource(path));
+	}
+
+	/**
+	 * Opens a schedule file, JSON or binary, to read its items one at a time.
+	 */
+	static ScheduleItemSource openSource(final String path) throws IOException {
+		final URL url = locateSchedule(path);
+		if (BinarySchedule.isBinary(url)) {
+			return BinarySchedule.open(path, url);
+		}
+		final InputStream is = url.openStream();
+		try {
+			return new JsonScheduleItemSource(path, createMapper(), is);
+		} catch (IOException | RuntimeException e) {
+			is.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Creates the mapper for schedule files, which may contain comments.
+	 */
+	static ObjectMapper createMapper() {
 		@SuppressWarnings("serial")
 		final ObjectMapper mapper = new ObjectMapper(new JsonFactory() {
 			@Override
@@ -69,26 +154,184 @@ public class ScheduleItemListBuilder {
 				return parser;
 			}
 		});
+		return mapper;
+	}
+
+	private static URL locateSchedule(final String path) throws FileNotFoundException {
+		final URL url = findSchedule(path);
+		if (null == url) {
+			throw new FileNotFoundException("schedule file '" + path
+					+ "' not found on the classpath or filesystem");
+		}
+		return url;
+	}
+
+	/**
+	 * Finds a schedule file on the classpath, the filesystem or as a URL, in
+	 * that order.
+	 * 
+	 * @param path
+	 *          classpath resource, file path or URL of schedule file
+	 * @return URL of the schedule file, or <code>null</code> if not found
+	 */
+	public static URL findSchedule(final String path) {
 		final ClassLoader cl = Thread.currentThread().getContextClassLoader();
-		final InputStream is = cl.getResourceAsStream(path);
-		if (null == is) {
-			throw new FileNotFoundException("schedule file '" + path + "' not found on the classpath");
-		}
-		final List<ScheduleItemBean> scheduleItems = mapper.readValue(is,
-				new TypeReference<List<ScheduleItemBean>>() {
-				});
-		return new ScheduleItemListBuilder(path, scheduleItems);
+		URL url = cl.getResource(path);
+		if (null == url) {
+			final File file = new File(path);
+			if (file.isFile()) {
+				try {
+					url = file.toURI().toURL();
+				} catch (MalformedURLException mue) {
+					// Not possible for a file URI
+				}
+			}
+		}
+		if (null == url && path.indexOf(':') > 1) {
+			try {
+				url = new URL(path);
+			} catch (MalformedURLException mue) {
+				// Not a URL either
+			}
+		}
+		return url;
 	}
 
 	/**
-	 * Builds the list of triggers.
+	 * Builds the list of triggers. Large schedules are built in parallel when
+	 * there is more than one processor.
 	 * 
-	 * @return list of triggers constructed by the builder
+	 * @return list of triggers constructed by the builder, in schedule order
+	 * @throws ScheduleValidationException
+	 *           if any schedule items are invalid; all of them are reported
 	 */
 	public List<Trigger> build() {
-		final List<Trigger> triggers = new ArrayList<Trigger>();
-		for (ScheduleItemBean scheduleItem : scheduleItems) {
-			final CronScheduleBuilder scheduleBuilder = cronSchedule(scheduleItem.getCron());
+		return build(scheduleItems.size() >= PARALLEL_THRESHOLD
+				&& Runtime.getRuntime().availableProcessors() > 1);
+	}
+
+	/**
+	 * Builds the list of triggers.
+	 * 
+	 * @param parallel
+	 *          whether to build chunks of the schedule in parallel, in the common
+	 *          fork/join pool
+	 * @return list of triggers constructed by the builder, in schedule order
+	 * @throws ScheduleValidationException
+	 *           if any schedule items are invalid; all of them are reported
+	 */
+	public List<Trigger> build(boolean parallel) {
+		final Trigger[] triggers = new Trigger[scheduleItems.size()];
+		final List<String> errors = parallel ? new BuildTask(triggers, 0, triggers.length).invoke()
+				: build(triggers, 0, triggers.length);
+		if (!errors.isEmpty()) {
+			throw new ScheduleValidationException(path, errors);
+		}
+		return new ArrayList<Trigger>(Arrays.asList(triggers));
+	}
+
+	/**
+	 * Builds the triggers for a range of schedule items.
+	 * 
+	 * @return errors for the invalid items in the range
+	 */
+	private List<String> build(Trigger[] triggers, int from, int to) {
+		List<String> errors = Collections.emptyList();
+		for (int i = from; i < to; i++) {
+			final ScheduleItemBean scheduleItem = scheduleItems.get(i);
+			try {
+				triggers[i] = buildTrigger(path, scheduleItem);
+			} catch (RuntimeException e) {
+				if (errors.isEmpty()) {
+					errors = new ArrayList<String>();
+				}
+				errors.add(describe(i, scheduleItem) + ": " + e.getMessage());
+			}
+		}
+		return errors;
+	}
+
+	/**
+	 * Builds a range of the schedule, splitting it in half until it is no more
+	 * than a chunk. Each item's trigger goes in its own slot, and errors are
+	 * joined left to right, so the result is in schedule order.
+	 */
+	private class BuildTask extends RecursiveTask<List<String>> {
+		private static final long serialVersionUID = 1L;
+
+		private final Trigger[] triggers;
+
+		private final int from;
+
+		private final int to;
+
+		BuildTask(Trigger[] triggers, int from, int to) {
+			this.triggers = triggers;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected List<String> compute() {
+			if (to - from <= CHUNK_SIZE) {
+				return build(triggers, from, to);
+			}
+			final int middle = (from + to) >>> 1;
+			final BuildTask left = new BuildTask(triggers, from, middle);
+			left.fork();
+			final List<String> right = new BuildTask(triggers, middle, to).compute();
+			final List<String> errors = left.join();
+			if (right.isEmpty()) {
+				return errors;
+			}
+			if (errors.isEmpty()) {
+				return right;
+			}
+			final List<String> all = new ArrayList<String>(errors);
+			all.addAll(right);
+			return all;
+		}
+	}
+
+	/**
+	 * Describes a schedule item for an error message.
+	 * 
+	 * @param index
+	 *          position of the item in the schedule, from 0
+	 * @param scheduleItem
+	 *          schedule item
+	 * @return description of the item
+	 */
+	static String describe(int index, ScheduleItemBean scheduleItem) {
+		final String name = null != scheduleItem.getTrigger() ? scheduleItem.getTrigger()
+				: scheduleItem.getJob();
+		return "item " + (index + 1) + (null == name ? "" : " (" + name + ")");
+	}
+
+	/**
+	 * Builds the trigger for a schedule item. Items without a misfire
+	 * instruction use Quartz's smart policy. Catch-up items are marked in the
+	 * trigger's job data for the {@link CatchUpManager}.
+	 * 
+	 * @param path
+	 *          path, URL or name of resource schedule was loaded from
+	 * @param scheduleItem
+	 *          schedule item
+	 * @return trigger
+	 * @throws IllegalArgumentException
+	 *           if the item has no job or a missing or invalid cron expression
+	 */
+	static Trigger buildTrigger(String path, ScheduleItemBean scheduleItem) {
+		if (null == scheduleItem.getJobKey()) {
+			throw new IllegalArgumentException("no job");
+		}
+		if (null == scheduleItem.getCron()) {
+			throw new IllegalArgumentException("no cron expression");
+		}
+		// Schedules repeat the same few expressions, so share the parsed ones
+		final CronScheduleBuilder scheduleBuilder = cronSchedule(CronExpressionCache.get(scheduleItem
+				.getCron()));
+		if (null != scheduleItem.getOnMisfire()) {
 			switch (scheduleItem.getOnMisfire()) {
 			case DO_NOTHING:
 				scheduleBuilder.withMisfireHandlingInstructionDoNothing();
@@ -99,29 +342,82 @@ public class ScheduleItemListBuilder {
 			case IGNORE_MISFIRES:
 				scheduleBuilder.withMisfireHandlingInstructionIgnoreMisfires();
 				break;
+			case CATCH_UP:
+			case CATCH_UP_COALESCED:
+				// The catch-up manager replays what Quartz skips
+				scheduleBuilder.withMisfireHandlingInstructionDoNothing();
+				break;
 			default:
 				// Do nothing
 				break;
 			}
+		}
 
-			// @formatter:off
-			final TriggerBuilder<CronTrigger> builder = newTrigger()
-					.forJob(scheduleItem.getJobName(), scheduleItem.getJobGroup())
-					.withDescription(scheduleItem.getComment() == null ? "loaded from '" + path + "'" : scheduleItem.getComment())
-					.withPriority(scheduleItem.getPriority() == null ? Trigger.DEFAULT_PRIORITY : scheduleItem.getPriority())
-					.withSchedule(scheduleBuilder);
-			// @formatter:on
+		// @formatter:off
+		final TriggerBuilder<CronTrigger> builder = newTrigger()
+				.forJob(scheduleItem.getJobKey())
+				.withDescription(scheduleItem.getComment() == null ? "loaded from '" + path + "'" : scheduleItem.getComment())
+				.withPriority(scheduleItem.getPriority() == null ? Trigger.DEFAULT_PRIORITY : scheduleItem.getPriority())
+				.withSchedule(scheduleBuilder);
+		// @formatter:on
 
-			if (null != scheduleItem.getTrigger()) {
-				builder.withIdentity(scheduleItem.getTriggerName(), scheduleItem.getTriggerGroup());
-			}
+		builder.withIdentity(triggerKey(scheduleItem));
 
-			if (null != scheduleItem.getJobData()) {
-				builder.usingJobData(new JobDataMap(scheduleItem.getJobData()));
+		if (null != scheduleItem.getJobData()) {
+			builder.usingJobData(new JobDataMap(scheduleItem.getJobData()));
+		}
+		if (CatchUpManager.isCatchUp(scheduleItem.getOnMisfire())) {
+			builder.usingJobData(CatchUpManager.MODE_KEY, scheduleItem.getOnMisfire().name());
+			if (null != scheduleItem.getCatchUpRate()) {
+				builder.usingJobData(CatchUpManager.RATE_KEY, scheduleItem.getCatchUpRate().toString());
 			}
+		}
 
-			triggers.add(builder.build());
+		return builder.build();
+	}
+
+	/**
+	 * Gets the trigger key for a schedule item. Items without a trigger name are
+	 * identified by their job, their cron expression and a hash of the rest of
+	 * their definition, so that they have the same key every time the schedule
+	 * is loaded, and only identical items share one. Changing anything about an
+	 * unnamed item gives it a new key. Names longer than the job store allows
+	 * are cut short, ending with a hash of the whole name instead.
+	 * 
+	 * @param scheduleItem
+	 *          schedule item
+	 * @return trigger key
+	 */
+	static TriggerKey triggerKey(ScheduleItemBean scheduleItem) {
+		if (null != scheduleItem.getTrigger()) {
+			return scheduleItem.getTriggerKey();
+		}
+		final JobKey jobKey = scheduleItem.getJobKey();
+		final StringBuilder definition = new StringBuilder();
+		definition.append(scheduleItem.getOnMisfire()).append('\n');
+		definition.append(scheduleItem.getPriority()).append('\n');
+		definition.append(scheduleItem.getCatchUpRate()).append('\n');
+		definition.append(scheduleItem.getComment()).append('\n');
+		if (null != scheduleItem.getJobData()) {
+			definition.append(new TreeMap<String, String>(scheduleItem.getJobData()));
+		}
+		final long hash = hash(definition);
+		String name = String.format("%s [%s] %08x", jobKey.getName(), scheduleItem.getCron(),
+				(int) (hash ^ (hash >>> 32)));
+		if (name.length() > MAX_TRIGGER_NAME_LENGTH) {
+			name = String.format("%s %016x", name.substring(0, MAX_TRIGGER_NAME_LENGTH - 17), hash(name));
+		}
+		return new TriggerKey(name, jobKey.getGroup());
+	}
+
+	/**
+	 * @return 64 bit FNV-1a hash of a string's characters
+	 */
+	private static long hash(CharSequence string) {
+		long hash = 0xcbf29ce484222325L;
+		for (int i = 0; i < string.length(); i++) {
+			hash = (hash ^ string.charAt(i)) * 0x100000001b3L;
 		}
-		return triggers;
+		return hash;
 	}
 }
@@ -0,0 +1,20 @@
+package sss.quartz;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Source of the schedule items in a schedule file, read one at a time.
+ * 
+ * @author jsteele
+ */
+interface ScheduleItemSource extends Closeable {
+	/**
+	 * Reads the next schedule item.
+	 * 
+	 * @return next schedule item, or <code>null</code> at the end of the schedule
+	 * @throws IOException
+	 *           if the schedule file could not be read
+	 */
+	ScheduleItemBean next() throws IOException;
+}
@@ -0,0 +1,110 @@
+package sss.quartz;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.quartz.JobKey;
+import org.quartz.TriggerKey;
+import org.quartz.utils.Key;
+
+/**
+ * Parses job and trigger keys in the format [&lt;group&gt;.]&lt;name&gt;, as
+ * used in schedule files and JMX operations.
+ * <p>
+ * The key is split at the first dot, as long as there is something either side
+ * of it; otherwise the whole string is the name, in the default group. So
+ * <code>demoJob.hello</code> is <code>hello</code> in group
+ * <code>demoJob</code>, but <code>.hello</code> and <code>hello.</code> are
+ * names in the default group.
+ * <p>
+ * A schedule has many triggers in a few groups, for a few jobs, so group
+ * strings and job keys are pooled and shared.
+ *
+ * @author jsteele
+ */
+public final class ScheduleKeys {
+	/** Most groups and job keys pooled; beyond this they are not shared. */
+	static final int MAX_POOLED = 10000;
+
+	private static final ConcurrentMap<String, String> groups = new ConcurrentHashMap<String, String>();
+
+	private static final ConcurrentMap<String, JobKey> jobKeys = new ConcurrentHashMap<String, JobKey>();
+
+	private ScheduleKeys() {
+	}
+
+	/**
+	 * Parses a job key.
+	 *
+	 * @param key
+	 *          job key string
+	 * @return shared job key, or <code>null</code> if the string is
+	 *         <code>null</code>
+	 */
+	public static JobKey jobKey(String key) {
+		if (null == key) {
+			return null;
+		}
+		JobKey jobKey = jobKeys.get(key);
+		if (null == jobKey) {
+			final int idx = separator(key);
+			jobKey = idx < 0 ? new JobKey(key, Key.DEFAULT_GROUP) : new JobKey(key.substring(idx + 1),
+					group(key.substring(0, idx)));
+			if (jobKeys.size() < MAX_POOLED) {
+				final JobKey existing = jobKeys.putIfAbsent(key, jobKey);
+				if (null != existing) {
+					jobKey = existing;
+				}
+			}
+		}
+		return jobKey;
+	}
+
+	/**
+	 * Parses a trigger key. Trigger names are mostly unique, so only the group
+	 * is shared.
+	 *
+	 * @param key
+	 *          trigger key string
+	 * @return trigger key, or <code>null</code> if the string is
+	 *         <code>null</code>
+	 */
+	public static TriggerKey triggerKey(String key) {
+		if (null == key) {
+			return null;
+		}
+		final int idx = separator(key);
+		return idx < 0 ? new TriggerKey(key, Key.DEFAULT_GROUP) : new TriggerKey(
+				key.substring(idx + 1), group(key.substring(0, idx)));
+	}
+
+	/**
+	 * Gets the shared instance of a group name.
+	 *
+	 * @param group
+	 *          group name
+	 * @return equal, shared group name
+	 */
+	public static String group(String group) {
+		final String existing = groups.get(group);
+		if (null != existing) {
+			return existing;
+		}
+		if (groups.size() < MAX_POOLED) {
+			final String raced = groups.putIfAbsent(group, group);
+			if (null != raced) {
+				return raced;
+			}
+		}
+		return group;
+	}
+
+	/**
+	 * @return index of the dot between group and name, or -1 if the key has no
+	 *         group
+	 */
+	private static int separator(String key) {
+		final int idx = key.indexOf('.');
+		return idx > 0 && idx < key.length() - 1 ? idx : -1;
+	}
+}
@@ -0,0 +1,306 @@
+package sss.quartz;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import org.quartz.CronTrigger;
+import org.quartz.JobDetail;
+import org.quartz.JobKey;
+import org.quartz.Scheduler;
+import org.quartz.SchedulerException;
+import org.quartz.Trigger;
+import org.quartz.TriggerKey;
+import org.quartz.impl.matchers.GroupMatcher;
+import org.quartz.utils.Key;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import sss.quartz.jdbc.StoreTransactions;
+
+/**
+ * Registers the system jobs and schedule with the scheduler in bulk.
+ * <p>
+ * The trigger keys already in the job store are read once, and only the
+ * triggers that are missing are stored, so the job store takes precedence for
+ * triggers it already has. System jobs are always replaced. New triggers are
+ * stored in batches, each written in a single transaction by
+ * {@link StoreTransactions}, rather than two transactions per trigger. Each
+ * system job is stored once, with its triggers in the first batch that has
+ * any, through {@link Scheduler#scheduleJobs(Map, boolean)}; its triggers in
+ * later batches, and triggers for other jobs, are stored on their own, so that
+ * no job is rewritten more than once and jobs the registrar didn't define are
+ * never rewritten.
+ * <p>
+ * Schedule items without a trigger name used to be given random trigger keys,
+ * so every restart added another trigger for them to the JDBC job store. Their
+ * keys are now derived from the item, so the random-keyed cron triggers of the
+ * schedule's jobs are unscheduled once registration is complete. Only named
+ * items had keys of their own before, so any such trigger is a leftover. Ad
+ * hoc triggers also have random keys, but aren't cron triggers.
+ * <p>
+ * The time spent loading the schedule, reading the job store and storing is
+ * logged once registration is complete. A registrar is used for one
+ * registration, before the scheduler is started.
+ *
+ * @author jsteele
+ */
+public class ScheduleRegistrar {
+	/** Class logger. */
+	private static final Logger log = LoggerFactory.getLogger(ScheduleRegistrar.class);
+
+	/**
+	 * Names Quartz gives triggers built without a key: the default group's name
+	 * hash, then a random UUID.
+	 */
+	private static final Pattern RANDOM_NAME = Pattern.compile(Pattern.quote(UUID
+			.nameUUIDFromBytes(Key.DEFAULT_GROUP.getBytes()).toString().substring(24))
+			+ "-[0-9a-f]{8}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{12}");
+
+	/** Default number of triggers stored per batch. */
+	public static final int DEFAULT_BATCH_SIZE = 1000;
+
+	private final Scheduler scheduler;
+
+	private final StoreTransactions transactions;
+
+	private final int batchSize;
+
+	/** System jobs, by key. */
+	private final Map<JobKey, JobDetail> jobs = new LinkedHashMap<JobKey, JobDetail>();
+
+	/** Jobs that haven't been stored yet. */
+	private final Set<JobKey> unstoredJobs = new LinkedHashSet<JobKey>();
+
+	/** Triggers waiting for the next batch, by job. */
+	private final Map<JobKey, Set<Trigger>> pending = new LinkedHashMap<JobKey, Set<Trigger>>();
+
+	private int pendingCount;
+
+	private long loadNanos;
+
+	private long readNanos;
+
+	private long storeNanos;
+
+	private int loaded;
+
+	private int stored;
+
+	private int batches;
+
+	private int legacy;
+
+	/**
+	 * @param scheduler
+	 *          scheduler to register with
+	 * @param transactions
+	 *          writes each batch in one transaction
+	 * @param batchSize
+	 *          maximum number of triggers stored per batch
+	 */
+	public ScheduleRegistrar(Scheduler scheduler, StoreTransactions transactions, int batchSize) {
+		if (batchSize < 1) {
+			throw new IllegalArgumentException("batch size must be at least 1: " + batchSize);
+		}
+		this.scheduler = scheduler;
+		this.transactions = transactions;
+		this.batchSize = batchSize;
+	}
+
+	/**
+	 * Registers jobs, replacing any already stored, and the triggers in a
+	 * schedule that aren't already stored. The schedule is consumed as it's
+	 * registered, so it may be a {@link ScheduleStream}.
+	 *
+	 * @param systemJobs
+	 *          jobs to register
+	 * @param schedule
+	 *          triggers to register
+	 * @throws SchedulerException
+	 *           if the job store could not be read or written, or a trigger
+	 *           refers to a job that doesn't exist
+	 */
+	public void register(Collection<JobDetail> systemJobs, Iterator<Trigger> schedule)
+			throws SchedulerException {
+		for (final JobDetail job : systemJobs) {
+			jobs.put(job.getKey(), job);
+			unstoredJobs.add(job.getKey());
+		}
+
+		long start = System.nanoTime();
+		final Set<TriggerKey> existing = new HashSet<TriggerKey>(
+				scheduler.getTriggerKeys(GroupMatcher.anyTriggerGroup()));
+		final int existingCount = existing.size();
+		final List<TriggerKey> randomKeys = new ArrayList<TriggerKey>();
+		for (final TriggerKey key : existing) {
+			if (TriggerKey.DEFAULT_GROUP.equals(key.getGroup())
+					&& RANDOM_NAME.matcher(key.getName()).matches()) {
+				randomKeys.add(key);
+			}
+		}
+		readNanos += System.nanoTime() - start;
+		final Set<JobKey> scheduleJobs = new HashSet<JobKey>();
+
+		while (true) {
+			start = System.nanoTime();
+			if (!schedule.hasNext()) {
+				loadNanos += System.nanoTime() - start;
+				break;
+			}
+			final Trigger trigger = schedule.next();
+			loadNanos += System.nanoTime() - start;
+			loaded++;
+			if (!randomKeys.isEmpty()) {
+				scheduleJobs.add(trigger.getJobKey());
+			}
+
+			// The first of any triggers with the same key wins, as it always has
+			if (existing.add(trigger.getKey())) {
+				add(trigger);
+				if (pendingCount >= batchSize) {
+					flush();
+				}
+			}
+		}
+
+		// Jobs without new triggers go in the last batch
+		for (final JobKey jobKey : unstoredJobs) {
+			if (!pending.containsKey(jobKey)) {
+				pending.put(jobKey, new LinkedHashSet<Trigger>());
+			}
+		}
+		flush();
+		if (!randomKeys.isEmpty()) {
+			removeRandomKeyed(randomKeys, scheduleJobs);
+		}
+
+		// @formatter:off
+		log.info(String.format("registered system schedule in %dms: "
+				+ "load %dms (%d triggers), read store %dms (%d existing), "
+				+ "store %dms (%d jobs, %d new triggers in %d batches)",
+				TimeUnit.NANOSECONDS.toMillis(loadNanos + readNanos + storeNanos),
+				TimeUnit.NANOSECONDS.toMillis(loadNanos), loaded,
+				TimeUnit.NANOSECONDS.toMillis(readNanos), existingCount,
+				TimeUnit.NANOSECONDS.toMillis(storeNanos), jobs.size(), stored, batches));
+		// @formatter:on
+	}
+
+	/**
+	 * Unschedules the cron triggers of the schedule's jobs that have random keys,
+	 * left by unnamed schedule items before their keys were derived.
+	 */
+	private void removeRandomKeyed(List<TriggerKey> randomKeys, Set<JobKey> scheduleJobs)
+			throws SchedulerException {
+		final List<TriggerKey> leftovers = new ArrayList<TriggerKey>();
+		for (final TriggerKey key : randomKeys) {
+			final Trigger trigger = scheduler.getTrigger(key);
+			if (trigger instanceof CronTrigger && scheduleJobs.contains(trigger.getJobKey())) {
+				leftovers.add(key);
+			}
+		}
+		if (!leftovers.isEmpty()) {
+			scheduler.unscheduleJobs(leftovers);
+			legacy = leftovers.size();
+			log.info("unscheduled " + legacy
+					+ " randomly keyed triggers left by unnamed schedule items");
+		}
+	}
+
+	/**
+	 * Adds a trigger to the next batch.
+	 */
+	private void add(Trigger trigger) {
+		final JobKey jobKey = trigger.getJobKey();
+		Set<Trigger> triggers = pending.get(jobKey);
+		if (null == triggers) {
+			triggers = new LinkedHashSet<Trigger>();
+			pending.put(jobKey, triggers);
+		}
+		triggers.add(trigger);
+		pendingCount++;
+	}
+
+	/**
+	 * Stores the pending triggers, and the system jobs not yet stored, in one
+	 * batch.
+	 */
+	private void flush() throws SchedulerException {
+		if (pending.isEmpty()) {
+			return;
+		}
+		final Map<JobDetail, Set<? extends Trigger>> batch = new LinkedHashMap<JobDetail, Set<? extends Trigger>>();
+		final List<Trigger> others = new ArrayList<Trigger>();
+		for (final Map.Entry<JobKey, Set<Trigger>> entry : pending.entrySet()) {
+			final JobKey jobKey = entry.getKey();
+			final JobDetail job = unstoredJobs.contains(jobKey) ? jobs.get(jobKey) : null;
+			if (null != job) {
+				batch.put(job, entry.getValue());
+			} else {
+				others.addAll(entry.getValue());
+			}
+		}
+
+		final long start = System.nanoTime();
+		transactions.execute(new StoreTransactions.Writes() {
+			@Override
+			public void write() throws SchedulerException {
+				// Replaces the system jobs, once; the triggers are known not to exist
+				if (!batch.isEmpty()) {
+					scheduler.scheduleJobs(batch, true);
+				}
+				// Fails if the job doesn't exist, or wasn't stored in an earlier batch
+				for (final Trigger trigger : others) {
+					scheduler.scheduleJob(trigger);
+				}
+			}
+		});
+		storeNanos += System.nanoTime() - start;
+		batches++;
+		stored += pendingCount;
+		log.debug(String.format("stored batch of %d triggers for %d jobs", pendingCount,
+				pending.size()));
+
+		unstoredJobs.removeAll(pending.keySet());
+		pending.clear();
+		pendingCount = 0;
+	}
+
+	/**
+	 * @return triggers stored by the registration
+	 */
+	public int getStored() {
+		return stored;
+	}
+
+	/**
+	 * @return batches stored by the registration
+	 */
+	public int getBatches() {
+		return batches;
+	}
+
+	/**
+	 * @return randomly keyed triggers of unnamed schedule items unscheduled by
+	 *         the registration
+	 */
+	public int getLegacy() {
+		return legacy;
+	}
+
+	/**
+	 * @return triggers read from the schedule by the registration
+	 */
+	public int getLoaded() {
+		return loaded;
+	}
+}
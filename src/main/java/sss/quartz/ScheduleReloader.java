@@ -0,0 +1,441 @@
+package sss.quartz;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static sss.quartz.ScheduleItemListBuilder.findSchedule;
+import static sss.quartz.ScheduleItemListBuilder.streamSchedule;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import javax.management.OperationsException;
+
+import org.quartz.CronTrigger;
+import org.quartz.Scheduler;
+import org.quartz.SchedulerException;
+import org.quartz.Trigger;
+import org.quartz.TriggerKey;
+import org.quartz.impl.matchers.GroupMatcher;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedOperation;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.stereotype.Component;
+
+import sss.quartz.jdbc.StoreTransactions;
+
+/**
+ * Reloads the system schedule while the scheduler is running, applying only
+ * what has changed. This is the "merge" approach to schedule changes described
+ * in {@link SchedulerConfig#scheduler()}.
+ * <p>
+ * When <code>sss.schedule.watch</code> is set, the schedule's triggers as
+ * stored in the job store at startup are remembered as a fingerprint per
+ * trigger. Each reload streams the
+ * schedule file and compares it against those fingerprints: triggers that are
+ * new, or whose job, cron expression, priority, misfire instruction, job data
+ * or description have changed, are stored, replacing any existing trigger, and
+ * triggers no longer in the schedule are unscheduled. Both are applied in
+ * batches of <code>sss.schedule.batchSize</code> triggers; with the JDBC job
+ * store each batch of changes is written in one transaction by
+ * {@link StoreTransactions}. The job store's trigger keys are read once per
+ * reload, so that unchanged triggers that have gone from it, such as ones
+ * unscheduled through JMX, are restored. Jobs are not rewritten. The scheduler
+ * keeps firing throughout. Triggers the schedule doesn't mention, such as ad
+ * hoc ones, are left alone.
+ * <p>
+ * Registration keeps triggers that are already stored, so if the schedule file
+ * was edited while the application was down the job store is out of date. Each
+ * of the schedule's triggers is read from the job store once at startup, and
+ * if any differs from the file, or is missing, the file is reloaded straight
+ * away.
+ * <p>
+ * If the schedule file is on the filesystem, including a classpath directory,
+ * it is watched and reloaded whenever it changes. A reload can also be
+ * requested through JMX.
+ *
+ * @author jsteele
+ */
+@ManagedResource(objectName = "sss.quartz:name=ScheduleReloader", description = "Reloads changes to the system schedule.")
+@Component
+public class ScheduleReloader implements InitializingBean, DisposableBean {
+	/** Class logger. */
+	private static final Logger log = LoggerFactory.getLogger(ScheduleReloader.class);
+
+	/** Time to let a file settle after a change before reloading it, in ms. */
+	private static final long SETTLE_MS = 500;
+
+	@Autowired
+	private Scheduler scheduler;
+
+	@Autowired
+	private Environment env;
+
+	@Autowired
+	private StoreTransactions transactions;
+
+	private String scheduleFile;
+
+	private boolean enabled;
+
+	private int batchSize;
+
+	/** Fingerprints of the triggers in the schedule as last applied. */
+	private final Map<TriggerKey, Long> applied = new HashMap<TriggerKey, Long>();
+
+	private WatchService watchService;
+
+	private Thread watcher;
+
+	private volatile long reloads;
+
+	private volatile long failures;
+
+	private volatile Date lastReload;
+
+	private volatile String lastResult;
+
+	/**
+	 * Remembers the schedule as stored at startup, applies the schedule file if
+	 * it differs, and starts watching it, if reloading is enabled.
+	 *
+	 * @throws IOException
+	 *           if the schedule file could not be read
+	 * @throws SchedulerException
+	 *           if the job store could not be read, or the schedule file could
+	 *           not be applied
+	 * @throws OperationsException
+	 *           never; reloading is enabled
+	 */
+	@Override
+	public void afterPropertiesSet() throws IOException, SchedulerException, OperationsException {
+		scheduleFile = env.getProperty(SchedulerConfig.SCHEDULE_KEY);
+		enabled = null != scheduleFile
+				&& env.getProperty(SchedulerConfig.WATCH_KEY, Boolean.class, false);
+		if (!enabled) {
+			return;
+		}
+		batchSize = env.getProperty(SchedulerConfig.BATCH_SIZE_KEY, Integer.class,
+				ScheduleRegistrar.DEFAULT_BATCH_SIZE);
+
+		int stale = 0;
+		synchronized (applied) {
+			try (ScheduleStream stream = streamSchedule(scheduleFile)) {
+				while (stream.hasNext()) {
+					final Trigger trigger = stream.next();
+					if (applied.containsKey(trigger.getKey())) {
+						continue;
+					}
+					final Trigger stored = scheduler.getTrigger(trigger.getKey());
+					if (null == stored) {
+						// Restored by the reload
+						applied.put(trigger.getKey(), fingerprint(trigger));
+						stale++;
+						continue;
+					}
+					final long fingerprint = fingerprint(stored);
+					applied.put(trigger.getKey(), fingerprint);
+					if (fingerprint != fingerprint(trigger)) {
+						stale++;
+					}
+				}
+			}
+		}
+		if (stale > 0) {
+			log.info(stale + " triggers in the job store differ from schedule file '" + scheduleFile
+					+ "'; applying it");
+			reload();
+		}
+
+		final Path path = watchablePath(scheduleFile);
+		if (null == path) {
+			log.warn("schedule file '" + scheduleFile
+					+ "' is not on the filesystem and can't be watched; reload it through JMX");
+			return;
+		}
+		watchService = path.getFileSystem().newWatchService();
+		path.getParent().register(watchService, ENTRY_CREATE, ENTRY_MODIFY);
+		watcher = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				watch(path.getFileName());
+			}
+		}, "ScheduleReloader");
+		watcher.setDaemon(true);
+		watcher.start();
+		log.info("watching schedule file " + path + " for changes");
+	}
+
+	@Override
+	public void destroy() throws IOException, InterruptedException {
+		if (null != watchService) {
+			watchService.close();
+			watcher.join();
+		}
+	}
+
+	@ManagedAttribute(description = "Whether the system schedule can be reloaded")
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	@ManagedAttribute(description = "Whether the system schedule file is watched for changes")
+	public boolean isWatching() {
+		return null != watcher && watcher.isAlive();
+	}
+
+	@ManagedAttribute(description = "Number of reloads applied")
+	public long getReloads() {
+		return reloads;
+	}
+
+	@ManagedAttribute(description = "Number of reloads that failed")
+	public long getFailures() {
+		return failures;
+	}
+
+	@ManagedAttribute(description = "Time of the last reload")
+	public String getLastReload() {
+		return null == lastReload ? null : lastReload.toString();
+	}
+
+	@ManagedAttribute(description = "Outcome of the last reload")
+	public String getLastResult() {
+		return lastResult;
+	}
+
+	/**
+	 * Reloads the system schedule and applies what has changed since it was
+	 * last applied.
+	 *
+	 * @return summary of the changes applied
+	 * @throws OperationsException
+	 *           if reloading is not enabled
+	 * @throws IOException
+	 *           if the schedule file could not be read; nothing is applied
+	 * @throws SchedulerException
+	 *           if changes could not be applied; those not yet applied will be
+	 *           tried again on the next reload
+	 */
+	@ManagedOperation(description = "Reloads the system schedule, applying only what has changed")
+	public String reload() throws OperationsException, IOException, SchedulerException {
+		if (!isEnabled()) {
+			throw new OperationsException("schedule reloading is not enabled ("
+					+ SchedulerConfig.WATCH_KEY + ")");
+		}
+		synchronized (applied) {
+			final long start = System.currentTimeMillis();
+			try {
+				final String result = apply(start);
+				reloads++;
+				lastResult = result;
+				log.info(result);
+				return result;
+			} catch (IOException | SchedulerException | RuntimeException e) {
+				failures++;
+				lastResult = "failed: " + e.getMessage();
+				throw e;
+			} finally {
+				lastReload = new Date(start);
+			}
+		}
+	}
+
+	/**
+	 * Works out and applies the difference between the schedule file and the
+	 * schedule last applied. The whole file is read, and validated unless
+	 * <code>sss.schedule.validate</code> is false, before anything is applied,
+	 * so a file that doesn't parse or isn't valid changes nothing.
+	 */
+	private String apply(long start) throws IOException, SchedulerException {
+		if (env.getProperty(SchedulerConfig.VALIDATE_KEY, Boolean.class, true)) {
+			SchedulerConfig.scheduleValidator(env,
+					scheduler.getJobKeys(GroupMatcher.anyJobGroup())).check(scheduleFile);
+		}
+		final Set<TriggerKey> existing = new HashSet<TriggerKey>(
+				scheduler.getTriggerKeys(GroupMatcher.anyTriggerGroup()));
+		final Map<TriggerKey, Long> fingerprints = new HashMap<TriggerKey, Long>();
+		final List<Trigger> changed = new ArrayList<Trigger>();
+		int added = 0;
+		int restored = 0;
+		try (ScheduleStream stream = streamSchedule(scheduleFile)) {
+			while (stream.hasNext()) {
+				final Trigger trigger = stream.next();
+				if (fingerprints.containsKey(trigger.getKey())) {
+					// Without validation, the first of any with the same key wins
+					continue;
+				}
+				final Long fingerprint = fingerprint(trigger);
+				fingerprints.put(trigger.getKey(), fingerprint);
+				final Long previous = applied.get(trigger.getKey());
+				if (null == previous) {
+					added++;
+					changed.add(trigger);
+				} else if (!previous.equals(fingerprint)) {
+					changed.add(trigger);
+				} else if (!existing.contains(trigger.getKey())) {
+					restored++;
+					changed.add(trigger);
+				}
+			}
+		} catch (UncheckedIOException uioe) {
+			throw uioe.getCause();
+		}
+		final List<TriggerKey> removed = new ArrayList<TriggerKey>();
+		for (final TriggerKey key : applied.keySet()) {
+			if (!fingerprints.containsKey(key)) {
+				removed.add(key);
+			}
+		}
+
+		for (int from = 0; from < removed.size(); from += batchSize) {
+			final List<TriggerKey> batch = removed.subList(from,
+					Math.min(removed.size(), from + batchSize));
+			scheduler.unscheduleJobs(batch);
+			applied.keySet().removeAll(batch);
+		}
+
+		for (int from = 0; from < changed.size(); from += batchSize) {
+			final List<Trigger> batch = changed.subList(from, Math.min(changed.size(), from + batchSize));
+			transactions.execute(new StoreTransactions.Writes() {
+				@Override
+				public void write() throws SchedulerException {
+					for (final Trigger trigger : batch) {
+						store(trigger);
+					}
+				}
+			});
+			for (final Trigger trigger : batch) {
+				applied.put(trigger.getKey(), fingerprints.get(trigger.getKey()));
+			}
+		}
+
+		// @formatter:off
+		return String.format("reloaded schedule '%s' in %dms: %d added, %d changed, %d removed, %d restored",
+				scheduleFile, System.currentTimeMillis() - start, added, changed.size() - added - restored,
+				removed.size(), restored);
+		// @formatter:on
+	}
+
+	/**
+	 * Stores a trigger, replacing any with the same key, without rewriting its
+	 * job as {@link Scheduler#scheduleJobs(Map, boolean)} would.
+	 */
+	private void store(Trigger trigger) throws SchedulerException {
+		final Trigger stored = scheduler.getTrigger(trigger.getKey());
+		if (null != stored && stored.getJobKey().equals(trigger.getJobKey())) {
+			scheduler.rescheduleJob(trigger.getKey(), trigger);
+			return;
+		}
+		if (null != stored) {
+			// Moved to another job, which rescheduling doesn't allow
+			scheduler.unscheduleJob(trigger.getKey());
+		}
+		// Fails if the job doesn't exist
+		scheduler.scheduleJob(trigger);
+	}
+
+	/**
+	 * Waits for the schedule file to change and reloads it, until the watch
+	 * service is closed.
+	 */
+	private void watch(Path fileName) {
+		try {
+			while (true) {
+				if (!fileChanged(watchService.take(), fileName)) {
+					continue;
+				}
+				// Editors often write a file in several steps
+				Thread.sleep(SETTLE_MS);
+				WatchKey key;
+				while (null != (key = watchService.poll())) {
+					fileChanged(key, fileName);
+				}
+				try {
+					reload();
+				} catch (Exception e) {
+					log.error("error reloading schedule file '" + scheduleFile + "': " + e.getMessage(), e);
+				}
+			}
+		} catch (ClosedWatchServiceException cwse) {
+			log.info("stopped watching schedule file '" + scheduleFile + "'");
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static boolean fileChanged(WatchKey key, Path fileName) {
+		boolean changed = false;
+		for (final WatchEvent<?> event : key.pollEvents()) {
+			if (fileName.equals(event.context())) {
+				changed = true;
+			}
+		}
+		key.reset();
+		return changed;
+	}
+
+	/**
+	 * @return the schedule file's path, if it is on the default filesystem
+	 */
+	private static Path watchablePath(String scheduleFile) {
+		final URL url = findSchedule(scheduleFile);
+		if (null == url || !"file".equals(url.getProtocol())) {
+			return null;
+		}
+		try {
+			return Paths.get(url.toURI()).toAbsolutePath();
+		} catch (URISyntaxException use) {
+			return null;
+		}
+	}
+
+	/**
+	 * Fingerprints the parts of a trigger the schedule file defines, so changes
+	 * can be detected without holding on to the triggers.
+	 *
+	 * @return 64 bit FNV-1a hash of the trigger definition
+	 */
+	static long fingerprint(Trigger trigger) {
+		final StringBuilder definition = new StringBuilder();
+		definition.append(trigger.getJobKey()).append('\n');
+		if (trigger instanceof CronTrigger) {
+			final CronTrigger cronTrigger = (CronTrigger) trigger;
+			definition.append(cronTrigger.getCronExpression()).append('\n');
+			definition.append(cronTrigger.getTimeZone().getID()).append('\n');
+		}
+		definition.append(trigger.getPriority()).append('\n');
+		definition.append(trigger.getMisfireInstruction()).append('\n');
+		definition.append(trigger.getDescription()).append('\n');
+		definition.append(new TreeMap<String, Object>(trigger.getJobDataMap().getWrappedMap()));
+
+		long hash = 0xcbf29ce484222325L;
+		for (final byte b : definition.toString().getBytes(StandardCharsets.UTF_8)) {
+			hash ^= b & 0xff;
+			hash *= 0x100000001b3L;
+		}
+		return hash;
+	}
+}
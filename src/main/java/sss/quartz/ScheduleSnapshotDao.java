@@ -0,0 +1,157 @@
+package sss.quartz;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import javax.sql.DataSource;
+
+import org.quartz.JobKey;
+import org.quartz.Scheduler;
+import org.quartz.SchedulerException;
+import org.quartz.Trigger;
+import org.quartz.TriggerKey;
+import org.quartz.impl.matchers.GroupMatcher;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.stereotype.Component;
+
+/**
+ * Reads a snapshot of the triggers in the scheduler for reporting.
+ * <p>
+ * When the scheduler is backed by the JDBC job store, the snapshot is read
+ * with a single query joining the trigger and cron trigger tables. This avoids
+ * the one-lookup-per-trigger pattern of the {@link Scheduler} API, which costs
+ * a connection and transaction per trigger. The query doesn't take any of the
+ * Quartz locks, so it doesn't compete with trigger acquisition. Otherwise the
+ * in-memory job store is read through the {@link Scheduler} API.
+ *
+ * @author jsteele
+ */
+@Component
+public class ScheduleSnapshotDao {
+	// @formatter:off
+	private static final String SELECT_TRIGGERS = "SELECT T.TRIGGER_GROUP, T.TRIGGER_NAME, T.DESCRIPTION,"
+			+ " T.JOB_GROUP, T.JOB_NAME, T.PREV_FIRE_TIME, C.CRON_EXPRESSION"
+			+ " FROM " + SchedulerConfig.TABLE_PREFIX + "TRIGGERS T"
+			+ " LEFT OUTER JOIN " + SchedulerConfig.TABLE_PREFIX + "CRON_TRIGGERS C"
+			+ " ON C.SCHED_NAME = T.SCHED_NAME AND C.TRIGGER_GROUP = T.TRIGGER_GROUP AND C.TRIGGER_NAME = T.TRIGGER_NAME"
+			+ " WHERE T.SCHED_NAME = ?";
+	// @formatter:on
+
+	private static final String GROUP_FILTER = " AND T.TRIGGER_GROUP = ?";
+
+	private static final String ORDER_BY = " ORDER BY T.TRIGGER_GROUP, T.TRIGGER_NAME";
+
+	private static final String PAGE = " LIMIT ? OFFSET ?";
+
+	/** Maps a row of the trigger query to a summary. */
+	private static final RowMapper<TriggerSummary> ROW_MAPPER = new RowMapper<TriggerSummary>() {
+		@Override
+		public TriggerSummary mapRow(ResultSet rs, int rowNum) throws SQLException {
+			final long prevFireTime = rs.getLong("PREV_FIRE_TIME");
+			// @formatter:off
+			return new TriggerSummary(
+					new TriggerKey(rs.getString("TRIGGER_NAME"), rs.getString("TRIGGER_GROUP")),
+					rs.getString("DESCRIPTION"),
+					new JobKey(rs.getString("JOB_NAME"), rs.getString("JOB_GROUP")),
+					rs.getString("CRON_EXPRESSION"),
+					prevFireTime > 0 ? new Date(prevFireTime) : null);
+			// @formatter:on
+		}
+	};
+
+	@Autowired
+	private Scheduler scheduler;
+
+	@Autowired(required = false)
+	@Qualifier("quartzDataSource")
+	private DataSource dataSource;
+
+	/**
+	 * Reads a page of trigger summaries, ordered by trigger group and name.
+	 *
+	 * @param group
+	 *          trigger group to restrict the snapshot to, or null/empty for all
+	 *          groups
+	 * @param offset
+	 *          number of triggers to skip
+	 * @param limit
+	 *          maximum number of triggers to return, or &lt;= 0 for no limit
+	 * @return trigger summaries
+	 * @throws SchedulerException
+	 *           if the snapshot could not be read
+	 */
+	public List<TriggerSummary> readTriggers(String group, int offset, int limit)
+			throws SchedulerException {
+		final boolean anyGroup = null == group || group.isEmpty();
+		final int first = Math.max(offset, 0);
+		if (null == dataSource) {
+			return readTriggersFromScheduler(anyGroup ? null : group, first, limit);
+		} else {
+			return readTriggersFromStore(anyGroup ? null : group, first, limit);
+		}
+	}
+
+	/**
+	 * Reads trigger summaries from the JDBC job store in one query.
+	 */
+	private List<TriggerSummary> readTriggersFromStore(String group, int offset, int limit)
+			throws SchedulerException {
+		final StringBuilder sql = new StringBuilder(SELECT_TRIGGERS);
+		final List<Object> args = new ArrayList<Object>();
+		args.add(scheduler.getSchedulerName());
+		if (null != group) {
+			sql.append(GROUP_FILTER);
+			args.add(group);
+		}
+		sql.append(ORDER_BY);
+		if (limit > 0 || offset > 0) {
+			sql.append(PAGE);
+			args.add(limit > 0 ? limit : Integer.MAX_VALUE);
+			args.add(offset);
+		}
+
+		try {
+			return new JdbcTemplate(dataSource).query(sql.toString(), args.toArray(), ROW_MAPPER);
+		} catch (DataAccessException dae) {
+			throw new SchedulerException("error reading trigger snapshot: " + dae.getMessage(), dae);
+		}
+	}
+
+	/**
+	 * Reads trigger summaries through the scheduler API. Only the triggers in
+	 * the requested page are looked up.
+	 */
+	private List<TriggerSummary> readTriggersFromScheduler(String group, int offset, int limit)
+			throws SchedulerException {
+		final GroupMatcher<TriggerKey> matcher = null == group ? GroupMatcher.anyTriggerGroup()
+				: GroupMatcher.triggerGroupEquals(group);
+		final Set<TriggerKey> triggerKeys = new TreeSet<TriggerKey>(scheduler.getTriggerKeys(matcher));
+
+		final List<TriggerSummary> triggers = new ArrayList<TriggerSummary>();
+		int idx = 0;
+		for (final TriggerKey triggerKey : triggerKeys) {
+			if (limit > 0 && triggers.size() >= limit) {
+				break;
+			}
+			if (idx++ < offset) {
+				continue;
+			}
+			final Trigger trigger = scheduler.getTrigger(triggerKey);
+			if (null == trigger) {
+				// Removed since the keys were read
+				continue;
+			}
+			triggers.add(TriggerSummary.of(trigger));
+		}
+		return triggers;
+	}
+}
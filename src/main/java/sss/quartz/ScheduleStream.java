@@ -0,0 +1,116 @@
+package sss.quartz;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.quartz.Trigger;
+
+/**
+ * Stream of the triggers in a schedule file. Each schedule item is read and
+ * built into a trigger only when it's asked for, so only one schedule item is
+ * held in memory at a time however large the schedule is.
+ * <p>
+ * Created by {@link ScheduleItemListBuilder#streamSchedule(String)}. The
+ * stream is closed automatically once the last trigger has been read, or if
+ * reading the next one fails; close it explicitly if iteration stops early.
+ *
+ * @author jsteele
+ */
+public class ScheduleStream implements Iterator<Trigger>, Closeable {
+	/** Path, URL or name of resource schedule was loaded from. */
+	private final String path;
+
+	private final ScheduleItemSource source;
+
+	/** Next trigger, if it has been read ahead by {@link #hasNext()}. */
+	private Trigger next;
+
+	private boolean closed;
+
+	/** Schedule items read so far. */
+	private int read;
+
+	ScheduleStream(String path, ScheduleItemSource source) {
+		this.path = path;
+		this.source = source;
+	}
+
+	/**
+	 * @throws UncheckedIOException
+	 *           if the next schedule item could not be read
+	 * @throws ScheduleValidationException
+	 *           if the next schedule item is invalid
+	 */
+	@Override
+	public boolean hasNext() {
+		if (null != next) {
+			return true;
+		}
+		if (closed) {
+			return false;
+		}
+		try {
+			final ScheduleItemBean scheduleItem = source.next();
+			if (null == scheduleItem) {
+				close();
+				return false;
+			}
+			try {
+				next = ScheduleItemListBuilder.buildTrigger(path, scheduleItem);
+			} catch (RuntimeException e) {
+				// Triggers before it may already be in use, so stop at the first
+				throw new ScheduleValidationException(path, Collections.singletonList(
+						ScheduleItemListBuilder.describe(read, scheduleItem) + ": " + e.getMessage()));
+			}
+			read++;
+			return true;
+		} catch (IOException ioe) {
+			final UncheckedIOException uioe = new UncheckedIOException("error reading schedule file '"
+					+ path + "': " + ioe.getMessage(), ioe);
+			closeAfter(uioe);
+			throw uioe;
+		} catch (RuntimeException re) {
+			closeAfter(re);
+			throw re;
+		}
+	}
+
+	@Override
+	public Trigger next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		final Trigger trigger = next;
+		next = null;
+		return trigger;
+	}
+
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (!closed) {
+			closed = true;
+			source.close();
+		}
+	}
+
+	/**
+	 * Closes the stream once reading it has failed, keeping the failure as the
+	 * exception thrown.
+	 */
+	private void closeAfter(RuntimeException failure) {
+		try {
+			close();
+		} catch (IOException | RuntimeException e) {
+			failure.addSuppressed(e);
+		}
+	}
+}
@@ -0,0 +1,60 @@
+package sss.quartz;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Thrown when schedule items can't be built into triggers. Every invalid item
+ * in the schedule is reported, not just the first.
+ *
+ * @author jsteele
+ */
+public class ScheduleValidationException extends IllegalArgumentException {
+	private static final long serialVersionUID = 1L;
+
+	/** Most errors listed in the message; all are available from getErrors. */
+	private static final int MAX_REPORTED = 10;
+
+	private final String path;
+
+	private final List<String> errors;
+
+	/**
+	 * @param path
+	 *          path, URL or name of resource schedule was loaded from
+	 * @param errors
+	 *          one message per invalid item, in schedule order
+	 */
+	public ScheduleValidationException(String path, List<String> errors) {
+		super(message(path, errors));
+		this.path = path;
+		this.errors = Collections.unmodifiableList(errors);
+	}
+
+	/**
+	 * @return path, URL or name of resource schedule was loaded from
+	 */
+	public String getPath() {
+		return path;
+	}
+
+	/**
+	 * @return one message per invalid item, in schedule order
+	 */
+	public List<String> getErrors() {
+		return errors;
+	}
+
+	private static String message(String path, List<String> errors) {
+		final StringBuilder message = new StringBuilder();
+		message.append(errors.size()).append(1 == errors.size() ? " invalid item" : " invalid items")
+				.append(" in schedule '").append(path).append("'");
+		for (int i = 0; i < errors.size() && i < MAX_REPORTED; i++) {
+			message.append(i == 0 ? ": " : "; ").append(errors.get(i));
+		}
+		if (errors.size() > MAX_REPORTED) {
+			message.append("; and ").append(errors.size() - MAX_REPORTED).append(" more");
+		}
+		return message.toString();
+	}
+}
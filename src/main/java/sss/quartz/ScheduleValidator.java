@@ -0,0 +1,278 @@
+package sss.quartz;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.quartz.JobKey;
+import org.quartz.TriggerKey;
+
+import sss.quartz.catchup.CatchUpManager;
+import sss.quartz.cron.CronExpressionCache;
+
+/**
+ * Validates a schedule before any of it is registered, reporting every problem
+ * at once. A schedule that only fails partway through registration leaves the
+ * job store half updated, which is awkward to recover from with bulk loads and
+ * clustering.
+ * <p>
+ * Each item is checked for:
+ * <ul>
+ * <li>a job, which must be one of the known jobs;</li>
+ * <li>a valid cron expression;</li>
+ * <li>a priority, if it has one, within the range given, if any;</li>
+ * <li>a catch-up rate, if it has one, that is positive and goes with a
+ * catch-up misfire instruction;</li>
+ * <li>a trigger key no earlier item has.</li>
+ * </ul>
+ * Items are only read, not built into triggers, so this is quick; valid cron
+ * expressions are parsed into {@link CronExpressionCache}, ready for the
+ * build. The schedule is read a second time only if two trigger keys hash the
+ * same. A validator is not thread safe.
+ *
+ * @author jsteele
+ */
+public class ScheduleValidator {
+	private final Set<JobKey> jobKeys;
+
+	/** Lowest priority allowed, or <code>null</code> for no limit. */
+	private final Integer minPriority;
+
+	/** Highest priority allowed, or <code>null</code> for no limit. */
+	private final Integer maxPriority;
+
+	private int items;
+
+	/**
+	 * @param jobKeys
+	 *          jobs schedule items may refer to
+	 * @param minPriority
+	 *          lowest priority allowed, or <code>null</code> for no limit
+	 * @param maxPriority
+	 *          highest priority allowed, or <code>null</code> for no limit
+	 */
+	public ScheduleValidator(Collection<JobKey> jobKeys, Integer minPriority, Integer maxPriority) {
+		this.jobKeys = new HashSet<JobKey>(jobKeys);
+		this.minPriority = minPriority;
+		this.maxPriority = maxPriority;
+	}
+
+	/**
+	 * @return number of items in the schedule last validated
+	 */
+	public int getItems() {
+		return items;
+	}
+
+	/**
+	 * Validates a schedule file.
+	 *
+	 * @param path
+	 *          classpath resource, file path or URL of schedule file
+	 * @return one message per problem, in schedule order; empty if the schedule
+	 *         is valid
+	 * @throws IOException
+	 *           if the schedule file could not be found or parsed
+	 */
+	public List<String> validate(String path) throws IOException {
+		final List<String> errors = new ArrayList<String>();
+		final List<Integer> errorItems = new ArrayList<Integer>();
+		final Set<Long> suspects;
+		try (ScheduleItemSource source = ScheduleItemListBuilder.openSource(path)) {
+			suspects = checkItems(source, errors, errorItems);
+		}
+		if (suspects.isEmpty()) {
+			return errors;
+		}
+		final List<String> duplicates = new ArrayList<String>();
+		final List<Integer> duplicateItems = new ArrayList<Integer>();
+		try (ScheduleItemSource source = ScheduleItemListBuilder.openSource(path)) {
+			findDuplicates(source, suspects, duplicates, duplicateItems);
+		}
+		return merge(errors, errorItems, duplicates, duplicateItems);
+	}
+
+	/**
+	 * Validates a schedule file, throwing if it isn't valid.
+	 *
+	 * @param path
+	 *          classpath resource, file path or URL of schedule file
+	 * @throws ScheduleValidationException
+	 *           if the schedule isn't valid; every problem is reported
+	 * @throws IOException
+	 *           if the schedule file could not be found or parsed
+	 */
+	public void check(String path) throws IOException {
+		final List<String> errors = validate(path);
+		if (!errors.isEmpty()) {
+			throw new ScheduleValidationException(path, errors);
+		}
+	}
+
+	/**
+	 * Checks each item on its own, and hashes its trigger key. Holding a million
+	 * trigger keys to look for duplicates costs more than everything else put
+	 * together, so only the hashes are kept.
+	 * 
+	 * @return hashes of trigger keys seen more than once, usually none
+	 */
+	private Set<Long> checkItems(ScheduleItemSource source, List<String> errors,
+			List<Integer> errorItems) throws IOException {
+		long[] hashes = new long[1024];
+		int keys = 0;
+		items = 0;
+		ScheduleItemBean item;
+		while (null != (item = source.next())) {
+			final int before = errors.size();
+			final JobKey jobKey = item.getJobKey();
+			if (null == jobKey) {
+				errors.add(describe(items, item) + ": no job");
+			} else if (!jobKeys.contains(jobKey)) {
+				errors.add(describe(items, item) + ": unknown job " + jobKey);
+			}
+
+			if (null == item.getCron()) {
+				errors.add(describe(items, item) + ": no cron expression");
+			} else {
+				try {
+					CronExpressionCache.get(item.getCron());
+				} catch (IllegalArgumentException iae) {
+					errors.add(describe(items, item) + ": " + iae.getMessage());
+				}
+			}
+
+			final Integer priority = item.getPriority();
+			if (null != priority
+					&& ((null != minPriority && priority < minPriority)
+							|| (null != maxPriority && priority > maxPriority))) {
+				errors.add(String.format("%s: priority %d is %s", describe(items, item), priority,
+						describeRange()));
+			}
+
+			final Integer catchUpRate = item.getCatchUpRate();
+			if (null != catchUpRate) {
+				if (catchUpRate < 1) {
+					errors.add(String.format("%s: catch-up rate %d is not positive", describe(items, item),
+							catchUpRate));
+				} else if (!CatchUpManager.isCatchUp(item.getOnMisfire())) {
+					errors.add(describe(items, item) + ": catch-up rate without a catch-up misfire instruction");
+				}
+			}
+
+			for (int i = before; i < errors.size(); i++) {
+				errorItems.add(items);
+			}
+
+			final TriggerKey triggerKey = triggerKey(item);
+			if (null != triggerKey) {
+				if (keys == hashes.length) {
+					hashes = Arrays.copyOf(hashes, keys * 2);
+				}
+				hashes[keys++] = hash(triggerKey);
+			}
+			items++;
+		}
+
+		Arrays.sort(hashes, 0, keys);
+		final Set<Long> suspects = new HashSet<Long>();
+		for (int i = 1; i < keys; i++) {
+			if (hashes[i] == hashes[i - 1]) {
+				suspects.add(hashes[i]);
+			}
+		}
+		return suspects;
+	}
+
+	/**
+	 * Compares the trigger keys whose hashes were seen more than once, to find
+	 * the real duplicates.
+	 */
+	private void findDuplicates(ScheduleItemSource source, Set<Long> suspects,
+			List<String> duplicates, List<Integer> duplicateItems) throws IOException {
+		final Map<TriggerKey, Integer> firsts = new HashMap<TriggerKey, Integer>();
+		int index = 0;
+		ScheduleItemBean item;
+		while (null != (item = source.next())) {
+			final TriggerKey triggerKey = triggerKey(item);
+			if (null != triggerKey && suspects.contains(hash(triggerKey))) {
+				final Integer first = firsts.get(triggerKey);
+				if (null == first) {
+					firsts.put(triggerKey, index);
+				} else {
+					duplicates.add(describe(index, item) + ": duplicate trigger " + triggerKey
+							+ ", first at item " + (first + 1));
+					duplicateItems.add(index);
+				}
+			}
+			index++;
+		}
+	}
+
+	/**
+	 * Merges the duplicate errors into the others, in schedule order; an item's
+	 * duplicate error comes after its other errors.
+	 */
+	private static List<String> merge(List<String> errors, List<Integer> errorItems,
+			List<String> duplicates, List<Integer> duplicateItems) {
+		final List<String> merged = new ArrayList<String>(errors.size() + duplicates.size());
+		int e = 0;
+		int d = 0;
+		while (e < errors.size() || d < duplicates.size()) {
+			if (d == duplicates.size()
+					|| (e < errors.size() && errorItems.get(e) <= duplicateItems.get(d))) {
+				merged.add(errors.get(e++));
+			} else {
+				merged.add(duplicates.get(d++));
+			}
+		}
+		return merged;
+	}
+
+	/**
+	 * @return trigger key of an item, or <code>null</code> if it has neither a
+	 *         trigger name nor a job to identify it
+	 */
+	private static TriggerKey triggerKey(ScheduleItemBean item) {
+		return null == item.getTrigger() && null == item.getJobKey() ? null
+				: ScheduleItemListBuilder.triggerKey(item);
+	}
+
+	/**
+	 * @return 64 bit FNV-1a hash of a trigger key
+	 */
+	private static long hash(TriggerKey triggerKey) {
+		long hash = 0xcbf29ce484222325L;
+		hash = hash(hash, triggerKey.getGroup());
+		hash = (hash ^ 0xffff) * 0x100000001b3L;
+		return hash(hash, triggerKey.getName());
+	}
+
+	private static long hash(long hash, String string) {
+		for (int i = 0; i < string.length(); i++) {
+			hash = (hash ^ string.charAt(i)) * 0x100000001b3L;
+		}
+		return hash;
+	}
+
+	/**
+	 * @return the priorities not allowed, such as "outside 1 to 10"
+	 */
+	private String describeRange() {
+		if (null == minPriority) {
+			return "above " + maxPriority;
+		} else if (null == maxPriority) {
+			return "below " + minPriority;
+		}
+		return "outside " + minPriority + " to " + maxPriority;
+	}
+
+	private static String describe(int index, ScheduleItemBean item) {
+		return ScheduleItemListBuilder.describe(index, item);
+	}
+}
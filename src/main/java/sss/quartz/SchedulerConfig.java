@@ -1,39 +1,133 @@
 package sss.quartz;
 
 import static sss.quartz.ScheduleItemListBuilder.loadSchedule;
+import static sss.quartz.ScheduleItemListBuilder.streamSchedule;
 
+import java.beans.PropertyDescriptor;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
-import java.util.Properties;
+import java.util.Set;
 
 import javax.sql.DataSource;
 
 import org.quartz.JobDetail;
+import org.quartz.JobKey;
 import org.quartz.Scheduler;
 import org.quartz.Trigger;
+import org.quartz.impl.matchers.GroupMatcher;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.BeanUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.ComponentScan;
+import org.springframework.context.annotation.ConditionContext;
+import org.springframework.context.annotation.Conditional;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.ConfigurationCondition;
 import org.springframework.core.env.Environment;
+import org.springframework.core.type.AnnotatedTypeMetadata;
 import org.springframework.scheduling.quartz.SchedulerFactoryBean;
 
+import sss.quartz.catchup.CatchUpManager;
+import sss.quartz.history.FireHistoryListener;
+import sss.quartz.jdbc.CompactJDBCDelegate;
+import sss.quartz.jdbc.StoreTransactions;
+import sss.quartz.jobs.RetryJobWrapper;
+import sss.quartz.metrics.JobMetricsListener;
+import sss.quartz.pool.LoadAwareThreadPool;
+import sss.quartz.pool.VirtualThreadPool;
+
 /**
  * Spring configuration for the Quartz scheduler.
+ * <p>
+ * Quartz properties are resolved by {@link QuartzProperties}: any
+ * <code>org.quartz.*</code> property may be set in the environment, and
+ * <code>sss.quartz.profile</code> selects a performance profile
+ * (<code>low-latency</code> or <code>high-throughput</code>) to start from.
+ * Setting <code>sss.quartz.clustered</code> runs the JDBC job store clustered.
+ * Setting <code>sss.schedule.streaming</code> streams the system schedule into
+ * the scheduler rather than loading it whole, for very large schedules, and
+ * setting <code>sss.schedule.watch</code> applies changes to it while running
+ * (see {@link ScheduleReloader}). The system schedule is checked by a
+ * {@link ScheduleValidator} before it is registered; if
+ * <code>sss.schedule.minPriority</code> or <code>sss.schedule.maxPriority</code>
+ * is set, priorities must be within them. With a JDBC job store, every firing
+ * is kept in the fire history (see {@link FireHistoryListener}). Schedule
+ * items that misfire can catch up at a limited rate (see
+ * {@link CatchUpManager}).
  * 
  * @author jsteele
  */
 @Configuration
 @ComponentScan
 public class SchedulerConfig {
+	/** Table prefix for the JDBC job store. */
+	public static final String TABLE_PREFIX = "QRTZ_";
+
+	/** Environment property that turns on the clustered JDBC job store. */
+	public static final String CLUSTERED_KEY = "sss.quartz.clustered";
+
+	/**
+	 * Environment property naming the system schedule file: a classpath
+	 * resource, file path or URL.
+	 */
+	public static final String SCHEDULE_KEY = "sss.schedule.system";
+
+	/** Environment property that turns on streaming of the system schedule. */
+	public static final String STREAMING_KEY = "sss.schedule.streaming";
+
+	/** Environment property for the number of triggers registered per batch. */
+	public static final String BATCH_SIZE_KEY = "sss.schedule.batchSize";
+
+	/** Environment property that turns on reloading of the system schedule. */
+	public static final String WATCH_KEY = "sss.schedule.watch";
+
+	/**
+	 * Environment property that turns off validation of the system schedule
+	 * before it is registered.
+	 */
+	public static final String VALIDATE_KEY = "sss.schedule.validate";
+
+	/** Environment property for the lowest priority a schedule item may have. */
+	public static final String MIN_PRIORITY_KEY = "sss.schedule.minPriority";
+
+	/** Environment property for the highest priority a schedule item may have. */
+	public static final String MAX_PRIORITY_KEY = "sss.schedule.maxPriority";
+
+	/** Worker threads, unless a profile or the environment says otherwise. */
+	public static final int DEFAULT_THREAD_COUNT = 10;
+
+	/**
+	 * Quartz property for the backoff of a pool that takes one, such as
+	 * {@link LoadAwareThreadPool} or {@link VirtualThreadPool}.
+	 */
+	private static final String LOAD_BACKOFF = "org.quartz.threadPool.loadBackoff";
+
 	/** Class logger. */
 	private static final Logger log = LoggerFactory.getLogger(SchedulerConfig.class);
 
+	/**
+	 * Matches unless the system schedule is streamed. Evaluated once every
+	 * configuration class has been parsed, so the properties may come from any
+	 * property source.
+	 */
+	static class NotStreamingCondition implements ConfigurationCondition {
+		@Override
+		public ConfigurationPhase getConfigurationPhase() {
+			return ConfigurationPhase.REGISTER_BEAN;
+		}
+
+		@Override
+		public boolean matches(ConditionContext context, AnnotatedTypeMetadata metadata) {
+			return !isStreaming(context.getEnvironment());
+		}
+	}
+
 	@Autowired
 	private Environment env;
 
@@ -45,57 +139,129 @@ public class SchedulerConfig {
 	@Qualifier("quartzDataSource")
 	private DataSource dataSource;
 
+	@Autowired
+	private JobMetricsListener jobMetrics;
+
+	@Autowired
+	private FireHistoryListener fireHistory;
+
 	@Bean
 	public SchedulerFactoryBean schedulerFactory() throws Exception {
 		final SchedulerFactoryBean schedulerFactory = new SchedulerFactoryBean();
 
-		// TODO - correctly factor out quartz properties
-		final Properties quartzProps = new Properties();
-		quartzProps.put("org.quartz.scheduler.jmx.export", "true");
-		quartzProps.put("org.quartz.scheduler.jmx.objectName", "org.quartz:name=SchedulerMBean");
-		quartzProps.put("org.quartz.threadPool.threadCount", "10");
+		final QuartzProperties quartzProps = new QuartzProperties(env);
+		quartzProps.setDefault("org.quartz.scheduler.jmx.export", "true");
+		quartzProps.setDefault("org.quartz.scheduler.jmx.objectName", "org.quartz:name=SchedulerMBean");
+
+		/*
+		 * Throughput tuning. These are the Quartz defaults, made explicit so they
+		 * show up in the startup report; the performance profiles and the
+		 * environment override them.
+		 */
+		quartzProps.setDefault("org.quartz.threadPool.threadCount",
+				String.valueOf(DEFAULT_THREAD_COUNT));
+		quartzProps.setDefault("org.quartz.scheduler.batchTriggerAcquisitionMaxCount", "1");
+		quartzProps.setDefault("org.quartz.scheduler.batchTriggerAcquisitionFireAheadTimeWindow", "0");
+		quartzProps.setDefault("org.quartz.scheduler.idleWaitTime", "30000");
+		quartzProps.setDefault("org.quartz.jobStore.misfireThreshold", "60000");
 
 		// For test purposes, support persistent storage only if a data source has
 		// been wired up
 		if (null != dataSource) {
 			schedulerFactory.setDataSource(dataSource);
 
-			quartzProps.put("org.quartz.jobStore.class", "org.quartz.impl.jdbcjobstore.JobStoreTX");
-			quartzProps.put("org.quartz.jobStore.driverDelegateClass",
-					"org.quartz.impl.jdbcjobstore.StdJDBCDelegate");
-			quartzProps.put("org.quartz.jobStore.tablePrefix", "QRTZ_");
-			quartzProps.put("org.quartz.jobStore.useProperties", "true");
+			quartzProps.setDefault("org.quartz.jobStore.class", "org.quartz.impl.jdbcjobstore.JobStoreTX");
+			// Reads and writes job data without parsing properties text
+			quartzProps.setDefault("org.quartz.jobStore.driverDelegateClass",
+					CompactJDBCDelegate.class.getName());
+			quartzProps.setDefault("org.quartz.jobStore.tablePrefix", TABLE_PREFIX);
+			quartzProps.setDefault("org.quartz.jobStore.useProperties", "true");
 
+			/*
+			 * Clustering. Every node shares the job store and must use the same
+			 * scheduler name; Quartz generates a unique instance ID per node. With
+			 * org.quartz.threadPool.loadBackoff set, busy nodes hold back
+			 * acquisition so nodes with spare capacity take more of the triggers;
+			 * it is off by default, as it delays every acquisition on a busy node.
+			 */
+			if (env.getProperty(CLUSTERED_KEY, Boolean.class, false)) {
+				quartzProps.setDefault("org.quartz.jobStore.isClustered", "true");
+				quartzProps.setDefault("org.quartz.jobStore.clusterCheckinInterval", "7500");
+				quartzProps.setDefault("org.quartz.scheduler.instanceId", "AUTO");
+				quartzProps.setDefault("org.quartz.threadPool.class", LoadAwareThreadPool.class.getName());
+			}
+		}
+		quartzProps.resolve();
+
+		/*
+		 * Worker threads. Virtual threads let us size the pool by the number of
+		 * jobs we want in flight rather than the number of platform threads we can
+		 * afford, which suits jobs that mostly block on I/O.
+		 */
+		if (env.getProperty("sss.quartz.virtualThreads", Boolean.class, false)) {
+			quartzProps.set("org.quartz.threadPool.class", VirtualThreadPool.class.getName(),
+					"sss.quartz.virtualThreads");
+			if (quartzProps.contains("org.quartz.threadPool.concurrencyLimit")) {
+				quartzProps.set("org.quartz.threadPool.threadCount",
+						quartzProps.get("org.quartz.threadPool.concurrencyLimit"),
+						"org.quartz.threadPool.concurrencyLimit");
+			}
+		}
+		// The pool takes its size from threadCount, which Spring always sets
+		quartzProps.remove("org.quartz.threadPool.concurrencyLimit");
+		if (quartzProps.contains(LOAD_BACKOFF)
+				&& !takesLoadBackoff(quartzProps.get("org.quartz.threadPool.class"))) {
+			// Quartz would fail to start for want of a setter
+			log.warn(LOAD_BACKOFF + " ignored: the thread pool has no loadBackoff property");
+			quartzProps.remove(LOAD_BACKOFF);
 		}
-		schedulerFactory.setQuartzProperties(quartzProps);
+
+		final int batchSize = quartzProps.getInt(
+				"org.quartz.scheduler.batchTriggerAcquisitionMaxCount", 1);
+		if (null != dataSource && batchSize > 1) {
+			if (!quartzProps.contains("org.quartz.jobStore.acquireTriggersWithinLock")) {
+				// Required for batch acquisition to be safe against the JDBC store
+				quartzProps.set("org.quartz.jobStore.acquireTriggersWithinLock", "true",
+						"batchTriggerAcquisitionMaxCount > 1");
+			} else if (!Boolean.parseBoolean(quartzProps
+					.get("org.quartz.jobStore.acquireTriggersWithinLock"))) {
+				log.warn("batch trigger acquisition without acquireTriggersWithinLock may fire "
+						+ "triggers more than once");
+			}
+		}
+		log.info(quartzProps.report());
+		schedulerFactory.setQuartzProperties(quartzProps.getProperties());
+
+		// Lets wrapped jobs be looked up and autowired from the Spring context
+		schedulerFactory.setApplicationContextSchedulerContextKey(RetryJobWrapper.APPLICATION_CONTEXT_KEY);
 		return schedulerFactory;
 	}
 
 	@Bean
 	public Scheduler scheduler() throws Exception {
 		final Scheduler scheduler = schedulerFactory().getObject();
-		/*
-		 * Register system jobs. These are the actions we want to be able to refer
-		 * to and remember whether there's an active trigger or not. A use case for
-		 * this might be that we suspend or resume batch processing, manually invoke
-		 * system jobs, etc.
-		 * 
-		 * These jobs may or may not have associated triggers.
-		 * 
-		 * For purposes of this demo, we always replace any existing job. We might
-		 * choose to let the persistant job store take precedence (as we do below
-		 * for triggers.)
-		 */
-		for (final JobDetail job : jobs) {
-			scheduler.addJob(job, true);
+
+		// Record execution statistics for all jobs
+		scheduler.getListenerManager().addJobListener(jobMetrics);
+		if (fireHistory.isEnabled()) {
+			// Keep a history of every firing, written behind
+			scheduler.getListenerManager().addJobListener(fireHistory);
 		}
 
 		/*
-		 * Register the system schedule with the scheduler. These are all the
-		 * scheduled tasks that will be kicked off automatically at program startup.
+		 * Register system jobs and the system schedule. The jobs are the actions
+		 * we want to be able to refer to and remember whether there's an active
+		 * trigger or not. A use case for this might be that we suspend or resume
+		 * batch processing, manually invoke system jobs, etc. These jobs may or may
+		 * not have associated triggers. The schedule is all the scheduled tasks
+		 * that will be kicked off automatically at program startup.
+		 * 
+		 * For purposes of this demo, we always replace any existing job. We might
+		 * choose to let the persistant job store take precedence (as we do for
+		 * triggers.)
 		 * 
-		 * There are a couple of approaches that could be taken here, depending on
-		 * the requirements.
+		 * There are a couple of approaches that could be taken for triggers,
+		 * depending on the requirements.
 		 * 
 		 * 1) The job store may take precedence no matter what. This would eliminate
 		 * the ability to update the trigger definitions through only code
@@ -108,27 +274,129 @@ public class SchedulerConfig {
 		 * 3) We might merge code-defined triggers with whatever is currently in the
 		 * database. This adds a more complicated management/upgrade model.
 		 * 
-		 * For purposes of this demo, we're using option #1. If you want to make a
-		 * change to a trigger config you will need to dump the database and
-		 * recreate.
+		 * For purposes of this demo, we're using option #1 at startup. If you want
+		 * to make a change to a trigger config you will need to dump the database
+		 * and recreate, unless sss.schedule.watch is set, in which case changes to
+		 * the schedule file while running are merged (option #3) by the
+		 * ScheduleReloader.
+		 * 
+		 * The schedule is validated first, unless sss.schedule.validate is false,
+		 * so that a bad item stops startup before anything is registered.
+		 * Registration is done in bulk, in batches of sss.schedule.batchSize
+		 * triggers, so large schedules don't take a transaction per trigger.
 		 */
-		for (final Trigger trigger : systemSchedule()) {
-			if (!scheduler.checkExists(trigger.getKey())) {
-				scheduler.scheduleJob(trigger);
+		final String scheduleFile = env.getProperty(SCHEDULE_KEY);
+		if (null != scheduleFile && env.getProperty(VALIDATE_KEY, Boolean.class, true)) {
+			// Nothing is registered unless the whole schedule is valid
+			final Set<JobKey> jobKeys = new HashSet<JobKey>(scheduler.getJobKeys(GroupMatcher
+					.anyJobGroup()));
+			for (final JobDetail job : jobs) {
+				jobKeys.add(job.getKey());
+			}
+			final long start = System.currentTimeMillis();
+			final ScheduleValidator validator = scheduleValidator(env, jobKeys);
+			validator.check(scheduleFile);
+			log.info(String.format("validated %d items in system schedule '%s' in %dms",
+					validator.getItems(), scheduleFile, System.currentTimeMillis() - start));
+		}
+
+		final ScheduleRegistrar registrar = new ScheduleRegistrar(scheduler,
+				new StoreTransactions(dataSource, scheduler),
+				env.getProperty(BATCH_SIZE_KEY, Integer.class, ScheduleRegistrar.DEFAULT_BATCH_SIZE));
+		if (isStreaming()) {
+			// Only one schedule item is held in memory at a time
+			try (ScheduleStream stream = streamSchedule(scheduleFile)) {
+				registrar.register(jobs, stream);
 			}
+		} else {
+			registrar.register(jobs, systemSchedule().iterator());
 		}
 
 		return scheduler;
 	}
 
+	/**
+	 * Writes to the job store in one transaction, for runtime callers that store
+	 * several triggers together.
+	 * 
+	 * @return job store transactions
+	 * @throws Exception
+	 *           if the scheduler could not be created
+	 */
+	@Bean
+	public StoreTransactions storeTransactions() throws Exception {
+		return new StoreTransactions(dataSource, scheduler());
+	}
+
+	/**
+	 * The system schedule, loaded whole. Not registered when the schedule is
+	 * streamed, as it is never held as a list.
+	 * 
+	 * @return system schedule triggers, empty if there is no schedule file
+	 * @throws IOException
+	 *           if the schedule file could not be read
+	 */
 	@Bean
+	@Conditional(NotStreamingCondition.class)
 	public List<Trigger> systemSchedule() throws IOException {
-		final String scheduleFile = env.getProperty("sss.schedule.system");
+		final String scheduleFile = env.getProperty(SCHEDULE_KEY);
 		if (null == scheduleFile) {
-			log.warn("no system schedule file configured (sss.schedule.system)");
+			log.warn("no system schedule file configured (" + SCHEDULE_KEY + ")");
 			return new ArrayList<Trigger>();
 		} else {
-			return loadSchedule(scheduleFile).build();
+			final long start = System.currentTimeMillis();
+			final List<Trigger> triggers = loadSchedule(scheduleFile).build();
+			log.info(String.format("loaded %d triggers from system schedule '%s' in %dms",
+					triggers.size(), scheduleFile, System.currentTimeMillis() - start));
+			return triggers;
 		}
 	}
+
+	/**
+	 * Creates a validator for schedules, with the priority range, if any, from
+	 * the environment.
+	 * 
+	 * @param env
+	 *          environment
+	 * @param jobKeys
+	 *          jobs schedule items may refer to
+	 * @return schedule validator
+	 */
+	static ScheduleValidator scheduleValidator(Environment env, Collection<JobKey> jobKeys) {
+		return new ScheduleValidator(jobKeys, env.getProperty(MIN_PRIORITY_KEY, Integer.class),
+				env.getProperty(MAX_PRIORITY_KEY, Integer.class));
+	}
+
+	/**
+	 * @param threadPoolClass
+	 *          Quartz thread pool class name, or <code>null</code> for Spring's
+	 *          default
+	 * @return whether the pool has a <code>loadBackoff</code> property for
+	 *         Quartz to set
+	 */
+	private static boolean takesLoadBackoff(String threadPoolClass) {
+		if (null == threadPoolClass) {
+			return false;
+		}
+		try {
+			final PropertyDescriptor property = BeanUtils.getPropertyDescriptor(
+					Class.forName(threadPoolClass), "loadBackoff");
+			return null != property && null != property.getWriteMethod();
+		} catch (ClassNotFoundException cnfe) {
+			// Quartz reports this itself
+			return false;
+		}
+	}
+
+	/**
+	 * @return whether the system schedule is streamed into the scheduler
+	 */
+	private boolean isStreaming() {
+		return isStreaming(env);
+	}
+
+	private static boolean isStreaming(Environment env) {
+		return null != env.getProperty(SCHEDULE_KEY)
+				&& env.getProperty(STREAMING_KEY, Boolean.class, false);
+	}
 }
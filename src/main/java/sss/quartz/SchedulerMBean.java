@@ -5,9 +5,9 @@ import static org.quartz.SimpleScheduleBuilder.*;
 
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Date;
 import java.util.GregorianCalendar;
 import java.util.List;
-import java.util.Set;
 import java.util.TimeZone;
 
 import javax.management.OperationsException;
@@ -21,7 +21,6 @@ import javax.management.openmbean.TabularData;
 import javax.management.openmbean.TabularDataSupport;
 import javax.management.openmbean.TabularType;
 
-import org.quartz.CronTrigger;
 import org.quartz.JobKey;
 import org.quartz.Scheduler;
 import org.quartz.SchedulerException;
@@ -29,11 +28,11 @@ import org.quartz.SimpleScheduleBuilder;
 import org.quartz.SimpleTrigger;
 import org.quartz.Trigger;
 import org.quartz.TriggerBuilder;
-import org.quartz.TriggerKey;
 import org.quartz.impl.matchers.GroupMatcher;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
 import org.springframework.jmx.export.annotation.ManagedAttribute;
 import org.springframework.jmx.export.annotation.ManagedOperation;
 import org.springframework.jmx.export.annotation.ManagedOperationParameter;
@@ -42,7 +41,8 @@ import org.springframework.jmx.export.annotation.ManagedResource;
 import org.springframework.stereotype.Component;
 
 /**
- * Custom JMX management for the scheduler.
+ * Custom JMX management for the scheduler. Jobs run through it may be
+ * coalesced by the {@link AdHocRunner}.
  * 
  * @author jsteele
  */
@@ -55,6 +55,15 @@ public class SchedulerMBean {
 	@Autowired
 	private Scheduler scheduler;
 
+	@Autowired
+	private ScheduleCatalog catalog;
+
+	@Autowired
+	private AdHocRunner adHoc;
+
+	@Autowired
+	private Environment env;
+
 	/**
 	 * Schedules the specified job for immediate execution.
 	 * 
@@ -68,20 +77,45 @@ public class SchedulerMBean {
 	public void runJobImmediately(String jobKey) throws OperationsException {
 		log.info("scheduling " + jobKey + " to run immediately");
 		try {
-			// @formatter:off
-			final TriggerBuilder<Trigger> builder = newTrigger()
-				.withDescription("JMX invoked job")
-				.withPriority(Trigger.DEFAULT_PRIORITY + 1)
-				.forJob(createJobKey(jobKey))
-				.startNow();
-		// @formatter:on
-			scheduler.scheduleJob(builder.build());
+			run(jobKey, immediateTrigger(jobKey));
 		} catch (Exception e) {
 			log.error("error scheduling job: " + e, e);
 			throw new OperationsException(e.getMessage());
 		}
 	}
 
+	/**
+	 * Schedules several jobs for immediate execution. Their triggers are stored
+	 * in one transaction with the JDBC job store, so that none run unless all
+	 * are stored.
+	 * 
+	 * @param jobKeys
+	 *          job names with optional job group prefixes, separated by commas
+	 *          or spaces
+	 * @return summary of the runs scheduled and requests merged
+	 * @throws OperationsException
+	 *           if there was an error in the operation; nothing is scheduled
+	 */
+	@ManagedOperation(description = "Invoke several system jobs immediately, scheduling them together")
+	@ManagedOperationParameters({ @ManagedOperationParameter(name = "jobKeys", description = "[<group>.]<name> list, separated by commas or spaces") })
+	public String runJobs(String jobKeys) throws OperationsException {
+		final List<Trigger> triggers = new ArrayList<Trigger>();
+		for (final String jobKey : jobKeys.trim().split("[,\\s]+")) {
+			if (!jobKey.isEmpty()) {
+				triggers.add(immediateTrigger(jobKey));
+			}
+		}
+		log.info("scheduling " + triggers.size() + " jobs to run immediately");
+		try {
+			final int stored = adHoc.runAll(triggers);
+			return String.format("scheduled %d runs, merged %d requests into pending runs", stored,
+					triggers.size() - stored);
+		} catch (Exception e) {
+			log.error("error scheduling jobs: " + e, e);
+			throw new OperationsException(e.getMessage());
+		}
+	}
+
 	/**
 	 * Schedules the specified job for delayed execution. If there is a misfire,
 	 * the job does not run.
@@ -113,11 +147,11 @@ public class SchedulerMBean {
 			final TriggerBuilder<SimpleTrigger> builder = newTrigger()
 				.withDescription("JMX invoked job")
 				.withPriority(Trigger.DEFAULT_PRIORITY + 1)
-				.forJob(createJobKey(jobKey))
+				.forJob(ScheduleKeys.jobKey(jobKey))
 				.withSchedule(schedule)
 				.startAt(triggerStartTime.getTime());
 			// @formatter:on
-			scheduler.scheduleJob(builder.build());
+			run(jobKey, builder.build());
 		} catch (Exception e) {
 			log.error("error scheduling job: " + e, e);
 			throw new OperationsException(e.getMessage());
@@ -155,21 +189,79 @@ public class SchedulerMBean {
 			final TriggerBuilder<SimpleTrigger> builder = newTrigger()
 				.withDescription("JMX invoked job")
 				.withPriority(Trigger.DEFAULT_PRIORITY + 1)
-				.forJob(createJobKey(jobKey))
+				.forJob(ScheduleKeys.jobKey(jobKey))
 				.withSchedule(schedule)
 				.startAt(triggerStartTime.getTime());
 			// @formatter:on
-			scheduler.scheduleJob(builder.build());
+			run(jobKey, builder.build());
 		} catch (Exception e) {
 			log.error("error scheduling job: " + e, e);
 			throw new OperationsException(e.getMessage());
 		}
 	}
 
+	/**
+	 * Builds the trigger for an immediate run. When coalescing, it waits for the
+	 * window, so that repeated requests are merged into it.
+	 */
+	private Trigger immediateTrigger(String jobKey) {
+		final long delay = adHoc.isCoalescing() ? adHoc.getWindow() : 0;
+		// @formatter:off
+		final TriggerBuilder<Trigger> builder = newTrigger()
+				.withDescription("JMX invoked job")
+				.withPriority(Trigger.DEFAULT_PRIORITY + 1)
+				.forJob(ScheduleKeys.jobKey(jobKey))
+				.startAt(new Date(System.currentTimeMillis() + delay));
+		// @formatter:on
+		return builder.build();
+	}
+
+	/**
+	 * Schedules an ad hoc run, which may be merged into a pending one.
+	 */
+	private void run(String jobKey, Trigger trigger) throws SchedulerException {
+		if (!adHoc.run(trigger)) {
+			log.info("merged request to run " + jobKey + " into its pending run");
+		}
+	}
+
+	/**
+	 * Validates a schedule file against the jobs in the scheduler, such as a
+	 * candidate schedule before it is applied. Nothing is scheduled.
+	 * 
+	 * @param path
+	 *          classpath resource, file path or URL of schedule file
+	 * @return summary, listing every problem if the schedule isn't valid
+	 * @throws OperationsException
+	 *           if the schedule file could not be read
+	 */
+	@ManagedOperation(description = "Validates a schedule file without applying it, reporting every problem")
+	@ManagedOperationParameters({ @ManagedOperationParameter(name = "path", description = "Classpath resource, file path or URL of schedule file") })
+	public String validateSchedule(String path) throws OperationsException {
+		try {
+			final ScheduleValidator validator = SchedulerConfig.scheduleValidator(env,
+					scheduler.getJobKeys(GroupMatcher.anyJobGroup()));
+			final List<String> errors = validator.validate(path);
+			if (errors.isEmpty()) {
+				return String.format("schedule '%s' is valid: %d items", path, validator.getItems());
+			}
+			final StringBuilder result = new StringBuilder(String.format(
+					"schedule '%s' is not valid: %d problems in %d items", path, errors.size(),
+					validator.getItems()));
+			for (final String error : errors) {
+				result.append('\n').append(error);
+			}
+			return result.toString();
+		} catch (Exception e) {
+			log.error("error validating schedule '" + path + "': " + e, e);
+			throw new OperationsException(e.getMessage());
+		}
+	}
+
 	@ManagedAttribute(defaultValue = "Returns the list of current jobs in the scheduler")
 	public List<String> getJobs() throws SchedulerException {
 		final List<String> jobs = new ArrayList<String>();
-		for (JobKey jobKey : scheduler.getJobKeys(GroupMatcher.anyJobGroup())) {
+		for (JobKey jobKey : catalog.getJobKeys()) {
 			jobs.add(jobKey.toString());
 		}
 		return jobs;
@@ -177,6 +269,32 @@ public class SchedulerMBean {
 
 	@ManagedAttribute(defaultValue = "Returns the active triggers configured in the scheduler")
 	public TabularData getSystemSchedule() throws OpenDataException, OperationsException {
+		return getSystemSchedulePage(null, 0, 0);
+	}
+
+	/**
+	 * Returns a page of the triggers configured in the scheduler, ordered by
+	 * trigger group and name.
+	 * 
+	 * @param group
+	 *          trigger group to list, or empty for all groups
+	 * @param offset
+	 *          number of triggers to skip
+	 * @param limit
+	 *          maximum number of triggers to return, or 0 for all
+	 * @return table of triggers
+	 * @throws OpenDataException
+	 *           if the table could not be constructed
+	 * @throws OperationsException
+	 *           if there was an error in the operation
+	 */
+	@ManagedOperation(description = "Returns a page of the active triggers configured in the scheduler")
+	@ManagedOperationParameters({
+			@ManagedOperationParameter(name = "group", description = "Trigger group, or empty for all groups"),
+			@ManagedOperationParameter(name = "offset", description = "Number of triggers to skip"),
+			@ManagedOperationParameter(name = "limit", description = "Maximum number of triggers to return, or 0 for all") })
+	public TabularData getSystemSchedulePage(String group, int offset, int limit)
+			throws OpenDataException, OperationsException {
 		final CompositeType bundleType = new CompositeType("Cron", "Cron schedule item", new String[] {
 				"trigger", "description", "job", "cron", "lastRun" }, new String[] { "Trigger Name",
 				"Trigger Description", "Job Name", "Cron Expression for Trigger",
@@ -187,17 +305,10 @@ public class SchedulerMBean {
 		final TabularData table = new TabularDataSupport(tableType);
 
 		try {
-			final Set<TriggerKey> triggerKeys = scheduler.getTriggerKeys(GroupMatcher.anyTriggerGroup());
-			for (final TriggerKey triggerKey : triggerKeys) {
-				final Trigger trigger = scheduler.getTrigger(triggerKey);
-				String schedule = null;
-				if (trigger instanceof CronTrigger) {
-					schedule = ((CronTrigger) trigger).getCronExpression();
-				}
+			for (final TriggerSummary trigger : catalog.getTriggers(group, offset, limit)) {
 				final CompositeData data = new CompositeDataSupport(bundleType, new String[] { "trigger",
-						"description", "job", "cron", "lastRun" }, new Object[] { triggerKey.toString(),
-						trigger.getDescription(), trigger.getJobKey().toString(), schedule,
-						trigger.getPreviousFireTime() });
+						"description", "job", "cron", "lastRun" }, new Object[] { trigger.getTrigger(),
+						trigger.getDescription(), trigger.getJob(), trigger.getCron(), trigger.getLastRun() });
 				table.put(data);
 			}
 		} catch (SchedulerException se) {
@@ -208,24 +319,65 @@ public class SchedulerMBean {
 		return table;
 	}
 
-	/**
-	 * Parses a string in the format [&lt;group&gt;.]&lt;name&gt; and returns a
-	 * job key.
-	 * 
-	 * @param keyStr
-	 *          job key string
-	 * @return job key
-	 */
-	private JobKey createJobKey(String keyStr) {
-		JobKey key = null;
-		if (keyStr != null) {
-			final int idx = keyStr.indexOf(".");
-			if (idx > 1 && idx < keyStr.length() - 1) {
-				key = new JobKey(keyStr.substring(idx + 1), keyStr.substring(0, idx));
-			} else {
-				key = new JobKey(keyStr);
-			}
-		}
-		return key;
+	@ManagedAttribute(description = "Whether requests to run a job that has a run pending are merged into it")
+	public boolean isAdHocCoalescing() {
+		return adHoc.isCoalescing();
+	}
+
+	@ManagedAttribute(description = "Whether requests to run a job that has a run pending are merged into it")
+	public void setAdHocCoalescing(boolean coalescing) {
+		log.info("ad hoc run coalescing " + (coalescing ? "on" : "off"));
+		adHoc.setCoalescing(coalescing);
+	}
+
+	@ManagedAttribute(description = "Time an immediate run waits for more requests when coalescing, in ms")
+	public long getAdHocCoalesceWindowMs() {
+		return adHoc.getWindow();
+	}
+
+	@ManagedAttribute(description = "Time an immediate run waits for more requests when coalescing, in ms")
+	public void setAdHocCoalesceWindowMs(long window) {
+		adHoc.setWindow(window);
+	}
+
+	@ManagedAttribute(description = "Number of coalesced runs pending")
+	public int getAdHocPending() {
+		return adHoc.getPending();
+	}
+
+	@ManagedAttribute(description = "Number of requests to run jobs")
+	public long getAdHocRequests() {
+		return adHoc.getRequests();
+	}
+
+	@ManagedAttribute(description = "Number of requests merged into pending runs")
+	public long getAdHocMerged() {
+		return adHoc.getMerged();
+	}
+
+	@ManagedAttribute(description = "Number of reads served from the schedule catalog")
+	public long getCatalogHits() {
+		return catalog.getHits();
+	}
+
+	@ManagedAttribute(description = "Number of reads that required a full resync of the schedule catalog")
+	public long getCatalogMisses() {
+		return catalog.getMisses();
+	}
+
+	@ManagedAttribute(description = "Number of incremental updates applied to the schedule catalog")
+	public long getCatalogUpdates() {
+		return catalog.getUpdates();
+	}
+
+	@ManagedAttribute(description = "Age of the schedule catalog since its last full resync, in ms")
+	public long getCatalogAgeMs() {
+		return catalog.getAgeMs();
+	}
+
+	@ManagedOperation(description = "Forces a full resync of the schedule catalog on the next read")
+	public void refreshCatalog() {
+		log.info("schedule catalog refresh requested");
+		catalog.invalidate();
 	}
 }
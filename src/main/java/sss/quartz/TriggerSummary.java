@@ -0,0 +1,101 @@
+package sss.quartz;
+
+import java.util.Date;
+
+import org.quartz.CronTrigger;
+import org.quartz.JobKey;
+import org.quartz.Trigger;
+import org.quartz.TriggerKey;
+
+/**
+ * Summary of a trigger as reported through JMX. This is a lightweight,
+ * read-only view - it does not carry the trigger's job data or schedule state.
+ *
+ * @author jsteele
+ */
+public class TriggerSummary {
+	/** Trigger key. */
+	private final TriggerKey trigger;
+
+	/** Trigger description. */
+	private final String description;
+
+	/** Job key. */
+	private final JobKey job;
+
+	/** Cron expression, or null if this isn't a cron trigger. */
+	private final String cron;
+
+	/** Timestamp of the last trigger firing, or null if it hasn't fired. */
+	private final Date lastRun;
+
+	public TriggerSummary(TriggerKey trigger, String description, JobKey job, String cron,
+			Date lastRun) {
+		this.trigger = trigger;
+		this.description = description;
+		this.job = job;
+		this.cron = cron;
+		this.lastRun = lastRun;
+	}
+
+	/**
+	 * Creates a summary of a trigger.
+	 * 
+	 * @param trigger
+	 *          trigger to summarize
+	 * @return trigger summary
+	 */
+	public static TriggerSummary of(Trigger trigger) {
+		String schedule = null;
+		if (trigger instanceof CronTrigger) {
+			schedule = ((CronTrigger) trigger).getCronExpression();
+		}
+		return new TriggerSummary(trigger.getKey(), trigger.getDescription(), trigger.getJobKey(),
+				schedule, trigger.getPreviousFireTime());
+	}
+
+	/**
+	 * Creates a copy of this summary with a new last run time.
+	 * 
+	 * @param lastRun
+	 *          timestamp of the last trigger firing
+	 * @return trigger summary
+	 */
+	public TriggerSummary withLastRun(Date lastRun) {
+		return new TriggerSummary(trigger, description, job, cron, lastRun);
+	}
+
+	public String getCron() {
+		return cron;
+	}
+
+	public String getDescription() {
+		return description;
+	}
+
+	/**
+	 * @return job key in the format &lt;group&gt;.&lt;name&gt;
+	 */
+	public String getJob() {
+		return job.toString();
+	}
+
+	public JobKey getJobKey() {
+		return job;
+	}
+
+	public Date getLastRun() {
+		return lastRun;
+	}
+
+	/**
+	 * @return trigger key in the format &lt;group&gt;.&lt;name&gt;
+	 */
+	public String getTrigger() {
+		return trigger.toString();
+	}
+
+	public TriggerKey getTriggerKey() {
+		return trigger;
+	}
+}
@@ -0,0 +1,87 @@
+package sss.quartz.catchup;
+
+import java.util.Date;
+
+import org.quartz.JobDataMap;
+import org.quartz.SimpleTrigger;
+import org.quartz.TriggerKey;
+
+import sss.quartz.ScheduleKeys;
+
+/**
+ * Missed fire times of a trigger still to be caught up by one catch-up
+ * trigger.
+ *
+ * @author jsteele
+ */
+public final class Backlog {
+	private final TriggerKey catchUpKey;
+
+	private final TriggerKey triggerKey;
+
+	private final boolean coalesced;
+
+	private final long remaining;
+
+	private final long firstMissed;
+
+	private final long lastMissed;
+
+	private final Date nextFireTime;
+
+	Backlog(SimpleTrigger catchUp) {
+		final JobDataMap data = catchUp.getJobDataMap();
+		this.catchUpKey = catchUp.getKey();
+		this.triggerKey = ScheduleKeys.triggerKey(data.getString(CatchUpManager.TRIGGER_KEY));
+		this.coalesced = !data.containsKey(CatchUpManager.CRON_KEY);
+		final int firings = Math.max(0, catchUp.getRepeatCount() + 1 - catchUp.getTimesTriggered());
+		this.remaining = coalesced ? (0 == firings ? 0 : data.getLongValueFromString(CatchUpManager.COUNT_KEY))
+				: firings;
+		this.firstMissed = data.getLongValueFromString(CatchUpManager.FIRST_MISSED_KEY);
+		this.lastMissed = data.getLongValueFromString(CatchUpManager.LAST_MISSED_KEY);
+		this.nextFireTime = catchUp.getNextFireTime();
+	}
+
+	/**
+	 * @return the catch-up trigger
+	 */
+	public TriggerKey getCatchUpKey() {
+		return catchUpKey;
+	}
+
+	/**
+	 * @return the trigger that misfired
+	 */
+	public TriggerKey getTriggerKey() {
+		return triggerKey;
+	}
+
+	/**
+	 * @return whether the missed fire times are run once, together
+	 */
+	public boolean isCoalesced() {
+		return coalesced;
+	}
+
+	/**
+	 * @return missed fire times not yet caught up
+	 */
+	public long getRemaining() {
+		return remaining;
+	}
+
+	public long getFirstMissed() {
+		return firstMissed;
+	}
+
+	public long getLastMissed() {
+		return lastMissed;
+	}
+
+	/**
+	 * @return next catch-up firing, or <code>null</code> if there are no more
+	 */
+	public Date getNextFireTime() {
+		return nextFireTime;
+	}
+}
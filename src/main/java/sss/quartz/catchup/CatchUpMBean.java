@@ -0,0 +1,135 @@
+package sss.quartz.catchup;
+
+import java.util.Date;
+
+import javax.management.OperationsException;
+import javax.management.openmbean.CompositeDataSupport;
+import javax.management.openmbean.CompositeType;
+import javax.management.openmbean.OpenDataException;
+import javax.management.openmbean.OpenType;
+import javax.management.openmbean.SimpleType;
+import javax.management.openmbean.TabularData;
+import javax.management.openmbean.TabularDataSupport;
+import javax.management.openmbean.TabularType;
+
+import org.quartz.SchedulerException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedOperation;
+import org.springframework.jmx.export.annotation.ManagedOperationParameter;
+import org.springframework.jmx.export.annotation.ManagedOperationParameters;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.stereotype.Component;
+
+import sss.quartz.ScheduleKeys;
+
+/**
+ * JMX monitoring of the catch-up of missed fire times.
+ *
+ * @author jsteele
+ */
+@ManagedResource(objectName = "sss.quartz:name=CatchUpMBean", description = "Catch-up of missed fire times.")
+@Component
+public class CatchUpMBean {
+	// @formatter:off
+	private static final String[] ITEM_NAMES = new String[] {
+			"catchUp", "trigger", "coalesced", "remaining", "firstMissed", "lastMissed", "nextFireTime" };
+
+	private static final String[] ITEM_DESCRIPTIONS = new String[] {
+			"Catch-up trigger", "Trigger that misfired", "Whether missed fire times run once, together",
+			"Missed fire times still to catch up", "First missed fire time", "Last missed fire time",
+			"Next catch-up firing" };
+
+	private static final OpenType<?>[] ITEM_TYPES = new OpenType<?>[] {
+			SimpleType.STRING, SimpleType.STRING, SimpleType.BOOLEAN, SimpleType.LONG,
+			SimpleType.DATE, SimpleType.DATE, SimpleType.DATE };
+	// @formatter:on
+
+	@Autowired
+	private CatchUpManager catchUp;
+
+	@ManagedAttribute(description = "Missed fire times still to catch up")
+	public long getBacklog() throws SchedulerException {
+		long backlog = 0;
+		for (final Backlog item : catchUp.getBacklogs()) {
+			backlog += item.getRemaining();
+		}
+		return backlog;
+	}
+
+	@ManagedAttribute(description = "Catch-up triggers and the missed fire times they have still to catch up")
+	public TabularData getBacklogs() throws OpenDataException, SchedulerException {
+		final CompositeType rowType = new CompositeType("Backlog", "Catch-up trigger backlog",
+				ITEM_NAMES, ITEM_DESCRIPTIONS, ITEM_TYPES);
+		final TabularType tableType = new TabularType("Backlogs", "Table of catch-up triggers",
+				rowType, new String[] { "catchUp" });
+		final TabularData table = new TabularDataSupport(tableType);
+		for (final Backlog item : catchUp.getBacklogs()) {
+			// @formatter:off
+			table.put(new CompositeDataSupport(rowType, ITEM_NAMES, new Object[] {
+					item.getCatchUpKey().toString(),
+					item.getTriggerKey().toString(),
+					item.isCoalesced(),
+					item.getRemaining(),
+					new Date(item.getFirstMissed()),
+					new Date(item.getLastMissed()),
+					item.getNextFireTime() }));
+			// @formatter:on
+		}
+		return table;
+	}
+
+	@ManagedAttribute(description = "Misfires of triggers that catch up")
+	public long getMisfires() {
+		return catchUp.getMisfires();
+	}
+
+	@ManagedAttribute(description = "Missed fire times found")
+	public long getMissed() {
+		return catchUp.getMissed();
+	}
+
+	@ManagedAttribute(description = "Missed fire times dropped because the backlog was too long")
+	public long getDropped() {
+		return catchUp.getDropped();
+	}
+
+	@ManagedAttribute(description = "Catch-up firings")
+	public long getReplayed() {
+		return catchUp.getReplayed();
+	}
+
+	@ManagedAttribute(description = "Misfires whose catch-up couldn't be scheduled")
+	public long getFailures() {
+		return catchUp.getFailures();
+	}
+
+	@ManagedAttribute(description = "Missed fire times replayed per minute for items without a rate")
+	public int getDefaultRate() {
+		return catchUp.getDefaultRate();
+	}
+
+	@ManagedAttribute(description = "Most missed fire times caught up per misfire")
+	public int getMaxBacklog() {
+		return catchUp.getMaxBacklog();
+	}
+
+	/**
+	 * Cancels the catch-up of a trigger's missed fire times.
+	 *
+	 * @param triggerKey
+	 *          trigger that misfired, as group.name
+	 * @return number of catch-up triggers cancelled
+	 * @throws OperationsException
+	 *           if the catch-up couldn't be cancelled
+	 */
+	@ManagedOperation(description = "Cancels the catch-up of a trigger's missed fire times")
+	@ManagedOperationParameters({ @ManagedOperationParameter(name = "triggerKey", description = "Trigger, as group.name") })
+	public int cancel(String triggerKey) throws OperationsException {
+		try {
+			return catchUp.cancel(ScheduleKeys.triggerKey(triggerKey));
+		} catch (SchedulerException e) {
+			throw new OperationsException("error cancelling catch-up: " + e.getMessage());
+		}
+	}
+}
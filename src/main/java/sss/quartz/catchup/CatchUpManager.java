@@ -0,0 +1,449 @@
+package sss.quartz.catchup;
+
+import static org.quartz.SimpleScheduleBuilder.simpleSchedule;
+import static org.quartz.TriggerBuilder.newTrigger;
+
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.quartz.CronExpression;
+import org.quartz.CronTrigger;
+import org.quartz.JobDataMap;
+import org.quartz.JobExecutionContext;
+import org.quartz.Scheduler;
+import org.quartz.SchedulerException;
+import org.quartz.SimpleTrigger;
+import org.quartz.Trigger;
+import org.quartz.TriggerKey;
+import org.quartz.impl.matchers.GroupMatcher;
+import org.quartz.listeners.TriggerListenerSupport;
+import org.quartz.spi.OperableTrigger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import sss.quartz.MisfireInstruction;
+import sss.quartz.SchedulerConfig;
+import sss.quartz.cron.CompiledCronExpression;
+import sss.quartz.cron.CronExpressionCache;
+
+/**
+ * Replays the fire times a trigger missed, at a limited rate, rather than all
+ * at once as <code>IGNORE_MISFIRES</code> does. After a long outage a frequent
+ * trigger that ignores misfires floods the thread pool with catch-up firings
+ * and starves the triggers that are on time.
+ * <p>
+ * Schedule items with a {@link MisfireInstruction#CATCH_UP} misfire
+ * instruction are built to do nothing on a misfire, so Quartz moves them on to
+ * their next fire time, and are marked in their job data. When one misfires,
+ * its missed fire times are walked with its cron expression and a catch-up
+ * trigger is scheduled for them in the {@link #GROUP} group:
+ * <ul>
+ * <li>for <code>CATCH_UP</code>, a trigger that fires once per missed fire
+ * time, at most the item's <code>catchUpRate</code> times a minute
+ * (<code>sss.catchUp.defaultRate</code> if it has none), with the missed fire
+ * time in {@link #MISSED_TIME_KEY};</li>
+ * <li>for {@link MisfireInstruction#CATCH_UP_COALESCED}, a trigger that fires
+ * once, with the number of fire times missed in {@link #MISSED_KEY}.</li>
+ * </ul>
+ * Catch-up triggers have a lower priority than any schedule item may have (one
+ * below <code>sss.schedule.minPriority</code>, or the lowest there is if it
+ * isn't set), so an on-time firing due at the same time goes first. Only the most recent
+ * <code>sss.catchUp.maxBacklog</code> missed fire times of a misfire are
+ * replayed; older ones are counted as dropped. Calendars are not consulted.
+ * <p>
+ * Catch-up triggers are ordinary triggers, so with the JDBC job store a
+ * backlog survives a restart and is shared by the cluster.
+ *
+ * @author jsteele
+ */
+@Component
+public class CatchUpManager implements InitializingBean, DisposableBean {
+	/** Trigger group of catch-up triggers. */
+	public static final String GROUP = "sss.catchUp";
+
+	/** Trigger job data naming the catch-up misfire instruction. */
+	public static final String MODE_KEY = "sss.catchUp.mode";
+
+	/** Trigger job data for the most missed fire times replayed per minute. */
+	public static final String RATE_KEY = "sss.catchUp.rate";
+
+	/** Catch-up job data: the trigger that misfired, as group.name. */
+	public static final String TRIGGER_KEY = "sss.catchUp.trigger";
+
+	/** Catch-up job data: number of missed fire times the firing stands for. */
+	public static final String MISSED_KEY = "sss.catchUp.missed";
+
+	/** Catch-up job data: missed fire time replayed, or the last one coalesced. */
+	public static final String MISSED_TIME_KEY = "sss.catchUp.missedTime";
+
+	/** Catch-up job data: first missed fire time caught up. */
+	public static final String FIRST_MISSED_KEY = "sss.catchUp.firstMissed";
+
+	/** Catch-up job data: last missed fire time caught up. */
+	public static final String LAST_MISSED_KEY = "sss.catchUp.lastMissed";
+
+	/** Catch-up job data: number of missed fire times caught up. */
+	static final String COUNT_KEY = "sss.catchUp.count";
+
+	/** Catch-up job data: cron expression of the trigger that misfired. */
+	static final String CRON_KEY = "sss.catchUp.cron";
+
+	/** Catch-up job data: time zone of the trigger that misfired. */
+	static final String TIME_ZONE_KEY = "sss.catchUp.timeZone";
+
+	/**
+	 * Environment property for the missed fire times replayed per minute by
+	 * items without a catch-up rate.
+	 */
+	public static final String DEFAULT_RATE_KEY = "sss.catchUp.defaultRate";
+
+	/** Environment property for the most missed fire times replayed per misfire. */
+	public static final String MAX_BACKLOG_KEY = "sss.catchUp.maxBacklog";
+
+	public static final int DEFAULT_RATE = 60;
+
+	public static final int DEFAULT_MAX_BACKLOG = 1000;
+
+	/** Class logger. */
+	private static final Logger log = LoggerFactory.getLogger(CatchUpManager.class);
+
+	@Autowired
+	private Environment env;
+
+	@Autowired
+	private Scheduler scheduler;
+
+	private int defaultRate;
+
+	private int maxBacklog;
+
+	private int priority;
+
+	/** Schedules catch-up triggers outside the job store's misfire handling. */
+	private ExecutorService executor;
+
+	private final AtomicLong misfires = new AtomicLong();
+
+	private final AtomicLong missed = new AtomicLong();
+
+	private final AtomicLong dropped = new AtomicLong();
+
+	private final AtomicLong replayed = new AtomicLong();
+
+	private final AtomicLong failures = new AtomicLong();
+
+	/** Hands catch-up misfires over, and numbers replayed firings. */
+	private final TriggerListenerSupport triggerListener = new TriggerListenerSupport() {
+		@Override
+		public String getName() {
+			return CatchUpManager.class.getName();
+		}
+
+		@Override
+		public void triggerMisfired(Trigger trigger) {
+			if (!(trigger instanceof CronTrigger) || GROUP.equals(trigger.getKey().getGroup())
+					|| !trigger.getJobDataMap().containsKey(MODE_KEY)) {
+				return;
+			}
+			misfires.incrementAndGet();
+			// Called before Quartz moves the trigger on, so it still has the
+			// first missed fire time. The job store may be holding its lock, so
+			// the catch-up trigger is scheduled by another thread.
+			final CronTrigger misfired = (CronTrigger) ((OperableTrigger) trigger).clone();
+			final long now = System.currentTimeMillis();
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					catchUp(misfired, now);
+				}
+			});
+		}
+
+		@Override
+		public void triggerFired(Trigger trigger, JobExecutionContext context) {
+			if (GROUP.equals(trigger.getKey().getGroup())) {
+				replayed.incrementAndGet();
+				if (trigger instanceof SimpleTrigger && context.getMergedJobDataMap().containsKey(CRON_KEY)) {
+					context.getMergedJobDataMap().put(MISSED_TIME_KEY,
+							Long.toString(missedTime((SimpleTrigger) trigger)));
+				}
+			}
+		}
+	};
+
+	/**
+	 * Registers the misfire listener with the scheduler.
+	 *
+	 * @throws SchedulerException
+	 *           if the listener could not be registered
+	 */
+	@Override
+	public void afterPropertiesSet() throws SchedulerException {
+		defaultRate = env.getProperty(DEFAULT_RATE_KEY, Integer.class, DEFAULT_RATE);
+		maxBacklog = Math.max(1, env.getProperty(MAX_BACKLOG_KEY, Integer.class, DEFAULT_MAX_BACKLOG));
+		// Below every schedule item, so on-time firings go first
+		final Integer minPriority = env.getProperty(SchedulerConfig.MIN_PRIORITY_KEY, Integer.class);
+		priority = null == minPriority ? Integer.MIN_VALUE : minPriority - 1;
+		executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				final Thread thread = new Thread(r, "CatchUp");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		scheduler.getListenerManager().addTriggerListener(triggerListener);
+	}
+
+	/**
+	 * Stops scheduling catch-up triggers. Misfires not yet handed over are
+	 * lost, as they would be with <code>DO_NOTHING</code>.
+	 */
+	@Override
+	public void destroy() throws InterruptedException {
+		executor.shutdownNow();
+		executor.awaitTermination(10, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * @param onMisfire
+	 *          misfire instruction, may be <code>null</code>
+	 * @return whether missed fire times are caught up
+	 */
+	public static boolean isCatchUp(MisfireInstruction onMisfire) {
+		return MisfireInstruction.CATCH_UP == onMisfire
+				|| MisfireInstruction.CATCH_UP_COALESCED == onMisfire;
+	}
+
+	/**
+	 * Reads the catch-up triggers waiting to fire.
+	 *
+	 * @return backlog of each catch-up trigger
+	 * @throws SchedulerException
+	 *           if the triggers could not be read
+	 */
+	public List<Backlog> getBacklogs() throws SchedulerException {
+		final List<Backlog> backlogs = new ArrayList<Backlog>();
+		for (final TriggerKey key : scheduler.getTriggerKeys(GroupMatcher.triggerGroupEquals(GROUP))) {
+			final Trigger trigger = scheduler.getTrigger(key);
+			// Completed since they were listed
+			if (trigger instanceof SimpleTrigger) {
+				backlogs.add(new Backlog((SimpleTrigger) trigger));
+			}
+		}
+		return backlogs;
+	}
+
+	/**
+	 * Cancels the catch-up of a trigger's missed fire times.
+	 *
+	 * @param triggerKey
+	 *          trigger that misfired
+	 * @return number of catch-up triggers unscheduled
+	 * @throws SchedulerException
+	 *           if they could not be unscheduled
+	 */
+	public int cancel(TriggerKey triggerKey) throws SchedulerException {
+		final List<TriggerKey> keys = new ArrayList<TriggerKey>();
+		for (final Backlog backlog : getBacklogs()) {
+			if (backlog.getTriggerKey().equals(triggerKey)) {
+				keys.add(backlog.getCatchUpKey());
+			}
+		}
+		scheduler.unscheduleJobs(keys);
+		return keys.size();
+	}
+
+	/**
+	 * @return misfires of triggers that catch up
+	 */
+	public long getMisfires() {
+		return misfires.get();
+	}
+
+	/**
+	 * @return missed fire times found, including dropped ones
+	 */
+	public long getMissed() {
+		return missed.get();
+	}
+
+	/**
+	 * @return missed fire times not caught up because the backlog was too long
+	 */
+	public long getDropped() {
+		return dropped.get();
+	}
+
+	/**
+	 * @return catch-up firings
+	 */
+	public long getReplayed() {
+		return replayed.get();
+	}
+
+	/**
+	 * @return misfires whose catch-up trigger could not be scheduled
+	 */
+	public long getFailures() {
+		return failures.get();
+	}
+
+	public int getDefaultRate() {
+		return defaultRate;
+	}
+
+	public int getMaxBacklog() {
+		return maxBacklog;
+	}
+
+	/**
+	 * Walks a misfired trigger's missed fire times and schedules their catch-up.
+	 *
+	 * @param trigger
+	 *          trigger as it was when it misfired
+	 * @param now
+	 *          time the misfire was found; fire times up to it were missed
+	 */
+	void catchUp(CronTrigger trigger, long now) {
+		final CompiledCronExpression cron = compile(trigger.getCronExpression(), trigger.getTimeZone());
+		final long end = null == trigger.getEndTime() ? Long.MAX_VALUE : trigger.getEndTime().getTime();
+		final long limit = Math.min(now, end);
+
+		// Only the most recent are kept
+		final long[] times = new long[maxBacklog];
+		long count = 0;
+		for (Date time = trigger.getNextFireTime(); null != time && time.getTime() <= limit; time = cron
+				.getTimeAfter(time)) {
+			times[(int) (count % maxBacklog)] = time.getTime();
+			count++;
+		}
+		if (0 == count) {
+			return;
+		}
+		missed.addAndGet(count);
+
+		final boolean coalesced = MisfireInstruction.CATCH_UP_COALESCED.name().equals(
+				trigger.getJobDataMap().getString(MODE_KEY));
+		final int kept = (int) Math.min(count, maxBacklog);
+		final long first = times[(int) ((count - kept) % maxBacklog)];
+		final long last = times[(int) ((count - 1) % maxBacklog)];
+
+		final JobDataMap data = new JobDataMap(trigger.getJobDataMap());
+		data.remove(MODE_KEY);
+		data.remove(RATE_KEY);
+		data.put(TRIGGER_KEY, trigger.getKey().toString());
+		data.put(FIRST_MISSED_KEY, Long.toString(first));
+		data.put(LAST_MISSED_KEY, Long.toString(last));
+
+		final Trigger catchUp;
+		if (coalesced) {
+			// Stands for every missed fire time, dropped or not
+			data.put(COUNT_KEY, Long.toString(count));
+			data.put(MISSED_KEY, Long.toString(count));
+			data.put(MISSED_TIME_KEY, Long.toString(last));
+			// @formatter:off
+			catchUp = newTrigger()
+					.withIdentity(catchUpKey(trigger, first))
+					.forJob(trigger.getJobKey())
+					.withDescription("catch-up of " + count + " missed fire times of " + trigger.getKey())
+					.withPriority(priority)
+					.usingJobData(data)
+					.startNow()
+					.withSchedule(simpleSchedule()
+							.withMisfireHandlingInstructionFireNow())
+					.build();
+			// @formatter:on
+		} else {
+			dropped.addAndGet(count - kept);
+			data.put(COUNT_KEY, Integer.toString(kept));
+			data.put(MISSED_KEY, "1");
+			data.put(CRON_KEY, trigger.getCronExpression());
+			data.put(TIME_ZONE_KEY, trigger.getTimeZone().getID());
+			final int rate = trigger.getJobDataMap().containsKey(RATE_KEY) ? trigger.getJobDataMap()
+					.getIntegerFromString(RATE_KEY) : defaultRate;
+			// @formatter:off
+			catchUp = newTrigger()
+					.withIdentity(catchUpKey(trigger, first))
+					.forJob(trigger.getJobKey())
+					.withDescription("catch-up of " + kept + " missed fire times of " + trigger.getKey())
+					.withPriority(priority)
+					.usingJobData(data)
+					.startNow()
+					.withSchedule(simpleSchedule()
+							.withIntervalInMilliseconds(Math.max(1, TimeUnit.MINUTES.toMillis(1) / rate))
+							.withRepeatCount(kept - 1)
+							.withMisfireHandlingInstructionNowWithExistingCount())
+					.build();
+			// @formatter:on
+			if (kept < count) {
+				log.warn(String.format("%s missed %d fire times; catching up the last %d", trigger.getKey(),
+						count, kept));
+			}
+		}
+
+		try {
+			scheduler.scheduleJob(catchUp);
+			log.info(catchUp.getDescription() + " scheduled");
+		} catch (SchedulerException e) {
+			failures.incrementAndGet();
+			log.warn("could not schedule " + catchUp.getDescription() + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Works out which missed fire time a catch-up firing replays. It has just
+	 * fired, so the ones after it are still to come.
+	 */
+	static long missedTime(SimpleTrigger trigger) {
+		final JobDataMap data = trigger.getJobDataMap();
+		final int count = data.getIntegerFromString(COUNT_KEY);
+		final int remaining = Math.max(0, trigger.getRepeatCount() + 1 - trigger.getTimesTriggered());
+		final int index = Math.max(0, count - remaining - 1);
+		final CompiledCronExpression cron = compile(data.getString(CRON_KEY),
+				TimeZone.getTimeZone(data.getString(TIME_ZONE_KEY)));
+		Date time = new Date(data.getLongValueFromString(FIRST_MISSED_KEY));
+		for (int i = 0; i < index && null != time; i++) {
+			time = cron.getTimeAfter(time);
+		}
+		return null == time ? data.getLongValueFromString(LAST_MISSED_KEY) : time.getTime();
+	}
+
+	/**
+	 * Gets a compiled cron expression, shared if it's in the default time zone.
+	 */
+	private static CompiledCronExpression compile(String cronExpression, TimeZone timeZone) {
+		if (timeZone.equals(TimeZone.getDefault())) {
+			return CronExpressionCache.getCompiled(cronExpression);
+		}
+		try {
+			final CronExpression expression = new CronExpression(cronExpression);
+			expression.setTimeZone(timeZone);
+			return new CompiledCronExpression(expression);
+		} catch (ParseException pe) {
+			// The trigger was built from it
+			throw new IllegalArgumentException("CronExpression '" + cronExpression + "' is invalid.", pe);
+		}
+	}
+
+	/**
+	 * Names a catch-up trigger after the trigger that misfired and its first
+	 * missed fire time, so a second misfire gets a trigger of its own.
+	 */
+	private static TriggerKey catchUpKey(Trigger trigger, long first) {
+		return new TriggerKey(trigger.getKey() + "@" + first, GROUP);
+	}
+}
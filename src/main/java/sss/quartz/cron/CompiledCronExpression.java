@@ -0,0 +1,301 @@
+package sss.quartz.cron;
+
+import java.lang.reflect.Field;
+import java.time.DayOfWeek;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.zone.ZoneRules;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.quartz.CronExpression;
+
+/**
+ * Fast next fire time calculation for a cron expression.
+ * <p>
+ * The expression is parsed by Quartz, so the semantics are exactly those of
+ * {@link CronExpression}; the parsed fields are then compiled into bit sets,
+ * and {@link #getTimeAfter(Date)} finds the next matching time by scanning the
+ * bit sets field by field in local time, rather than stepping a
+ * {@link java.util.Calendar} around as Quartz does. This matters when many
+ * fire times are walked, such as when catching up on misfires.
+ * <p>
+ * Expressions using <code>L</code>, <code>W</code> or <code>#</code>, and fire
+ * times that fall in a daylight saving transition, are handed to Quartz.
+ * Instances are immutable and thread safe.
+ *
+ * @author jsteele
+ */
+public final class CompiledCronExpression {
+	/** Quartz's marker for '?' in a field. */
+	private static final int NO_SPEC = 98;
+
+	private final CronExpression expression;
+
+	private final ZoneId zone;
+
+	/** Whether the fields could be compiled, or Quartz has to be used. */
+	private final boolean compiled;
+
+	private long secondBits;
+
+	private long minuteBits;
+
+	private long hourBits;
+
+	/** Bit 1 is the 1st. */
+	private long dayOfMonthBits;
+
+	/** Bit 1 is Sunday, as for Quartz. */
+	private long dayOfWeekBits;
+
+	/** Bit 1 is January. */
+	private long monthBits;
+
+	private boolean dayOfWeekSpecified;
+
+	private TreeSet<Integer> years;
+
+	/**
+	 * Compiles a parsed cron expression. The expression's time zone must not be
+	 * changed afterwards.
+	 *
+	 * @param expression
+	 *          parsed cron expression
+	 */
+	public CompiledCronExpression(CronExpression expression) {
+		this.expression = expression;
+		this.zone = expression.getTimeZone().toZoneId();
+		this.compiled = compile();
+	}
+
+	/**
+	 * @return the parsed expression this was compiled from
+	 */
+	public CronExpression getCronExpression() {
+		return expression;
+	}
+
+	/**
+	 * @return whether fire times are calculated from bit sets, rather than by
+	 *         Quartz
+	 */
+	public boolean isCompiled() {
+		return compiled;
+	}
+
+	/**
+	 * Finds the next time the expression matches after a given time, as
+	 * {@link CronExpression#getTimeAfter(Date)} does.
+	 *
+	 * @param afterTime
+	 *          time to search from, exclusive
+	 * @return next matching time, or <code>null</code> if there isn't one
+	 */
+	public Date getTimeAfter(Date afterTime) {
+		if (!compiled) {
+			return expression.getTimeAfter(afterTime);
+		}
+		// Like Quartz, move on a second and drop the millis
+		final long startMs = Math.floorDiv(afterTime.getTime() + 1000, 1000L) * 1000;
+		final ZoneRules rules = zone.getRules();
+		final LocalDateTime start = LocalDateTime.ofInstant(Instant.ofEpochMilli(startMs), zone);
+		if (rules.getValidOffsets(start).size() != 1) {
+			return expression.getTimeAfter(afterTime);
+		}
+
+		final LocalDateTime next = nextLocalTime(start);
+		if (null == next) {
+			return null;
+		}
+		final List<ZoneOffset> offsets = rules.getValidOffsets(next);
+		if (offsets.size() != 1) {
+			return expression.getTimeAfter(afterTime);
+		}
+		return new Date(next.toInstant(offsets.get(0)).toEpochMilli());
+	}
+
+	/**
+	 * Finds the first local time at or after the start that matches every field.
+	 * Moving a field on resets the fields below it to their lowest values.
+	 */
+	private LocalDateTime nextLocalTime(LocalDateTime start) {
+		int year = start.getYear();
+		int month = start.getMonthValue();
+		int day = start.getDayOfMonth();
+		int hour = start.getHour();
+		int minute = start.getMinute();
+		int second = start.getSecond();
+
+		while (true) {
+			final Integer nextYear = years.ceiling(year);
+			if (null == nextYear) {
+				return null;
+			}
+			if (nextYear != year) {
+				year = nextYear;
+				month = 1;
+				day = 1;
+				hour = minute = second = 0;
+			}
+
+			final int nextMonth = nextBit(monthBits, month);
+			if (nextMonth < 0) {
+				year++;
+				month = 1;
+				day = 1;
+				hour = minute = second = 0;
+				continue;
+			}
+			if (nextMonth != month) {
+				month = nextMonth;
+				day = 1;
+				hour = minute = second = 0;
+			}
+
+			final int nextDay = nextDay(year, month, day);
+			if (nextDay < 0) {
+				month++;
+				day = 1;
+				hour = minute = second = 0;
+				continue;
+			}
+			if (nextDay != day) {
+				day = nextDay;
+				hour = minute = second = 0;
+			}
+
+			final int nextHour = nextBit(hourBits, hour);
+			if (nextHour < 0) {
+				day++;
+				hour = minute = second = 0;
+				continue;
+			}
+			if (nextHour != hour) {
+				hour = nextHour;
+				minute = second = 0;
+			}
+
+			final int nextMinute = nextBit(minuteBits, minute);
+			if (nextMinute < 0) {
+				hour++;
+				minute = second = 0;
+				continue;
+			}
+			if (nextMinute != minute) {
+				minute = nextMinute;
+				second = 0;
+			}
+
+			final int nextSecond = nextBit(secondBits, second);
+			if (nextSecond < 0) {
+				minute++;
+				second = 0;
+				continue;
+			}
+			return LocalDateTime.of(year, month, day, hour, minute, nextSecond);
+		}
+	}
+
+	/**
+	 * @return first matching day of the month on or after the given day, or -1
+	 */
+	private int nextDay(int year, int month, int from) {
+		final int length = LocalDate.of(year, month, 1).lengthOfMonth();
+		if (from > length) {
+			return -1;
+		}
+		if (!dayOfWeekSpecified) {
+			final int day = nextBit(dayOfMonthBits, from);
+			return day > length ? -1 : day;
+		}
+		// Quartz numbers days of the week from Sunday = 1
+		final DayOfWeek dayOfWeek = LocalDate.of(year, month, from).getDayOfWeek();
+		final int first = dayOfWeek.getValue() % 7 + 1;
+		for (int offset = 0; offset < 7 && from + offset <= length; offset++) {
+			if ((dayOfWeekBits & 1L << ((first - 1 + offset) % 7 + 1)) != 0) {
+				return from + offset;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @return lowest set bit at or above <code>from</code>, or -1
+	 */
+	private static int nextBit(long bits, int from) {
+		if (from > 63) {
+			return -1;
+		}
+		final long remaining = bits & -1L << from;
+		return 0 == remaining ? -1 : Long.numberOfTrailingZeros(remaining);
+	}
+
+	/**
+	 * Reads the parsed fields out of the Quartz expression. They aren't public,
+	 * and <code>CronExpression</code> is final.
+	 *
+	 * @return whether the expression only uses what the bit sets can represent
+	 */
+	private boolean compile() {
+		try {
+			if (getBoolean("lastdayOfWeek") || getBoolean("lastdayOfMonth")
+					|| getBoolean("nearestWeekday") || 0 != getInt("nthdayOfWeek")) {
+				return false;
+			}
+			secondBits = toBits(getSet("seconds"), 0, 59);
+			minuteBits = toBits(getSet("minutes"), 0, 59);
+			hourBits = toBits(getSet("hours"), 0, 23);
+			monthBits = toBits(getSet("months"), 1, 12);
+			final Set<Integer> daysOfWeek = getSet("daysOfWeek");
+			dayOfWeekSpecified = !daysOfWeek.contains(NO_SPEC);
+			dayOfWeekBits = toBits(daysOfWeek, 1, 7);
+			dayOfMonthBits = toBits(getSet("daysOfMonth"), 1, 31);
+			years = new TreeSet<Integer>(getSet("years"));
+			return true;
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			// Not the Quartz version we know; Quartz will do it
+			return false;
+		}
+	}
+
+	private static long toBits(Set<Integer> values, int min, int max) {
+		long bits = 0;
+		for (final Integer value : values) {
+			// Skip Quartz's markers for '*' and '?'
+			if (value >= min && value <= max) {
+				bits |= 1L << value;
+			}
+		}
+		return bits;
+	}
+
+	@SuppressWarnings("unchecked")
+	private Set<Integer> getSet(String name) throws ReflectiveOperationException {
+		return (Set<Integer>) field(name).get(expression);
+	}
+
+	private boolean getBoolean(String name) throws ReflectiveOperationException {
+		return field(name).getBoolean(expression);
+	}
+
+	private int getInt(String name) throws ReflectiveOperationException {
+		return field(name).getInt(expression);
+	}
+
+	private static Field field(String name) throws NoSuchFieldException {
+		final Field field = CronExpression.class.getDeclaredField(name);
+		field.setAccessible(true);
+		return field;
+	}
+
+	@Override
+	public String toString() {
+		return expression.getCronExpression();
+	}
+}
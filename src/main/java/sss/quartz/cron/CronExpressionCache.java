@@ -0,0 +1,96 @@
+package sss.quartz.cron;
+
+import java.text.ParseException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.quartz.CronExpression;
+
+/**
+ * Interns parsed cron expressions, in the default time zone. Large schedules
+ * use a handful of distinct expressions many times over, so each is parsed and
+ * compiled once and shared.
+ * <p>
+ * A shared {@link CronExpression} must not have its time zone changed, so
+ * triggers built from these must not be given a time zone of their own; parse
+ * the expression separately for that.
+ *
+ * @author jsteele
+ */
+public final class CronExpressionCache {
+	/** Most expressions cached; beyond this they are parsed every time. */
+	static final int MAX_SIZE = 10000;
+
+	private static final ConcurrentMap<String, CompiledCronExpression> expressions = new ConcurrentHashMap<String, CompiledCronExpression>();
+
+	private static final AtomicLong hits = new AtomicLong();
+
+	private static final AtomicLong misses = new AtomicLong();
+
+	private CronExpressionCache() {
+	}
+
+	/**
+	 * Gets a parsed cron expression.
+	 *
+	 * @param cronExpression
+	 *          cron expression
+	 * @return shared parsed expression
+	 * @throws IllegalArgumentException
+	 *           if the expression is invalid
+	 */
+	public static CronExpression get(String cronExpression) {
+		return getCompiled(cronExpression).getCronExpression();
+	}
+
+	/**
+	 * Gets a cron expression compiled for fast fire time calculation.
+	 *
+	 * @param cronExpression
+	 *          cron expression
+	 * @return shared compiled expression
+	 * @throws IllegalArgumentException
+	 *           if the expression is invalid
+	 */
+	public static CompiledCronExpression getCompiled(String cronExpression) {
+		CompiledCronExpression compiled = expressions.get(cronExpression);
+		if (null != compiled) {
+			hits.incrementAndGet();
+			return compiled;
+		}
+		misses.incrementAndGet();
+		try {
+			compiled = new CompiledCronExpression(new CronExpression(cronExpression));
+		} catch (ParseException pe) {
+			// As CronScheduleBuilder reports it
+			throw new IllegalArgumentException("CronExpression '" + cronExpression + "' is invalid.", pe);
+		}
+		if (expressions.size() < MAX_SIZE) {
+			final CompiledCronExpression existing = expressions.putIfAbsent(cronExpression, compiled);
+			if (null != existing) {
+				compiled = existing;
+			}
+		}
+		return compiled;
+	}
+
+	public static int size() {
+		return expressions.size();
+	}
+
+	public static long getHits() {
+		return hits.get();
+	}
+
+	public static long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * Empties the cache, such as after the default time zone has changed.
+	 */
+	public static void clear() {
+		expressions.clear();
+	}
+}
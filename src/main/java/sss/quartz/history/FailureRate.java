@@ -0,0 +1,44 @@
+package sss.quartz.history;
+
+import org.quartz.JobKey;
+
+/**
+ * How often a job failed over a window of its fire history.
+ *
+ * @author jsteele
+ */
+public final class FailureRate {
+	private final JobKey jobKey;
+
+	private final long runs;
+
+	private final long failures;
+
+	public FailureRate(JobKey jobKey, long runs, long failures) {
+		this.jobKey = jobKey;
+		this.runs = runs;
+		this.failures = failures;
+	}
+
+	public JobKey getJobKey() {
+		return jobKey;
+	}
+
+	/**
+	 * @return number of firings, including vetoed ones
+	 */
+	public long getRuns() {
+		return runs;
+	}
+
+	public long getFailures() {
+		return failures;
+	}
+
+	/**
+	 * @return failures as a fraction of runs, or 0 if there were no runs
+	 */
+	public double getRate() {
+		return 0 == runs ? 0.0 : (double) failures / runs;
+	}
+}
@@ -0,0 +1,194 @@
+package sss.quartz.history;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.List;
+
+import javax.sql.DataSource;
+
+import org.quartz.JobKey;
+import org.quartz.TriggerKey;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Reads and writes the fire history table, <code>SSS_FIRE_HISTORY</code>,
+ * which is kept alongside the job store's tables but never touched by Quartz.
+ * It is indexed by job and fire time for recent runs of a job, and by fire time
+ * for failure rates and for purging old history.
+ *
+ * @author jsteele
+ */
+public class FireHistoryDao {
+	/** Fire history table. */
+	public static final String TABLE = "SSS_FIRE_HISTORY";
+
+	// @formatter:off
+	private static final String[] CREATE_TABLE = new String[] {
+			"CREATE TABLE IF NOT EXISTS " + TABLE + " ("
+					+ " ID BIGINT AUTO_INCREMENT PRIMARY KEY,"
+					+ " SCHED_NAME VARCHAR(120) NOT NULL,"
+					+ " JOB_GROUP VARCHAR(200) NOT NULL,"
+					+ " JOB_NAME VARCHAR(200) NOT NULL,"
+					+ " TRIGGER_GROUP VARCHAR(200) NOT NULL,"
+					+ " TRIGGER_NAME VARCHAR(200) NOT NULL,"
+					+ " SCHED_TIME BIGINT NOT NULL,"
+					+ " FIRED_TIME BIGINT NOT NULL,"
+					+ " DURATION BIGINT NOT NULL,"
+					+ " OUTCOME VARCHAR(16) NOT NULL,"
+					+ " RETRY_COUNT INTEGER NOT NULL,"
+					+ " ERROR VARCHAR(" + FireRecord.MAX_ERROR_LENGTH + "))",
+			"CREATE INDEX IF NOT EXISTS IDX_SSS_FH_J_T ON " + TABLE
+					+ " (SCHED_NAME, JOB_GROUP, JOB_NAME, FIRED_TIME)",
+			"CREATE INDEX IF NOT EXISTS IDX_SSS_FH_T ON " + TABLE + " (FIRED_TIME)" };
+
+	private static final String INSERT = "INSERT INTO " + TABLE
+			+ " (SCHED_NAME, JOB_GROUP, JOB_NAME, TRIGGER_GROUP, TRIGGER_NAME, SCHED_TIME, FIRED_TIME,"
+			+ " DURATION, OUTCOME, RETRY_COUNT, ERROR) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+	private static final String SELECT_RECENT = "SELECT * FROM " + TABLE
+			+ " WHERE SCHED_NAME = ? AND JOB_GROUP = ? AND JOB_NAME = ?"
+			+ " ORDER BY FIRED_TIME DESC LIMIT ?";
+
+	private static final String SELECT_FAILURE_RATES = "SELECT JOB_GROUP, JOB_NAME, COUNT(*) AS RUNS,"
+			+ " SUM(CASE WHEN OUTCOME = '" + FireRecord.Outcome.FAILURE + "' THEN 1 ELSE 0 END) AS FAILURES"
+			+ " FROM " + TABLE
+			+ " WHERE FIRED_TIME >= ? AND SCHED_NAME = ?"
+			+ " GROUP BY JOB_GROUP, JOB_NAME ORDER BY JOB_GROUP, JOB_NAME";
+
+	private static final String PURGE = "DELETE FROM " + TABLE + " WHERE FIRED_TIME < ?";
+	// @formatter:on
+
+	/** Maps a history row to a record. */
+	private static final RowMapper<FireRecord> RECORD_MAPPER = new RowMapper<FireRecord>() {
+		@Override
+		public FireRecord mapRow(ResultSet rs, int rowNum) throws SQLException {
+			// @formatter:off
+			return new FireRecord(
+					rs.getString("SCHED_NAME"),
+					new JobKey(rs.getString("JOB_NAME"), rs.getString("JOB_GROUP")),
+					new TriggerKey(rs.getString("TRIGGER_NAME"), rs.getString("TRIGGER_GROUP")),
+					rs.getLong("SCHED_TIME"),
+					rs.getLong("FIRED_TIME"),
+					rs.getLong("DURATION"),
+					FireRecord.Outcome.valueOf(rs.getString("OUTCOME")),
+					rs.getInt("RETRY_COUNT"),
+					rs.getString("ERROR"));
+			// @formatter:on
+		}
+	};
+
+	/** Maps a failure rate row. */
+	private static final RowMapper<FailureRate> RATE_MAPPER = new RowMapper<FailureRate>() {
+		@Override
+		public FailureRate mapRow(ResultSet rs, int rowNum) throws SQLException {
+			return new FailureRate(new JobKey(rs.getString("JOB_NAME"), rs.getString("JOB_GROUP")),
+					rs.getLong("RUNS"), rs.getLong("FAILURES"));
+		}
+	};
+
+	private final JdbcTemplate jdbc;
+
+	private final TransactionTemplate transaction;
+
+	public FireHistoryDao(DataSource dataSource) {
+		this.jdbc = new JdbcTemplate(dataSource);
+		this.transaction = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+	}
+
+	/**
+	 * Creates the history table and its indexes, if they don't exist.
+	 */
+	public void createTable() {
+		for (final String sql : CREATE_TABLE) {
+			jdbc.execute(sql);
+		}
+	}
+
+	/**
+	 * Inserts records as one batch, in one transaction.
+	 *
+	 * @param records
+	 *          records to insert
+	 */
+	public void insert(final List<FireRecord> records) {
+		transaction.execute(new TransactionCallbackWithoutResult() {
+			@Override
+			protected void doInTransactionWithoutResult(TransactionStatus status) {
+				jdbc.batchUpdate(INSERT, new BatchPreparedStatementSetter() {
+					@Override
+					public void setValues(PreparedStatement ps, int i) throws SQLException {
+						final FireRecord record = records.get(i);
+						ps.setString(1, record.getSchedulerName());
+						ps.setString(2, record.getJobKey().getGroup());
+						ps.setString(3, record.getJobKey().getName());
+						ps.setString(4, record.getTriggerKey().getGroup());
+						ps.setString(5, record.getTriggerKey().getName());
+						ps.setLong(6, record.getScheduledTime());
+						ps.setLong(7, record.getFireTime());
+						ps.setLong(8, record.getDuration());
+						ps.setString(9, record.getOutcome().name());
+						ps.setInt(10, record.getRetryCount());
+						if (null == record.getError()) {
+							ps.setNull(11, Types.VARCHAR);
+						} else {
+							ps.setString(11, record.getError());
+						}
+					}
+
+					@Override
+					public int getBatchSize() {
+						return records.size();
+					}
+				});
+			}
+		});
+	}
+
+	/**
+	 * Reads a job's most recent firings.
+	 *
+	 * @param schedulerName
+	 *          scheduler the job belongs to
+	 * @param jobKey
+	 *          job
+	 * @param limit
+	 *          most firings to return
+	 * @return firings, most recent first
+	 */
+	public List<FireRecord> readRecent(String schedulerName, JobKey jobKey, int limit) {
+		return jdbc.query(SELECT_RECENT, new Object[] { schedulerName, jobKey.getGroup(),
+				jobKey.getName(), limit }, RECORD_MAPPER);
+	}
+
+	/**
+	 * Reads each job's failure rate since a time.
+	 *
+	 * @param schedulerName
+	 *          scheduler to read
+	 * @param since
+	 *          earliest fire time counted
+	 * @return failure rates of the jobs that fired, by job key
+	 */
+	public List<FailureRate> readFailureRates(String schedulerName, long since) {
+		return jdbc.query(SELECT_FAILURE_RATES, new Object[] { since, schedulerName }, RATE_MAPPER);
+	}
+
+	/**
+	 * Deletes history older than a time.
+	 *
+	 * @param before
+	 *          fire time before which history is deleted
+	 * @return number of records deleted
+	 */
+	public int purge(long before) {
+		return jdbc.update(PURGE, before);
+	}
+}
@@ -0,0 +1,401 @@
+package sss.quartz.history;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.sql.DataSource;
+
+import org.quartz.JobDataMap;
+import org.quartz.JobExecutionContext;
+import org.quartz.JobExecutionException;
+import org.quartz.JobListener;
+import org.quartz.SchedulerException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import sss.quartz.history.FireRecord.Outcome;
+import sss.quartz.jobs.RetryJobWrapper;
+
+/**
+ * Global job listener that keeps a history of every firing in the
+ * {@link FireHistoryDao#TABLE} table, without slowing the firing down.
+ * <p>
+ * Worker threads only put a {@link FireRecord} on a {@link RingBuffer}; a
+ * single writer thread takes them off in batches of up to
+ * <code>sss.history.batchSize</code> and inserts each batch in one
+ * transaction. When fewer records than that are waiting, the writer waits
+ * <code>sss.history.flushInterval</code> milliseconds for more, so a busy
+ * scheduler commits once per batch rather than once per firing.
+ * <p>
+ * The buffer holds <code>sss.history.capacity</code> records. What happens when
+ * it is full is set by <code>sss.history.overflow</code>:
+ * <dl>
+ * <dt>DROP</dt>
+ * <dd>the new record is dropped (the default)</dd>
+ * <dt>KEEP_FAILURES</dt>
+ * <dd>successful firings are dropped once the buffer is three quarters full,
+ * keeping the rest of it for failures and vetoes</dd>
+ * <dt>WAIT</dt>
+ * <dd>the worker thread waits up to <code>sss.history.maxWait</code>
+ * milliseconds for room, then drops the record</dd>
+ * </dl>
+ * Dropped records are counted. History older than
+ * <code>sss.history.retentionDays</code> is deleted by the writer.
+ * <p>
+ * History is kept when there's a JDBC job store, unless
+ * <code>sss.history.enabled</code> is false.
+ *
+ * @author jsteele
+ */
+@Component
+public class FireHistoryListener implements JobListener, InitializingBean, DisposableBean {
+	/** What to do with a record when the buffer is full. */
+	public enum OverflowPolicy {
+		DROP, KEEP_FAILURES, WAIT
+	}
+
+	/** Environment property that turns off the fire history. */
+	public static final String ENABLED_KEY = "sss.history.enabled";
+
+	/** Environment property for the most records buffered. */
+	public static final String CAPACITY_KEY = "sss.history.capacity";
+
+	/** Environment property for the most records inserted per transaction. */
+	public static final String BATCH_SIZE_KEY = "sss.history.batchSize";
+
+	/**
+	 * Environment property for the most time, in milliseconds, a record waits
+	 * for a batch to fill.
+	 */
+	public static final String FLUSH_INTERVAL_KEY = "sss.history.flushInterval";
+
+	/** Environment property for the {@link OverflowPolicy}. */
+	public static final String OVERFLOW_KEY = "sss.history.overflow";
+
+	/**
+	 * Environment property for the most time, in milliseconds, a worker waits
+	 * for room with the WAIT policy.
+	 */
+	public static final String MAX_WAIT_KEY = "sss.history.maxWait";
+
+	/** Environment property for the number of days history is kept. */
+	public static final String RETENTION_DAYS_KEY = "sss.history.retentionDays";
+
+	public static final int DEFAULT_CAPACITY = 8192;
+
+	public static final int DEFAULT_BATCH_SIZE = 500;
+
+	public static final long DEFAULT_FLUSH_INTERVAL = 200;
+
+	public static final long DEFAULT_MAX_WAIT = 50;
+
+	public static final int DEFAULT_RETENTION_DAYS = 7;
+
+	/** Time between purges of old history. */
+	private static final long PURGE_INTERVAL = TimeUnit.HOURS.toMillis(1);
+
+	/** Class logger. */
+	private static final Logger log = LoggerFactory.getLogger(FireHistoryListener.class);
+
+	@Autowired
+	private Environment env;
+
+	@Autowired(required = false)
+	@Qualifier("quartzDataSource")
+	private DataSource dataSource;
+
+	private volatile boolean enabled;
+
+	private FireHistoryDao dao;
+
+	private RingBuffer<FireRecord> buffer;
+
+	private int batchSize;
+
+	private long flushIntervalNanos;
+
+	private OverflowPolicy overflow;
+
+	private long maxWaitNanos;
+
+	private int keepFailuresThreshold;
+
+	private long retention;
+
+	private Thread writer;
+
+	private volatile boolean running;
+
+	/** Whether the writer is inserting a batch. */
+	private volatile boolean writing;
+
+	private final AtomicLong recorded = new AtomicLong();
+
+	private final AtomicLong dropped = new AtomicLong();
+
+	private final AtomicLong written = new AtomicLong();
+
+	private final AtomicLong batches = new AtomicLong();
+
+	private final AtomicLong writeFailures = new AtomicLong();
+
+	/**
+	 * Creates the history table, if need be, and starts the writer.
+	 */
+	@Override
+	public void afterPropertiesSet() {
+		if (null == dataSource || !env.getProperty(ENABLED_KEY, Boolean.class, true)) {
+			log.info("fire history is off");
+			return;
+		}
+		buffer = new RingBuffer<FireRecord>(env.getProperty(CAPACITY_KEY, Integer.class,
+				DEFAULT_CAPACITY));
+		batchSize = env.getProperty(BATCH_SIZE_KEY, Integer.class, DEFAULT_BATCH_SIZE);
+		flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(env.getProperty(FLUSH_INTERVAL_KEY,
+				Long.class, DEFAULT_FLUSH_INTERVAL));
+		overflow = env.getProperty(OVERFLOW_KEY, OverflowPolicy.class, OverflowPolicy.DROP);
+		maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(env.getProperty(MAX_WAIT_KEY, Long.class,
+				DEFAULT_MAX_WAIT));
+		keepFailuresThreshold = buffer.capacity() / 4 * 3;
+		retention = TimeUnit.DAYS.toMillis(env.getProperty(RETENTION_DAYS_KEY, Integer.class,
+				DEFAULT_RETENTION_DAYS));
+
+		dao = new FireHistoryDao(dataSource);
+		dao.createTable();
+
+		running = true;
+		writer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				write();
+			}
+		}, "FireHistory-writer");
+		writer.setDaemon(true);
+		writer.start();
+		enabled = true;
+		log.info(String.format("keeping fire history: %d record buffer, %s on overflow, "
+				+ "batches of %d", buffer.capacity(), overflow, batchSize));
+	}
+
+	/**
+	 * Stops the writer, once it has written what's buffered.
+	 */
+	@Override
+	public void destroy() throws InterruptedException {
+		if (!enabled) {
+			return;
+		}
+		enabled = false;
+		running = false;
+		LockSupport.unpark(writer);
+		writer.join(TimeUnit.SECONDS.toMillis(10));
+	}
+
+	@Override
+	public String getName() {
+		return FireHistoryListener.class.getName();
+	}
+
+	@Override
+	public void jobToBeExecuted(JobExecutionContext context) {
+	}
+
+	@Override
+	public void jobExecutionVetoed(JobExecutionContext context) {
+		record(context, Outcome.VETOED, null);
+	}
+
+	@Override
+	public void jobWasExecuted(JobExecutionContext context, JobExecutionException jobException) {
+		record(context, null == jobException ? Outcome.SUCCESS : Outcome.FAILURE, jobException);
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * @return the history table, or <code>null</code> if history is off
+	 */
+	public FireHistoryDao getDao() {
+		return dao;
+	}
+
+	/**
+	 * Waits for the records buffered so far to be written.
+	 *
+	 * @param timeout
+	 *          most time to wait, in milliseconds
+	 * @return whether they were written in time
+	 * @throws InterruptedException
+	 *           if interrupted while waiting
+	 */
+	public boolean flush(long timeout) throws InterruptedException {
+		if (!enabled) {
+			return true;
+		}
+		final long deadline = System.currentTimeMillis() + timeout;
+		while (buffer.size() > 0 || writing) {
+			if (System.currentTimeMillis() >= deadline) {
+				return false;
+			}
+			LockSupport.unpark(writer);
+			Thread.sleep(10);
+		}
+		return true;
+	}
+
+	public OverflowPolicy getOverflowPolicy() {
+		return overflow;
+	}
+
+	/**
+	 * @return number of records buffered, waiting to be written
+	 */
+	public int getBuffered() {
+		return enabled ? buffer.size() : 0;
+	}
+
+	public int getCapacity() {
+		return enabled ? buffer.capacity() : 0;
+	}
+
+	public long getRecorded() {
+		return recorded.get();
+	}
+
+	public long getDropped() {
+		return dropped.get();
+	}
+
+	public long getWritten() {
+		return written.get();
+	}
+
+	public long getBatches() {
+		return batches.get();
+	}
+
+	/**
+	 * @return number of records lost because their batch couldn't be written
+	 */
+	public long getWriteFailures() {
+		return writeFailures.get();
+	}
+
+	private void record(JobExecutionContext context, Outcome outcome,
+			JobExecutionException jobException) {
+		if (!enabled) {
+			return;
+		}
+		final String schedulerName;
+		try {
+			schedulerName = context.getScheduler().getSchedulerName();
+		} catch (SchedulerException e) {
+			// Not thrown by a local scheduler
+			dropped.incrementAndGet();
+			return;
+		}
+		final JobDataMap data = context.getMergedJobDataMap();
+		final int retryCount = data.containsKey(RetryJobWrapper.RETRY_COUNT_KEY) ? data
+				.getIntValue(RetryJobWrapper.RETRY_COUNT_KEY) : 0;
+		final long scheduledTime = null == context.getScheduledFireTime() ? 0 : context
+				.getScheduledFireTime().getTime();
+		// @formatter:off
+		final FireRecord record = new FireRecord(
+				schedulerName,
+				context.getJobDetail().getKey(),
+				context.getTrigger().getKey(),
+				scheduledTime,
+				context.getFireTime().getTime(),
+				Math.max(0, context.getJobRunTime()),
+				outcome,
+				retryCount,
+				null == jobException ? null : jobException.getMessage());
+		// @formatter:on
+		recorded.incrementAndGet();
+		if (!offer(record)) {
+			dropped.incrementAndGet();
+		}
+	}
+
+	private boolean offer(FireRecord record) {
+		switch (overflow) {
+		case KEEP_FAILURES:
+			if (Outcome.SUCCESS == record.getOutcome() && buffer.size() >= keepFailuresThreshold) {
+				return false;
+			}
+			return buffer.offer(record);
+		case WAIT:
+			if (buffer.offer(record)) {
+				return true;
+			}
+			final long deadline = System.nanoTime() + maxWaitNanos;
+			LockSupport.unpark(writer);
+			while (System.nanoTime() < deadline) {
+				LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+				if (buffer.offer(record)) {
+					return true;
+				}
+			}
+			return false;
+		default:
+			return buffer.offer(record);
+		}
+	}
+
+	/**
+	 * Writes buffered records in batches until stopped, then writes what's left.
+	 */
+	private void write() {
+		final List<FireRecord> batch = new ArrayList<FireRecord>(batchSize);
+		long nextPurge = System.currentTimeMillis();
+		while (running || buffer.size() > 0) {
+			batch.clear();
+			writing = true;
+			try {
+				if (buffer.drainTo(batch, batchSize) > 0) {
+					dao.insert(batch);
+					written.addAndGet(batch.size());
+					batches.incrementAndGet();
+				}
+			} catch (RuntimeException re) {
+				// Not only DataAccessException; anything else would end the writer
+				writeFailures.addAndGet(batch.size());
+				log.warn("could not write " + batch.size() + " fire history records: " + re, re);
+			} finally {
+				writing = false;
+			}
+
+			final long now = System.currentTimeMillis();
+			if (now >= nextPurge) {
+				nextPurge = now + PURGE_INTERVAL;
+				purge(now - retention);
+			}
+			if (running && batch.size() < batchSize) {
+				// Let the next batch fill
+				LockSupport.parkNanos(flushIntervalNanos);
+			}
+		}
+	}
+
+	private void purge(long before) {
+		try {
+			final int purged = dao.purge(before);
+			if (purged > 0) {
+				log.info("purged " + purged + " fire history records");
+			}
+		} catch (RuntimeException re) {
+			log.warn("could not purge fire history: " + re, re);
+		}
+	}
+}
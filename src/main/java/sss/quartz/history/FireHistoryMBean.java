@@ -0,0 +1,240 @@
+package sss.quartz.history;
+
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.OperationsException;
+import javax.management.openmbean.CompositeDataSupport;
+import javax.management.openmbean.CompositeType;
+import javax.management.openmbean.OpenDataException;
+import javax.management.openmbean.OpenType;
+import javax.management.openmbean.SimpleType;
+import javax.management.openmbean.TabularData;
+import javax.management.openmbean.TabularDataSupport;
+import javax.management.openmbean.TabularType;
+
+import org.quartz.JobKey;
+import org.quartz.Scheduler;
+import org.quartz.SchedulerException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedOperation;
+import org.springframework.jmx.export.annotation.ManagedOperationParameter;
+import org.springframework.jmx.export.annotation.ManagedOperationParameters;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.stereotype.Component;
+
+import sss.quartz.ScheduleKeys;
+
+/**
+ * JMX access to the fire history: the state of the write-behind pipeline, and
+ * queries over the history table.
+ *
+ * @author jsteele
+ */
+@ManagedResource(objectName = "sss.quartz:name=FireHistoryMBean", description = "History of job firings.")
+@Component
+public class FireHistoryMBean {
+	// @formatter:off
+	private static final String[] RUN_NAMES = new String[] {
+			"fired", "trigger", "scheduled", "lag", "duration", "outcome", "retryCount", "error" };
+
+	private static final String[] RUN_DESCRIPTIONS = new String[] {
+			"Fire time", "Trigger", "Scheduled fire time", "Fire time less scheduled time (ms)",
+			"Run time (ms)", "Outcome", "Retry number", "Error message" };
+
+	private static final OpenType<?>[] RUN_TYPES = new OpenType<?>[] {
+			SimpleType.DATE, SimpleType.STRING, SimpleType.DATE, SimpleType.LONG,
+			SimpleType.LONG, SimpleType.STRING, SimpleType.INTEGER, SimpleType.STRING };
+
+	private static final String[] RATE_NAMES = new String[] { "job", "runs", "failures", "rate" };
+
+	private static final String[] RATE_DESCRIPTIONS = new String[] {
+			"Job Name", "Firings", "Failed firings", "Failures as a fraction of firings" };
+
+	private static final OpenType<?>[] RATE_TYPES = new OpenType<?>[] {
+			SimpleType.STRING, SimpleType.LONG, SimpleType.LONG, SimpleType.DOUBLE };
+	// @formatter:on
+
+	@Autowired
+	private FireHistoryListener fireHistory;
+
+	@Autowired
+	private Scheduler scheduler;
+
+	@ManagedAttribute(description = "Whether firings are being recorded")
+	public boolean isEnabled() {
+		return fireHistory.isEnabled();
+	}
+
+	@ManagedAttribute(description = "What happens to a firing's record when the buffer is full")
+	public String getOverflowPolicy() {
+		return String.valueOf(fireHistory.getOverflowPolicy());
+	}
+
+	@ManagedAttribute(description = "Records waiting to be written")
+	public int getBuffered() {
+		return fireHistory.getBuffered();
+	}
+
+	@ManagedAttribute(description = "Most records that can wait to be written")
+	public int getCapacity() {
+		return fireHistory.getCapacity();
+	}
+
+	@ManagedAttribute(description = "Firings recorded")
+	public long getRecorded() {
+		return fireHistory.getRecorded();
+	}
+
+	@ManagedAttribute(description = "Records dropped because the buffer was full")
+	public long getDropped() {
+		return fireHistory.getDropped();
+	}
+
+	@ManagedAttribute(description = "Records written")
+	public long getWritten() {
+		return fireHistory.getWritten();
+	}
+
+	@ManagedAttribute(description = "Batches written")
+	public long getBatches() {
+		return fireHistory.getBatches();
+	}
+
+	@ManagedAttribute(description = "Records lost because their batch couldn't be written")
+	public long getWriteFailures() {
+		return fireHistory.getWriteFailures();
+	}
+
+	/**
+	 * Lists a job's most recent firings.
+	 *
+	 * @param jobKey
+	 *          job, as group.name
+	 * @param limit
+	 *          most firings to list
+	 * @return firings, most recent first
+	 * @throws OperationsException
+	 *           if history is off or couldn't be read
+	 * @throws OpenDataException
+	 */
+	@ManagedOperation(description = "Lists a job's most recent firings")
+	@ManagedOperationParameters({
+			@ManagedOperationParameter(name = "jobKey", description = "Job, as group.name"),
+			@ManagedOperationParameter(name = "limit", description = "Most firings to list") })
+	public TabularData recentRuns(String jobKey, int limit) throws OperationsException,
+			OpenDataException {
+		final CompositeType rowType = new CompositeType("FireRecord", "A job firing", RUN_NAMES,
+				RUN_DESCRIPTIONS, RUN_TYPES);
+		final TabularType tableType = new TabularType("Recent Runs", "A job's most recent firings",
+				rowType, new String[] { "fired", "trigger" });
+		final TabularData table = new TabularDataSupport(tableType);
+
+		final List<FireRecord> records;
+		try {
+			records = getDao().readRecent(getSchedulerName(), ScheduleKeys.jobKey(jobKey),
+					Math.max(1, limit));
+		} catch (DataAccessException dae) {
+			throw new OperationsException("error reading fire history: " + dae.getMessage());
+		}
+		for (final FireRecord record : records) {
+			final Date scheduled = 0 == record.getScheduledTime() ? null : new Date(
+					record.getScheduledTime());
+			// @formatter:off
+			table.put(new CompositeDataSupport(rowType, RUN_NAMES, new Object[] {
+					new Date(record.getFireTime()),
+					record.getTriggerKey().toString(),
+					scheduled,
+					null == scheduled ? 0L : record.getFireTime() - record.getScheduledTime(),
+					record.getDuration(),
+					record.getOutcome().name(),
+					record.getRetryCount(),
+					record.getError() }));
+			// @formatter:on
+		}
+		return table;
+	}
+
+	/**
+	 * Lists each job's failure rate over a recent window.
+	 *
+	 * @param minutes
+	 *          length of the window
+	 * @return failure rates of the jobs that fired in the window
+	 * @throws OperationsException
+	 *           if history is off or couldn't be read
+	 * @throws OpenDataException
+	 */
+	@ManagedOperation(description = "Lists each job's failure rate over the last few minutes")
+	@ManagedOperationParameters({ @ManagedOperationParameter(name = "minutes", description = "Length of the window") })
+	public TabularData failureRates(int minutes) throws OperationsException, OpenDataException {
+		final CompositeType rowType = new CompositeType("FailureRate", "A job's failure rate",
+				RATE_NAMES, RATE_DESCRIPTIONS, RATE_TYPES);
+		final TabularType tableType = new TabularType("Failure Rates", "Failure rates per job",
+				rowType, new String[] { "job" });
+		final TabularData table = new TabularDataSupport(tableType);
+
+		for (final FailureRate rate : readFailureRates(minutes)) {
+			table.put(new CompositeDataSupport(rowType, RATE_NAMES, new Object[] {
+					rate.getJobKey().toString(), rate.getRuns(), rate.getFailures(), rate.getRate() }));
+		}
+		return table;
+	}
+
+	/**
+	 * Gets a job's failure rate over a recent window.
+	 *
+	 * @param jobKey
+	 *          job, as group.name
+	 * @param minutes
+	 *          length of the window
+	 * @return failures as a fraction of firings, or 0 if it didn't fire
+	 * @throws OperationsException
+	 *           if history is off or couldn't be read
+	 */
+	@ManagedOperation(description = "Gets a job's failure rate over the last few minutes")
+	@ManagedOperationParameters({
+			@ManagedOperationParameter(name = "jobKey", description = "Job, as group.name"),
+			@ManagedOperationParameter(name = "minutes", description = "Length of the window") })
+	public double failureRate(String jobKey, int minutes) throws OperationsException {
+		final JobKey key = ScheduleKeys.jobKey(jobKey);
+		for (final FailureRate rate : readFailureRates(minutes)) {
+			if (rate.getJobKey().equals(key)) {
+				return rate.getRate();
+			}
+		}
+		return 0.0;
+	}
+
+	@ManagedOperation(description = "Waits up to ten seconds for buffered records to be written")
+	public boolean flush() throws InterruptedException {
+		return fireHistory.flush(TimeUnit.SECONDS.toMillis(10));
+	}
+
+	private List<FailureRate> readFailureRates(int minutes) throws OperationsException {
+		final long since = System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(Math.max(1, minutes));
+		try {
+			return getDao().readFailureRates(getSchedulerName(), since);
+		} catch (DataAccessException dae) {
+			throw new OperationsException("error reading fire history: " + dae.getMessage());
+		}
+	}
+
+	private FireHistoryDao getDao() throws OperationsException {
+		if (!fireHistory.isEnabled()) {
+			throw new OperationsException("fire history is off");
+		}
+		return fireHistory.getDao();
+	}
+
+	private String getSchedulerName() throws OperationsException {
+		try {
+			return scheduler.getSchedulerName();
+		} catch (SchedulerException e) {
+			throw new OperationsException(e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,114 @@
+package sss.quartz.history;
+
+import org.quartz.JobKey;
+import org.quartz.TriggerKey;
+
+/**
+ * One firing of a job, as kept in the fire history.
+ *
+ * @author jsteele
+ */
+public final class FireRecord {
+	/** How a firing ended. */
+	public enum Outcome {
+		SUCCESS, FAILURE, VETOED
+	}
+
+	/** Longest error message kept. */
+	static final int MAX_ERROR_LENGTH = 1000;
+
+	private final String schedulerName;
+
+	private final JobKey jobKey;
+
+	private final TriggerKey triggerKey;
+
+	private final long scheduledTime;
+
+	private final long fireTime;
+
+	private final long duration;
+
+	private final Outcome outcome;
+
+	private final int retryCount;
+
+	private final String error;
+
+	/**
+	 * @param schedulerName
+	 *          name of the scheduler that fired the job
+	 * @param jobKey
+	 *          job fired
+	 * @param triggerKey
+	 *          trigger that fired it
+	 * @param scheduledTime
+	 *          time it was scheduled to fire, or 0 if it wasn't scheduled
+	 * @param fireTime
+	 *          time it fired
+	 * @param duration
+	 *          run time, in milliseconds
+	 * @param outcome
+	 *          how it ended
+	 * @param retryCount
+	 *          retry number, or 0 if it's not a retry
+	 * @param error
+	 *          error message if it failed, otherwise <code>null</code>;
+	 *          truncated if it's long
+	 */
+	public FireRecord(String schedulerName, JobKey jobKey, TriggerKey triggerKey, long scheduledTime,
+			long fireTime, long duration, Outcome outcome, int retryCount, String error) {
+		this.schedulerName = schedulerName;
+		this.jobKey = jobKey;
+		this.triggerKey = triggerKey;
+		this.scheduledTime = scheduledTime;
+		this.fireTime = fireTime;
+		this.duration = duration;
+		this.outcome = outcome;
+		this.retryCount = retryCount;
+		this.error = null != error && error.length() > MAX_ERROR_LENGTH ? error.substring(0,
+				MAX_ERROR_LENGTH) : error;
+	}
+
+	public String getSchedulerName() {
+		return schedulerName;
+	}
+
+	public JobKey getJobKey() {
+		return jobKey;
+	}
+
+	public TriggerKey getTriggerKey() {
+		return triggerKey;
+	}
+
+	public long getScheduledTime() {
+		return scheduledTime;
+	}
+
+	public long getFireTime() {
+		return fireTime;
+	}
+
+	public long getDuration() {
+		return duration;
+	}
+
+	public Outcome getOutcome() {
+		return outcome;
+	}
+
+	public int getRetryCount() {
+		return retryCount;
+	}
+
+	public String getError() {
+		return error;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s fired %s at %d in %dms: %s", triggerKey, jobKey, fireTime, duration,
+				outcome);
+	}
+}
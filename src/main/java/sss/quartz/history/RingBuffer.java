@@ -0,0 +1,131 @@
+package sss.quartz.history;
+
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded, lock-free queue for many producers and a single consumer. Offering
+ * never blocks and never allocates: when the queue is full the element is
+ * refused, and the producer decides what to do about it.
+ * <p>
+ * Each slot carries a sequence number saying whose turn it is: a producer
+ * claims a position by advancing the tail, writes its element and then
+ * publishes the slot by advancing its sequence; the consumer takes the element
+ * and hands the slot back for the next lap.
+ *
+ * @author jsteele
+ */
+public class RingBuffer<E> {
+	private final int capacity;
+
+	private final int mask;
+
+	private final AtomicReferenceArray<E> elements;
+
+	private final AtomicLongArray sequences;
+
+	/** Next position to be claimed by a producer. */
+	private final AtomicLong tail = new AtomicLong();
+
+	/** Next position to be taken by the consumer; written only by it. */
+	private final AtomicLong head = new AtomicLong();
+
+	/**
+	 * @param capacity
+	 *          most elements held; rounded up to a power of two
+	 */
+	public RingBuffer(int capacity) {
+		if (capacity < 1 || capacity > 1 << 30) {
+			throw new IllegalArgumentException("capacity must be between 1 and 2^30: " + capacity);
+		}
+		this.capacity = 1 == capacity ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+		this.mask = this.capacity - 1;
+		this.elements = new AtomicReferenceArray<E>(this.capacity);
+		this.sequences = new AtomicLongArray(this.capacity);
+		for (int i = 0; i < this.capacity; i++) {
+			sequences.set(i, i);
+		}
+	}
+
+	/**
+	 * Adds an element, if there's room. Safe to call from any thread.
+	 *
+	 * @param element
+	 *          element to add
+	 * @return whether it was added
+	 */
+	public boolean offer(E element) {
+		if (null == element) {
+			throw new NullPointerException();
+		}
+		long pos = tail.get();
+		while (true) {
+			final int index = (int) (pos & mask);
+			final long diff = sequences.get(index) - pos;
+			if (0 == diff) {
+				if (tail.compareAndSet(pos, pos + 1)) {
+					elements.lazySet(index, element);
+					// Publishes the element to the consumer
+					sequences.lazySet(index, pos + 1);
+					return true;
+				}
+				pos = tail.get();
+			} else if (diff < 0) {
+				// The slot hasn't been taken since the last lap: full
+				return false;
+			} else {
+				// Another producer claimed this position first
+				pos = tail.get();
+			}
+		}
+	}
+
+	/**
+	 * Takes the oldest element. Must only be called by the consumer.
+	 *
+	 * @return the oldest element, or <code>null</code> if there are none
+	 */
+	public E poll() {
+		final long pos = head.get();
+		final int index = (int) (pos & mask);
+		if (sequences.get(index) != pos + 1) {
+			// Empty, or the producer of this slot hasn't published it yet
+			return null;
+		}
+		final E element = elements.get(index);
+		elements.lazySet(index, null);
+		sequences.lazySet(index, pos + capacity);
+		head.lazySet(pos + 1);
+		return element;
+	}
+
+	/**
+	 * Takes up to <code>max</code> elements, oldest first. Must only be called
+	 * by the consumer.
+	 *
+	 * @return number of elements taken
+	 */
+	public int drainTo(Collection<? super E> collection, int max) {
+		int drained = 0;
+		E element;
+		while (drained < max && null != (element = poll())) {
+			collection.add(element);
+			drained++;
+		}
+		return drained;
+	}
+
+	/**
+	 * @return number of elements held, which may be out of date as soon as it
+	 *         is returned
+	 */
+	public int size() {
+		return (int) Math.max(0, Math.min(capacity, tail.get() - head.get()));
+	}
+
+	public int capacity() {
+		return capacity;
+	}
+}
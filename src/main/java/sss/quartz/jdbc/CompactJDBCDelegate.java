@@ -0,0 +1,327 @@
+package sss.quartz.jdbc;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.Blob;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.quartz.JobDataMap;
+import org.quartz.PersistJobDataAfterExecution;
+import org.quartz.core.QuartzSchedulerThread;
+import org.quartz.impl.jdbcjobstore.StdJDBCDelegate;
+import org.quartz.utils.ClassUtils;
+
+import sss.quartz.jobs.IgnoresJobData;
+
+/**
+ * JDBC delegate that stores job data in a compact binary format rather than as
+ * properties text. Job data is read with every trigger acquired and every job
+ * fired, and parsing properties text is most of the cost of reading it.
+ * <p>
+ * With <code>org.quartz.jobStore.useProperties</code> set, as
+ * {@link sss.quartz.SchedulerConfig} does:
+ * <ul>
+ * <li>job data is written as a count followed by each key and value, as
+ * length prefixed UTF-8; values must be strings, as with properties;</li>
+ * <li>empty job data is written as no bytes and not read at all;</li>
+ * <li>decoded job data is cached by its encoded bytes, so a row is decoded
+ * once until its data changes; Quartz's tables have no row version, and the
+ * bytes serve as one;</li>
+ * <li>the job data of jobs marked {@link IgnoresJobData} is not read when
+ * their triggers are acquired and fired, which Quartz does on its scheduler
+ * thread; it is read everywhere else, as for
+ * {@link org.quartz.Scheduler#getJobDetail(org.quartz.JobKey)}, so a job
+ * detail that is read and stored again keeps its data;</li>
+ * <li>job data written as properties by {@link StdJDBCDelegate} is still read,
+ * and rewritten in the compact format when next stored.</li>
+ * </ul>
+ * Without <code>useProperties</code> this behaves exactly as
+ * {@link StdJDBCDelegate}. Job data written by this delegate can't be read by
+ * {@link StdJDBCDelegate}.
+ *
+ * @author jsteele
+ */
+public class CompactJDBCDelegate extends StdJDBCDelegate {
+	/** Starts job data in the compact format; properties text never does. */
+	static final byte[] MAGIC = new byte[] { (byte) 0xfe, 'J', 'D', 1 };
+
+	/** Most decoded maps cached; the cache is emptied when it is full. */
+	static final int MAX_CACHED = 10000;
+
+	private static final ConcurrentMap<Encoded, Map<String, Object>> cache = new ConcurrentHashMap<Encoded, Map<String, Object>>();
+
+	private static final AtomicLong hits = new AtomicLong();
+
+	private static final AtomicLong misses = new AtomicLong();
+
+	private static final AtomicLong skipped = new AtomicLong();
+
+	/** Whether job data can be skipped, by job class name. */
+	private final ConcurrentMap<String, Boolean> skippable = new ConcurrentHashMap<String, Boolean>();
+
+	/**
+	 * Job data decoded by {@link #getJobDataFromBlob(ResultSet, String)}, to be
+	 * returned by the {@link #convertFromProperty(Properties)} that follows it.
+	 */
+	private final ThreadLocal<Map<String, Object>> decoded = new ThreadLocal<Map<String, Object>>();
+
+	@Override
+	protected ByteArrayOutputStream serializeJobData(JobDataMap data) throws IOException {
+		if (!canUseProperties()) {
+			return super.serializeJobData(data);
+		}
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		if (null != data && !data.isEmpty()) {
+			encode(data.getWrappedMap(), out);
+		}
+		return out;
+	}
+
+	/**
+	 * Reads job data. Compact job data is decoded here, and an empty stream
+	 * returned for Quartz to load as properties; legacy properties are returned
+	 * as they are.
+	 */
+	@Override
+	protected Object getJobDataFromBlob(ResultSet rs, String colName) throws ClassNotFoundException,
+			IOException, SQLException {
+		if (!canUseProperties()) {
+			return super.getJobDataFromBlob(rs, colName);
+		}
+		if (skipJobData(rs)) {
+			skipped.incrementAndGet();
+			return null;
+		}
+		final Blob blob = rs.getBlob(colName);
+		if (null == blob || 0 == blob.length()) {
+			return null;
+		}
+		final byte[] bytes = blob.getBytes(1, (int) blob.length());
+		if (!isCompact(bytes)) {
+			return new ByteArrayInputStream(bytes);
+		}
+		decoded.set(decodeCached(bytes));
+		return new ByteArrayInputStream(new byte[0]);
+	}
+
+	@Override
+	protected Map<?, ?> convertFromProperty(Properties properties) throws IOException {
+		final Map<String, Object> map = decoded.get();
+		if (null != map) {
+			decoded.remove();
+			return map;
+		}
+		return super.convertFromProperty(properties);
+	}
+
+	/**
+	 * @return number of job data reads answered from the cache
+	 */
+	public static long getCacheHits() {
+		return hits.get();
+	}
+
+	/**
+	 * @return number of job data reads that were decoded
+	 */
+	public static long getCacheMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * @return number of job data reads skipped for {@link IgnoresJobData} jobs
+	 *         as their triggers were acquired or fired
+	 */
+	public static long getSkipped() {
+		return skipped.get();
+	}
+
+	/**
+	 * Encodes job data in the compact format.
+	 *
+	 * @throws IOException
+	 *           if a key or value isn't a string
+	 */
+	static void encode(Map<?, ?> data, ByteArrayOutputStream out) throws IOException {
+		out.write(MAGIC, 0, MAGIC.length);
+		writeVarint(out, data.size());
+		for (final Map.Entry<?, ?> entry : data.entrySet()) {
+			// As StdJDBCDelegate requires with useProperties
+			final Object value = null == entry.getValue() ? "" : entry.getValue();
+			if (!(entry.getKey() instanceof String) || !(value instanceof String)) {
+				throw new IOException("JobDataMap keys and values must be Strings when the "
+						+ "'useProperties' property is set. Offending key: " + entry.getKey());
+			}
+			writeString(out, (String) entry.getKey());
+			writeString(out, (String) value);
+		}
+	}
+
+	/**
+	 * Decodes job data in the compact format.
+	 *
+	 * @throws IOException
+	 *           if the data is truncated
+	 */
+	static Map<String, Object> decode(byte[] bytes) throws IOException {
+		final int[] pos = new int[] { MAGIC.length };
+		final int size = readVarint(bytes, pos);
+		final Map<String, Object> map = new HashMap<String, Object>(Math.max(4, size * 4 / 3 + 1));
+		for (int i = 0; i < size; i++) {
+			final String key = readString(bytes, pos);
+			map.put(key, readString(bytes, pos));
+		}
+		return map;
+	}
+
+	static boolean isCompact(byte[] bytes) {
+		if (bytes.length < MAGIC.length) {
+			return false;
+		}
+		for (int i = 0; i < MAGIC.length; i++) {
+			if (bytes[i] != MAGIC[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return decoded job data, shared and unmodifiable; Quartz copies it into
+	 *         a new JobDataMap
+	 */
+	static Map<String, Object> decodeCached(byte[] bytes) throws IOException {
+		final Encoded key = new Encoded(bytes);
+		Map<String, Object> map = cache.get(key);
+		if (null != map) {
+			hits.incrementAndGet();
+			return map;
+		}
+		misses.incrementAndGet();
+		map = Collections.unmodifiableMap(decode(bytes));
+		if (cache.size() >= MAX_CACHED) {
+			// Mostly one-off data, such as retries'; the data in use comes back
+			cache.clear();
+		}
+		cache.put(key, map);
+		return map;
+	}
+
+	/**
+	 * @return whether the row is a job's being read to acquire or fire one of
+	 *         its triggers, and the job doesn't read its data
+	 */
+	private boolean skipJobData(ResultSet rs) throws SQLException {
+		if (!(Thread.currentThread() instanceof QuartzSchedulerThread)) {
+			return false;
+		}
+		final String jobClassName = jobClassName(rs);
+		if (null == jobClassName) {
+			return false;
+		}
+		Boolean skip = skippable.get(jobClassName);
+		if (null == skip) {
+			skip = ignoresJobData(jobClassName);
+			skippable.put(jobClassName, skip);
+		}
+		return skip;
+	}
+
+	private boolean ignoresJobData(String jobClassName) {
+		try {
+			final Class<?> jobClass = classLoadHelper.loadClass(jobClassName);
+			return ClassUtils.isAnnotationPresent(jobClass, IgnoresJobData.class)
+					&& !ClassUtils.isAnnotationPresent(jobClass, PersistJobDataAfterExecution.class);
+		} catch (ClassNotFoundException e) {
+			// Quartz reports this itself
+			return false;
+		}
+	}
+
+	/**
+	 * @return job class name, or <code>null</code> if the row isn't from the
+	 *         job details table
+	 */
+	private static String jobClassName(ResultSet rs) throws SQLException {
+		final ResultSetMetaData meta = rs.getMetaData();
+		for (int i = 1; i <= meta.getColumnCount(); i++) {
+			if (COL_JOB_CLASS.equalsIgnoreCase(meta.getColumnName(i))) {
+				return rs.getString(i);
+			}
+		}
+		return null;
+	}
+
+	private static void writeString(ByteArrayOutputStream out, String string) {
+		final byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+		writeVarint(out, bytes.length);
+		out.write(bytes, 0, bytes.length);
+	}
+
+	private static String readString(byte[] bytes, int[] pos) throws IOException {
+		final int length = readVarint(bytes, pos);
+		if (pos[0] + length > bytes.length) {
+			throw new IOException("job data truncated at byte " + pos[0]);
+		}
+		final String string = new String(bytes, pos[0], length, StandardCharsets.UTF_8);
+		pos[0] += length;
+		return string;
+	}
+
+	private static void writeVarint(ByteArrayOutputStream out, int value) {
+		while ((value & ~0x7f) != 0) {
+			out.write((value & 0x7f) | 0x80);
+			value >>>= 7;
+		}
+		out.write(value);
+	}
+
+	private static int readVarint(byte[] bytes, int[] pos) throws IOException {
+		int value = 0;
+		for (int shift = 0; shift < 32; shift += 7) {
+			if (pos[0] >= bytes.length) {
+				throw new IOException("job data truncated at byte " + pos[0]);
+			}
+			final int b = bytes[pos[0]++];
+			value |= (b & 0x7f) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IOException("malformed job data at byte " + pos[0]);
+	}
+
+	/** Encoded job data, as a cache key. */
+	private static final class Encoded {
+		private final byte[] bytes;
+
+		private final int hash;
+
+		Encoded(byte[] bytes) {
+			this.bytes = bytes;
+			this.hash = Arrays.hashCode(bytes);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			return obj instanceof Encoded && Arrays.equals(bytes, ((Encoded) obj).bytes);
+		}
+	}
+}
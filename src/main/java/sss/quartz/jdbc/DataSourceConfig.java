@@ -0,0 +1,178 @@
+package sss.quartz.jdbc;
+
+import java.beans.PropertyVetoException;
+import java.io.IOException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.ConditionContext;
+import org.springframework.context.annotation.Conditional;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.ConfigurationCondition;
+import org.springframework.core.env.Environment;
+import org.springframework.core.type.AnnotatedTypeMetadata;
+
+import sss.quartz.QuartzProperties;
+import sss.quartz.SchedulerConfig;
+
+import com.mchange.v2.c3p0.ComboPooledDataSource;
+
+/**
+ * Spring configuration for a pooled job store data source, used when
+ * <code>sss.quartz.jdbc.url</code> is set.
+ * <p>
+ * Every trigger acquired, fired and completed takes a connection from the
+ * data source, so opening a new connection each time costs more than the SQL.
+ * The pool is sized from the Quartz thread count, so that every worker can
+ * complete a trigger while the scheduler thread acquires the next ones, plus
+ * <code>sss.quartz.jdbc.poolOverhead</code> for misfire handling, cluster
+ * check-in and JMX. Set <code>sss.quartz.jdbc.maxPoolSize</code> to size it
+ * explicitly. Each connection caches up to
+ * <code>sss.quartz.jdbc.statementCacheSize</code> prepared statements, which
+ * covers everything <code>StdJDBCDelegate</code> runs, so the job store's SQL
+ * is parsed once per connection rather than once per use.
+ * <p>
+ * Connections are tested when they are returned and while idle, not when they
+ * are taken, to keep the test off the firing path. Pool usage is exposed by
+ * {@link DataSourceMBean}.
+ *
+ * @author jsteele
+ */
+@Configuration
+@Conditional(DataSourceConfig.JdbcUrlCondition.class)
+public class DataSourceConfig {
+	/** Environment property for the job store's JDBC URL. */
+	public static final String URL_KEY = "sss.quartz.jdbc.url";
+
+	/** Environment property for the JDBC driver class. */
+	public static final String DRIVER_KEY = "sss.quartz.jdbc.driver";
+
+	/** Environment property for the database user. */
+	public static final String USER_KEY = "sss.quartz.jdbc.user";
+
+	/** Environment property for the database password. */
+	public static final String PASSWORD_KEY = "sss.quartz.jdbc.password";
+
+	/** Environment property for the most connections the pool will open. */
+	public static final String MAX_POOL_SIZE_KEY = "sss.quartz.jdbc.maxPoolSize";
+
+	/** Environment property for connections beyond one per worker thread. */
+	public static final String POOL_OVERHEAD_KEY = "sss.quartz.jdbc.poolOverhead";
+
+	/** Environment property for prepared statements cached per connection. */
+	public static final String STATEMENT_CACHE_SIZE_KEY = "sss.quartz.jdbc.statementCacheSize";
+
+	/**
+	 * Environment property for the most time to wait for a connection, in
+	 * milliseconds.
+	 */
+	public static final String CHECKOUT_TIMEOUT_KEY = "sss.quartz.jdbc.checkoutTimeout";
+
+	/** Environment property for the query used to test connections. */
+	public static final String TEST_QUERY_KEY = "sss.quartz.jdbc.testQuery";
+
+	/**
+	 * Connections beyond one per worker thread: the scheduler thread, the
+	 * misfire handler, cluster check-in and a couple for JMX.
+	 */
+	public static final int DEFAULT_POOL_OVERHEAD = 5;
+
+	/**
+	 * Prepared statements cached per connection. StdJDBCDelegate uses about
+	 * thirty for acquiring, firing and completing triggers.
+	 */
+	public static final int DEFAULT_STATEMENT_CACHE_SIZE = 50;
+
+	/** Most time to wait for a connection, in milliseconds. */
+	public static final int DEFAULT_CHECKOUT_TIMEOUT = 30000;
+
+	/** Seconds between tests of idle connections. */
+	private static final int IDLE_TEST_PERIOD = 60;
+
+	/** Seconds before connections above the minimum are closed when idle. */
+	private static final int MAX_IDLE_EXCESS = 300;
+
+	/** Class logger. */
+	private static final Logger log = LoggerFactory.getLogger(DataSourceConfig.class);
+
+	/**
+	 * Matches if the JDBC URL is set. Evaluated once every configuration class
+	 * has been parsed, so the URL may come from any property source.
+	 */
+	static class JdbcUrlCondition implements ConfigurationCondition {
+		@Override
+		public ConfigurationPhase getConfigurationPhase() {
+			return ConfigurationPhase.REGISTER_BEAN;
+		}
+
+		@Override
+		public boolean matches(ConditionContext context, AnnotatedTypeMetadata metadata) {
+			return null != context.getEnvironment().getProperty(URL_KEY);
+		}
+	}
+
+	@Autowired
+	private Environment env;
+
+	@Bean
+	@Qualifier("quartzDataSource")
+	public MeasuredDataSource quartzDataSource() throws IOException, PropertyVetoException {
+		final ComboPooledDataSource pool = new ComboPooledDataSource();
+		pool.setDataSourceName("quartzDataSource");
+		pool.setDriverClass(env.getProperty(DRIVER_KEY, "org.h2.Driver"));
+		pool.setJdbcUrl(env.getRequiredProperty(URL_KEY));
+		pool.setUser(env.getProperty(USER_KEY));
+		pool.setPassword(env.getProperty(PASSWORD_KEY));
+
+		final int maxPoolSize = maxPoolSize();
+		final int minPoolSize = Math.min(DEFAULT_POOL_OVERHEAD, maxPoolSize);
+		pool.setMaxPoolSize(maxPoolSize);
+		pool.setMinPoolSize(minPoolSize);
+		pool.setInitialPoolSize(minPoolSize);
+		pool.setMaxIdleTimeExcessConnections(MAX_IDLE_EXCESS);
+		pool.setCheckoutTimeout(env.getProperty(CHECKOUT_TIMEOUT_KEY, Integer.class,
+				DEFAULT_CHECKOUT_TIMEOUT));
+
+		pool.setMaxStatementsPerConnection(env.getProperty(STATEMENT_CACHE_SIZE_KEY, Integer.class,
+				DEFAULT_STATEMENT_CACHE_SIZE));
+
+		pool.setPreferredTestQuery(env.getProperty(TEST_QUERY_KEY, "SELECT 1"));
+		pool.setTestConnectionOnCheckin(true);
+		pool.setIdleConnectionTestPeriod(IDLE_TEST_PERIOD);
+
+		log.info(String.format("job store pool for %s: %d to %d connections, %d statements each",
+				pool.getJdbcUrl(), minPoolSize, maxPoolSize, pool.getMaxStatementsPerConnection()));
+		return new MeasuredDataSource(pool);
+	}
+
+	@Bean
+	public DataSourceMBean dataSourceMBean() throws IOException, PropertyVetoException {
+		return new DataSourceMBean(quartzDataSource(), maxPoolSize());
+	}
+
+	/**
+	 * @return most connections the pool will open: one per worker thread plus
+	 *         the overhead, unless set explicitly
+	 */
+	int maxPoolSize() throws IOException {
+		final Integer maxPoolSize = env.getProperty(MAX_POOL_SIZE_KEY, Integer.class);
+		if (null != maxPoolSize) {
+			return maxPoolSize;
+		}
+
+		// Resolved the same way as for the scheduler itself
+		final QuartzProperties quartzProps = new QuartzProperties(env);
+		quartzProps.setDefault("org.quartz.threadPool.threadCount",
+				String.valueOf(SchedulerConfig.DEFAULT_THREAD_COUNT));
+		quartzProps.resolve();
+		int threads = quartzProps.getInt("org.quartz.threadPool.threadCount",
+				SchedulerConfig.DEFAULT_THREAD_COUNT);
+		if (env.getProperty("sss.quartz.virtualThreads", Boolean.class, false)) {
+			threads = quartzProps.getInt("org.quartz.threadPool.concurrencyLimit", threads);
+		}
+		return threads + env.getProperty(POOL_OVERHEAD_KEY, Integer.class, DEFAULT_POOL_OVERHEAD);
+	}
+}
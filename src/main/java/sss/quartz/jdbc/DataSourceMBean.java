@@ -0,0 +1,133 @@
+package sss.quartz.jdbc;
+
+import java.sql.SQLException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedOperation;
+import org.springframework.jmx.export.annotation.ManagedResource;
+
+import com.mchange.v2.c3p0.PooledDataSource;
+
+/**
+ * JMX monitoring of the job store's connection pool: how long Quartz waits
+ * for connections and holds them, and how much of the pool is in use. Also
+ * reports how {@link CompactJDBCDelegate} served job data reads. Registered by
+ * {@link DataSourceConfig}.
+ *
+ * @author jsteele
+ */
+@ManagedResource(objectName = "sss.quartz:name=DataSourceMBean", description = "Job store connection pool usage.")
+public class DataSourceMBean {
+	/** Class logger. */
+	private static final Logger log = LoggerFactory.getLogger(DataSourceMBean.class);
+
+	private final MeasuredDataSource dataSource;
+
+	private final int maxPoolSize;
+
+	public DataSourceMBean(MeasuredDataSource dataSource, int maxPoolSize) {
+		this.dataSource = dataSource;
+		this.maxPoolSize = maxPoolSize;
+	}
+
+	@ManagedAttribute(description = "Most connections the pool will open")
+	public int getMaxPoolSize() {
+		return maxPoolSize;
+	}
+
+	@ManagedAttribute(description = "Connections open, in use or idle")
+	public int getConnections() throws SQLException {
+		final PooledDataSource pool = dataSource.getPool();
+		return null == pool ? -1 : pool.getNumConnectionsDefaultUser();
+	}
+
+	@ManagedAttribute(description = "Connections idle in the pool")
+	public int getIdleConnections() throws SQLException {
+		final PooledDataSource pool = dataSource.getPool();
+		return null == pool ? -1 : pool.getNumIdleConnectionsDefaultUser();
+	}
+
+	@ManagedAttribute(description = "Threads waiting for a connection")
+	public int getThreadsAwaiting() throws SQLException {
+		final PooledDataSource pool = dataSource.getPool();
+		return null == pool ? -1 : pool.getNumThreadsAwaitingCheckoutDefaultUser();
+	}
+
+	@ManagedAttribute(description = "Prepared statements cached across all connections")
+	public int getCachedStatements() throws SQLException {
+		final PooledDataSource pool = dataSource.getPool();
+		return null == pool ? -1 : pool.getStatementCacheNumStatementsDefaultUser();
+	}
+
+	@ManagedAttribute(description = "Connections in use")
+	public int getActiveConnections() {
+		return dataSource.getActive();
+	}
+
+	@ManagedAttribute(description = "Most connections in use at once")
+	public int getPeakActiveConnections() {
+		return dataSource.getPeakActive();
+	}
+
+	@ManagedAttribute(description = "Connections handed out")
+	public long getCheckouts() {
+		return dataSource.getWaitTime().getCount();
+	}
+
+	@ManagedAttribute(description = "Failures to get a connection")
+	public long getCheckoutFailures() {
+		return dataSource.getFailures();
+	}
+
+	@ManagedAttribute(description = "Wait for a connection, 50th percentile (ms)")
+	public double getWaitP50() {
+		return millis(dataSource.getWaitTime().getValueAtPercentile(50.0));
+	}
+
+	@ManagedAttribute(description = "Wait for a connection, 99th percentile (ms)")
+	public double getWaitP99() {
+		return millis(dataSource.getWaitTime().getValueAtPercentile(99.0));
+	}
+
+	@ManagedAttribute(description = "Longest wait for a connection (ms)")
+	public double getWaitMax() {
+		return millis(dataSource.getWaitTime().getMax());
+	}
+
+	@ManagedAttribute(description = "Time a connection is held, 50th percentile (ms)")
+	public double getHeldP50() {
+		return millis(dataSource.getHeldTime().getValueAtPercentile(50.0));
+	}
+
+	@ManagedAttribute(description = "Time a connection is held, 99th percentile (ms)")
+	public double getHeldP99() {
+		return millis(dataSource.getHeldTime().getValueAtPercentile(99.0));
+	}
+
+	@ManagedAttribute(description = "Job data reads answered from the decode cache")
+	public long getJobDataCacheHits() {
+		return CompactJDBCDelegate.getCacheHits();
+	}
+
+	@ManagedAttribute(description = "Job data reads decoded")
+	public long getJobDataCacheMisses() {
+		return CompactJDBCDelegate.getCacheMisses();
+	}
+
+	@ManagedAttribute(description = "Job data reads skipped for jobs that ignore their data")
+	public long getJobDataSkipped() {
+		return CompactJDBCDelegate.getSkipped();
+	}
+
+	@ManagedOperation(description = "Clears the connection statistics")
+	public void resetMetrics() {
+		log.info("resetting connection pool metrics");
+		dataSource.reset();
+	}
+
+	private static double millis(long micros) {
+		return micros / 1000.0;
+	}
+}
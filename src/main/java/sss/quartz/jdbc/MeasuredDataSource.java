@@ -0,0 +1,164 @@
+package sss.quartz.jdbc;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.sql.DataSource;
+
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+
+import sss.quartz.metrics.LatencyHistogram;
+
+import com.mchange.v2.c3p0.PooledDataSource;
+
+/**
+ * Data source that measures how long callers wait for a connection and how
+ * long they hold it, and how many connections are in use. Times are recorded
+ * in microseconds.
+ *
+ * @author jsteele
+ */
+public class MeasuredDataSource extends DelegatingDataSource {
+	private final LatencyHistogram waitTime = new LatencyHistogram();
+
+	private final LatencyHistogram heldTime = new LatencyHistogram();
+
+	private final AtomicInteger active = new AtomicInteger();
+
+	private final AtomicInteger peakActive = new AtomicInteger();
+
+	private final AtomicLong failures = new AtomicLong();
+
+	/**
+	 * @param targetDataSource
+	 *          data source to measure
+	 */
+	public MeasuredDataSource(DataSource targetDataSource) {
+		super(targetDataSource);
+	}
+
+	@Override
+	public Connection getConnection() throws SQLException {
+		final long start = System.nanoTime();
+		try {
+			return measure(getTargetDataSource().getConnection(), start);
+		} catch (SQLException e) {
+			failures.incrementAndGet();
+			throw e;
+		}
+	}
+
+	@Override
+	public Connection getConnection(String username, String password) throws SQLException {
+		final long start = System.nanoTime();
+		try {
+			return measure(getTargetDataSource().getConnection(username, password), start);
+		} catch (SQLException e) {
+			failures.incrementAndGet();
+			throw e;
+		}
+	}
+
+	/**
+	 * @return the pool, or <code>null</code> if the target data source isn't a
+	 *         c3p0 pool
+	 */
+	public PooledDataSource getPool() {
+		return getTargetDataSource() instanceof PooledDataSource ? (PooledDataSource) getTargetDataSource()
+				: null;
+	}
+
+	/**
+	 * @return time waited for a connection, in microseconds
+	 */
+	public LatencyHistogram getWaitTime() {
+		return waitTime;
+	}
+
+	/**
+	 * @return time connections were held before being closed, in microseconds
+	 */
+	public LatencyHistogram getHeldTime() {
+		return heldTime;
+	}
+
+	/**
+	 * @return number of connections handed out and not yet closed
+	 */
+	public int getActive() {
+		return active.get();
+	}
+
+	/**
+	 * @return most connections in use at once since the last reset
+	 */
+	public int getPeakActive() {
+		return peakActive.get();
+	}
+
+	/**
+	 * @return number of failures to get a connection
+	 */
+	public long getFailures() {
+		return failures.get();
+	}
+
+	public void reset() {
+		waitTime.reset();
+		heldTime.reset();
+		peakActive.set(active.get());
+		failures.set(0);
+	}
+
+	/**
+	 * Closes the pool, if the target data source is one.
+	 *
+	 * @throws SQLException
+	 *           if the pool could not be closed
+	 */
+	public void close() throws SQLException {
+		final PooledDataSource pool = getPool();
+		if (null != pool) {
+			pool.close();
+		}
+	}
+
+	/**
+	 * Records the wait for a connection, and wraps it to record how long it is
+	 * held when it's closed.
+	 */
+	private Connection measure(final Connection connection, long start) {
+		final long checkedOut = System.nanoTime();
+		waitTime.record((checkedOut - start) / 1000);
+		final int now = active.incrementAndGet();
+		int peak = peakActive.get();
+		while (now > peak && !peakActive.compareAndSet(peak, now)) {
+			peak = peakActive.get();
+		}
+
+		return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+				new Class<?>[] { Connection.class }, new InvocationHandler() {
+					private boolean closed;
+
+					@Override
+					public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+						if (!closed && "close".equals(method.getName())) {
+							closed = true;
+							active.decrementAndGet();
+							heldTime.record((System.nanoTime() - checkedOut) / 1000);
+						}
+						try {
+							return method.invoke(connection, args);
+						} catch (InvocationTargetException ite) {
+							throw ite.getCause();
+						}
+					}
+				});
+	}
+}
@@ -0,0 +1,115 @@
+package sss.quartz.jdbc;
+
+import java.lang.reflect.Field;
+
+import javax.sql.DataSource;
+
+import org.quartz.Scheduler;
+import org.quartz.SchedulerException;
+import org.quartz.core.QuartzScheduler;
+import org.quartz.impl.StdScheduler;
+import org.quartz.spi.SchedulerSignaler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.DefaultTransactionDefinition;
+
+/**
+ * Makes several job store writes in one transaction.
+ * <p>
+ * Given a data source, Spring runs the JDBC job store as a
+ * <code>JobStoreCMT</code> that joins Spring-managed transactions, so scheduler
+ * calls made in one share a connection and are committed together, or not at
+ * all. This lets triggers be stored in bulk through
+ * {@link org.quartz.Scheduler#scheduleJob(org.quartz.Trigger)} without
+ * {@link org.quartz.Scheduler#scheduleJobs(java.util.Map, boolean)} rewriting
+ * their jobs. Without a data source the writes are simply made in turn.
+ * <p>
+ * The scheduler thread is told of each trigger as it is stored, before the
+ * transaction commits, when it can't yet see it. So once the transaction
+ * commits the scheduler thread is told again, or it might not look for the new
+ * triggers until <code>org.quartz.scheduler.idleWaitTime</code> later. Quartz
+ * offers no public way to do this, so the scheduler's signaler is looked up
+ * reflectively; if it can't be, a warning is logged and the scheduler is left
+ * to find the triggers itself.
+ *
+ * @author jsteele
+ */
+public class StoreTransactions {
+	/** Class logger. */
+	private static final Logger log = LoggerFactory.getLogger(StoreTransactions.class);
+
+	/** Job store writes to be made together. */
+	public interface Writes {
+		void write() throws SchedulerException;
+	}
+
+	private final PlatformTransactionManager transactionManager;
+
+	/** Wakes the scheduler thread, or <code>null</code> if it can't be. */
+	private final SchedulerSignaler signaler;
+
+	/**
+	 * @param dataSource
+	 *          the job store's data source, or <code>null</code> if it has none
+	 * @param scheduler
+	 *          scheduler the writes are made through
+	 */
+	public StoreTransactions(DataSource dataSource, Scheduler scheduler) {
+		this.transactionManager = null == dataSource ? null : new DataSourceTransactionManager(
+				dataSource);
+		this.signaler = null == dataSource ? null : signaler(scheduler);
+	}
+
+	/**
+	 * Makes job store writes in one transaction, rolling them all back if any
+	 * fails. Joins the caller's transaction, if it has one, in which case the
+	 * scheduler thread is told of the writes when the caller commits.
+	 *
+	 * @param writes
+	 *          writes to make
+	 * @throws SchedulerException
+	 *           if a write failed
+	 */
+	public void execute(Writes writes) throws SchedulerException {
+		if (null == transactionManager) {
+			writes.write();
+			return;
+		}
+		final TransactionStatus status = transactionManager.getTransaction(new DefaultTransactionDefinition());
+		try {
+			writes.write();
+		} catch (SchedulerException | RuntimeException | Error e) {
+			transactionManager.rollback(status);
+			throw e;
+		}
+		transactionManager.commit(status);
+		if (status.isNewTransaction() && null != signaler) {
+			// Any of the triggers may be due before whatever it is waiting for
+			signaler.signalSchedulingChange(0L);
+		}
+	}
+
+	/**
+	 * @return the signaler of a Quartz scheduler, or <code>null</code> if it
+	 *         can't be found
+	 */
+	private static SchedulerSignaler signaler(Scheduler scheduler) {
+		if (!(scheduler instanceof StdScheduler)) {
+			log.warn("can't signal a " + scheduler.getClass().getName()
+					+ "; triggers stored in a transaction may wait for the idle wait");
+			return null;
+		}
+		try {
+			final Field field = StdScheduler.class.getDeclaredField("sched");
+			field.setAccessible(true);
+			return ((QuartzScheduler) field.get(scheduler)).getSchedulerSignaler();
+		} catch (NoSuchFieldException | IllegalAccessException | RuntimeException e) {
+			log.warn("can't signal the scheduler (" + e
+					+ "); triggers stored in a transaction may wait for the idle wait");
+			return null;
+		}
+	}
+}
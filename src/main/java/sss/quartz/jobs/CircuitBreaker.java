@@ -0,0 +1,248 @@
+package sss.quartz.jobs;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import org.quartz.JobDataMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Circuit breaker for a job class wrapped by {@link RetryJobWrapper}. When the
+ * failure rate over a sliding window of recent executions crosses a threshold
+ * the circuit opens, and executions and retries are short-circuited without
+ * running the job. After a delay the circuit goes half-open and lets a single
+ * probe execution through; success closes the circuit, failure opens it again.
+ * <p>
+ * Breakers are shared by every execution of a job class, and configured from
+ * the job data map of the first execution that uses them:
+ * <dl>
+ * <dt>circuitWindow</dt>
+ * <dd>number of recent executions the failure rate is calculated over</dd>
+ * <dt>circuitFailureRate</dt>
+ * <dd>failure rate, in percent, at which the circuit opens</dd>
+ * <dt>circuitOpenDelay</dt>
+ * <dd>delay, in seconds, before an open circuit lets a probe through</dd>
+ * </dl>
+ *
+ * @author jsteele
+ */
+public class CircuitBreaker {
+	public static final String WINDOW_KEY = "circuitWindow";
+	public static final String FAILURE_RATE_KEY = "circuitFailureRate";
+	public static final String OPEN_DELAY_KEY = "circuitOpenDelay";
+
+	/** Circuit breaker state. */
+	public enum State {
+		/** Executions run normally. */
+		CLOSED,
+		/** Executions are short-circuited. */
+		OPEN,
+		/** A single probe execution is allowed through. */
+		HALF_OPEN;
+	}
+
+	/** Class logger. */
+	private static final Logger log = LoggerFactory.getLogger(CircuitBreaker.class);
+
+	private static final int DEFAULT_WINDOW = 20;
+	private static final int DEFAULT_FAILURE_RATE = 50;
+	private static final int DEFAULT_OPEN_DELAY = 60;
+
+	/** Circuit breakers by wrapped job classname. */
+	private static final ConcurrentMap<String, CircuitBreaker> breakers = new ConcurrentHashMap<String, CircuitBreaker>();
+
+	private final String name;
+	private final int failureRateThreshold;
+	private final long openDelayMs;
+
+	/** Outcomes of recent executions, true for failure. */
+	private final boolean[] window;
+
+	/** Next slot to write in the window. */
+	private int windowIdx;
+
+	/** Number of outcomes in the window. */
+	private int windowCount;
+
+	/** Number of failures in the window. */
+	private int windowFailures;
+
+	private State state = State.CLOSED;
+
+	/** Time the circuit last opened, in ms. */
+	private long openedTime;
+
+	/** Whether a half-open probe is currently running. */
+	private boolean probing;
+
+	private long shortCircuited;
+	private long opened;
+	private long halfOpened;
+	private long closed;
+
+	CircuitBreaker(String name, int windowSize, int failureRateThreshold, long openDelayMs) {
+		this.name = name;
+		this.window = new boolean[Math.max(windowSize, 1)];
+		this.failureRateThreshold = failureRateThreshold;
+		this.openDelayMs = openDelayMs;
+	}
+
+	/**
+	 * Gets the circuit breaker for a wrapped job class, creating it on first
+	 * use.
+	 *
+	 * @param wrappedJobClassname
+	 *          fully qualified classname of the wrapped job
+	 * @param data
+	 *          job data map to read the configuration from
+	 * @return circuit breaker
+	 */
+	public static CircuitBreaker forJob(String wrappedJobClassname, JobDataMap data) {
+		CircuitBreaker breaker = breakers.get(wrappedJobClassname);
+		if (null == breaker) {
+			// @formatter:off
+			final CircuitBreaker newBreaker = new CircuitBreaker(wrappedJobClassname,
+					data.containsKey(WINDOW_KEY) ? data.getInt(WINDOW_KEY) : DEFAULT_WINDOW,
+					data.containsKey(FAILURE_RATE_KEY) ? data.getInt(FAILURE_RATE_KEY) : DEFAULT_FAILURE_RATE,
+					TimeUnit.SECONDS.toMillis(data.containsKey(OPEN_DELAY_KEY) ? data.getInt(OPEN_DELAY_KEY) : DEFAULT_OPEN_DELAY));
+			// @formatter:on
+			breaker = breakers.putIfAbsent(wrappedJobClassname, newBreaker);
+			if (null == breaker) {
+				breaker = newBreaker;
+			}
+		}
+		return breaker;
+	}
+
+	/**
+	 * @return circuit breakers by wrapped job classname
+	 */
+	public static Map<String, CircuitBreaker> getAll() {
+		return Collections.unmodifiableMap(breakers);
+	}
+
+	/**
+	 * Checks whether an execution may run. If it may not, it is counted as
+	 * short-circuited.
+	 *
+	 * @return true if the execution may run
+	 */
+	public synchronized boolean allowExecution() {
+		if (state == State.OPEN && System.currentTimeMillis() - openedTime >= openDelayMs) {
+			transition(State.HALF_OPEN);
+		}
+		if (state == State.CLOSED) {
+			return true;
+		}
+		if (state == State.HALF_OPEN && !probing) {
+			probing = true;
+			return true;
+		}
+		shortCircuited++;
+		return false;
+	}
+
+	/**
+	 * Records a successful execution.
+	 */
+	public synchronized void recordSuccess() {
+		if (state == State.HALF_OPEN) {
+			transition(State.CLOSED);
+		} else if (state == State.CLOSED) {
+			record(false);
+		}
+	}
+
+	/**
+	 * Records a failed execution.
+	 */
+	public synchronized void recordFailure() {
+		if (state == State.HALF_OPEN) {
+			transition(State.OPEN);
+		} else if (state == State.CLOSED) {
+			record(true);
+			if (windowCount == window.length && getFailureRate() >= failureRateThreshold) {
+				transition(State.OPEN);
+			}
+		}
+	}
+
+	/**
+	 * Closes the circuit and clears the window.
+	 */
+	public synchronized void reset() {
+		transition(State.CLOSED);
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public synchronized State getState() {
+		return state;
+	}
+
+	/**
+	 * @return failure rate over the window, in percent
+	 */
+	public synchronized int getFailureRate() {
+		return windowCount == 0 ? 0 : windowFailures * 100 / windowCount;
+	}
+
+	public synchronized long getShortCircuited() {
+		return shortCircuited;
+	}
+
+	public synchronized long getOpened() {
+		return opened;
+	}
+
+	public synchronized long getHalfOpened() {
+		return halfOpened;
+	}
+
+	public synchronized long getClosed() {
+		return closed;
+	}
+
+	private void record(boolean failure) {
+		if (windowCount == window.length) {
+			if (window[windowIdx]) {
+				windowFailures--;
+			}
+		} else {
+			windowCount++;
+		}
+		window[windowIdx] = failure;
+		if (failure) {
+			windowFailures++;
+		}
+		windowIdx = (windowIdx + 1) % window.length;
+	}
+
+	private void transition(State newState) {
+		log.warn(String.format("circuit breaker for %s: %s -> %s (failure rate %d%%)", name, state,
+				newState, getFailureRate()));
+		state = newState;
+		probing = false;
+		switch (newState) {
+		case OPEN:
+			openedTime = System.currentTimeMillis();
+			opened++;
+			break;
+		case HALF_OPEN:
+			halfOpened++;
+			break;
+		case CLOSED:
+			windowIdx = 0;
+			windowCount = 0;
+			windowFailures = 0;
+			closed++;
+			break;
+		}
+	}
+}
@@ -0,0 +1,87 @@
+package sss.quartz.jobs;
+
+import javax.management.OperationsException;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.CompositeDataSupport;
+import javax.management.openmbean.CompositeType;
+import javax.management.openmbean.OpenDataException;
+import javax.management.openmbean.OpenType;
+import javax.management.openmbean.SimpleType;
+import javax.management.openmbean.TabularData;
+import javax.management.openmbean.TabularDataSupport;
+import javax.management.openmbean.TabularType;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedOperation;
+import org.springframework.jmx.export.annotation.ManagedOperationParameter;
+import org.springframework.jmx.export.annotation.ManagedOperationParameters;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.stereotype.Component;
+
+/**
+ * JMX monitoring and management of the {@link RetryJobWrapper} circuit
+ * breakers.
+ *
+ * @author jsteele
+ */
+@ManagedResource(objectName = "sss.quartz:name=CircuitBreakerMBean", description = "Circuit breakers for wrapped jobs.")
+@Component
+public class CircuitBreakerMBean {
+	/** Class logger. */
+	private static final Logger log = LoggerFactory.getLogger(CircuitBreakerMBean.class);
+
+	// @formatter:off
+	private static final String[] ITEM_NAMES = new String[] {
+			"job", "state", "failureRate", "shortCircuited", "opened", "halfOpened", "closed" };
+
+	private static final String[] ITEM_DESCRIPTIONS = new String[] {
+			"Wrapped job class", "Circuit state", "Failure rate over the window (%)",
+			"Short-circuited executions", "Transitions to open", "Transitions to half-open",
+			"Transitions to closed" };
+
+	private static final OpenType<?>[] ITEM_TYPES = new OpenType<?>[] {
+			SimpleType.STRING, SimpleType.STRING, SimpleType.INTEGER, SimpleType.LONG,
+			SimpleType.LONG, SimpleType.LONG, SimpleType.LONG };
+	// @formatter:on
+
+	@ManagedAttribute(description = "State of the circuit breaker for each wrapped job class")
+	public TabularData getCircuitBreakers() throws OpenDataException {
+		final CompositeType rowType = new CompositeType("CircuitBreaker", "Circuit breaker state",
+				ITEM_NAMES, ITEM_DESCRIPTIONS, ITEM_TYPES);
+		final TabularType tableType = new TabularType("Circuit Breakers",
+				"Table of circuit breakers by wrapped job class", rowType, new String[] { "job" });
+		final TabularData table = new TabularDataSupport(tableType);
+
+		for (final CircuitBreaker breaker : CircuitBreaker.getAll().values()) {
+			// @formatter:off
+			final CompositeData data = new CompositeDataSupport(rowType, ITEM_NAMES, new Object[] {
+					breaker.getName(), breaker.getState().name(), breaker.getFailureRate(),
+					breaker.getShortCircuited(), breaker.getOpened(), breaker.getHalfOpened(),
+					breaker.getClosed() });
+			// @formatter:on
+			table.put(data);
+		}
+		return table;
+	}
+
+	/**
+	 * Closes the circuit breaker for a wrapped job class.
+	 *
+	 * @param jobClass
+	 *          fully qualified classname of the wrapped job
+	 * @throws OperationsException
+	 *           if there is no circuit breaker for the class
+	 */
+	@ManagedOperation(description = "Closes the circuit breaker for a wrapped job class")
+	@ManagedOperationParameters({ @ManagedOperationParameter(name = "jobClass", description = "Fully qualified classname of the wrapped job") })
+	public void resetCircuitBreaker(String jobClass) throws OperationsException {
+		final CircuitBreaker breaker = CircuitBreaker.getAll().get(jobClass);
+		if (null == breaker) {
+			throw new OperationsException("no circuit breaker for " + jobClass);
+		}
+		log.info("resetting circuit breaker for " + jobClass);
+		breaker.reset();
+	}
+}
@@ -66,6 +66,9 @@ public class DemoJobsConfig {
 				// Set defaults - can be overridden in trigger definition in schedule file
 				.usingJobData(RetryJobWrapper.MAX_RETRIES_KEY, "3")
 				.usingJobData(RetryJobWrapper.RETRY_DELAY_KEY, "2")
+				.usingJobData(RetryJobWrapper.CIRCUIT_BREAKER_KEY, "true")
+				.usingJobData(CircuitBreaker.WINDOW_KEY, "10")
+				.usingJobData(CircuitBreaker.OPEN_DELAY_KEY, "60")
 				.build();
 		// @formatter:off
 	}
@@ -11,6 +11,7 @@ import org.slf4j.LoggerFactory;
  * 
  * @author jsteele
  */
+@IgnoresJobData
 public class HelloWorldJob implements Job {
 	/** Class logger. */
 	private static final Logger log = LoggerFactory.getLogger(HelloWorldJob.class);
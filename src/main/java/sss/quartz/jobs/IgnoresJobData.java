@@ -0,0 +1,25 @@
+package sss.quartz.jobs;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a job class that never reads its job's {@link org.quartz.JobDataMap}.
+ * The JDBC job store then doesn't read the job's data when the job's triggers
+ * are acquired and fired; the job detail in its execution context has an empty
+ * map, and must not be stored again. Trigger data is still read, and so is the
+ * job's data when it is looked up through the scheduler. Ignored on jobs that
+ * are also {@link org.quartz.PersistJobDataAfterExecution}, whose data would
+ * be overwritten.
+ *
+ * @author jsteele
+ * @see sss.quartz.jdbc.CompactJDBCDelegate
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface IgnoresJobData {
+}
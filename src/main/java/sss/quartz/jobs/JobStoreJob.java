@@ -17,6 +17,7 @@ import org.slf4j.LoggerFactory;
  * 
  * @author jsteele
  */
+@IgnoresJobData
 public class JobStoreJob implements Job {
 	/** Class logger. */
 	private static final Logger log = LoggerFactory.getLogger(JobStoreJob.class);
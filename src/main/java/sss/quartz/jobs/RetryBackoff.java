@@ -0,0 +1,82 @@
+package sss.quartz.jobs;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Strategies for spacing out retry attempts in {@link RetryJobWrapper}. The
+ * jittered strategies spread retries of jobs that failed at the same time, so
+ * they don't all hit a recovering dependency (and the job store) in lockstep.
+ *
+ * @author jsteele
+ */
+public enum RetryBackoff {
+	/** Every retry waits the base delay. */
+	FIXED {
+		@Override
+		public long delay(long baseMs, long capMs, int retryCount, long lastDelayMs) {
+			return Math.min(capMs, baseMs);
+		}
+	},
+
+	/** Each retry waits twice as long as the one before, up to the cap. */
+	EXPONENTIAL {
+		@Override
+		public long delay(long baseMs, long capMs, int retryCount, long lastDelayMs) {
+			return exponential(baseMs, capMs, retryCount);
+		}
+	},
+
+	/** Each retry waits a random time up to the exponential delay. */
+	FULL_JITTER {
+		@Override
+		public long delay(long baseMs, long capMs, int retryCount, long lastDelayMs) {
+			return random(0, exponential(baseMs, capMs, retryCount));
+		}
+	},
+
+	/**
+	 * Each retry waits a random time between the base delay and three times the
+	 * previous delay, up to the cap.
+	 */
+	DECORRELATED_JITTER {
+		@Override
+		public long delay(long baseMs, long capMs, int retryCount, long lastDelayMs) {
+			final long previous = Math.max(baseMs, lastDelayMs);
+			return Math.min(capMs, random(baseMs, previous > capMs / 3 ? capMs : previous * 3));
+		}
+	};
+
+	/** Largest doubling applied by the exponential strategies. */
+	private static final int MAX_DOUBLINGS = 30;
+
+	/**
+	 * Calculates the delay before a retry.
+	 *
+	 * @param baseMs
+	 *          base delay, in ms
+	 * @param capMs
+	 *          maximum delay, in ms
+	 * @param retryCount
+	 *          retry being scheduled (&gt;= 1)
+	 * @param lastDelayMs
+	 *          delay before the previous retry, in ms, or zero if this is the
+	 *          first retry
+	 * @return delay, in ms
+	 */
+	public abstract long delay(long baseMs, long capMs, int retryCount, long lastDelayMs);
+
+	private static long exponential(long baseMs, long capMs, int retryCount) {
+		final int doublings = Math.min(Math.max(retryCount - 1, 0), MAX_DOUBLINGS);
+		return baseMs > (capMs >> doublings) ? capMs : baseMs << doublings;
+	}
+
+	/** Random value from min to max inclusive, or min if max is no greater. */
+	private static long random(long min, long max) {
+		if (max <= min) {
+			return min;
+		}
+		// max + 1 would overflow
+		return Long.MAX_VALUE == max ? ThreadLocalRandom.current().nextLong(min, max)
+				: ThreadLocalRandom.current().nextLong(min, max + 1);
+	}
+}
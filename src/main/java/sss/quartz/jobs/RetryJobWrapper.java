@@ -2,11 +2,13 @@ package sss.quartz.jobs;
 
 import static org.quartz.TriggerBuilder.newTrigger;
 
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
 import java.text.SimpleDateFormat;
-import java.util.Calendar;
 import java.util.Date;
-import java.util.GregorianCalendar;
-import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
 
 import org.quartz.Job;
 import org.quartz.JobDataMap;
@@ -18,6 +20,9 @@ import org.quartz.Trigger;
 import org.quartz.TriggerBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.AutowiredAnnotationBeanPostProcessor;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.annotation.AnnotationConfigUtils;
 
 /**
  * A wrapper for another wrappedJob that provides re-scheduling of attempts
@@ -37,7 +42,30 @@ import org.slf4j.LoggerFactory;
  * <dt>_retryWrapper.retryCount</dt>
  * <dd>number of current retry. if this is zero or null, then it's assumed this
  * is the original trigger for the job</dd>
+ * <dt>_retryWrapper.lastDelay</dt>
+ * <dd>delay, in ms, before the current retry. used by the decorrelated jitter
+ * backoff</dd>
  * </dl>
+ * <p>
+ * Retries are spaced according to <code>retryBackoff</code> (see
+ * {@link RetryBackoff}), starting from <code>retryDelay</code> and capped at
+ * <code>maxRetryDelay</code>. A retry is a trigger in the job store, so it
+ * survives a restart, and the attempt that schedules it completes normally;
+ * the fire history tells retries apart by their retry count.
+ * <p>
+ * Retries with a delay shorter than <code>localRetryThreshold</code> seconds
+ * (none by default) aren't written to the job store. The worker thread waits
+ * out the delay and runs the wrapped job again within the same firing, so the
+ * retry keeps its place in the thread pool, still honours
+ * {@link org.quartz.DisallowConcurrentExecution} and is part of the firing job
+ * listeners see; the retry count in the merged data map is the number of
+ * retries the firing ran. If the scheduler is paused or shutting down, or the
+ * thread is interrupted, the retry is stored as a trigger after all.
+ * <p>
+ * If <code>circuitBreaker</code> is true, executions and retries of the wrapped
+ * job class go through a shared {@link CircuitBreaker}, so a failing
+ * dependency doesn't tie up scheduler threads and the job store with doomed
+ * attempts.
  * 
  * @author jsteele
  */
@@ -45,14 +73,25 @@ public class RetryJobWrapper implements Job {
 	public static final String WRAPPED_JOB_KEY = "wrappedJob";
 	public static final String MAX_RETRIES_KEY = "maxRetries";
 	public static final String RETRY_DELAY_KEY = "retryDelay";
+	public static final String MAX_RETRY_DELAY_KEY = "maxRetryDelay";
+	public static final String LOCAL_RETRY_THRESHOLD_KEY = "localRetryThreshold";
+	public static final String BACKOFF_KEY = "retryBackoff";
+	public static final String CIRCUIT_BREAKER_KEY = "circuitBreaker";
 	public static final String RETRY_COUNT_KEY = "retryJobWrapper.retryCount";
 	public static final String ORIG_SCHED_TIME_KEY = "retryJobWrapper.origSchedTime";
+	public static final String LAST_DELAY_KEY = "retryJobWrapper.lastDelay";
+
+	/** Scheduler context key for the Spring application context. */
+	public static final String APPLICATION_CONTEXT_KEY = "applicationContext";
+
+	/** Default maximum delay between retries, in seconds. */
+	private static final int DEFAULT_MAX_RETRY_DELAY = 3600;
 
 	/** Class logger. */
 	private static final Logger log = LoggerFactory.getLogger(RetryJobWrapper.class);
 
-	/** Job being wrapped for retry. */
-	private Job wrappedJob;
+	/** Constructors for wrapped jobs, by classname. */
+	private static final ConcurrentMap<String, Constructor<? extends Job>> constructors = new ConcurrentHashMap<String, Constructor<? extends Job>>();
 
 	@Override
 	public void execute(JobExecutionContext context) throws JobExecutionException {
@@ -70,6 +109,8 @@ public class RetryJobWrapper implements Job {
 		}
 		final int retryCount = context.getMergedJobDataMap().containsKey(RETRY_COUNT_KEY) ? context
 				.getMergedJobDataMap().getInt(RETRY_COUNT_KEY) : 0;
+		final RetryPolicy policy = new RetryPolicy(context.getMergedJobDataMap(), wrappedJobClassname,
+				maxRetries, retryDelay);
 
 		final SimpleDateFormat df = new SimpleDateFormat();
 
@@ -85,8 +126,7 @@ public class RetryJobWrapper implements Job {
 			log.info(String.format("RetryJobWrapper<%s> - executing: %s", wrappedJobClassname, context));
 		}
 
-		executeWithRetries(context, getWrappedJob(wrappedJobClassname), maxRetries, retryDelay,
-				retryCount);
+		executeWithRetries(context, getWrappedJob(context, wrappedJobClassname), policy, retryCount);
 	}
 
 	/**
@@ -98,35 +138,74 @@ public class RetryJobWrapper implements Job {
 	 *          job execution context
 	 * @param wrappedJob
 	 *          job to execute
-	 * @param maxRetries
-	 *          maximum number of retries
-	 * @param retryDelay
-	 *          delay, in seconds before re-attempting the job
+	 * @param policy
+	 *          retry policy
 	 * @param retryCount
 	 *          current retry count
 	 * @throws JobExecutionException
 	 */
 	private void executeWithRetries(JobExecutionContext context, final Job wrappedJob,
-			final int maxRetries, final int retryDelay, final int retryCount)
-			throws JobExecutionException {
+			final RetryPolicy policy, final int retryCount) throws JobExecutionException {
+		final CircuitBreaker breaker = policy.circuitBreaker;
+		if (null != breaker && !breaker.allowExecution()) {
+			throw new JobExecutionException(String.format(
+					"circuit breaker for wrapped job %s is %s - skipping attempt", wrappedJob.getClass()
+							.getName(), breaker.getState()));
+		}
+
 		try {
-			wrappedJob.execute(context);
+			execute(context, wrappedJob, breaker);
 			if (retryCount > 0) {
 				log.warn(String.format("wrapped job %s succeeded after %d retries", wrappedJob.getClass()
 						.getName(), retryCount));
 			}
 		} catch (JobExecutionException jee) {
 			if (jee.refireImmediately()) {
-				if (retryCount < maxRetries) {
-					log.warn(String.format("wrapped job %s requested refiring - rescheduling attempt: %s",
-							wrappedJob.getClass().getName(), jee), jee);
+				if (retryCount < policy.maxRetries) {
+					final JobDataMap data = context.getMergedJobDataMap();
+					final long lastDelayMs = data.containsKey(LAST_DELAY_KEY) ? data.getLong(LAST_DELAY_KEY)
+							: 0;
+					final long delayMs = policy.nextDelay(retryCount + 1, lastDelayMs);
+					boolean interrupted = false;
+					if (delayMs < policy.localRetryThresholdMs) {
+						log.warn(String.format(
+								"wrapped job %s requested refiring - retrying in %dms on this thread: %s",
+								wrappedJob.getClass().getName(), delayMs, jee), jee);
+						try {
+							if (waitForLocalRetry(context, delayMs)) {
+								if (!data.containsKey(ORIG_SCHED_TIME_KEY)) {
+									data.put(ORIG_SCHED_TIME_KEY, Long.toString(context.getScheduledFireTime()
+											.getTime()));
+								}
+								data.put(RETRY_COUNT_KEY, Integer.toString(retryCount + 1));
+								data.put(LAST_DELAY_KEY, Long.toString(delayMs));
+								log.info(String.format("RetryJobWrapper<%s> - executing local retry %d of %d: %s",
+										wrappedJob.getClass().getName(), retryCount + 1, policy.maxRetries, context));
+								executeWithRetries(context, wrappedJob, policy, retryCount + 1);
+								return;
+							}
+						} catch (InterruptedException ie) {
+							// Kept until the retry is stored, as an interrupt can close the store's files
+							interrupted = true;
+						}
+						log.info(String.format("wrapped job %s can't be retried on this thread - rescheduling",
+								wrappedJob.getClass().getName()));
+					} else {
+						log.warn(String.format(
+								"wrapped job %s requested refiring - rescheduling attempt in %dms: %s", wrappedJob
+										.getClass().getName(), delayMs, jee), jee);
+					}
 					try {
-						rescheduleJob(context, retryCount + 1, retryDelay);
+						rescheduleJob(context, retryCount + 1, delayMs);
 					} catch (SchedulerException se) {
 						log.warn(String.format("wrapped job %s could not be rescheduled: %s", wrappedJob
 								.getClass().getName(), jee), jee);
 						throw new JobExecutionException("wrapped job " + wrappedJob.getClass().getName()
 								+ " could not be rescheduled: " + se, se);
+					} finally {
+						if (interrupted) {
+							Thread.currentThread().interrupt();
+						}
 					}
 				} else {
 					// Re-throwing to set retryImmedaitely to false
@@ -143,6 +222,72 @@ public class RetryJobWrapper implements Job {
 		}
 	}
 
+	/**
+	 * Executes the wrapped job, recording the outcome with the circuit breaker,
+	 * if there is one, however the job ends. An execution that ends with an
+	 * {@link Error} is a failure; left unrecorded, a half-open probe would never
+	 * finish and the circuit would stay half-open for good.
+	 * 
+	 * @param context
+	 *          job execution context
+	 * @param wrappedJob
+	 *          job to execute
+	 * @param breaker
+	 *          circuit breaker, or <code>null</code> if there isn't one
+	 * @throws JobExecutionException
+	 *           if the wrapped job failed
+	 */
+	private static void execute(JobExecutionContext context, Job wrappedJob, CircuitBreaker breaker)
+			throws JobExecutionException {
+		if (null == breaker) {
+			wrappedJob.execute(context);
+			return;
+		}
+		boolean succeeded = false;
+		try {
+			wrappedJob.execute(context);
+			succeeded = true;
+		} finally {
+			if (succeeded) {
+				breaker.recordSuccess();
+			} else {
+				breaker.recordFailure();
+			}
+		}
+	}
+
+	/**
+	 * Waits on the worker thread before a local retry.
+	 * 
+	 * @param context
+	 *          job execution context
+	 * @param delayMs
+	 *          delay, in ms, before retrying the job
+	 * @return whether to retry on this thread; not if the scheduler is, or has
+	 *         become, paused or shut down
+	 * @throws InterruptedException
+	 *           if the thread was interrupted while waiting
+	 */
+	private static boolean waitForLocalRetry(JobExecutionContext context, long delayMs)
+			throws InterruptedException {
+		if (!running(context.getScheduler())) {
+			return false;
+		}
+		Thread.sleep(delayMs);
+		return running(context.getScheduler());
+	}
+
+	/**
+	 * @return whether the scheduler is still running jobs
+	 */
+	private static boolean running(Scheduler scheduler) {
+		try {
+			return !scheduler.isInStandbyMode() && !scheduler.isShutdown();
+		} catch (SchedulerException se) {
+			return false;
+		}
+	}
+
 	/**
 	 * Reschedules the current job for execution.
 	 * 
@@ -150,16 +295,15 @@ public class RetryJobWrapper implements Job {
 	 *          job execution context
 	 * @param retryCount
 	 *          retry count being requested (>= 1)
-	 * @param retryDelay
-	 *          delay, in seconds, before retrying the job
+	 * @param delayMs
+	 *          delay, in ms, before retrying the job
 	 * @throws SchedulerException
 	 *           if there was a problem rescheduling the job
 	 */
-	private void rescheduleJob(JobExecutionContext context, int retryCount, int retryDelay)
+	private void rescheduleJob(JobExecutionContext context, int retryCount, long delayMs)
 			throws SchedulerException {
 		final Scheduler scheduler = context.getScheduler();
-		final Calendar retryTime = new GregorianCalendar(TimeZone.getTimeZone("GMT"));
-		retryTime.add(Calendar.SECOND, retryDelay);
+		final Date retryTime = new Date(System.currentTimeMillis() + delayMs);
 
 		final Date origTime = context.getMergedJobDataMap().containsKey(ORIG_SCHED_TIME_KEY) ? new Date(
 				context.getMergedJobDataMap().getLong(ORIG_SCHED_TIME_KEY)) : context
@@ -169,7 +313,7 @@ public class RetryJobWrapper implements Job {
 		final TriggerBuilder<Trigger> builder = newTrigger()
 				.withDescription("retry #" + retryCount)
 				.withPriority(context.getTrigger().getPriority())
-				.startAt(retryTime.getTime())
+				.startAt(retryTime)
 				.forJob(context.getJobDetail().getKey());
 		// @formatter:on
 
@@ -178,32 +322,149 @@ public class RetryJobWrapper implements Job {
 		}
 		builder.usingJobData(RETRY_COUNT_KEY, Integer.toString(retryCount));
 		builder.usingJobData(ORIG_SCHED_TIME_KEY, Long.toString(origTime.getTime()));
+		builder.usingJobData(LAST_DELAY_KEY, Long.toString(delayMs));
 
 		scheduler.scheduleJob(builder.build());
 	}
 
 	/**
-	 * Lazily instantiates the wrapped wrappedJob implementation class.
+	 * Gets an instance of the wrapped job. If the scheduler context holds the
+	 * Spring application context and it has a bean with the wrapped job's name,
+	 * that bean is used - note that it will be shared across executions, so it
+	 * must be thread-safe. Otherwise a new instance of the wrapped job class is
+	 * created with a cached constructor and, if possible, has its dependencies
+	 * injected (see {@link #inject(ApplicationContext, Job)}).
+	 * 
+	 * @param context
+	 *          job execution context
+	 * @param wrappedJobClassname
+	 *          bean name or fully qualified classname for the wrapped job
+	 * @return instance of the wrapped job
+	 */
+	private Job getWrappedJob(JobExecutionContext context, final String wrappedJobClassname) {
+		final ApplicationContext applicationContext = getApplicationContext(context);
+		if (null != applicationContext && applicationContext.containsBean(wrappedJobClassname)) {
+			return applicationContext.getBean(wrappedJobClassname, Job.class);
+		}
+
+		try {
+			final Job job = getConstructor(wrappedJobClassname).newInstance();
+			if (null != applicationContext) {
+				inject(applicationContext, job);
+			}
+			return job;
+		} catch (InstantiationException | IllegalAccessException | InvocationTargetException e) {
+			throw new IllegalArgumentException("wrappedJob (" + wrappedJobClassname
+					+ ") could not be instantiated: " + e, e);
+		}
+	}
+
+	/**
+	 * Injects a wrapped job's <code>@Autowired</code>, <code>@Inject</code> and
+	 * <code>@Value</code> members. Spring's annotation processor finds a class's
+	 * injection points once and caches the dependencies it resolves for them, so
+	 * each execution doesn't autowire its job as a new bean, and a class with
+	 * nothing to inject costs a cache lookup.
+	 * 
+	 * @param applicationContext
+	 *          Spring application context
+	 * @param job
+	 *          new instance of the wrapped job
+	 */
+	private static void inject(ApplicationContext applicationContext, Job job) {
+		if (applicationContext.containsBean(AnnotationConfigUtils.AUTOWIRED_ANNOTATION_PROCESSOR_BEAN_NAME)) {
+			applicationContext.getBean(AnnotationConfigUtils.AUTOWIRED_ANNOTATION_PROCESSOR_BEAN_NAME,
+					AutowiredAnnotationBeanPostProcessor.class).processInjection(job);
+		} else {
+			// Annotation config isn't on
+			applicationContext.getAutowireCapableBeanFactory().autowireBean(job);
+		}
+	}
+
+	/**
+	 * Gets the Spring application context from the scheduler context.
+	 * 
+	 * @param context
+	 *          job execution context
+	 * @return application context, or null if it isn't available
+	 */
+	private ApplicationContext getApplicationContext(JobExecutionContext context) {
+		try {
+			return (ApplicationContext) context.getScheduler().getContext()
+					.get(APPLICATION_CONTEXT_KEY);
+		} catch (SchedulerException se) {
+			log.warn("could not read scheduler context: " + se, se);
+			return null;
+		}
+	}
+
+	/**
+	 * Resolves the no-arg constructor for the wrapped job class, caching it so
+	 * the class lookup and reflection is done once per class rather than once
+	 * per execution.
 	 * 
 	 * @param wrappedJobClassname
-	 *          fully qualified classname for the wrapped wrappedJob
-	 * @return instance of the wrapped wrappedJob
+	 *          fully qualified classname for the wrapped job
+	 * @return constructor for the wrapped job
 	 */
-	@SuppressWarnings("unchecked")
-	private synchronized Job getWrappedJob(final String wrappedJobClassname) {
-		if (null == wrappedJob) {
+	private static Constructor<? extends Job> getConstructor(final String wrappedJobClassname) {
+		Constructor<? extends Job> constructor = constructors.get(wrappedJobClassname);
+		if (null == constructor) {
 			try {
-				final Class<? extends Job> wrappedJobClass = (Class<? extends Job>) Class
-						.forName(wrappedJobClassname);
-				wrappedJob = wrappedJobClass.newInstance();
+				final Class<?> wrappedJobClass = Class.forName(wrappedJobClassname);
+				if (!Job.class.isAssignableFrom(wrappedJobClass)) {
+					throw new IllegalArgumentException("wrappedJob (" + wrappedJobClassname
+							+ ") is not a " + Job.class.getName());
+				}
+				constructor = wrappedJobClass.asSubclass(Job.class).getConstructor();
 			} catch (ClassNotFoundException cnfe) {
 				throw new IllegalArgumentException("wrappedJob (" + wrappedJobClassname
 						+ ") not found on classpath");
-			} catch (InstantiationException | IllegalAccessException e) {
+			} catch (NoSuchMethodException nsme) {
 				throw new IllegalArgumentException("wrappedJob (" + wrappedJobClassname
-						+ ") could not be instantiated: " + e, e);
+						+ ") does not have a public no-arg constructor", nsme);
 			}
+			constructors.putIfAbsent(wrappedJobClassname, constructor);
+		}
+		return constructor;
+	}
+
+	/**
+	 * Retry settings for an execution, read from the merged job data map.
+	 */
+	private static final class RetryPolicy {
+		private final int maxRetries;
+		private final long retryDelayMs;
+		private final long maxRetryDelayMs;
+		private final long localRetryThresholdMs;
+		private final RetryBackoff backoff;
+		private final CircuitBreaker circuitBreaker;
+
+		RetryPolicy(JobDataMap data, String wrappedJobClassname, int maxRetries, int retryDelay) {
+			this.maxRetries = maxRetries;
+			this.retryDelayMs = TimeUnit.SECONDS.toMillis(retryDelay);
+			this.maxRetryDelayMs = TimeUnit.SECONDS.toMillis(data.containsKey(MAX_RETRY_DELAY_KEY) ? data
+					.getInt(MAX_RETRY_DELAY_KEY) : DEFAULT_MAX_RETRY_DELAY);
+			this.localRetryThresholdMs = TimeUnit.SECONDS.toMillis(data
+					.containsKey(LOCAL_RETRY_THRESHOLD_KEY) ? data.getInt(LOCAL_RETRY_THRESHOLD_KEY) : 0);
+			this.backoff = data.containsKey(BACKOFF_KEY) ? RetryBackoff.valueOf(data
+					.getString(BACKOFF_KEY)) : RetryBackoff.FIXED;
+			this.circuitBreaker = data.containsKey(CIRCUIT_BREAKER_KEY)
+					&& data.getBooleanValueFromString(CIRCUIT_BREAKER_KEY) ? CircuitBreaker.forJob(
+					wrappedJobClassname, data) : null;
+		}
+
+		/**
+		 * Calculates the delay before a retry.
+		 * 
+		 * @param retryCount
+		 *          retry being scheduled (&gt;= 1)
+		 * @param lastDelayMs
+		 *          delay before the previous retry, in ms, or zero if none
+		 * @return delay, in ms
+		 */
+		long nextDelay(int retryCount, long lastDelayMs) {
+			return backoff.delay(retryDelayMs, maxRetryDelayMs, retryCount, lastDelayMs);
 		}
-		return wrappedJob;
 	}
 }
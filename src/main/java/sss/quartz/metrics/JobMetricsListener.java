@@ -0,0 +1,91 @@
+package sss.quartz.metrics;
+
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.quartz.JobExecutionContext;
+import org.quartz.JobExecutionException;
+import org.quartz.JobKey;
+import org.quartz.JobListener;
+import org.springframework.stereotype.Component;
+
+/**
+ * Global job listener that records execution statistics per job. Once a job
+ * has been seen, recording its executions doesn't allocate.
+ *
+ * @author jsteele
+ */
+@Component
+public class JobMetricsListener implements JobListener {
+	/** Statistics by job. */
+	private final ConcurrentMap<JobKey, JobStats> stats = new ConcurrentHashMap<JobKey, JobStats>();
+
+	@Override
+	public String getName() {
+		return JobMetricsListener.class.getName();
+	}
+
+	@Override
+	public void jobToBeExecuted(JobExecutionContext context) {
+		final JobStats jobStats = getStats(context.getJobDetail().getKey());
+		final Date fireTime = context.getFireTime();
+		final Date scheduledFireTime = context.getScheduledFireTime();
+		if (null != scheduledFireTime) {
+			jobStats.getSchedulingLag().record(fireTime.getTime() - scheduledFireTime.getTime());
+		}
+		jobStats.getQueueWait().record(System.currentTimeMillis() - fireTime.getTime());
+	}
+
+	@Override
+	public void jobExecutionVetoed(JobExecutionContext context) {
+		getStats(context.getJobDetail().getKey()).getVetoes().incrementAndGet();
+	}
+
+	@Override
+	public void jobWasExecuted(JobExecutionContext context, JobExecutionException jobException) {
+		final JobStats jobStats = getStats(context.getJobDetail().getKey());
+		jobStats.getExecutionTime().record(context.getJobRunTime());
+		if (null == jobException) {
+			jobStats.getSuccesses().incrementAndGet();
+		} else {
+			jobStats.getFailures().incrementAndGet();
+		}
+	}
+
+	/**
+	 * @return statistics by job
+	 */
+	public Map<JobKey, JobStats> getStats() {
+		return stats;
+	}
+
+	/**
+	 * Clears the statistics for all jobs.
+	 */
+	public void reset() {
+		for (final JobStats jobStats : stats.values()) {
+			jobStats.reset();
+		}
+	}
+
+	/**
+	 * Gets the statistics for a job, creating them on first use.
+	 *
+	 * @param jobKey
+	 *          job key
+	 * @return job statistics
+	 */
+	private JobStats getStats(JobKey jobKey) {
+		JobStats jobStats = stats.get(jobKey);
+		if (null == jobStats) {
+			final JobStats newStats = new JobStats();
+			jobStats = stats.putIfAbsent(jobKey, newStats);
+			if (null == jobStats) {
+				jobStats = newStats;
+			}
+		}
+		return jobStats;
+	}
+}
@@ -0,0 +1,133 @@
+package sss.quartz.metrics;
+
+import java.util.Map;
+
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.CompositeDataSupport;
+import javax.management.openmbean.CompositeType;
+import javax.management.openmbean.OpenDataException;
+import javax.management.openmbean.OpenType;
+import javax.management.openmbean.SimpleType;
+import javax.management.openmbean.TabularData;
+import javax.management.openmbean.TabularDataSupport;
+import javax.management.openmbean.TabularType;
+
+import org.quartz.JobKey;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedOperation;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.stereotype.Component;
+
+/**
+ * JMX monitoring of job execution statistics.
+ *
+ * @author jsteele
+ */
+@ManagedResource(objectName = "sss.quartz:name=JobMetricsMBean", description = "Job execution latency and throughput.")
+@Component
+public class JobMetricsMBean {
+	/** Class logger. */
+	private static final Logger log = LoggerFactory.getLogger(JobMetricsMBean.class);
+
+	// @formatter:off
+	private static final String[] ITEM_NAMES = new String[] {
+			"job", "successes", "failures", "vetoes", "rate",
+			"execP50", "execP99", "execP999",
+			"lagP50", "lagP99", "lagP999",
+			"waitP50", "waitP99", "waitP999" };
+
+	private static final String[] ITEM_DESCRIPTIONS = new String[] {
+			"Job Name", "Successful executions", "Failed executions", "Vetoed executions",
+			"Completed executions per second",
+			"Execution time 50th percentile (ms)", "Execution time 99th percentile (ms)",
+			"Execution time 99.9th percentile (ms)",
+			"Scheduling lag 50th percentile (ms)", "Scheduling lag 99th percentile (ms)",
+			"Scheduling lag 99.9th percentile (ms)",
+			"Queue wait 50th percentile (ms)", "Queue wait 99th percentile (ms)",
+			"Queue wait 99.9th percentile (ms)" };
+
+	private static final OpenType<?>[] ITEM_TYPES = new OpenType<?>[] {
+			SimpleType.STRING, SimpleType.LONG, SimpleType.LONG, SimpleType.LONG, SimpleType.DOUBLE,
+			SimpleType.LONG, SimpleType.LONG, SimpleType.LONG,
+			SimpleType.LONG, SimpleType.LONG, SimpleType.LONG,
+			SimpleType.LONG, SimpleType.LONG, SimpleType.LONG };
+	// @formatter:on
+
+	@Autowired
+	private JobMetricsListener jobMetrics;
+
+	@ManagedAttribute(description = "Execution statistics per job")
+	public TabularData getJobMetrics() throws OpenDataException {
+		final CompositeType rowType = new CompositeType("JobMetrics", "Job execution statistics",
+				ITEM_NAMES, ITEM_DESCRIPTIONS, ITEM_TYPES);
+		final TabularType tableType = new TabularType("Job Metrics",
+				"Table of execution statistics per job", rowType, new String[] { "job" });
+		final TabularData table = new TabularDataSupport(tableType);
+
+		for (final Map.Entry<JobKey, JobStats> entry : jobMetrics.getStats().entrySet()) {
+			final JobStats stats = entry.getValue();
+			// @formatter:off
+			final CompositeData data = new CompositeDataSupport(rowType, ITEM_NAMES, new Object[] {
+					entry.getKey().toString(),
+					stats.getSuccesses().get(), stats.getFailures().get(), stats.getVetoes().get(),
+					stats.getExecutionRate(),
+					stats.getExecutionTime().getValueAtPercentile(50.0),
+					stats.getExecutionTime().getValueAtPercentile(99.0),
+					stats.getExecutionTime().getValueAtPercentile(99.9),
+					stats.getSchedulingLag().getValueAtPercentile(50.0),
+					stats.getSchedulingLag().getValueAtPercentile(99.0),
+					stats.getSchedulingLag().getValueAtPercentile(99.9),
+					stats.getQueueWait().getValueAtPercentile(50.0),
+					stats.getQueueWait().getValueAtPercentile(99.0),
+					stats.getQueueWait().getValueAtPercentile(99.9) });
+			// @formatter:on
+			table.put(data);
+		}
+		return table;
+	}
+
+	@ManagedAttribute(description = "Successful executions across all jobs")
+	public long getTotalSuccesses() {
+		long total = 0;
+		for (final JobStats stats : jobMetrics.getStats().values()) {
+			total += stats.getSuccesses().get();
+		}
+		return total;
+	}
+
+	@ManagedAttribute(description = "Failed executions across all jobs")
+	public long getTotalFailures() {
+		long total = 0;
+		for (final JobStats stats : jobMetrics.getStats().values()) {
+			total += stats.getFailures().get();
+		}
+		return total;
+	}
+
+	@ManagedAttribute(description = "Vetoed executions across all jobs")
+	public long getTotalVetoes() {
+		long total = 0;
+		for (final JobStats stats : jobMetrics.getStats().values()) {
+			total += stats.getVetoes().get();
+		}
+		return total;
+	}
+
+	@ManagedAttribute(description = "Completed executions per second across all jobs")
+	public double getTotalExecutionRate() {
+		double total = 0.0;
+		for (final JobStats stats : jobMetrics.getStats().values()) {
+			total += stats.getExecutionRate();
+		}
+		return total;
+	}
+
+	@ManagedOperation(description = "Clears the execution statistics for all jobs")
+	public void resetMetrics() {
+		log.info("resetting job metrics");
+		jobMetrics.reset();
+	}
+}
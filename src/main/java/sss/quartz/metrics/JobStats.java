@@ -0,0 +1,74 @@
+package sss.quartz.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Execution statistics for a single job. All times are in milliseconds.
+ *
+ * @author jsteele
+ */
+public class JobStats {
+	/** Time spent executing the job. */
+	private final LatencyHistogram executionTime = new LatencyHistogram();
+
+	/** Time between the scheduled fire time and the actual fire time. */
+	private final LatencyHistogram schedulingLag = new LatencyHistogram();
+
+	/** Time between the trigger firing and the job starting on a worker thread. */
+	private final LatencyHistogram queueWait = new LatencyHistogram();
+
+	private final AtomicLong successes = new AtomicLong();
+
+	private final AtomicLong failures = new AtomicLong();
+
+	private final AtomicLong vetoes = new AtomicLong();
+
+	/** Time the statistics were started or last reset. */
+	private volatile long startTime = System.currentTimeMillis();
+
+	public LatencyHistogram getExecutionTime() {
+		return executionTime;
+	}
+
+	public LatencyHistogram getQueueWait() {
+		return queueWait;
+	}
+
+	public LatencyHistogram getSchedulingLag() {
+		return schedulingLag;
+	}
+
+	public AtomicLong getFailures() {
+		return failures;
+	}
+
+	public AtomicLong getSuccesses() {
+		return successes;
+	}
+
+	public AtomicLong getVetoes() {
+		return vetoes;
+	}
+
+	/**
+	 * @return completed executions (successes and failures) per second since the
+	 *         statistics were started or last reset
+	 */
+	public double getExecutionRate() {
+		final long elapsedMs = Math.max(1, System.currentTimeMillis() - startTime);
+		return (successes.get() + failures.get()) * 1000.0 / elapsedMs;
+	}
+
+	/**
+	 * Clears all statistics.
+	 */
+	public void reset() {
+		executionTime.reset();
+		schedulingLag.reset();
+		queueWait.reset();
+		successes.set(0);
+		failures.set(0);
+		vetoes.set(0);
+		startTime = System.currentTimeMillis();
+	}
+}
@@ -0,0 +1,143 @@
+package sss.quartz.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of non-negative values with log-linear buckets, in the
+ * style of an HDR histogram. Each power-of-two range is split into
+ * {@value #SUB_BUCKET_COUNT} linear sub-buckets, so reported percentiles are
+ * within about 6% of the recorded values for any magnitude.
+ * <p>
+ * Recording is allocation-free and uses only atomic increments, so it is safe
+ * to call from scheduler threads without perturbing the work being measured.
+ * Reads are not atomic with respect to concurrent recording, which is fine
+ * for monitoring.
+ *
+ * @author jsteele
+ */
+public class LatencyHistogram {
+	/** Number of bits of precision within each power-of-two range. */
+	private static final int SUB_BUCKET_BITS = 4;
+
+	/** Number of linear sub-buckets within each power-of-two range. */
+	private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+	/** Total number of buckets needed to cover all non-negative longs. */
+	private static final int BUCKET_COUNT = (64 - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+
+	private final AtomicLong count = new AtomicLong();
+
+	private final AtomicLong sum = new AtomicLong();
+
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * Records a value. Negative values are recorded as zero.
+	 *
+	 * @param value
+	 *          value to record
+	 */
+	public void record(long value) {
+		final long v = value < 0 ? 0 : value;
+		counts.incrementAndGet(bucketIndex(v));
+		count.incrementAndGet();
+		sum.addAndGet(v);
+		long currentMax = max.get();
+		while (v > currentMax && !max.compareAndSet(currentMax, v)) {
+			currentMax = max.get();
+		}
+	}
+
+	/**
+	 * @return number of values recorded
+	 */
+	public long getCount() {
+		return count.get();
+	}
+
+	/**
+	 * @return largest value recorded
+	 */
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * @return mean of the values recorded, or zero if none have been recorded
+	 */
+	public double getMean() {
+		final long n = count.get();
+		return n == 0 ? 0.0 : (double) sum.get() / n;
+	}
+
+	/**
+	 * Returns the value at a percentile. The result is the upper bound of the
+	 * bucket the percentile falls in, capped at the largest recorded value.
+	 *
+	 * @param percentile
+	 *          percentile, from 0 to 100
+	 * @return value at the percentile, or zero if no values have been recorded
+	 */
+	public long getValueAtPercentile(double percentile) {
+		final long n = count.get();
+		if (n == 0) {
+			return 0;
+		}
+		final long target = Math.max(1, (long) Math.ceil(Math.min(percentile, 100.0) / 100.0 * n));
+		long cumulative = 0;
+		for (int idx = 0; idx < BUCKET_COUNT; idx++) {
+			cumulative += counts.get(idx);
+			if (cumulative >= target) {
+				return Math.min(bucketUpperBound(idx), max.get());
+			}
+		}
+		return max.get();
+	}
+
+	/**
+	 * Clears all recorded values.
+	 */
+	public void reset() {
+		for (int idx = 0; idx < BUCKET_COUNT; idx++) {
+			counts.set(idx, 0);
+		}
+		count.set(0);
+		sum.set(0);
+		max.set(0);
+	}
+
+	/**
+	 * Determines the bucket for a value.
+	 *
+	 * @param value
+	 *          non-negative value
+	 * @return bucket index
+	 */
+	public static int bucketIndex(long value) {
+		if (value < SUB_BUCKET_COUNT) {
+			return (int) value;
+		}
+		final int exponent = 63 - Long.numberOfLeadingZeros(value);
+		final int shift = exponent - SUB_BUCKET_BITS;
+		return (shift + 1) * SUB_BUCKET_COUNT + (int) ((value >>> shift) - SUB_BUCKET_COUNT);
+	}
+
+	/**
+	 * Determines the largest value that falls in a bucket.
+	 *
+	 * @param idx
+	 *          bucket index
+	 * @return largest value in the bucket
+	 */
+	public static long bucketUpperBound(int idx) {
+		if (idx < SUB_BUCKET_COUNT) {
+			return idx;
+		}
+		final int shift = idx / SUB_BUCKET_COUNT - 1;
+		final long base = (long) (idx % SUB_BUCKET_COUNT + SUB_BUCKET_COUNT) << shift;
+		return base + (1L << shift) - 1;
+	}
+}
@@ -0,0 +1,43 @@
+package sss.quartz.pool;
+
+import org.quartz.simpl.SimpleThreadPool;
+
+/**
+ * {@link SimpleThreadPool} that holds back trigger acquisition in proportion
+ * to how busy it is, so that in a cluster the nodes with spare capacity
+ * acquire more of the triggers. See {@link LoadBackoff}. The backoff is off
+ * unless <code>loadBackoff</code> is set; until then this behaves exactly as
+ * {@link SimpleThreadPool}.
+ * <p>
+ * Configured through the Quartz properties, e.g.
+ *
+ * <pre>
+ * org.quartz.threadPool.class = sss.quartz.pool.LoadAwareThreadPool
+ * org.quartz.threadPool.threadCount = 10
+ * org.quartz.threadPool.loadBackoff = 100
+ * </pre>
+ *
+ * @author jsteele
+ */
+public class LoadAwareThreadPool extends SimpleThreadPool {
+	/** Pause before acquisition when every thread is busy, in ms; 0 for none. */
+	private long loadBackoff;
+
+	@Override
+	public int blockForAvailableThreads() {
+		final int available = super.blockForAvailableThreads();
+		if (!LoadBackoff.pause(loadBackoff, available, getPoolSize())) {
+			return available;
+		}
+		// Threads may have freed up while we were waiting
+		return super.blockForAvailableThreads();
+	}
+
+	public long getLoadBackoff() {
+		return loadBackoff;
+	}
+
+	public void setLoadBackoff(long loadBackoff) {
+		this.loadBackoff = loadBackoff;
+	}
+}
@@ -0,0 +1,45 @@
+package sss.quartz.pool;
+
+/**
+ * Delays trigger acquisition on busy nodes of a cluster.
+ * <p>
+ * Every node's scheduler thread asks its thread pool for capacity before it
+ * acquires triggers from the job store. By pausing in proportion to how busy
+ * the pool is, nodes with spare capacity get to the job store first and take
+ * the triggers that have come due, while a busy node only picks up what is
+ * left. With batch acquisition the amount taken is also capped by the free
+ * capacity, so idle nodes take larger batches.
+ *
+ * @author jsteele
+ */
+final class LoadBackoff {
+	private LoadBackoff() {
+	}
+
+	/**
+	 * Pauses the calling thread in proportion to the load on a pool.
+	 *
+	 * @param backoffMs
+	 *          pause for a fully busy pool, in ms; zero disables the pause
+	 * @param available
+	 *          free slots in the pool
+	 * @param poolSize
+	 *          total slots in the pool
+	 * @return false if the thread was interrupted while pausing
+	 */
+	static boolean pause(long backoffMs, int available, int poolSize) {
+		if (backoffMs <= 0 || poolSize <= 0 || available >= poolSize) {
+			return true;
+		}
+		final long delayMs = backoffMs * (poolSize - Math.max(available, 0)) / poolSize;
+		if (delayMs > 0) {
+			try {
+				Thread.sleep(delayMs);
+			} catch (InterruptedException ie) {
+				Thread.currentThread().interrupt();
+				return false;
+			}
+		}
+		return true;
+	}
+}
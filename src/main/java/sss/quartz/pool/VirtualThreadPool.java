@@ -0,0 +1,247 @@
+package sss.quartz.pool;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.quartz.SchedulerConfigException;
+import org.quartz.spi.ThreadPool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Quartz thread pool that runs each job on its own virtual thread, with the
+ * number of concurrently running jobs capped by <code>concurrencyLimit</code>.
+ * Jobs that block on I/O park their virtual thread rather than holding a
+ * platform thread, so the limit can be sized for the number of jobs we want
+ * in flight rather than the number of threads we can afford.
+ * <p>
+ * Virtual threads need a Java 21 or later runtime. On older runtimes the pool
+ * logs a warning and falls back to a cached pool of platform threads with the
+ * same concurrency limit.
+ * <p>
+ * Configured through the Quartz properties, e.g.
+ *
+ * <pre>
+ * org.quartz.threadPool.class = sss.quartz.pool.VirtualThreadPool
+ * org.quartz.threadPool.concurrencyLimit = 1000
+ * </pre>
+ *
+ * <code>threadCount</code> is accepted as an alias for
+ * <code>concurrencyLimit</code>.
+ *
+ * @author jsteele
+ */
+public class VirtualThreadPool implements ThreadPool {
+	/** Class logger. */
+	private static final Logger log = LoggerFactory.getLogger(VirtualThreadPool.class);
+
+	/** Interval at which waits for a free slot re-check for shutdown, in ms. */
+	private static final long WAIT_INTERVAL_MS = 500;
+
+	/** Maximum number of jobs running at once. */
+	private int concurrencyLimit = 10;
+
+	/** Pause before acquisition when every slot is busy, in ms. */
+	private long loadBackoff;
+
+	/** Whether to use virtual threads if the runtime supports them. */
+	private boolean virtualThreads = true;
+
+	private String instanceName = "VirtualThreadPool";
+
+	/** Free job slots. */
+	private Semaphore slots;
+
+	/** Runs jobs. */
+	private Executor executor;
+
+	/** Platform thread pool, if virtual threads aren't being used. */
+	private ExecutorService platformThreads;
+
+	private volatile boolean shutdown;
+
+	@Override
+	public void initialize() throws SchedulerConfigException {
+		if (concurrencyLimit <= 0) {
+			throw new SchedulerConfigException("concurrencyLimit must be > 0");
+		}
+		slots = new Semaphore(concurrencyLimit);
+
+		ThreadFactory virtualThreadFactory = null;
+		if (virtualThreads) {
+			virtualThreadFactory = createVirtualThreadFactory(instanceName + "_Worker-");
+			if (null == virtualThreadFactory) {
+				log.warn("virtual threads are not supported by this runtime ("
+						+ System.getProperty("java.version") + ") - falling back to platform threads");
+			}
+		}
+
+		if (null != virtualThreadFactory) {
+			// Virtual threads are cheap, so each job gets a new one
+			final ThreadFactory threadFactory = virtualThreadFactory;
+			executor = new Executor() {
+				@Override
+				public void execute(Runnable command) {
+					threadFactory.newThread(command).start();
+				}
+			};
+		} else {
+			final AtomicInteger count = new AtomicInteger();
+			platformThreads = Executors.newCachedThreadPool(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					return new Thread(r, instanceName + "_Worker-" + count.incrementAndGet());
+				}
+			});
+			executor = platformThreads;
+		}
+		log.info("initialized " + (null != virtualThreadFactory ? "virtual" : "platform")
+				+ " thread pool with concurrency limit " + concurrencyLimit);
+	}
+
+	@Override
+	public boolean runInThread(final Runnable runnable) {
+		if (shutdown) {
+			return false;
+		}
+		slots.acquireUninterruptibly();
+		try {
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						runnable.run();
+					} finally {
+						slots.release();
+					}
+				}
+			});
+			return true;
+		} catch (RuntimeException re) {
+			slots.release();
+			log.error("could not run job: " + re, re);
+			return false;
+		}
+	}
+
+	@Override
+	public int blockForAvailableThreads() {
+		while (!shutdown) {
+			final int available = slots.availablePermits();
+			if (available > 0) {
+				if (!LoadBackoff.pause(loadBackoff, available, concurrencyLimit)) {
+					return available;
+				}
+				return Math.max(slots.availablePermits(), 1);
+			}
+			try {
+				// Wait for a slot to free up without holding on to it
+				if (slots.tryAcquire(WAIT_INTERVAL_MS, TimeUnit.MILLISECONDS)) {
+					slots.release();
+				}
+			} catch (InterruptedException ie) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+		return Math.max(slots.availablePermits(), 1);
+	}
+
+	@Override
+	public void shutdown(boolean waitForJobsToComplete) {
+		shutdown = true;
+		if (null != platformThreads) {
+			platformThreads.shutdown();
+		}
+		if (waitForJobsToComplete) {
+			slots.acquireUninterruptibly(concurrencyLimit);
+			slots.release(concurrencyLimit);
+		}
+	}
+
+	@Override
+	public int getPoolSize() {
+		return concurrencyLimit;
+	}
+
+	@Override
+	public void setInstanceId(String schedInstId) {
+	}
+
+	@Override
+	public void setInstanceName(String schedName) {
+		this.instanceName = schedName;
+	}
+
+	public int getConcurrencyLimit() {
+		return concurrencyLimit;
+	}
+
+	public void setConcurrencyLimit(int concurrencyLimit) {
+		this.concurrencyLimit = concurrencyLimit;
+	}
+
+	/**
+	 * Alias for {@link #setConcurrencyLimit(int)}, so the pool accepts the
+	 * standard <code>org.quartz.threadPool.threadCount</code> property.
+	 *
+	 * @param threadCount
+	 *          maximum number of jobs running at once
+	 */
+	public void setThreadCount(int threadCount) {
+		setConcurrencyLimit(threadCount);
+	}
+
+	public long getLoadBackoff() {
+		return loadBackoff;
+	}
+
+	/**
+	 * Sets the pause before trigger acquisition when every slot is busy. See
+	 * {@link LoadBackoff}.
+	 *
+	 * @param loadBackoff
+	 *          pause, in ms; zero disables it
+	 */
+	public void setLoadBackoff(long loadBackoff) {
+		this.loadBackoff = loadBackoff;
+	}
+
+	public boolean isVirtualThreads() {
+		return virtualThreads;
+	}
+
+	public void setVirtualThreads(boolean virtualThreads) {
+		this.virtualThreads = virtualThreads;
+	}
+
+	/**
+	 * Creates a factory for named virtual threads. This is done reflectively so
+	 * the project can still build and run on runtimes without virtual threads.
+	 *
+	 * @param namePrefix
+	 *          prefix for thread names
+	 * @return virtual thread factory, or null if the runtime doesn't support
+	 *         virtual threads
+	 */
+	static ThreadFactory createVirtualThreadFactory(String namePrefix) {
+		try {
+			final Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+			final Method ofVirtual = Thread.class.getMethod("ofVirtual");
+			final Method name = builderClass.getMethod("name", String.class, long.class);
+			final Method factory = builderClass.getMethod("factory");
+
+			final Object builder = name.invoke(ofVirtual.invoke(null), namePrefix, 1L);
+			return (ThreadFactory) factory.invoke(builder);
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			log.debug("virtual threads not available: " + e);
+			return null;
+		}
+	}
+}
@@ -1,14 +1,28 @@
 package it.sss.quartz;
 
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.quartz.JobBuilder.newJob;
 import it.sss.quartz.AdHocSchedulerTest.TestConfig;
 
-import javax.sql.DataSource;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import javax.management.OperationsException;
 
 import org.junit.BeforeClass;
 import org.junit.Test;
 import org.junit.runner.RunWith;
-import org.springframework.beans.factory.annotation.Qualifier;
-import org.springframework.context.annotation.Bean;
+import org.quartz.Job;
+import org.quartz.JobExecutionContext;
+import org.quartz.JobKey;
+import org.quartz.Scheduler;
+import org.quartz.SchedulerException;
+import org.quartz.Trigger;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.PropertySource;
 import org.springframework.test.annotation.DirtiesContext;
@@ -16,11 +30,11 @@ import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
 
 import sss.jmx.JmxConfig;
+import sss.quartz.AdHocRunner;
 import sss.quartz.SchedulerConfig;
+import sss.quartz.SchedulerMBean;
 import sss.quartz.jobs.DemoJobsConfig;
 
-import com.mchange.v2.c3p0.DriverManagerDataSource;
-
 /**
  * Test the scheduler configuration.
  * 
@@ -33,19 +47,17 @@ public class AdHocSchedulerTest {
 	@Configuration
 	@PropertySource("it/sss/quartz/AdHocSchedulerTest.properties")
 	public static class TestConfig {
-		@Bean
-		@Qualifier("quartzDataSource")
-		public DataSource dataSource() {
-			final DriverManagerDataSource dataSource = new DriverManagerDataSource();
-			dataSource.setDriverClass("org.h2.Driver");
-
-			final String testDbPath = System.getProperty("quartz.test.db");
-			if (null == testDbPath) {
-				throw new IllegalArgumentException("quartz.test.db system property is not set");
-			}
-
-			dataSource.setJdbcUrl("jdbc:h2:" + testDbPath);
-			return dataSource;
+		// Job store is configured from the properties
+	}
+
+	/** Records the request count of each run. */
+	public static class CountingJob implements Job {
+		static final Queue<String> runs = new ConcurrentLinkedQueue<String>();
+
+		@Override
+		public void execute(JobExecutionContext context) {
+			runs.add(context.getJobDetail().getKey() + "="
+					+ context.getMergedJobDataMap().getString(AdHocRunner.REQUESTS_KEY));
 		}
 	}
 
@@ -56,11 +68,81 @@ public class AdHocSchedulerTest {
 		System.setProperty("quartz.test.db", "./test-db/jobstore-test");
 	}
 
+	@Autowired
+	private Scheduler scheduler;
+
+	@Autowired
+	private SchedulerMBean schedulerMBean;
+
+	@Test
+	@DirtiesContext
+	public void loadTest() throws SchedulerException, InterruptedException {
+		new LoadHarness(scheduler).run().assertSlos();
+	}
+
 	@Test
 	@DirtiesContext
-	public void sleepAndSoak() throws InterruptedException {
-		for (;;) {
-			Thread.sleep(100);
+	public void coalescesRuns() throws Exception {
+		CountingJob.runs.clear();
+		for (final String name : new String[] { "a", "b" }) {
+			scheduler.addJob(newJob(CountingJob.class).withIdentity(name, "adHoc").storeDurably().build(),
+					true);
+		}
+		schedulerMBean.setAdHocCoalescing(true);
+		schedulerMBean.setAdHocCoalesceWindowMs(1000);
+
+		// A burst of requests makes one trigger and one run
+		for (int i = 0; i < 50; i++) {
+			schedulerMBean.runJobImmediately("adHoc.a");
+		}
+		assertThat(scheduler.getTriggersOfJob(new JobKey("a", "adHoc")).size(), is(1));
+		assertThat(schedulerMBean.getAdHocMerged(), is(49L));
+		assertThat(awaitRuns(1), is("[adHoc.a=50]"));
+		assertThat(schedulerMBean.getAdHocPending(), is(0));
+
+		// Once it has run, the next request gets a run of its own
+		assertThat(schedulerMBean.runJobs("adHoc.a, adHoc.b adHoc.a"),
+				is("scheduled 2 runs, merged 1 requests into pending runs"));
+		awaitRuns(3);
+		assertThat(CountingJob.runs.size(), is(3));
+		assertTrue(CountingJob.runs.containsAll(Arrays.asList("adHoc.a=2", "adHoc.b=1")));
+
+		// Nothing is scheduled if any job is unknown
+		try {
+			schedulerMBean.runJobs("adHoc.b,adHoc.missing");
+			fail("unknown job scheduled");
+		} catch (OperationsException e) {
+			assertThat(schedulerMBean.getAdHocPending(), is(0));
+			assertThat(scheduler.getTriggersOfJob(new JobKey("b", "adHoc")).size(), is(0));
+		}
+
+		// Not merged into a later run, nor into one dropped if it misfires
+		schedulerMBean.runJobWithDelay("adHoc.b", 3600);
+		schedulerMBean.runJobWithDelayPersistent("adHoc.b", 3600);
+		schedulerMBean.runJobImmediately("adHoc.b");
+		assertThat(scheduler.getTriggersOfJob(new JobKey("b", "adHoc")).size(), is(3));
+		assertThat(schedulerMBean.getAdHocMerged(), is(50L));
+		awaitRuns(4);
+		assertThat(CountingJob.runs.size(), is(4));
+		assertThat(schedulerMBean.getAdHocPending(), is(2));
+
+		// A later request that may be dropped is merged into an earlier run
+		schedulerMBean.runJobWithDelay("adHoc.b", 7200);
+		assertThat(scheduler.getTriggersOfJob(new JobKey("b", "adHoc")).size(), is(2));
+		assertThat(schedulerMBean.getAdHocMerged(), is(51L));
+		for (final Trigger trigger : scheduler.getTriggersOfJob(new JobKey("b", "adHoc"))) {
+			scheduler.unscheduleJob(trigger.getKey());
+		}
+	}
+
+	private static String awaitRuns(int runs) throws InterruptedException {
+		final long deadline = System.currentTimeMillis() + 10000;
+		while (CountingJob.runs.size() < runs && System.currentTimeMillis() < deadline) {
+			Thread.sleep(50);
 		}
+		assertTrue("ran " + CountingJob.runs, CountingJob.runs.size() >= runs);
+		// Let any extra runs show up
+		Thread.sleep(500);
+		return CountingJob.runs.toString();
 	}
 }
@@ -5,6 +5,9 @@ import it.sss.quartz.BasicSchedulerTest.TestConfig;
 import org.junit.BeforeClass;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.quartz.Scheduler;
+import org.quartz.SchedulerException;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.PropertySource;
 import org.springframework.test.annotation.DirtiesContext;
@@ -35,11 +38,12 @@ public class BasicSchedulerTest {
 		System.setProperty("org.terracotta.quartz.skipUpdateCheck", "true");
 	}
 
+	@Autowired
+	private Scheduler scheduler;
+
 	@Test
 	@DirtiesContext
-	public void sleepAndSoak() throws InterruptedException {
-		for (;;) {
-			Thread.sleep(100);
-		}
+	public void loadTest() throws SchedulerException, InterruptedException {
+		new LoadHarness(scheduler).run().assertSlos();
 	}
 }
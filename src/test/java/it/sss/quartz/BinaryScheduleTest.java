@@ -0,0 +1,128 @@
+package it.sss.quartz;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeMap;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.quartz.CronTrigger;
+import org.quartz.Trigger;
+
+import sss.quartz.BinarySchedule;
+import sss.quartz.ScheduleItemListBuilder;
+import sss.quartz.ScheduleStream;
+
+/**
+ * Test that a schedule converted to the binary format builds the same triggers
+ * as the JSON it came from.
+ *
+ * @author jsteele
+ */
+public class BinaryScheduleTest {
+	// @formatter:off
+	private static final String SCHEDULE = "[\n"
+			+ "  // Every optional field, present and absent\n"
+			+ "  { \"trigger\": \"binary.one\", \"job\": \"demoJob.hello\", \"cron\": \"0 0 12 * * ?\", \"onMisfire\": \"DO_NOTHING\","
+			+ " \"priority\": -7, \"comment\": \"caf\\u00e9 \\u2713\", \"jobData\": { \"a\": \"1\", \"b\": \"\" } },\n"
+			+ "  { \"trigger\": \"binary.two\", \"job\": \"demoJob.hello\", \"cron\": \"0 0 12 * * ?\", \"onMisfire\": \"FIRE_AND_PROCEED\","
+			+ " \"priority\": 2147483647, \"jobData\": {} },\n"
+			+ "  { \"job\": \"demoJob.jobstore\", \"cron\": \"0 15 10 ? * MON-FRI\", \"onMisfire\": \"IGNORE_MISFIRES\","
+			+ " \"priority\": -2147483648 },\n"
+			+ "  { \"trigger\": \"binary.four\", \"job\": \"demoJob.hello\", \"cron\": \"0 0/5 * * * ?\", \"onMisfire\": \"CATCH_UP\","
+			+ " \"catchUpRate\": 300 }\n"
+			+ "]\n";
+	// @formatter:on
+
+	private File json;
+
+	private File binary;
+
+	@Before
+	public void writeSchedule() throws IOException {
+		json = File.createTempFile("binary", ".schedule.json");
+		binary = File.createTempFile("binary", ".schedule.bin");
+		Files.write(json.toPath(), SCHEDULE.getBytes(StandardCharsets.UTF_8));
+	}
+
+	@After
+	public void deleteSchedule() {
+		json.delete();
+		binary.delete();
+	}
+
+	@Test
+	public void convertsWithoutLoss() throws IOException {
+		BinarySchedule.main(new String[] { json.getAbsolutePath(), binary.getAbsolutePath() });
+		assertTrue(BinarySchedule.isBinary(binary.toURI().toURL()));
+		assertThat(binary.length() < json.length(), is(true));
+
+		final List<String> expected = describe(json.getAbsolutePath());
+		assertThat(expected.size(), is(4));
+		assertThat(expected.get(3), containsString("sss.catchUp.rate=300"));
+		assertThat(describe(binary.getAbsolutePath()), is(expected));
+		assertThat(ScheduleItemListBuilder.loadSchedule(binary.getAbsolutePath()).build().size(), is(4));
+	}
+
+	@Test
+	public void rejectsTruncatedFile() throws IOException {
+		BinarySchedule.main(new String[] { json.getAbsolutePath(), binary.getAbsolutePath() });
+		final byte[] bytes = Files.readAllBytes(binary.toPath());
+		Files.write(binary.toPath(), Arrays.copyOf(bytes, bytes.length - 3));
+		try {
+			ScheduleItemListBuilder.loadSchedule(binary.getAbsolutePath());
+			fail("truncated schedule loaded");
+		} catch (IOException e) {
+			assertThat(e.getMessage(), containsString("truncated"));
+		}
+	}
+
+	@Test
+	public void closesStreamWhenReadingFails() throws IOException {
+		BinarySchedule.main(new String[] { json.getAbsolutePath(), binary.getAbsolutePath() });
+		final byte[] bytes = Files.readAllBytes(binary.toPath());
+		Files.write(binary.toPath(), Arrays.copyOf(bytes, bytes.length - 3));
+		final ScheduleStream stream = ScheduleItemListBuilder.streamSchedule(binary.getAbsolutePath());
+		try {
+			while (stream.hasNext()) {
+				stream.next();
+			}
+			fail("truncated schedule streamed");
+		} catch (UncheckedIOException e) {
+			assertThat(e.getMessage(), containsString("truncated"));
+		}
+		// Closed, so there is nothing more to read
+		assertThat(stream.hasNext(), is(false));
+	}
+
+	/**
+	 * @return everything about each trigger except its description, which names
+	 *         the file it was loaded from
+	 */
+	private static List<String> describe(String path) throws IOException {
+		final List<String> triggers = new ArrayList<String>();
+		try (ScheduleStream stream = ScheduleItemListBuilder.streamSchedule(path)) {
+			while (stream.hasNext()) {
+				final Trigger trigger = stream.next();
+				triggers.add(trigger.getKey() + " " + trigger.getJobKey() + " "
+						+ ((CronTrigger) trigger).getCronExpression() + " " + trigger.getPriority() + " "
+						+ trigger.getMisfireInstruction() + " "
+						+ new TreeMap<String, Object>(trigger.getJobDataMap().getWrappedMap()));
+			}
+		}
+		return triggers;
+	}
+}
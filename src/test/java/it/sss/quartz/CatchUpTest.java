@@ -0,0 +1,223 @@
+package it.sss.quartz;
+
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.quartz.JobBuilder.newJob;
+import it.sss.quartz.CatchUpTest.TestConfig;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.quartz.Job;
+import org.quartz.JobDataMap;
+import org.quartz.JobDetail;
+import org.quartz.JobExecutionContext;
+import org.quartz.Scheduler;
+import org.quartz.SchedulerException;
+import org.quartz.Trigger;
+import org.quartz.TriggerKey;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.PropertySource;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import sss.jmx.JmxConfig;
+import sss.quartz.ScheduleItemListBuilder;
+import sss.quartz.SchedulerConfig;
+import sss.quartz.catchup.CatchUpMBean;
+import sss.quartz.catchup.CatchUpManager;
+import sss.quartz.jobs.DemoJobsConfig;
+
+/**
+ * Test that a schedule item that was down for a while catches up its missed
+ * fire times at its catch-up rate, below the priority of any schedule item, or
+ * all at once when coalesced.
+ *
+ * @author jsteele
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(classes = { SchedulerConfig.class, DemoJobsConfig.class, JmxConfig.class,
+		TestConfig.class })
+public class CatchUpTest {
+	@Configuration
+	@PropertySource("it/sss/quartz/CatchUpTest.properties")
+	public static class TestConfig {
+	}
+
+	/** A catch-up firing. */
+	static class CatchUp {
+		final JobDataMap data;
+
+		final int priority;
+
+		final long scheduledFireTime;
+
+		final long fireTime;
+
+		CatchUp(JobExecutionContext context) {
+			data = new JobDataMap(context.getMergedJobDataMap());
+			priority = context.getTrigger().getPriority();
+			scheduledFireTime = context.getScheduledFireTime().getTime();
+			fireTime = context.getFireTime().getTime();
+		}
+	}
+
+	/** Records the catch-up firings. */
+	public static class CatchUpJob implements Job {
+		static final Queue<CatchUp> caughtUp = new ConcurrentLinkedQueue<CatchUp>();
+
+		@Override
+		public void execute(JobExecutionContext context) {
+			if (context.getMergedJobDataMap().containsKey(CatchUpManager.TRIGGER_KEY)) {
+				caughtUp.add(new CatchUp(context));
+			}
+		}
+	}
+
+	// @formatter:off
+	private static final String SCHEDULE = "[\n"
+			+ "  { \"trigger\": \"catchUp.replay\", \"job\": \"catchUp.replay\", \"cron\": \"* * * * * ?\","
+			+ " \"onMisfire\": \"CATCH_UP\", \"catchUpRate\": 600, \"priority\": 5 },\n"
+			+ "  { \"trigger\": \"catchUp.coalesce\", \"job\": \"catchUp.coalesce\", \"cron\": \"* * * * * ?\","
+			+ " \"onMisfire\": \"CATCH_UP_COALESCED\", \"priority\": 5 }\n"
+			+ "]\n";
+	// @formatter:on
+
+	/** Seconds the trigger was down for. */
+	private static final int DOWN = 20;
+
+	/** Interval between replayed firings at the schedule's catch-up rate, in ms. */
+	private static final long INTERVAL = 60000 / 600;
+
+	private static File scheduleFile;
+
+	@BeforeClass
+	public static void setSysProps() throws IOException {
+		// By default Quartz calls back home to see if there are updates...
+		System.setProperty("org.terracotta.quartz.skipUpdateCheck", "true");
+
+		scheduleFile = File.createTempFile("catchUp", ".schedule.json");
+		Files.write(scheduleFile.toPath(), SCHEDULE.getBytes(StandardCharsets.UTF_8));
+	}
+
+	@AfterClass
+	public static void deleteSchedule() {
+		scheduleFile.delete();
+	}
+
+	@Autowired
+	private Scheduler scheduler;
+
+	@Autowired
+	private CatchUpMBean catchUpMBean;
+
+	@Test
+	@DirtiesContext
+	public void replaysMissedFireTimes() throws Exception {
+		final long start = misfire("replay");
+
+		// Fire times are a second apart, caught up ten a second
+		final List<CatchUp> caughtUp = awaitCatchUp(15, 10000);
+		assertThat(caughtUp.size(), is(15));
+		assertThat(catchUpMBean.getMissed(), greaterThanOrEqualTo((long) DOWN));
+		assertThat(catchUpMBean.getDropped(), is(catchUpMBean.getMissed() - 15));
+
+		// The most recent ones, each once
+		final List<Long> missedTimes = new ArrayList<Long>();
+		for (final CatchUp firing : caughtUp) {
+			assertThat(firing.data.getString(CatchUpManager.MISSED_KEY), is("1"));
+			assertThat(firing.data.getString(CatchUpManager.TRIGGER_KEY), is("catchUp.replay"));
+			missedTimes.add(firing.data.getLongValueFromString(CatchUpManager.MISSED_TIME_KEY));
+		}
+		Collections.sort(missedTimes);
+		for (int i = 1; i < missedTimes.size(); i++) {
+			assertThat(missedTimes.get(i) - missedTimes.get(i - 1), is(1000L));
+		}
+		assertThat(missedTimes.get(0), greaterThanOrEqualTo(start + 5000));
+		assertThat(missedTimes.get(14), lessThanOrEqualTo(System.currentTimeMillis()));
+		assertThat(catchUpMBean.getBacklog(), is(0L));
+
+		// Spaced out at the item's catch-up rate, below the lowest item priority
+		for (int i = 0; i < caughtUp.size(); i++) {
+			final CatchUp firing = caughtUp.get(i);
+			assertThat(firing.priority, is(0));
+			if (i > 0) {
+				final CatchUp previous = caughtUp.get(i - 1);
+				assertThat(firing.scheduledFireTime - previous.scheduledFireTime, is(INTERVAL));
+				assertThat(firing.fireTime, greaterThanOrEqualTo(previous.fireTime));
+			}
+		}
+		assertThat(caughtUp.get(14).fireTime - caughtUp.get(0).fireTime,
+				greaterThanOrEqualTo(14 * INTERVAL - INTERVAL / 2));
+	}
+
+	@Test
+	@DirtiesContext
+	public void coalescesMissedFireTimes() throws Exception {
+		misfire("coalesce");
+
+		final List<CatchUp> caughtUp = awaitCatchUp(1, 5000);
+		assertThat(caughtUp.size(), is(1));
+		assertThat(caughtUp.get(0).priority, is(0));
+		final long missed = caughtUp.get(0).data.getLongValueFromString(CatchUpManager.MISSED_KEY);
+		assertThat(missed, greaterThanOrEqualTo((long) DOWN));
+		assertThat(missed, is(catchUpMBean.getMissed()));
+		assertThat(catchUpMBean.getDropped(), is(0L));
+
+		// Nothing more comes
+		Thread.sleep(1000);
+		assertThat(CatchUpJob.caughtUp.size(), is(1));
+		assertThat(catchUpMBean.getBacklog(), is(0L));
+	}
+
+	/**
+	 * Schedules a catch-up item from the schedule, which fires every second, as
+	 * if it had been down for a while.
+	 *
+	 * @return when it was meant to start firing
+	 */
+	private long misfire(String name) throws SchedulerException, IOException {
+		CatchUpJob.caughtUp.clear();
+		final long start = (System.currentTimeMillis() / 1000 - DOWN) * 1000;
+		Trigger item = null;
+		for (final Trigger trigger : ScheduleItemListBuilder.loadSchedule(
+				scheduleFile.getAbsolutePath()).build()) {
+			if (trigger.getKey().equals(new TriggerKey(name, "catchUp"))) {
+				item = trigger;
+			}
+		}
+		final JobDetail job = newJob(CatchUpJob.class).withIdentity(item.getJobKey()).build();
+		scheduler.scheduleJob(job, item.getTriggerBuilder().startAt(new Date(start)).build());
+		return start;
+	}
+
+	private static List<CatchUp> awaitCatchUp(int firings, long timeout)
+			throws InterruptedException {
+		final long deadline = System.currentTimeMillis() + timeout;
+		while (CatchUpJob.caughtUp.size() < firings && System.currentTimeMillis() < deadline) {
+			Thread.sleep(50);
+		}
+		assertTrue("caught up " + CatchUpJob.caughtUp.size() + " of " + firings,
+				CatchUpJob.caughtUp.size() >= firings);
+		// Let any extra firings show up
+		Thread.sleep(300);
+		return new ArrayList<CatchUp>(CatchUpJob.caughtUp);
+	}
+}
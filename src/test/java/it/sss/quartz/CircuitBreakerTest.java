@@ -0,0 +1,120 @@
+package it.sss.quartz;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.quartz.JobDataMap;
+
+import sss.quartz.jobs.CircuitBreaker;
+import sss.quartz.jobs.CircuitBreaker.State;
+
+/**
+ * Test the {@link CircuitBreaker} state machine and its failure rate window.
+ *
+ * @author jsteele
+ */
+public class CircuitBreakerTest {
+	@Test
+	public void opensOnceTheWindowIsFullAndOverTheThreshold() {
+		final CircuitBreaker breaker = breaker("threshold", 4, 50, 60);
+		breaker.recordFailure();
+		breaker.recordFailure();
+		breaker.recordSuccess();
+		// Not until the window is full, however bad the rate
+		assertThat(breaker.getFailureRate(), is(66));
+		assertThat(breaker.getState(), is(State.CLOSED));
+
+		breaker.recordFailure();
+		assertThat(breaker.getFailureRate(), is(75));
+		assertThat(breaker.getState(), is(State.OPEN));
+		assertThat(breaker.getOpened(), is(1L));
+	}
+
+	@Test
+	public void staysClosedUnderTheThreshold() {
+		final CircuitBreaker breaker = breaker("under", 4, 50, 60);
+		for (int i = 0; i < 10; i++) {
+			breaker.recordSuccess();
+			breaker.recordSuccess();
+			breaker.recordSuccess();
+			breaker.recordFailure();
+		}
+		assertThat(breaker.getFailureRate(), is(25));
+		assertThat(breaker.getState(), is(State.CLOSED));
+
+		// Older outcomes slide out of the window
+		breaker.recordFailure();
+		assertThat(breaker.getFailureRate(), is(50));
+		assertThat(breaker.getState(), is(State.OPEN));
+	}
+
+	@Test
+	public void shortCircuitsWhileOpen() {
+		final CircuitBreaker breaker = breaker("open", 1, 50, 60);
+		assertTrue(breaker.allowExecution());
+		breaker.recordFailure();
+		assertThat(breaker.getState(), is(State.OPEN));
+
+		assertFalse(breaker.allowExecution());
+		assertFalse(breaker.allowExecution());
+		assertThat(breaker.getShortCircuited(), is(2L));
+		assertThat(breaker.getState(), is(State.OPEN));
+	}
+
+	@Test
+	public void closesWhenTheProbeSucceeds() {
+		final CircuitBreaker breaker = breaker("probeSucceeds", 1, 50, 0);
+		breaker.recordFailure();
+		assertThat(breaker.getState(), is(State.OPEN));
+
+		// Past the open delay, a single probe is let through
+		assertTrue(breaker.allowExecution());
+		assertThat(breaker.getState(), is(State.HALF_OPEN));
+		assertFalse(breaker.allowExecution());
+		breaker.recordSuccess();
+		assertThat(breaker.getState(), is(State.CLOSED));
+		assertThat(breaker.getFailureRate(), is(0));
+		assertTrue(breaker.allowExecution());
+		assertThat(breaker.getHalfOpened(), is(1L));
+		assertThat(breaker.getClosed(), is(1L));
+	}
+
+	@Test
+	public void opensAgainWhenTheProbeFails() {
+		final CircuitBreaker breaker = breaker("probeFails", 1, 50, 0);
+		breaker.recordFailure();
+		assertTrue(breaker.allowExecution());
+		assertThat(breaker.getState(), is(State.HALF_OPEN));
+		breaker.recordFailure();
+		assertThat(breaker.getState(), is(State.OPEN));
+		assertThat(breaker.getOpened(), is(2L));
+
+		// And lets another probe through after the delay
+		assertTrue(breaker.allowExecution());
+		assertThat(breaker.getState(), is(State.HALF_OPEN));
+	}
+
+	@Test
+	public void resetCloses() {
+		final CircuitBreaker breaker = breaker("reset", 1, 50, 60);
+		breaker.recordFailure();
+		breaker.reset();
+		assertThat(breaker.getState(), is(State.CLOSED));
+		assertTrue(breaker.allowExecution());
+	}
+
+	/**
+	 * @return a new breaker; breakers are shared by name, so each test uses its
+	 *         own
+	 */
+	private static CircuitBreaker breaker(String name, int window, int failureRate, int openDelay) {
+		final JobDataMap data = new JobDataMap();
+		data.put(CircuitBreaker.WINDOW_KEY, Integer.toString(window));
+		data.put(CircuitBreaker.FAILURE_RATE_KEY, Integer.toString(failureRate));
+		data.put(CircuitBreaker.OPEN_DELAY_KEY, Integer.toString(openDelay));
+		return CircuitBreaker.forJob(CircuitBreakerTest.class.getName() + "." + name, data);
+	}
+}
@@ -0,0 +1,221 @@
+package it.sss.quartz;
+
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.h2.tools.DeleteDbFiles;
+import org.h2.tools.RunScript;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.quartz.Job;
+import org.quartz.JobBuilder;
+import org.quartz.JobDetail;
+import org.quartz.JobExecutionContext;
+import org.quartz.JobExecutionException;
+import org.quartz.Scheduler;
+import org.quartz.SchedulerException;
+import org.quartz.Trigger;
+import org.quartz.TriggerBuilder;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.core.env.MapPropertySource;
+
+import sss.quartz.ClusterMBean;
+import sss.quartz.SchedulerConfig;
+import sss.quartz.history.FireHistoryListener;
+import sss.quartz.jobs.DemoJobsConfig;
+import sss.quartz.pool.LoadAwareThreadPool;
+
+/**
+ * Test several clustered scheduler instances, each configured by
+ * {@link SchedulerConfig} with <code>sss.quartz.clustered</code> set, sharing a
+ * JDBC job store. Each trigger must fire exactly once, the firings must be
+ * spread over the nodes, and each node's {@link ClusterMBean} must count the
+ * firings it made.
+ *
+ * @author jsteele
+ */
+public class ClusteredSchedulerTest {
+	private static final String SCHEDULER_NAME = "clusterTest";
+
+	private static final int NODES = 3;
+
+	private static final int THREADS = 3;
+
+	private static final int TRIGGERS = 60;
+
+	/** Long enough that no node can keep up with the triggers by itself. */
+	private static final long WORK_MS = 500;
+
+	/** Firings, by trigger name, recorded as the instance IDs that fired it. */
+	static final ConcurrentMap<String, List<String>> firings = new ConcurrentHashMap<String, List<String>>();
+
+	static CountDownLatch fired;
+
+	/** Records which node fired each trigger. */
+	public static class RecordingJob implements Job {
+		@Override
+		public void execute(JobExecutionContext context) throws JobExecutionException {
+			final List<String> newNodes = new CopyOnWriteArrayList<String>();
+			List<String> nodes = firings.putIfAbsent(context.getTrigger().getKey().getName(), newNodes);
+			if (null == nodes) {
+				nodes = newNodes;
+			}
+			try {
+				nodes.add(context.getScheduler().getSchedulerInstanceId());
+				// Hold the worker, so the work has to be shared
+				Thread.sleep(WORK_MS);
+			} catch (SchedulerException | InterruptedException e) {
+				throw new JobExecutionException(e);
+			} finally {
+				fired.countDown();
+			}
+		}
+	}
+
+	private final List<AnnotationConfigApplicationContext> nodes = new ArrayList<AnnotationConfigApplicationContext>();
+
+	private File dbDir;
+
+	private JdbcDataSource dataSource;
+
+	@BeforeClass
+	public static void setSysProps() {
+		// By default Quartz calls back home to see if there are updates...
+		System.setProperty("org.terracotta.quartz.skipUpdateCheck", "true");
+	}
+
+	@Before
+	public void startNodes() throws IOException, SQLException {
+		dbDir = File.createTempFile("cluster-test", "");
+		dbDir.delete();
+		dbDir.mkdirs();
+		// One data source for every node, as each node's scheduler registers it
+		// with Quartz under the shared scheduler name
+		dataSource = new JdbcDataSource();
+		dataSource.setURL("jdbc:h2:" + new File(dbDir, "cluster").getAbsolutePath() + ";MVCC=TRUE");
+		try (Connection conn = dataSource.getConnection();
+				Reader schema = new FileReader("src/test/db/tables_h2.sql")) {
+			RunScript.execute(conn, schema);
+		}
+
+		firings.clear();
+		fired = new CountDownLatch(TRIGGERS);
+		for (int i = 1; i <= NODES; i++) {
+			nodes.add(startNode("node" + i));
+		}
+	}
+
+	@After
+	public void stopNodes() {
+		for (final AnnotationConfigApplicationContext node : nodes) {
+			node.close();
+		}
+		nodes.clear();
+		DeleteDbFiles.execute(dbDir.getAbsolutePath(), "cluster", true);
+		dbDir.delete();
+	}
+
+	@Test
+	public void firesEachTriggerOnceAcrossNodes() throws Exception {
+		// Schedule everything through one node; the others see it in the store
+		final Scheduler first = nodes.get(0).getBean("scheduler", Scheduler.class);
+		final JobDetail job = JobBuilder.newJob(RecordingJob.class).withIdentity("recordingJob")
+				.storeDurably().build();
+		first.addJob(job, true);
+		final long start = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(2);
+		for (int i = 0; i < TRIGGERS; i++) {
+			// @formatter:off
+			final Trigger trigger = TriggerBuilder.newTrigger()
+					.withIdentity("trigger-" + i)
+					.forJob(job)
+					.startAt(new Date(start + i * 20))
+					.build();
+			// @formatter:on
+			first.scheduleJob(trigger);
+		}
+
+		assertTrue("triggers did not all fire", fired.await(60, TimeUnit.SECONDS));
+		// Give any duplicate firings a chance to show up
+		Thread.sleep(1000);
+
+		final List<String> duplicates = new ArrayList<String>();
+		final Map<String, Integer> perNode = new HashMap<String, Integer>();
+		for (final Map.Entry<String, List<String>> entry : firings.entrySet()) {
+			if (entry.getValue().size() != 1) {
+				duplicates.add(entry.getKey() + " fired by " + entry.getValue());
+			}
+			for (final String node : entry.getValue()) {
+				final Integer count = perNode.get(node);
+				perNode.put(node, null == count ? 1 : count + 1);
+			}
+		}
+		assertThat(duplicates, is(empty()));
+		assertThat(firings.size(), is(TRIGGERS));
+
+		// Every node did a fair share, and counted what it did
+		assertThat(first.getMetaData().getThreadPoolClass().getName(),
+				is(LoadAwareThreadPool.class.getName()));
+		assertThat(nodes.get(0).getBean(ClusterMBean.class).getNodes().size(), is(NODES));
+		for (final AnnotationConfigApplicationContext node : nodes) {
+			final ClusterMBean cluster = node.getBean(ClusterMBean.class);
+			final String instanceId = cluster.getInstanceId();
+			final Integer recorded = perNode.get(instanceId);
+			assertTrue(cluster.isClustered());
+			assertThat("firings were not spread over the nodes: " + perNode, null == recorded ? 0
+					: recorded, greaterThanOrEqualTo(TRIGGERS / NODES / 2));
+			assertThat(instanceId, cluster.getFiredTriggers(), is((long) recorded));
+			assertThat(instanceId, cluster.getCompletedTriggers(), is((long) recorded));
+			assertThat(instanceId, cluster.getMisfiredTriggers(), is(0L));
+		}
+	}
+
+	/**
+	 * Starts a node through {@link SchedulerConfig}, clustered and with a load
+	 * backoff.
+	 */
+	private AnnotationConfigApplicationContext startNode(String instanceId) {
+		final Map<String, Object> props = new HashMap<String, Object>();
+		props.put(SchedulerConfig.CLUSTERED_KEY, "true");
+		props.put("org.quartz.scheduler.instanceName", SCHEDULER_NAME);
+		props.put("org.quartz.scheduler.instanceId", instanceId);
+		// Every node would export the same MBean name
+		props.put("org.quartz.scheduler.jmx.export", "false");
+		props.put("org.quartz.scheduler.batchTriggerAcquisitionMaxCount", "3");
+		props.put("org.quartz.scheduler.idleWaitTime", "1000");
+		props.put("org.quartz.threadPool.threadCount", String.valueOf(THREADS));
+		props.put("org.quartz.threadPool.threadNamePrefix", instanceId + "_Worker");
+		props.put("org.quartz.threadPool.loadBackoff", "100");
+		props.put("org.quartz.jobStore.clusterCheckinInterval", "1000");
+		props.put(FireHistoryListener.ENABLED_KEY, "false");
+
+		final AnnotationConfigApplicationContext ctx = new AnnotationConfigApplicationContext();
+		ctx.getEnvironment().getPropertySources().addFirst(new MapPropertySource(instanceId, props));
+		ctx.getBeanFactory().registerSingleton("quartzDataSource", dataSource);
+		ctx.register(SchedulerConfig.class, DemoJobsConfig.class);
+		ctx.refresh();
+		return ctx;
+	}
+}
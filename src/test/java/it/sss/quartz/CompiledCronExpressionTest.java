@@ -0,0 +1,177 @@
+package it.sss.quartz;
+
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.TimeZone;
+
+import org.junit.Test;
+import org.quartz.CronExpression;
+
+import sss.quartz.cron.CompiledCronExpression;
+import sss.quartz.cron.CronExpressionCache;
+
+/**
+ * Property test of compiled cron expressions: for randomly generated
+ * expressions, time zones and start times, the fire times must match those of
+ * Quartz's {@link CronExpression}. The generator is seeded, so failures can be
+ * reproduced; set <code>sss.cron.seed</code> to try others.
+ *
+ * @author jsteele
+ */
+public class CompiledCronExpressionTest {
+	private static final long SEED = Long.getLong("sss.cron.seed", 20141031L);
+
+	private static final int EXPRESSIONS = 2000;
+
+	private static final int STARTS = 5;
+
+	/** Consecutive fire times compared from each start. */
+	private static final int FIRE_TIMES = 20;
+
+	/** Fixed and daylight saving zones, including a half hour shift. */
+	private static final String[] ZONES = new String[] { "UTC", "America/New_York",
+			"Europe/London", "Australia/Lord_Howe", "Asia/Kolkata" };
+
+	private static final String[] MONTH_NAMES = new String[] { "JAN", "FEB", "MAR", "APR", "MAY",
+			"JUN", "JUL", "AUG", "SEP", "OCT", "NOV", "DEC" };
+
+	private static final String[] DAY_NAMES = new String[] { "SUN", "MON", "TUE", "WED", "THU",
+			"FRI", "SAT" };
+
+	private final Random random = new Random(SEED);
+
+	@Test
+	public void matchesQuartz() throws ParseException {
+		final List<String> mismatches = new ArrayList<String>();
+		int compiled = 0;
+		for (int i = 0; i < EXPRESSIONS && mismatches.size() < 10; i++) {
+			final String expression = randomExpression();
+			final TimeZone timeZone = TimeZone.getTimeZone(ZONES[random.nextInt(ZONES.length)]);
+			final CronExpression quartz = new CronExpression(expression);
+			quartz.setTimeZone(timeZone);
+			final CronExpression parsed = new CronExpression(expression);
+			parsed.setTimeZone(timeZone);
+			final CompiledCronExpression fast = new CompiledCronExpression(parsed);
+			if (fast.isCompiled()) {
+				compiled++;
+			}
+
+			for (int s = 0; s < STARTS; s++) {
+				// Anywhere from 2000 to 2040, to the millisecond
+				Date expected = new Date(946684800000L + (long) (random.nextDouble() * 40 * 365.25
+						* 24 * 3600 * 1000));
+				Date actual = expected;
+				for (int f = 0; f < FIRE_TIMES && null != expected; f++) {
+					final Date after = expected;
+					expected = quartz.getTimeAfter(after);
+					actual = fast.getTimeAfter(after);
+					if (!(null == expected ? null == actual : expected.equals(actual))) {
+						mismatches.add(String.format("'%s' in %s after %s: expected %s, was %s",
+								expression, timeZone.getID(), after, expected, actual));
+						break;
+					}
+				}
+			}
+		}
+		assertThat(mismatches, is(empty()));
+		// Most generated expressions should take the fast path
+		assertTrue("only " + compiled + " expressions compiled", compiled > EXPRESSIONS / 2);
+	}
+
+	@Test
+	public void handsSpecialCharactersToQuartz() throws ParseException {
+		for (final String expression : new String[] { "0 0 12 L * ?", "0 0 12 ? * 6L",
+				"0 0 12 15W * ?", "0 0 12 ? * 2#3", "0 0 12 LW * ?" }) {
+			final CompiledCronExpression compiled = new CompiledCronExpression(new CronExpression(
+					expression));
+			assertThat(expression, compiled.isCompiled(), is(false));
+			final Date now = new Date();
+			assertThat(compiled.getTimeAfter(now), is(new CronExpression(expression).getTimeAfter(now)));
+		}
+	}
+
+	@Test
+	public void sharesParsedExpressions() {
+		final String expression = "0/10 * * * * ?";
+		assertTrue(CronExpressionCache.get(expression) == CronExpressionCache.get(expression));
+		assertTrue(CronExpressionCache.getCompiled(expression) == CronExpressionCache
+				.getCompiled(expression));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsInvalidExpressions() {
+		CronExpressionCache.get("0 0 25 * * ?");
+	}
+
+	private String randomExpression() {
+		final boolean dayOfWeek = random.nextBoolean();
+		// @formatter:off
+		final StringBuilder expression = new StringBuilder()
+				.append(randomField(0, 59, null)).append(' ')
+				.append(randomField(0, 59, null)).append(' ')
+				.append(randomField(0, 23, null)).append(' ')
+				.append(dayOfWeek ? "?" : randomField(1, 31, null)).append(' ')
+				.append(randomField(1, 12, MONTH_NAMES)).append(' ')
+				.append(dayOfWeek ? randomField(1, 7, DAY_NAMES) : "?");
+		// @formatter:on
+		if (random.nextInt(5) == 0) {
+			final int year = 2000 + random.nextInt(45);
+			expression.append(' ').append(year).append('-').append(year + random.nextInt(10));
+		}
+		return expression.toString();
+	}
+
+	/**
+	 * @return a random field: a wildcard, value, range, increment or list
+	 */
+	private String randomField(int min, int max, String[] names) {
+		final int span = max - min + 1;
+		// Quartz doesn't accept names and numbers mixed in one field
+		final String[] valueNames = random.nextBoolean() ? names : null;
+		switch (random.nextInt(7)) {
+		case 0:
+			return "*";
+		case 1:
+			return value(min + random.nextInt(span), min, valueNames);
+		case 2: {
+			final int from = min + random.nextInt(span);
+			return value(from, min, valueNames) + "-" + value(from + random.nextInt(max - from + 1), min, valueNames);
+		}
+		case 3:
+			return min + random.nextInt(span) + "/" + increment(span);
+		case 4:
+			return "*/" + increment(span);
+		case 5: {
+			final int from = min + random.nextInt(span);
+			return from + "-" + (from + random.nextInt(max - from + 1)) + "/" + increment(span);
+		}
+		default: {
+			final StringBuilder list = new StringBuilder();
+			final int count = 2 + random.nextInt(4);
+			for (int i = 0; i < count; i++) {
+				list.append(i > 0 ? "," : "").append(value(min + random.nextInt(span), min, valueNames));
+			}
+			return list.toString();
+		}
+		}
+	}
+
+	/**
+	 * @return an increment Quartz accepts, which must be less than the span
+	 */
+	private int increment(int span) {
+		return 1 + random.nextInt(span - 1);
+	}
+
+	private String value(int value, int min, String[] names) {
+		return null != names ? names[value - min] : Integer.toString(value);
+	}
+}
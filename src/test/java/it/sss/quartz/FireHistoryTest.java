@@ -0,0 +1,159 @@
+package it.sss.quartz;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.quartz.JobKey;
+import org.quartz.TriggerKey;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import sss.quartz.history.FailureRate;
+import sss.quartz.history.FireHistoryDao;
+import sss.quartz.history.FireRecord;
+import sss.quartz.history.FireRecord.Outcome;
+import sss.quartz.history.RingBuffer;
+
+/**
+ * Test the fire history's buffer and table.
+ *
+ * @author jsteele
+ */
+public class FireHistoryTest {
+	private static final String SCHED_NAME = "fireHistoryTest";
+
+	private JdbcDataSource dataSource;
+
+	private FireHistoryDao dao;
+
+	@Before
+	public void createDb() {
+		dataSource = new JdbcDataSource();
+		dataSource.setURL("jdbc:h2:mem:fireHistoryTest;DB_CLOSE_DELAY=-1");
+		dao = new FireHistoryDao(dataSource);
+		dao.createTable();
+	}
+
+	@After
+	public void dropDb() {
+		new JdbcTemplate(dataSource).execute("DROP ALL OBJECTS");
+	}
+
+	@Test
+	public void bufferRefusesWhenFull() {
+		final RingBuffer<Integer> buffer = new RingBuffer<Integer>(3);
+		assertThat(buffer.capacity(), is(4));
+		for (int i = 0; i < 4; i++) {
+			assertTrue(buffer.offer(i));
+		}
+		assertFalse(buffer.offer(4));
+		assertThat(buffer.size(), is(4));
+
+		assertThat(buffer.poll(), is(0));
+		assertTrue(buffer.offer(4));
+		final List<Integer> drained = new ArrayList<Integer>();
+		assertThat(buffer.drainTo(drained, 10), is(4));
+		assertThat(drained.toString(), is("[1, 2, 3, 4]"));
+		assertThat(buffer.poll(), nullValue());
+	}
+
+	@Test
+	public void bufferTakesFromManyThreads() throws InterruptedException {
+		final int producers = 4;
+		final int each = 10000;
+		final RingBuffer<Integer> buffer = new RingBuffer<Integer>(64);
+		final CountDownLatch start = new CountDownLatch(1);
+		final List<Thread> threads = new ArrayList<Thread>();
+		for (int p = 0; p < producers; p++) {
+			final int first = p * each;
+			final Thread thread = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+					} catch (InterruptedException e) {
+						return;
+					}
+					for (int i = first; i < first + each; i++) {
+						while (!buffer.offer(i)) {
+							Thread.yield();
+						}
+					}
+				}
+			});
+			thread.start();
+			threads.add(thread);
+		}
+
+		start.countDown();
+		final Set<Integer> taken = new HashSet<Integer>();
+		final List<Integer> batch = new ArrayList<Integer>();
+		while (taken.size() < producers * each) {
+			batch.clear();
+			if (0 == buffer.drainTo(batch, 16)) {
+				Thread.yield();
+			}
+			for (final Integer i : batch) {
+				assertTrue("taken twice: " + i, taken.add(i));
+			}
+		}
+		for (final Thread thread : threads) {
+			thread.join();
+		}
+		assertThat(buffer.size(), is(0));
+	}
+
+	@Test
+	public void readsWhatWasWritten() {
+		// Creating the table again should do nothing
+		dao.createTable();
+
+		final JobKey flaky = new JobKey("flaky", "test");
+		final JobKey steady = new JobKey("steady", "test");
+		final long now = System.currentTimeMillis();
+		final List<FireRecord> records = new ArrayList<FireRecord>();
+		for (int i = 0; i < 10; i++) {
+			final Outcome outcome = i % 5 == 0 ? Outcome.FAILURE : Outcome.SUCCESS;
+			records.add(record(flaky, now - 1000 + i, outcome, outcome == Outcome.FAILURE ? "boom"
+					: null));
+			records.add(record(steady, now - 1000 + i, Outcome.SUCCESS, null));
+		}
+		// Too old to count
+		records.add(record(flaky, now - 3600000, Outcome.FAILURE, "old"));
+		dao.insert(records);
+
+		final List<FireRecord> recent = dao.readRecent(SCHED_NAME, flaky, 3);
+		assertThat(recent.size(), is(3));
+		assertThat(recent.get(0).getFireTime(), is(now - 1000 + 9));
+		assertThat(recent.get(0).getScheduledTime(), is(now - 1000 + 9 - 5));
+		assertThat(recent.get(0).getTriggerKey(), is(new TriggerKey("flaky", "test")));
+
+		final List<FailureRate> rates = dao.readFailureRates(SCHED_NAME, now - 60000);
+		assertThat(rates.size(), is(2));
+		assertThat(rates.get(0).getJobKey(), is(flaky));
+		assertThat(rates.get(0).getRuns(), is(10L));
+		assertThat(rates.get(0).getFailures(), is(2L));
+		assertThat(rates.get(0).getRate(), is(0.2));
+		assertThat(rates.get(1).getRate(), is(0.0));
+
+		assertThat(dao.purge(now - 60000), is(1));
+		assertThat(dao.readRecent(SCHED_NAME, flaky, 100).size(), is(10));
+	}
+
+	private static FireRecord record(JobKey jobKey, long fireTime, Outcome outcome, String error) {
+		return new FireRecord(SCHED_NAME, jobKey, new TriggerKey(jobKey.getName(), jobKey.getGroup()),
+				fireTime - 5, fireTime, 20, outcome, 0, error);
+	}
+}
@@ -0,0 +1,154 @@
+package it.sss.quartz;
+
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.quartz.JobBuilder.newJob;
+
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.h2.tools.RunScript;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.quartz.JobDataMap;
+import org.quartz.JobDetail;
+import org.quartz.JobKey;
+import org.quartz.impl.jdbcjobstore.StdJDBCDelegate;
+import org.quartz.simpl.CascadingClassLoadHelper;
+import org.slf4j.LoggerFactory;
+
+import sss.quartz.SchedulerConfig;
+import sss.quartz.jdbc.CompactJDBCDelegate;
+import sss.quartz.jobs.HelloWorldJob;
+import sss.quartz.jobs.RetryJobWrapper;
+
+/**
+ * Test that job data round trips through {@link CompactJDBCDelegate}, that
+ * data written by {@link StdJDBCDelegate} can still be read, and that the
+ * data of jobs that ignore it is still read outside the scheduler thread.
+ *
+ * @author jsteele
+ */
+public class JobDataDelegateTest {
+	private static final String SCHED_NAME = "jobDataTest";
+
+	private Connection conn;
+
+	private CascadingClassLoadHelper loadHelper;
+
+	private CompactJDBCDelegate delegate;
+
+	@Before
+	public void createDb() throws Exception {
+		conn = DriverManager.getConnection("jdbc:h2:mem:jobDataTest;MVCC=TRUE");
+		try (Reader script = new FileReader("src/test/db/tables_h2.sql")) {
+			RunScript.execute(conn, script);
+		}
+		loadHelper = new CascadingClassLoadHelper();
+		loadHelper.initialize();
+		delegate = new CompactJDBCDelegate();
+		delegate.initialize(LoggerFactory.getLogger(JobDataDelegateTest.class),
+				SchedulerConfig.TABLE_PREFIX, SCHED_NAME, "test", loadHelper, true, null);
+	}
+
+	@After
+	public void dropDb() throws SQLException {
+		try (Statement stmt = conn.createStatement()) {
+			stmt.execute("DROP ALL OBJECTS");
+		}
+		conn.close();
+	}
+
+	@Test
+	public void roundTripsJobData() throws Exception {
+		final JobDetail job = retryJob("roundTrip", "caf\u00e9");
+		delegate.insertJobDetail(conn, job);
+
+		final byte[] stored = storedJobData("roundTrip");
+		assertThat(stored[0], is((byte) 0xfe));
+
+		final long misses = CompactJDBCDelegate.getCacheMisses();
+		final long hits = CompactJDBCDelegate.getCacheHits();
+		assertThat(select("roundTrip"), is(job.getJobDataMap().getWrappedMap()));
+		assertThat(select("roundTrip"), is(job.getJobDataMap().getWrappedMap()));
+		assertThat(CompactJDBCDelegate.getCacheMisses() + CompactJDBCDelegate.getCacheHits(),
+				is(misses + hits + 2));
+		assertThat(CompactJDBCDelegate.getCacheHits(), greaterThan(hits));
+	}
+
+	@Test
+	public void readsLegacyJobData() throws Exception {
+		final StdJDBCDelegate legacy = new StdJDBCDelegate();
+		legacy.initialize(LoggerFactory.getLogger(JobDataDelegateTest.class),
+				SchedulerConfig.TABLE_PREFIX, SCHED_NAME, "test", loadHelper, true, null);
+		final JobDetail job = retryJob("legacy", "x=y: z");
+		legacy.insertJobDetail(conn, job);
+		assertThat(storedJobData("legacy")[0], is((byte) '#'));
+
+		assertThat(select("legacy"), is(job.getJobDataMap().getWrappedMap()));
+
+		// Rewritten compact when next stored
+		delegate.updateJobDetail(conn, job);
+		assertThat(storedJobData("legacy")[0], is((byte) 0xfe));
+		assertThat(select("legacy"), is(job.getJobDataMap().getWrappedMap()));
+	}
+
+	@Test
+	public void readsDataOfJobsThatIgnoreItOffTheSchedulerThread() throws Exception {
+		final JobDetail job = newJob(HelloWorldJob.class).withIdentity("hello").storeDurably()
+				.usingJobData("unused", "value").build();
+		delegate.insertJobDetail(conn, job);
+
+		// Only skipped as triggers are acquired and fired; see JobStoreSchedulerTest
+		final long skipped = CompactJDBCDelegate.getSkipped();
+		assertThat(select("hello"), is(job.getJobDataMap().getWrappedMap()));
+		assertThat(CompactJDBCDelegate.getSkipped(), is(skipped));
+	}
+
+	@Test
+	public void storesEmptyJobDataAsNothing() throws Exception {
+		final JobDetail job = newJob(RetryJobWrapper.class).withIdentity("empty").storeDurably()
+				.build();
+		delegate.insertJobDetail(conn, job);
+
+		assertThat(storedJobData("empty").length, is(0));
+		assertThat(select("empty"), is(Collections.<String, Object> emptyMap()));
+	}
+
+	private JobDetail retryJob(String name, String value) {
+		final Map<String, Object> data = new HashMap<String, Object>();
+		data.put(RetryJobWrapper.WRAPPED_JOB_KEY, HelloWorldJob.class.getName());
+		data.put(RetryJobWrapper.MAX_RETRIES_KEY, "3");
+		data.put(RetryJobWrapper.RETRY_DELAY_KEY, "2");
+		data.put(RetryJobWrapper.RETRY_COUNT_KEY, "1");
+		data.put("value", value);
+		data.put("empty", "");
+		return newJob(RetryJobWrapper.class).withIdentity(name).storeDurably().usingJobData(
+				new JobDataMap(data)).build();
+	}
+
+	private Map<String, Object> select(String name) throws Exception {
+		return delegate.selectJobDetail(conn, new JobKey(name), loadHelper).getJobDataMap()
+				.getWrappedMap();
+	}
+
+	private byte[] storedJobData(String name) throws SQLException, IOException {
+		try (Statement stmt = conn.createStatement();
+				ResultSet rs = stmt.executeQuery("SELECT JOB_DATA FROM " + SchedulerConfig.TABLE_PREFIX
+						+ "JOB_DETAILS WHERE JOB_NAME = '" + name + "'")) {
+			rs.next();
+			return rs.getBytes(1);
+		}
+	}
+}
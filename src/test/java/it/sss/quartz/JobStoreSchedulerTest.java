@@ -1,14 +1,35 @@
 package it.sss.quartz;
 
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.quartz.JobBuilder.newJob;
+import static org.quartz.TriggerBuilder.newTrigger;
+
 import it.sss.quartz.JobStoreSchedulerTest.TestConfig;
 
-import javax.sql.DataSource;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.Date;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.BeforeClass;
 import org.junit.Test;
 import org.junit.runner.RunWith;
-import org.springframework.beans.factory.annotation.Qualifier;
-import org.springframework.context.annotation.Bean;
+import org.quartz.CronScheduleBuilder;
+import org.quartz.JobDetail;
+import org.quartz.JobExecutionContext;
+import org.quartz.JobExecutionException;
+import org.quartz.JobKey;
+import org.quartz.Scheduler;
+import org.quartz.SchedulerException;
+import org.quartz.Trigger;
+import org.quartz.impl.matchers.KeyMatcher;
+import org.quartz.listeners.JobListenerSupport;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.PropertySource;
 import org.springframework.test.annotation.DirtiesContext;
@@ -16,10 +37,15 @@ import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
 
 import sss.jmx.JmxConfig;
+import sss.quartz.ScheduleItemListBuilder;
+import sss.quartz.ScheduleRegistrar;
 import sss.quartz.SchedulerConfig;
+import sss.quartz.history.FireHistoryMBean;
+import sss.quartz.jdbc.CompactJDBCDelegate;
+import sss.quartz.jdbc.DataSourceMBean;
+import sss.quartz.jdbc.StoreTransactions;
 import sss.quartz.jobs.DemoJobsConfig;
-
-import com.mchange.v2.c3p0.DriverManagerDataSource;
+import sss.quartz.jobs.HelloWorldJob;
 
 /**
  * Test the scheduler configuration.
@@ -33,20 +59,7 @@ public class JobStoreSchedulerTest {
 	@Configuration
 	@PropertySource("it/sss/quartz/JobStoreSchedulerTest.properties")
 	public static class TestConfig {
-		@Bean
-		@Qualifier("quartzDataSource")
-		public DataSource dataSource() {
-			final DriverManagerDataSource dataSource = new DriverManagerDataSource();
-			dataSource.setDriverClass("org.h2.Driver");
-
-			final String testDbPath = System.getProperty("quartz.test.db");
-			if (null == testDbPath) {
-				throw new IllegalArgumentException("quartz.test.db system property is not set");
-			}
-
-			dataSource.setJdbcUrl("jdbc:h2:" + testDbPath);
-			return dataSource;
-		}
+		// Job store is configured from the properties
 	}
 
 	@BeforeClass
@@ -56,11 +69,87 @@ public class JobStoreSchedulerTest {
 		System.setProperty("quartz.test.db", "./test-db/jobstore-test");
 	}
 
+	@Autowired
+	private Scheduler scheduler;
+
+	@Autowired
+	private DataSourceMBean dataSourceMBean;
+
+	@Autowired
+	private FireHistoryMBean fireHistoryMBean;
+
 	@Test
 	@DirtiesContext
-	public void sleepAndSoak() throws InterruptedException {
-		for (;;) {
-			Thread.sleep(100);
-		}
+	public void loadTest() throws SchedulerException, InterruptedException, SQLException {
+		new LoadHarness(scheduler).run().assertSlos();
+
+		// The job store should have reused pooled connections and statements
+		assertThat(dataSourceMBean.getCheckouts(), greaterThan(0L));
+		assertThat(dataSourceMBean.getCheckoutFailures(), is(0L));
+		assertThat(dataSourceMBean.getConnections(),
+				lessThanOrEqualTo(dataSourceMBean.getMaxPoolSize()));
+		assertThat(dataSourceMBean.getCachedStatements(), greaterThan(0));
+
+		// Every firing should have made it into the history
+		assertTrue(fireHistoryMBean.flush());
+		assertThat(fireHistoryMBean.getWritten(), greaterThan(0L));
+		assertThat(fireHistoryMBean.getWritten(), is(fireHistoryMBean.getRecorded()));
+		assertThat(fireHistoryMBean.getDropped(), is(0L));
+	}
+
+	@Test
+	@DirtiesContext
+	public void unschedulesRandomlyKeyedScheduleTriggers() throws Exception {
+		// Left by an unnamed item, and an ad hoc run, before keys were derived
+		final JobKey jobKey = new JobKey("jobstore", "demoJob");
+		// @formatter:off
+		final Trigger leftover = newTrigger()
+				.forJob(jobKey)
+				.withSchedule(CronScheduleBuilder.cronSchedule("0 0 12 * * ?"))
+				.build();
+		final Trigger adHoc = newTrigger()
+				.forJob(jobKey)
+				.startAt(new Date(System.currentTimeMillis() + TimeUnit.HOURS.toMillis(1)))
+				.build();
+		// @formatter:on
+		scheduler.scheduleJob(leftover);
+		scheduler.scheduleJob(adHoc);
+
+		final ScheduleRegistrar registrar = new ScheduleRegistrar(scheduler, new StoreTransactions(
+				null, scheduler), ScheduleRegistrar.DEFAULT_BATCH_SIZE);
+		registrar.register(Collections.<JobDetail> emptyList(),
+				ScheduleItemListBuilder.loadSchedule("test.jobstore.schedule.json").build().iterator());
+		assertThat(registrar.getLegacy(), is(1));
+		assertThat(scheduler.checkExists(leftover.getKey()), is(false));
+		assertThat(scheduler.checkExists(adHoc.getKey()), is(true));
+		scheduler.unscheduleJob(adHoc.getKey());
+	}
+
+	@Test
+	@DirtiesContext
+	public void keepsDataOfJobsThatIgnoreIt() throws SchedulerException, InterruptedException {
+		final JobKey jobKey = new JobKey("ignoresData", "test");
+		scheduler.addJob(newJob(HelloWorldJob.class).withIdentity(jobKey).storeDurably()
+				.usingJobData("unused", "value").build(), true);
+		final CountDownLatch fired = new CountDownLatch(1);
+		scheduler.getListenerManager().addJobListener(new JobListenerSupport() {
+			@Override
+			public String getName() {
+				return "ignoresData";
+			}
+
+			@Override
+			public void jobWasExecuted(JobExecutionContext context, JobExecutionException jobException) {
+				fired.countDown();
+			}
+		}, KeyMatcher.keyEquals(jobKey));
+
+		final long skipped = CompactJDBCDelegate.getSkipped();
+		scheduler.triggerJob(jobKey);
+		assertTrue(fired.await(10, TimeUnit.SECONDS));
+
+		// Not read to fire the job, but read for anyone who looks it up
+		assertThat(CompactJDBCDelegate.getSkipped(), greaterThan(skipped));
+		assertThat(scheduler.getJobDetail(jobKey).getJobDataMap().getString("unused"), is("value"));
 	}
 }
@@ -0,0 +1,130 @@
+package it.sss.quartz;
+
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Test;
+
+import sss.quartz.metrics.LatencyHistogram;
+
+/**
+ * Test the buckets of {@link LatencyHistogram} and the percentiles read from
+ * them, including at the ends of the value range.
+ *
+ * @author jsteele
+ */
+public class LatencyHistogramTest {
+	/** Index of the bucket holding Long.MAX_VALUE, the last. */
+	private static final int LAST_BUCKET = LatencyHistogram.bucketIndex(Long.MAX_VALUE);
+
+	@Test
+	public void smallValuesHaveBucketsOfTheirOwn() {
+		for (int value = 0; value < 32; value++) {
+			assertThat(LatencyHistogram.bucketIndex(value), is(value));
+			assertThat(LatencyHistogram.bucketUpperBound(value), is((long) value));
+		}
+		// Then two values to a bucket, then four...
+		assertThat(LatencyHistogram.bucketIndex(32), is(32));
+		assertThat(LatencyHistogram.bucketIndex(33), is(32));
+		assertThat(LatencyHistogram.bucketUpperBound(32), is(33L));
+		assertThat(LatencyHistogram.bucketIndex(64), is(48));
+		assertThat(LatencyHistogram.bucketUpperBound(48), is(67L));
+	}
+
+	@Test
+	public void bucketsCoverEveryValueInOrder() {
+		assertThat(LatencyHistogram.bucketIndex(0), is(0));
+		assertThat(LAST_BUCKET, is(959));
+		assertThat(LatencyHistogram.bucketUpperBound(LAST_BUCKET), is(Long.MAX_VALUE));
+		for (int idx = 0; idx < LAST_BUCKET; idx++) {
+			final long upper = LatencyHistogram.bucketUpperBound(idx);
+			assertThat("bucket " + idx, LatencyHistogram.bucketIndex(upper), is(idx));
+			// The next value starts the next bucket
+			assertThat("bucket " + idx, LatencyHistogram.bucketIndex(upper + 1), is(idx + 1));
+
+			// Each bucket is within 1/16 of the values in it
+			final long lower = 0 == idx ? 0 : LatencyHistogram.bucketUpperBound(idx - 1) + 1;
+			assertThat("bucket " + idx, upper - lower, lessThanOrEqualTo(lower / 16));
+		}
+	}
+
+	@Test
+	public void readsPercentilesOfUniformValues() {
+		final LatencyHistogram histogram = new LatencyHistogram();
+		for (int value = 1; value <= 1000; value++) {
+			histogram.record(value);
+		}
+		assertThat(histogram.getCount(), is(1000L));
+		assertThat(histogram.getMax(), is(1000L));
+		assertThat(histogram.getMean(), is(500.5));
+
+		assertThat(histogram.getValueAtPercentile(0), is(1L));
+		assertWithinBucket(histogram.getValueAtPercentile(50), 500);
+		assertWithinBucket(histogram.getValueAtPercentile(90), 900);
+		assertWithinBucket(histogram.getValueAtPercentile(99), 990);
+		// Capped at the largest value recorded, not the bucket's upper bound
+		assertThat(histogram.getValueAtPercentile(100), is(1000L));
+		assertThat(histogram.getValueAtPercentile(150), is(1000L));
+	}
+
+	@Test
+	public void readsPercentilesOfBimodalValues() {
+		final LatencyHistogram histogram = new LatencyHistogram();
+		for (int i = 0; i < 90; i++) {
+			histogram.record(10);
+		}
+		for (int i = 0; i < 10; i++) {
+			histogram.record(5000);
+		}
+		assertThat(histogram.getValueAtPercentile(50), is(10L));
+		assertThat(histogram.getValueAtPercentile(90), is(10L));
+		assertThat(histogram.getValueAtPercentile(90.5), is(5000L));
+		assertThat(histogram.getValueAtPercentile(99.9), is(5000L));
+	}
+
+	@Test
+	public void recordsTheEndsOfTheRange() {
+		final LatencyHistogram histogram = new LatencyHistogram();
+		histogram.record(0);
+		// Negative values count as zero
+		histogram.record(-5);
+		assertThat(histogram.getCount(), is(2L));
+		assertThat(histogram.getMax(), is(0L));
+		assertThat(histogram.getValueAtPercentile(100), is(0L));
+
+		histogram.record(Long.MAX_VALUE);
+		assertThat(histogram.getMax(), is(Long.MAX_VALUE));
+		assertThat(histogram.getValueAtPercentile(50), is(0L));
+		assertThat(histogram.getValueAtPercentile(100), is(Long.MAX_VALUE));
+	}
+
+	@Test
+	public void resetClearsEverything() {
+		final LatencyHistogram histogram = new LatencyHistogram();
+		assertThat(histogram.getValueAtPercentile(50), is(0L));
+		for (int value = 0; value < 100; value++) {
+			histogram.record(value * 1000);
+		}
+		histogram.reset();
+		assertThat(histogram.getCount(), is(0L));
+		assertThat(histogram.getMax(), is(0L));
+		assertThat(histogram.getMean(), is(0.0));
+		assertThat(histogram.getValueAtPercentile(50), is(0L));
+
+		// And nothing recorded before the reset is counted after it
+		histogram.record(7);
+		assertThat(histogram.getValueAtPercentile(0), is(7L));
+		assertThat(histogram.getValueAtPercentile(100), is(7L));
+	}
+
+	/**
+	 * Asserts that a percentile is the upper bound of the expected value's
+	 * bucket, so no lower and at most 1/16 higher.
+	 */
+	private static void assertWithinBucket(long actual, long expected) {
+		assertThat(actual, greaterThanOrEqualTo(expected));
+		assertThat(actual, is(LatencyHistogram.bucketUpperBound(LatencyHistogram.bucketIndex(expected))));
+	}
+}
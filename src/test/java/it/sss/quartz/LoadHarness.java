@@ -0,0 +1,325 @@
+package it.sss.quartz;
+
+import static org.quartz.JobBuilder.newJob;
+import static org.quartz.SimpleScheduleBuilder.simpleSchedule;
+import static org.quartz.TriggerBuilder.newTrigger;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.quartz.Job;
+import org.quartz.JobDetail;
+import org.quartz.JobExecutionContext;
+import org.quartz.JobExecutionException;
+import org.quartz.JobKey;
+import org.quartz.Scheduler;
+import org.quartz.SchedulerException;
+import org.quartz.Trigger;
+import org.quartz.TriggerKey;
+import org.quartz.impl.matchers.GroupMatcher;
+import org.quartz.listeners.JobListenerSupport;
+import org.quartz.listeners.TriggerListenerSupport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import sss.quartz.metrics.LatencyHistogram;
+
+/**
+ * Bounded load test for a scheduler. Schedules synthetic jobs whose triggers
+ * together fire at a target rate, runs for a fixed time, and reports the
+ * achieved throughput, misfires and scheduling lag against service level
+ * objectives.
+ * <p>
+ * Defaults can be overridden with system properties, so the same tests can be
+ * used to size thread pools and job stores:
+ * <dl>
+ * <dt>sss.load.jobs</dt>
+ * <dd>number of synthetic jobs</dd>
+ * <dt>sss.load.triggers</dt>
+ * <dd>number of synthetic triggers, spread over the jobs</dd>
+ * <dt>sss.load.rate</dt>
+ * <dd>target firing rate across all triggers, per second</dd>
+ * <dt>sss.load.duration</dt>
+ * <dd>how long to run, in seconds</dd>
+ * <dt>sss.load.workMs</dt>
+ * <dd>how long each execution works for, in ms</dd>
+ * <dt>sss.load.minThroughput</dt>
+ * <dd>lowest acceptable throughput, as a percentage of the target rate</dd>
+ * <dt>sss.load.maxMisfires</dt>
+ * <dd>highest acceptable number of misfires</dd>
+ * <dt>sss.load.maxP99LagMs</dt>
+ * <dd>highest acceptable 99th percentile scheduling lag, in ms</dd>
+ * </dl>
+ *
+ * @author jsteele
+ */
+public class LoadHarness {
+	/** Group of the synthetic jobs and triggers. */
+	public static final String GROUP = "loadHarness";
+
+	/** Job data key for how long an execution works for, in ms. */
+	public static final String WORK_MS_KEY = "workMs";
+
+	/** Class logger. */
+	private static final Logger log = LoggerFactory.getLogger(LoadHarness.class);
+
+	/** Synthetic job, which optionally works for a while. */
+	public static class LoadJob implements Job {
+		@Override
+		public void execute(JobExecutionContext context) throws JobExecutionException {
+			final long workMs = context.getMergedJobDataMap().getLongValueFromString(WORK_MS_KEY);
+			if (workMs > 0) {
+				try {
+					Thread.sleep(workMs);
+				} catch (InterruptedException ie) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}
+	}
+
+	/** Results of a load run. */
+	public static class Report {
+		private final double targetRate;
+		private final long durationMs;
+		private final long executions;
+		private final long misfires;
+		private final LatencyHistogram lag;
+
+		Report(double targetRate, long durationMs, long executions, long misfires,
+				LatencyHistogram lag) {
+			this.targetRate = targetRate;
+			this.durationMs = durationMs;
+			this.executions = executions;
+			this.misfires = misfires;
+			this.lag = lag;
+		}
+
+		/**
+		 * @return executions completed per second
+		 */
+		public double getThroughput() {
+			return durationMs == 0 ? 0.0 : executions * 1000.0 / durationMs;
+		}
+
+		public long getExecutions() {
+			return executions;
+		}
+
+		public long getMisfires() {
+			return misfires;
+		}
+
+		/**
+		 * @param percentile
+		 *          percentile, 0-100
+		 * @return scheduling lag at the percentile, in ms
+		 */
+		public long getLag(double percentile) {
+			return lag.getValueAtPercentile(percentile);
+		}
+
+		/**
+		 * Checks the run against the service level objectives.
+		 *
+		 * @param minThroughputPct
+		 *          lowest acceptable throughput, as a percentage of the target
+		 * @param maxMisfires
+		 *          highest acceptable number of misfires
+		 * @param maxP99LagMs
+		 *          highest acceptable 99th percentile lag, in ms
+		 * @throws AssertionError
+		 *           listing every objective that was missed
+		 */
+		public void assertSlos(double minThroughputPct, long maxMisfires, long maxP99LagMs) {
+			final List<String> missed = new ArrayList<String>();
+			final double minThroughput = targetRate * minThroughputPct / 100.0;
+			if (getThroughput() < minThroughput) {
+				missed.add(String.format("throughput %.1f/s < %.1f/s", getThroughput(), minThroughput));
+			}
+			if (misfires > maxMisfires) {
+				missed.add(String.format("misfires %d > %d", misfires, maxMisfires));
+			}
+			if (getLag(99.0) > maxP99LagMs) {
+				missed.add(String.format("p99 lag %dms > %dms", getLag(99.0), maxP99LagMs));
+			}
+			if (!missed.isEmpty()) {
+				throw new AssertionError("load SLOs missed: " + missed + "\n" + this);
+			}
+		}
+
+		/**
+		 * Checks the run against the service level objectives set by system
+		 * properties, or the defaults.
+		 */
+		public void assertSlos() {
+			assertSlos(Double.parseDouble(System.getProperty("sss.load.minThroughput", "90")),
+					Long.getLong("sss.load.maxMisfires", 0), Long.getLong("sss.load.maxP99LagMs", 1000));
+		}
+
+		@Override
+		public String toString() {
+			// @formatter:off
+			return String.format("load report: target %.1f/s, achieved %.1f/s (%d executions in %dms),"
+					+ " %d misfires, lag p50 %dms p99 %dms p99.9 %dms max %dms",
+					targetRate, getThroughput(), executions, durationMs, misfires,
+					getLag(50.0), getLag(99.0), getLag(99.9), lag.getMax());
+			// @formatter:on
+		}
+	}
+
+	private final Scheduler scheduler;
+
+	private int jobs = Integer.getInteger("sss.load.jobs", 10);
+
+	private int triggers = Integer.getInteger("sss.load.triggers", 50);
+
+	private double rate = Double.parseDouble(System.getProperty("sss.load.rate", "20"));
+
+	private long durationMs = TimeUnit.SECONDS.toMillis(Long.getLong("sss.load.duration", 10));
+
+	private long workMs = Long.getLong("sss.load.workMs", 10);
+
+	private final AtomicLong executions = new AtomicLong();
+
+	private final AtomicLong misfires = new AtomicLong();
+
+	private final LatencyHistogram lag = new LatencyHistogram();
+
+	/** Records executions and lag of the synthetic jobs during the run. */
+	private final JobListenerSupport jobListener = new JobListenerSupport() {
+		@Override
+		public String getName() {
+			return LoadHarness.class.getName();
+		}
+
+		@Override
+		public void jobToBeExecuted(JobExecutionContext context) {
+			if (null != context.getScheduledFireTime()) {
+				lag.record(context.getFireTime().getTime() - context.getScheduledFireTime().getTime());
+			}
+		}
+
+		@Override
+		public void jobWasExecuted(JobExecutionContext context, JobExecutionException jobException) {
+			executions.incrementAndGet();
+		}
+	};
+
+	/** Counts misfires of the synthetic triggers. */
+	private final TriggerListenerSupport triggerListener = new TriggerListenerSupport() {
+		@Override
+		public String getName() {
+			return LoadHarness.class.getName();
+		}
+
+		@Override
+		public void triggerMisfired(Trigger trigger) {
+			misfires.incrementAndGet();
+		}
+	};
+
+	public LoadHarness(Scheduler scheduler) {
+		this.scheduler = scheduler;
+	}
+
+	public LoadHarness jobs(int jobs) {
+		this.jobs = jobs;
+		return this;
+	}
+
+	public LoadHarness triggers(int triggers) {
+		this.triggers = triggers;
+		return this;
+	}
+
+	/**
+	 * @param rate
+	 *          target firing rate across all triggers, per second
+	 * @return this
+	 */
+	public LoadHarness rate(double rate) {
+		this.rate = rate;
+		return this;
+	}
+
+	public LoadHarness duration(long duration, TimeUnit unit) {
+		this.durationMs = unit.toMillis(duration);
+		return this;
+	}
+
+	public LoadHarness workMs(long workMs) {
+		this.workMs = workMs;
+		return this;
+	}
+
+	/**
+	 * Schedules the synthetic load, runs it for the configured duration and
+	 * removes it again.
+	 *
+	 * @return report of the run
+	 * @throws SchedulerException
+	 *           if the load could not be scheduled or removed
+	 * @throws InterruptedException
+	 *           if interrupted while the load is running
+	 */
+	public Report run() throws SchedulerException, InterruptedException {
+		// Each trigger repeats so that together they fire at the target rate
+		final long intervalMs = Math.max(1, Math.round(triggers * 1000.0 / rate));
+		log.info(String.format("starting load: %d jobs, %d triggers, %.1f/s for %dms (%dms work)",
+				jobs, triggers, rate, durationMs, workMs));
+
+		scheduler.getListenerManager().addJobListener(jobListener,
+				GroupMatcher.<JobKey> groupEquals(GROUP));
+		scheduler.getListenerManager().addTriggerListener(triggerListener,
+				GroupMatcher.<TriggerKey> groupEquals(GROUP));
+		try {
+			final List<JobDetail> jobDetails = new ArrayList<JobDetail>();
+			for (int i = 0; i < jobs; i++) {
+				// @formatter:off
+				final JobDetail job = newJob(LoadJob.class)
+						.withIdentity("load" + i, GROUP)
+						.usingJobData(WORK_MS_KEY, Long.toString(workMs))
+						.storeDurably()
+						.build();
+				// @formatter:on
+				scheduler.addJob(job, true);
+				jobDetails.add(job);
+			}
+
+			// Give the scheduler a moment to pick up the schedule, then stagger the
+			// triggers evenly over the interval
+			final long start = System.currentTimeMillis() + 1000;
+			for (int i = 0; i < triggers; i++) {
+				// @formatter:off
+				scheduler.scheduleJob(newTrigger()
+						.withIdentity("load" + i, GROUP)
+						.forJob(jobDetails.get(i % jobs))
+						.startAt(new Date(start + i * intervalMs / triggers))
+						.withSchedule(simpleSchedule()
+								.withIntervalInMilliseconds(intervalMs)
+								.repeatForever()
+								.withMisfireHandlingInstructionNextWithRemainingCount())
+						.build());
+				// @formatter:on
+			}
+
+			Thread.sleep(Math.max(0, start - System.currentTimeMillis()));
+			final long executionsBefore = executions.get();
+			Thread.sleep(durationMs);
+			final Report report = new Report(rate, durationMs, executions.get() - executionsBefore,
+					misfires.get(), lag);
+			log.info(report.toString());
+			return report;
+		} finally {
+			for (int i = 0; i < jobs; i++) {
+				scheduler.deleteJob(new JobKey("load" + i, GROUP));
+			}
+			scheduler.getListenerManager().removeJobListener(jobListener.getName());
+			scheduler.getListenerManager().removeTriggerListener(triggerListener.getName());
+		}
+	}
+}
@@ -0,0 +1,100 @@
+package it.sss.quartz;
+
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.Assert.assertThat;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+import sss.quartz.jobs.RetryBackoff;
+
+/**
+ * Test the delays given by each {@link RetryBackoff}: their bounds, the cap on
+ * them and that they don't overflow at high retry counts.
+ *
+ * @author jsteele
+ */
+public class RetryBackoffTest {
+	private static final long BASE = 1000;
+
+	private static final long CAP = 60000;
+
+	private static final int SAMPLES = 1000;
+
+	@Test
+	public void fixedWaitsTheBaseDelayUpToTheCap() {
+		assertThat(RetryBackoff.FIXED.delay(BASE, CAP, 5, 0), is(BASE));
+		assertThat(RetryBackoff.FIXED.delay(BASE, 500, 1, 0), is(500L));
+	}
+
+	@Test
+	public void exponentialDoublesUpToTheCap() {
+		assertThat(RetryBackoff.EXPONENTIAL.delay(BASE, CAP, 1, 0), is(BASE));
+		assertThat(RetryBackoff.EXPONENTIAL.delay(BASE, CAP, 2, 0), is(2 * BASE));
+		assertThat(RetryBackoff.EXPONENTIAL.delay(BASE, CAP, 6, 0), is(32 * BASE));
+		assertThat(RetryBackoff.EXPONENTIAL.delay(BASE, CAP, 7, 0), is(CAP));
+	}
+
+	@Test
+	public void fullJitterIsSpreadUpToTheExponentialDelay() {
+		final Set<Long> delays = new HashSet<Long>();
+		for (int i = 0; i < SAMPLES; i++) {
+			final long delay = RetryBackoff.FULL_JITTER.delay(BASE, CAP, 4, 0);
+			assertThat(delay, greaterThanOrEqualTo(0L));
+			assertThat(delay, lessThanOrEqualTo(8 * BASE));
+			delays.add(delay);
+		}
+		assertThat(delays.size(), greaterThan(SAMPLES / 2));
+		for (int i = 0; i < SAMPLES; i++) {
+			assertThat(RetryBackoff.FULL_JITTER.delay(BASE, CAP, 20, 0), lessThanOrEqualTo(CAP));
+		}
+	}
+
+	@Test
+	public void decorrelatedJitterIsSpreadUpToThreeTimesTheLastDelay() {
+		final Set<Long> delays = new HashSet<Long>();
+		for (int i = 0; i < SAMPLES; i++) {
+			// First retry: nothing before it, so from the base delay
+			final long first = RetryBackoff.DECORRELATED_JITTER.delay(BASE, CAP, 1, 0);
+			assertThat(first, greaterThanOrEqualTo(BASE));
+			assertThat(first, lessThanOrEqualTo(3 * BASE));
+
+			final long next = RetryBackoff.DECORRELATED_JITTER.delay(BASE, CAP, 2, 5 * BASE);
+			assertThat(next, greaterThanOrEqualTo(BASE));
+			assertThat(next, lessThanOrEqualTo(15 * BASE));
+			delays.add(next);
+
+			final long capped = RetryBackoff.DECORRELATED_JITTER.delay(BASE, CAP, 3, CAP);
+			assertThat(capped, greaterThanOrEqualTo(BASE));
+			assertThat(capped, lessThanOrEqualTo(CAP));
+		}
+		assertThat(delays.size(), greaterThan(SAMPLES / 2));
+	}
+
+	@Test
+	public void delaysDontOverflowAtHighRetryCounts() {
+		for (final RetryBackoff backoff : RetryBackoff.values()) {
+			for (final int retryCount : new int[] { 31, 64, 1000, Integer.MAX_VALUE }) {
+				final long delay = backoff.delay(BASE, CAP, retryCount, CAP);
+				assertThat(backoff + " #" + retryCount, delay, greaterThanOrEqualTo(0L));
+				assertThat(backoff + " #" + retryCount, delay, lessThanOrEqualTo(CAP));
+
+				final long uncapped = backoff.delay(BASE, Long.MAX_VALUE, retryCount, Long.MAX_VALUE / 2);
+				assertThat(backoff + " #" + retryCount + " uncapped", uncapped, greaterThanOrEqualTo(0L));
+			}
+		}
+		// Doubling stops rather than wrapping negative
+		assertThat(RetryBackoff.EXPONENTIAL.delay(BASE, Long.MAX_VALUE, Integer.MAX_VALUE, 0),
+				is(BASE << 30));
+		// Three times a huge last delay is capped rather than wrapping to the base
+		assertThat(RetryBackoff.DECORRELATED_JITTER.delay(BASE, Long.MAX_VALUE, 2, Long.MAX_VALUE),
+				greaterThan(BASE));
+		assertThat(RetryBackoff.DECORRELATED_JITTER.delay(Long.MAX_VALUE, Long.MAX_VALUE, 2, 0),
+				is(Long.MAX_VALUE));
+	}
+}
@@ -0,0 +1,179 @@
+package it.sss.quartz;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.quartz.JobBuilder.newJob;
+import static org.quartz.TriggerBuilder.newTrigger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.quartz.Job;
+import org.quartz.JobDataMap;
+import org.quartz.JobDetail;
+import org.quartz.JobExecutionContext;
+import org.quartz.JobExecutionException;
+import org.quartz.Scheduler;
+import org.quartz.SchedulerException;
+import org.quartz.impl.StdSchedulerFactory;
+import org.quartz.listeners.JobListenerSupport;
+
+import sss.quartz.jobs.CircuitBreaker;
+import sss.quartz.jobs.CircuitBreaker.State;
+import sss.quartz.jobs.RetryJobWrapper;
+
+/**
+ * Test how {@link RetryJobWrapper} retries, both through the job store and on
+ * the worker thread, as job listeners see it, and how it reports to its
+ * {@link CircuitBreaker}.
+ *
+ * @author jsteele
+ */
+public class RetryJobWrapperTest {
+	/** Fails, asking to be refired, until it has been told to stop. */
+	public static class FlakyJob implements Job {
+		static final AtomicInteger failures = new AtomicInteger();
+
+		@Override
+		public void execute(JobExecutionContext context) throws JobExecutionException {
+			if (failures.getAndDecrement() > 0) {
+				throw new JobExecutionException("flaky", true);
+			}
+		}
+	}
+
+	/** Fails with an error. */
+	public static class ErrorJob implements Job {
+		@Override
+		public void execute(JobExecutionContext context) throws JobExecutionException {
+			throw new AssertionError("failed");
+		}
+	}
+
+	/** A firing of the wrapper, as job listeners see it. */
+	private static final class Firing {
+		final int retryCount;
+
+		final JobExecutionException jobException;
+
+		Firing(int retryCount, JobExecutionException jobException) {
+			this.retryCount = retryCount;
+			this.jobException = jobException;
+		}
+	}
+
+	private Scheduler scheduler;
+
+	private final List<Firing> firings = new ArrayList<Firing>();
+
+	private CountDownLatch fired;
+
+	@Before
+	public void startScheduler() throws SchedulerException {
+		final Properties props = new Properties();
+		props.setProperty(StdSchedulerFactory.PROP_SCHED_INSTANCE_NAME, "retryJobWrapperTest");
+		props.setProperty(StdSchedulerFactory.PROP_SCHED_SKIP_UPDATE_CHECK, "true");
+		// One worker, so a retry can't finish before the attempt that scheduled it
+		props.setProperty("org.quartz.threadPool.threadCount", "1");
+		props.setProperty(StdSchedulerFactory.PROP_JOB_STORE_CLASS, "org.quartz.simpl.RAMJobStore");
+		scheduler = new StdSchedulerFactory(props).getScheduler();
+		scheduler.getListenerManager().addJobListener(new JobListenerSupport() {
+			@Override
+			public String getName() {
+				return RetryJobWrapperTest.class.getName();
+			}
+
+			@Override
+			public void jobWasExecuted(JobExecutionContext context, JobExecutionException jobException) {
+				final Object retryCount = context.getMergedJobDataMap().get(
+						RetryJobWrapper.RETRY_COUNT_KEY);
+				synchronized (firings) {
+					firings.add(new Firing(null == retryCount ? 0 : Integer.parseInt(retryCount
+							.toString()), jobException));
+				}
+				fired.countDown();
+			}
+		});
+		scheduler.start();
+	}
+
+	@After
+	public void stopScheduler() throws SchedulerException {
+		scheduler.shutdown(true);
+	}
+
+	@Test
+	public void retriesShortDelaysOnTheWorkerThread() throws Exception {
+		FlakyJob.failures.set(2);
+		fired = new CountDownLatch(1);
+		scheduler.scheduleJob(flakyJob("local", 3, 1), newTrigger().startNow().build());
+
+		// One firing, which ran both retries
+		assertTrue("job did not fire", fired.await(10, TimeUnit.SECONDS));
+		assertThat(firings.get(0).retryCount, is(2));
+		assertThat(firings.get(0).jobException, nullValue());
+	}
+
+	@Test
+	public void storesRetriesAndCompletesTheAttempt() throws Exception {
+		FlakyJob.failures.set(Integer.MAX_VALUE);
+		fired = new CountDownLatch(2);
+		scheduler.scheduleJob(flakyJob("stored", 1, 0), newTrigger().startNow().build());
+
+		assertTrue("retry did not fire", fired.await(10, TimeUnit.SECONDS));
+		// The attempt that scheduled the retry didn't fail; the retry, the last, did
+		assertThat(firings.get(0).retryCount, is(0));
+		assertThat(firings.get(0).jobException, nullValue());
+		assertThat(firings.get(1).retryCount, is(1));
+		assertThat(firings.get(1).jobException, notNullValue());
+	}
+
+	@Test
+	public void recordsErrorsWithTheCircuitBreaker() throws Exception {
+		final JobDataMap data = new JobDataMap();
+		data.put(CircuitBreaker.WINDOW_KEY, "1");
+		data.put(CircuitBreaker.OPEN_DELAY_KEY, "0");
+		final CircuitBreaker breaker = CircuitBreaker.forJob(ErrorJob.class.getName(), data);
+		breaker.recordFailure();
+		assertThat(breaker.getState(), is(State.OPEN));
+
+		fired = new CountDownLatch(1);
+		// @formatter:off
+		final JobDetail job = newJob(RetryJobWrapper.class)
+				.withIdentity("error", "retryTest")
+				.usingJobData(RetryJobWrapper.WRAPPED_JOB_KEY, ErrorJob.class.getName())
+				.usingJobData(RetryJobWrapper.MAX_RETRIES_KEY, "1")
+				.usingJobData(RetryJobWrapper.RETRY_DELAY_KEY, "0")
+				.usingJobData(RetryJobWrapper.CIRCUIT_BREAKER_KEY, "true")
+				.build();
+		// @formatter:on
+		scheduler.scheduleJob(job, newTrigger().startNow().build());
+
+		// The failed probe opens the circuit again, rather than leaving it half-open
+		assertTrue("job did not fire", fired.await(10, TimeUnit.SECONDS));
+		assertThat(breaker.getState(), is(State.OPEN));
+		assertThat(breaker.getHalfOpened(), is(1L));
+	}
+
+	private static JobDetail flakyJob(String name, int maxRetries, int localRetryThreshold) {
+		// @formatter:off
+		return newJob(RetryJobWrapper.class)
+				.withIdentity(name, "retryTest")
+				.usingJobData(RetryJobWrapper.WRAPPED_JOB_KEY, FlakyJob.class.getName())
+				.usingJobData(RetryJobWrapper.MAX_RETRIES_KEY, Integer.toString(maxRetries))
+				.usingJobData(RetryJobWrapper.RETRY_DELAY_KEY, "0")
+				.usingJobData(RetryJobWrapper.LOCAL_RETRY_THRESHOLD_KEY, Integer.toString(localRetryThreshold))
+				.build();
+		// @formatter:on
+	}
+}
@@ -0,0 +1,175 @@
+package it.sss.quartz;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.startsWith;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.quartz.CronTrigger;
+import org.quartz.Trigger;
+import org.quartz.TriggerKey;
+
+import sss.quartz.ScheduleItemListBuilder;
+import sss.quartz.ScheduleValidationException;
+
+/**
+ * Test that large schedules build the same in parallel as in sequence, and
+ * that every invalid item is reported.
+ *
+ * @author jsteele
+ */
+public class ScheduleBuildTest {
+	private static final int ITEMS = 12000;
+
+	private static final String[] CRONS = new String[] { "0 0/5 * * * ?", "0 15 10 ? * MON-FRI",
+			"0 0 12 1/5 * ?" };
+
+	private static final String[] MISFIRES = new String[] { "DO_NOTHING", "FIRE_AND_PROCEED",
+			"IGNORE_MISFIRES" };
+
+	private File file;
+
+	@Before
+	public void createFile() throws IOException {
+		file = File.createTempFile("build", ".schedule.json");
+	}
+
+	@After
+	public void deleteFile() {
+		file.delete();
+	}
+
+	@Test
+	public void buildsInScheduleOrder() throws IOException {
+		writeSchedule(-1);
+		final ScheduleItemListBuilder builder = ScheduleItemListBuilder.loadSchedule(file
+				.getAbsolutePath());
+		final List<String> sequential = describe(builder.build(false));
+		assertThat(sequential.size(), is(ITEMS));
+		assertThat(describe(builder.build(true)), is(sequential));
+		assertThat(sequential.get(ITEMS - 1), startsWith("group9.trigger" + (ITEMS - 1) + " "));
+	}
+
+	@Test
+	public void defaultsMissingMisfireInstruction() throws IOException {
+		writeSchedule(-1);
+		final List<Trigger> triggers = ScheduleItemListBuilder.loadSchedule(file.getAbsolutePath())
+				.build();
+		// Every fourth item has no instruction
+		assertThat(triggers.get(3).getMisfireInstruction(), is(Trigger.MISFIRE_INSTRUCTION_SMART_POLICY));
+	}
+
+	@Test
+	public void reportsEveryInvalidItem() throws IOException {
+		writeSchedule(1000);
+		final ScheduleItemListBuilder builder = ScheduleItemListBuilder.loadSchedule(file
+				.getAbsolutePath());
+		List<String> errors = null;
+		for (final boolean parallel : new boolean[] { false, true }) {
+			try {
+				builder.build(parallel);
+				fail("invalid schedule built");
+			} catch (ScheduleValidationException e) {
+				assertThat(e.getMessage(), startsWith("12 invalid items in schedule '"));
+				assertThat(e.getMessage(), containsString("; and 2 more"));
+				if (null == errors) {
+					errors = e.getErrors();
+				} else {
+					assertThat(e.getErrors(), is(errors));
+				}
+			}
+		}
+		assertThat(errors.size(), is(12));
+		assertThat(errors.get(0), startsWith("item 1 (group0.trigger0): "));
+		assertThat(errors.get(0), containsString("CronExpression"));
+		assertThat(errors.get(1), is("item 1001 (group0.trigger1000): no job"));
+		assertThat(errors.get(2), is("item 2001 (group0.trigger2000): no cron expression"));
+	}
+
+	@Test
+	public void keysUnnamedItemsByDefinition() throws IOException {
+		final String longName = String.join("", Collections.nCopies(50, "long"));
+		try (Writer out = new FileWriter(file)) {
+			// @formatter:off
+			out.write("[\n"
+					+ "  { \"job\": \"demoJob.hello\", \"cron\": \"0 0 12 * * ?\", \"priority\": 1 },\n"
+					+ "  { \"job\": \"demoJob.hello\", \"cron\": \"0 0 12 * * ?\", \"priority\": 2 },\n"
+					+ "  { \"job\": \"demoJob.hello\", \"cron\": \"0 0 12 * * ?\", \"priority\": 1 },\n"
+					+ "  { \"job\": \"demoJob." + longName + "\", \"cron\": \"0 0 12 * * ?\" }\n"
+					+ "]\n");
+			// @formatter:on
+		}
+		final List<Trigger> triggers = ScheduleItemListBuilder.loadSchedule(file.getAbsolutePath())
+				.build();
+		final List<TriggerKey> keys = new ArrayList<TriggerKey>();
+		for (final Trigger trigger : triggers) {
+			keys.add(trigger.getKey());
+		}
+
+		// The same every time, and only shared by identical items
+		assertThat(keys.get(0).getName(), startsWith("hello [0 0 12 * * ?] "));
+		assertThat(keys.get(0).getGroup(), is("demoJob"));
+		assertThat(keys.get(1), is(not(keys.get(0))));
+		assertThat(keys.get(2), is(keys.get(0)));
+		assertThat(ScheduleItemListBuilder.loadSchedule(file.getAbsolutePath()).build().get(1)
+				.getKey(), is(keys.get(1)));
+
+		// Cut short to fit the job store
+		assertThat(keys.get(3).getName().length(), is(200));
+		assertThat(keys.get(3).getName(), startsWith(longName.substring(0, 150)));
+	}
+
+	/**
+	 * Writes a schedule, with every <code>invalidEvery</code>th item invalid in
+	 * one of three ways if it is positive.
+	 */
+	private void writeSchedule(int invalidEvery) throws IOException {
+		try (Writer out = new FileWriter(file)) {
+			out.write("[\n");
+			for (int i = 0; i < ITEMS; i++) {
+				String job = "\"job\": \"demoJob.job" + i % 100 + "\", ";
+				String cron = "\"cron\": \"" + CRONS[i % CRONS.length] + "\", ";
+				if (invalidEvery > 0 && i % invalidEvery == 0) {
+					switch (i / invalidEvery % 3) {
+					case 0:
+						cron = "\"cron\": \"0 0 25 * * ?\", ";
+						break;
+					case 1:
+						job = "";
+						break;
+					default:
+						cron = "";
+						break;
+					}
+				}
+				final String onMisfire = i % 4 == 3 ? "" : "\"onMisfire\": \"" + MISFIRES[i % 3] + "\", ";
+				out.write("  { \"trigger\": \"group" + i % 10 + ".trigger" + i + "\", " + job + cron
+						+ onMisfire + "\"priority\": " + i % 10 + " }" + (i < ITEMS - 1 ? "," : "") + "\n");
+			}
+			out.write("]\n");
+		}
+	}
+
+	private static List<String> describe(List<Trigger> triggers) {
+		final List<String> described = new ArrayList<String>();
+		for (final Trigger trigger : triggers) {
+			described.add(trigger.getKey() + " " + trigger.getJobKey() + " "
+					+ ((CronTrigger) trigger).getCronExpression() + " " + trigger.getPriority() + " "
+					+ trigger.getMisfireInstruction());
+		}
+		return described;
+	}
+}
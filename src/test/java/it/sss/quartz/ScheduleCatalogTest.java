@@ -0,0 +1,140 @@
+package it.sss.quartz;
+
+import static org.hamcrest.Matchers.hasItem;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.junit.Assert.assertThat;
+import static org.quartz.TriggerBuilder.newTrigger;
+import it.sss.quartz.ScheduleCatalogTest.TestConfig;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.quartz.Scheduler;
+import org.quartz.SchedulerException;
+import org.quartz.Trigger;
+import org.quartz.TriggerKey;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import sss.jmx.JmxConfig;
+import sss.quartz.ScheduleCatalog;
+import sss.quartz.ScheduleSnapshotDao;
+import sss.quartz.SchedulerConfig;
+import sss.quartz.TriggerSummary;
+import sss.quartz.jobs.DemoJobsConfig;
+
+/**
+ * Test that scheduler events arriving while the {@link ScheduleCatalog} is
+ * resyncing aren't lost when the new catalog replaces the old.
+ *
+ * @author jsteele
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(classes = { SchedulerConfig.class, DemoJobsConfig.class, JmxConfig.class,
+		TestConfig.class })
+public class ScheduleCatalogTest {
+	@Configuration
+	public static class TestConfig {
+		@Bean
+		@Primary
+		public ChangingSnapshotDao changingSnapshotDao() {
+			return new ChangingSnapshotDao();
+		}
+	}
+
+	/**
+	 * Schedules and unschedules a trigger once it has read the job store, as if
+	 * the changes had been made while the catalog was resyncing.
+	 */
+	public static class ChangingSnapshotDao extends ScheduleSnapshotDao {
+		@Autowired
+		private Scheduler scheduler;
+
+		volatile Trigger toSchedule;
+
+		volatile TriggerKey toUnschedule;
+
+		@Override
+		public List<TriggerSummary> readTriggers(String group, int offset, int limit)
+				throws SchedulerException {
+			final List<TriggerSummary> read = super.readTriggers(group, offset, limit);
+			if (null != toSchedule) {
+				scheduler.scheduleJob(toSchedule);
+				scheduler.unscheduleJob(toUnschedule);
+				toSchedule = null;
+				toUnschedule = null;
+			}
+			return read;
+		}
+	}
+
+	@BeforeClass
+	public static void setSysProps() {
+		// By default Quartz calls back home to see if there are updates...
+		System.setProperty("org.terracotta.quartz.skipUpdateCheck", "true");
+	}
+
+	@Autowired
+	private Scheduler scheduler;
+
+	@Autowired
+	private ScheduleCatalog catalog;
+
+	@Autowired
+	private ChangingSnapshotDao snapshotDao;
+
+	@Test
+	@DirtiesContext
+	public void replaysEventsSeenDuringResync() throws SchedulerException {
+		scheduler.scheduleJob(trigger("stays"));
+		scheduler.scheduleJob(trigger("goes"));
+		assertThat(keys(), hasItem(new TriggerKey("goes", "catalog")));
+
+		snapshotDao.toSchedule = trigger("added");
+		snapshotDao.toUnschedule = new TriggerKey("goes", "catalog");
+		final long misses = catalog.getMisses();
+		catalog.invalidate();
+
+		final List<TriggerKey> keys = keys();
+		assertThat(catalog.getMisses(), is(misses + 1));
+		assertThat(keys, hasItem(new TriggerKey("stays", "catalog")));
+		assertThat(keys, hasItem(new TriggerKey("added", "catalog")));
+		assertThat(keys, not(hasItem(new TriggerKey("goes", "catalog"))));
+
+		// And the catalog agrees with the job store
+		catalog.invalidate();
+		assertThat(keys(), is(keys));
+	}
+
+	/**
+	 * @return keys of the cataloged triggers
+	 */
+	private List<TriggerKey> keys() throws SchedulerException {
+		final List<TriggerKey> keys = new ArrayList<TriggerKey>();
+		for (final TriggerSummary trigger : catalog.getTriggers(null, 0, 0)) {
+			keys.add(trigger.getTriggerKey());
+		}
+		return keys;
+	}
+
+	private static Trigger trigger(String name) {
+		// @formatter:off
+		return newTrigger()
+				.withIdentity(name, "catalog")
+				.forJob("hello", "demoJob")
+				.startAt(new Date(System.currentTimeMillis() + TimeUnit.HOURS.toMillis(1)))
+				.build();
+		// @formatter:on
+	}
+}
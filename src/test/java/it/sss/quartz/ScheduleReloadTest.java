@@ -0,0 +1,235 @@
+package it.sss.quartz;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.startsWith;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Date;
+import java.util.Set;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.quartz.CronScheduleBuilder;
+import org.quartz.CronTrigger;
+import org.quartz.JobKey;
+import org.quartz.Scheduler;
+import org.quartz.SchedulerException;
+import org.quartz.TriggerBuilder;
+import org.quartz.TriggerKey;
+import org.quartz.impl.matchers.GroupMatcher;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.config.AutowireCapableBeanFactory;
+import org.springframework.context.ApplicationContext;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import sss.jmx.JmxConfig;
+import sss.quartz.ScheduleReloader;
+import sss.quartz.ScheduleValidationException;
+import sss.quartz.SchedulerConfig;
+import sss.quartz.SchedulerMBean;
+import sss.quartz.jobs.DemoJobsConfig;
+
+/**
+ * Test that changes to a watched schedule file are merged into the running
+ * scheduler, and that invalid ones are rejected.
+ *
+ * @author jsteele
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(classes = { SchedulerConfig.class, DemoJobsConfig.class, JmxConfig.class })
+public class ScheduleReloadTest {
+	// @formatter:off
+	private static final String INITIAL = "[\n"
+			+ "  // Triggers are set far apart so nothing fires during the test\n"
+			+ "  { \"trigger\": \"reload.one\", \"job\": \"demoJob.hello\", \"cron\": \"0 0 12 * * ?\", \"onMisfire\": \"DO_NOTHING\" },\n"
+			+ "  { \"trigger\": \"reload.two\", \"job\": \"demoJob.jobstore\", \"cron\": \"0 0 13 * * ?\", \"onMisfire\": \"DO_NOTHING\" },\n"
+			+ "  { \"job\": \"demoJob.hello\", \"cron\": \"0 0 14 * * ?\", \"onMisfire\": \"DO_NOTHING\" }\n"
+			+ "]\n";
+
+	private static final String CHANGED = "[\n"
+			+ "  { \"trigger\": \"reload.one\", \"job\": \"demoJob.hello\", \"cron\": \"0 30 12 * * ?\", \"onMisfire\": \"DO_NOTHING\" },\n"
+			+ "  { \"job\": \"demoJob.hello\", \"cron\": \"0 0 14 * * ?\", \"onMisfire\": \"DO_NOTHING\" },\n"
+			+ "  { \"trigger\": \"reload.three\", \"job\": \"demoJob.jobstore\", \"cron\": \"0 0 15 * * ?\", \"onMisfire\": \"DO_NOTHING\","
+			+ " \"priority\": 7 }\n"
+			+ "]\n";
+
+	private static final String INVALID = "[\n"
+			+ "  { \"trigger\": \"reload.one\", \"job\": \"demoJob.missing\", \"cron\": \"0 0 12 * * ?\" },\n"
+			+ "  { \"trigger\": \"reload.two\", \"job\": \"demoJob.hello\", \"cron\": \"0 0 25 * * ?\", \"priority\": 99 },\n"
+			+ "  { \"trigger\": \"reload.one\", \"job\": \"demoJob.hello\", \"cron\": \"0 0 12 * * ?\" }\n"
+			+ "]\n";
+	// @formatter:on
+
+	private static File scheduleFile;
+
+	@BeforeClass
+	public static void setSysProps() throws IOException {
+		// By default Quartz calls back home to see if there are updates...
+		System.setProperty("org.terracotta.quartz.skipUpdateCheck", "true");
+
+		scheduleFile = File.createTempFile("reload", ".schedule.json");
+		write(INITIAL);
+		System.setProperty(SchedulerConfig.SCHEDULE_KEY, scheduleFile.getAbsolutePath());
+		System.setProperty(SchedulerConfig.WATCH_KEY, "true");
+		System.setProperty(SchedulerConfig.MIN_PRIORITY_KEY, "1");
+		System.setProperty(SchedulerConfig.MAX_PRIORITY_KEY, "10");
+	}
+
+	@AfterClass
+	public static void clearSysProps() {
+		System.clearProperty(SchedulerConfig.SCHEDULE_KEY);
+		System.clearProperty(SchedulerConfig.WATCH_KEY);
+		System.clearProperty(SchedulerConfig.MIN_PRIORITY_KEY);
+		System.clearProperty(SchedulerConfig.MAX_PRIORITY_KEY);
+		scheduleFile.delete();
+	}
+
+	@Autowired
+	private Scheduler scheduler;
+
+	@Autowired
+	private ScheduleReloader reloader;
+
+	@Autowired
+	private SchedulerMBean schedulerMBean;
+
+	@Autowired
+	private ApplicationContext context;
+
+	@Test
+	@DirtiesContext
+	public void mergesChangesToScheduleFile() throws Exception {
+		assertTrue("schedule file is not watched", reloader.isWatching());
+		assertThat(cron("reload.one"), is("0 0 12 * * ?"));
+		assertThat(scheduler.getTrigger(new TriggerKey("two", "reload")), notNullValue());
+		final TriggerKey unnamed = unnamed();
+		final Date unnamedStart = scheduler.getTrigger(unnamed).getStartTime();
+
+		write(CHANGED);
+		final long deadline = System.currentTimeMillis() + 20000;
+		while (reloader.getReloads() == 0 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(100);
+		}
+		assertThat(reloader.getLastResult(), containsString("1 added, 1 changed, 1 removed"));
+
+		assertThat(cron("reload.one"), is("0 30 12 * * ?"));
+		assertThat(scheduler.getTrigger(new TriggerKey("two", "reload")), nullValue());
+		assertThat(scheduler.getTrigger(new TriggerKey("three", "reload")).getPriority(), is(7));
+		// Unchanged triggers are left as they are
+		assertThat(scheduler.getTrigger(unnamed).getStartTime(), is(unnamedStart));
+		// Removing a job's triggers doesn't remove the job
+		assertThat(scheduler.checkExists(new JobKey("jobstore", "demoJob")), is(true));
+
+		assertThat(reloader.reload(), containsString("0 added, 0 changed, 0 removed, 0 restored"));
+
+		// An unchanged trigger that has gone from the job store is put back
+		scheduler.unscheduleJob(unnamed);
+		assertThat(reloader.reload(), containsString("0 added, 0 changed, 0 removed, 1 restored"));
+		assertThat(scheduler.checkExists(unnamed), is(true));
+	}
+
+	@Test
+	@DirtiesContext
+	public void ignoresScheduleFileThatDoesNotParse() throws Exception {
+		final byte[] schedule = Files.readAllBytes(scheduleFile.toPath());
+		final Set<TriggerKey> triggers = scheduler.getTriggerKeys(GroupMatcher.anyTriggerGroup());
+		try {
+			write(INITIAL.substring(0, INITIAL.length() / 2));
+			reloader.reload();
+			fail("reloaded a broken schedule");
+		} catch (IOException ioe) {
+			// Expected
+		} finally {
+			Files.write(scheduleFile.toPath(), schedule);
+		}
+		assertThat(scheduler.getTriggerKeys(GroupMatcher.anyTriggerGroup()), is(triggers));
+		assertThat(reloader.getLastResult(), startsWith("failed"));
+	}
+
+	@Test
+	@DirtiesContext
+	public void rejectsInvalidScheduleFile() throws Exception {
+		final byte[] schedule = Files.readAllBytes(scheduleFile.toPath());
+		final Set<TriggerKey> triggers = scheduler.getTriggerKeys(GroupMatcher.anyTriggerGroup());
+		try {
+			write(INVALID);
+			final String result = schedulerMBean.validateSchedule(scheduleFile.getAbsolutePath());
+			assertThat(result, containsString("4 problems in 3 items"));
+			assertThat(result, containsString("item 1 (reload.one): unknown job demoJob.missing"));
+			assertThat(result, containsString("item 2 (reload.two): CronExpression '0 0 25 * * ?' is invalid."));
+			assertThat(result, containsString("item 2 (reload.two): priority 99 is outside 1 to 10"));
+			assertThat(result, containsString("item 3 (reload.one): duplicate trigger reload.one, first at item 1"));
+
+			reloader.reload();
+			fail("reloaded an invalid schedule");
+		} catch (ScheduleValidationException sve) {
+			assertThat(sve.getErrors().size(), is(4));
+		} finally {
+			Files.write(scheduleFile.toPath(), schedule);
+		}
+		assertThat(scheduler.getTriggerKeys(GroupMatcher.anyTriggerGroup()), is(triggers));
+		assertThat(schedulerMBean.validateSchedule(scheduleFile.getAbsolutePath()),
+				containsString("is valid: 3 items"));
+	}
+
+	@Test
+	@DirtiesContext
+	public void appliesChangesMadeWhileDown() throws Exception {
+		// As if the file had been edited while the application was down
+		final TriggerKey unnamed = unnamed();
+		final String cron = cron("reload.one");
+		// @formatter:off
+		scheduler.rescheduleJob(new TriggerKey("one", "reload"), TriggerBuilder.newTrigger()
+				.withIdentity("one", "reload")
+				.forJob("hello", "demoJob")
+				.withSchedule(CronScheduleBuilder.cronSchedule("0 0 11 * * ?"))
+				.build());
+		// @formatter:on
+		scheduler.unscheduleJob(unnamed);
+
+		final AutowireCapableBeanFactory beanFactory = context.getAutowireCapableBeanFactory();
+		final ScheduleReloader restarted = beanFactory.createBean(ScheduleReloader.class);
+		try {
+			assertThat(restarted.getLastResult(), containsString("0 added, 1 changed, 0 removed, 1 restored"));
+			assertThat(cron("reload.one"), is(cron));
+			assertThat(scheduler.checkExists(unnamed), is(true));
+			assertThat(restarted.reload(), containsString("0 added, 0 changed, 0 removed, 0 restored"));
+		} finally {
+			beanFactory.destroyBean(restarted);
+		}
+	}
+
+	private String cron(String trigger) throws SchedulerException {
+		final String[] key = trigger.split("\\.");
+		return ((CronTrigger) scheduler.getTrigger(new TriggerKey(key[1], key[0]))).getCronExpression();
+	}
+
+	/**
+	 * @return key derived for the unnamed item, which is in every schedule
+	 */
+	private TriggerKey unnamed() throws SchedulerException {
+		for (final TriggerKey key : scheduler.getTriggerKeys(GroupMatcher.triggerGroupEquals("demoJob"))) {
+			if (key.getName().startsWith("hello [0 0 14 * * ?] ")) {
+				return key;
+			}
+		}
+		throw new AssertionError("no trigger for the unnamed item");
+	}
+
+	private static void write(String schedule) throws IOException {
+		Files.write(scheduleFile.toPath(), schedule.getBytes(StandardCharsets.UTF_8));
+	}
+}
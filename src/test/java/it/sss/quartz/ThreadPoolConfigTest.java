@@ -0,0 +1,98 @@
+package it.sss.quartz;
+
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.lang.reflect.Field;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.quartz.Scheduler;
+import org.quartz.core.QuartzScheduler;
+import org.quartz.core.QuartzSchedulerResources;
+import org.quartz.impl.StdScheduler;
+import org.quartz.spi.ThreadPool;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.core.env.MapPropertySource;
+
+import sss.quartz.SchedulerConfig;
+import sss.quartz.jobs.DemoJobsConfig;
+import sss.quartz.pool.LoadAwareThreadPool;
+import sss.quartz.pool.VirtualThreadPool;
+
+/**
+ * Test that the thread pool chosen through {@link SchedulerConfig} is given
+ * the settings it takes.
+ *
+ * @author jsteele
+ */
+public class ThreadPoolConfigTest {
+	@BeforeClass
+	public static void setSysProps() {
+		// By default Quartz calls back home to see if there are updates...
+		System.setProperty("org.terracotta.quartz.skipUpdateCheck", "true");
+	}
+
+	@Test
+	public void givesLoadBackoffToVirtualThreadPool() throws Exception {
+		final Map<String, Object> props = new HashMap<String, Object>();
+		props.put("sss.quartz.virtualThreads", "true");
+		props.put("org.quartz.threadPool.loadBackoff", "100");
+		final AnnotationConfigApplicationContext ctx = start(props);
+		try {
+			final ThreadPool pool = threadPool(ctx.getBean("scheduler", Scheduler.class));
+			assertThat(pool, instanceOf(VirtualThreadPool.class));
+			assertThat(((VirtualThreadPool) pool).getLoadBackoff(), is(100L));
+		} finally {
+			ctx.close();
+		}
+	}
+
+	@Test
+	public void givesLoadBackoffToLoadAwareThreadPool() throws Exception {
+		final Map<String, Object> props = new HashMap<String, Object>();
+		props.put("org.quartz.threadPool.class", LoadAwareThreadPool.class.getName());
+		props.put("org.quartz.threadPool.loadBackoff", "100");
+		final AnnotationConfigApplicationContext ctx = start(props);
+		try {
+			final ThreadPool pool = threadPool(ctx.getBean("scheduler", Scheduler.class));
+			assertThat(((LoadAwareThreadPool) pool).getLoadBackoff(), is(100L));
+		} finally {
+			ctx.close();
+		}
+	}
+
+	@Test
+	public void dropsLoadBackoffForPoolsWithoutOne() throws Exception {
+		final Map<String, Object> props = new HashMap<String, Object>();
+		props.put("org.quartz.threadPool.loadBackoff", "100");
+		// Quartz would fail to start if it were passed on to the SimpleThreadPool
+		start(props).close();
+	}
+
+	private static AnnotationConfigApplicationContext start(Map<String, Object> props) {
+		props.put("org.quartz.scheduler.instanceName", "threadPoolConfigTest");
+		props.put("org.quartz.scheduler.jmx.export", "false");
+		final AnnotationConfigApplicationContext ctx = new AnnotationConfigApplicationContext();
+		ctx.getEnvironment().getPropertySources()
+				.addFirst(new MapPropertySource("threadPoolConfigTest", props));
+		ctx.register(SchedulerConfig.class, DemoJobsConfig.class);
+		ctx.refresh();
+		return ctx;
+	}
+
+	/**
+	 * @return the thread pool Quartz made from the properties, which it keeps to
+	 *         itself
+	 */
+	private static ThreadPool threadPool(Scheduler scheduler) throws ReflectiveOperationException {
+		final Field sched = StdScheduler.class.getDeclaredField("sched");
+		sched.setAccessible(true);
+		final Field resources = QuartzScheduler.class.getDeclaredField("resources");
+		resources.setAccessible(true);
+		return ((QuartzSchedulerResources) resources.get(sched.get(scheduler))).getThreadPool();
+	}
+}